@@ -35,10 +35,11 @@
 
 package pitt.search.semanticvectors;
 
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.Bits;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.Vector;
@@ -46,7 +47,14 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
 import pitt.search.semanticvectors.vectors.VectorType;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -81,8 +89,17 @@ public class DocVectors implements VectorStore {
   }
 
   private static final Logger logger = Logger.getLogger(DocVectors.class.getCanonicalName());
+
+  /** Number of terms read from the term vector store at a time when training in parallel. */
+  private static final int TERMS_PER_BATCH = 1000;
+
   private FlagConfig flagConfig;
   private VectorStoreRAM docVectors;
+  /**
+   * The same vectors as {@link #docVectors}, indexed by Lucene document number, so that they can
+   * be found for each posting during training without looking up external document IDs.
+   */
+  private Vector[] docVectorsByLuceneId;
   private VectorStore termVectors;
   private LuceneUtils luceneUtils;
 
@@ -102,6 +119,7 @@ public class DocVectors implements VectorStore {
     this.termVectors = termVectors;
     this.docVectors = new VectorStoreRAM(flagConfig);
 
+    luceneUtils.precomputeGlobalTermWeights();
     initializeZeroDocVectors();
     trainDocVectors();
   }
@@ -111,51 +129,19 @@ public class DocVectors implements VectorStore {
    */
   private void trainDocVectors() throws IOException {
     VerbatimLogger.info("Building document vectors ... ");
-    Enumeration<ObjectVector> termEnum = termVectors.getAllVectors();
     try {
-      int tc = 0;
-      while (termEnum.hasMoreElements()) {
-        // Output progress counter.
-        if ((tc % 10000 == 0) || (tc < 10000 && tc % 1000 == 0)) {
-          VerbatimLogger.info("Processed " + tc + " terms ... ");
-        }
-        tc++;
-
-        ObjectVector termVectorObject = termEnum.nextElement();
-        Vector termVector = termVectorObject.getVector();
-        String word = (String) termVectorObject.getObject();
-
-        // Go through checking terms for each fieldName.
-        for (String fieldName : flagConfig.contentsfields()) {
-          Term term = new Term(fieldName, word);
-          float globalweight = luceneUtils.getGlobalTermWeight(term);
-          float fieldweight = 1;
-
-          // Get any docs for this term.
-          DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
-
-          // This may occur frequently if one term vector store is derived from multiple fields
-          if (docsEnum == null)  { continue; }
-
-          while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
-            String externalDocID = luceneUtils.getExternalDocId(docsEnum.docID());
-            // Add vector from this term, taking freq into account.
-            Vector docVector = this.docVectors.getVector(externalDocID);
-            float localweight = docsEnum.freq();
-
-            if (flagConfig.fieldweight()) {
-              //field weight: 1/sqrt(number of terms in field)
-              TermsEnum terms = luceneUtils.getTermVector(docsEnum.docID(), fieldName).iterator(null);
-              int numTerms = 0;
-              while (terms.next() != null) {
-                numTerms++;
-              }
-              fieldweight = (float) (1/Math.sqrt(numTerms));
-            }
-
-            docVector.superpose(
-                termVector, localweight * globalweight * fieldweight, null);
+      if (flagConfig.trainingthreads() > 1) {
+        trainDocVectorsInParallel(flagConfig.trainingthreads());
+      } else {
+        Enumeration<ObjectVector> termEnum = termVectors.getAllVectors();
+        int tc = 0;
+        while (termEnum.hasMoreElements()) {
+          // Output progress counter.
+          if ((tc % 10000 == 0) || (tc < 10000 && tc % 1000 == 0)) {
+            VerbatimLogger.info("Processed " + tc + " terms ... ");
           }
+          tc++;
+          addTermToDocVectors(termEnum.nextElement(), 0, 1);
         }
       }
     }
@@ -170,15 +156,142 @@ public class DocVectors implements VectorStore {
     	docEnum.nextElement().getVector().normalize();
   }
 
+  /**
+   * Adds the vector for a term to the vectors for each of the documents containing it.
+   * Only documents whose Lucene ID is equal to {@code docStripe} modulo {@code numDocStripes}
+   * are updated, so that documents can be divided between threads.
+   */
+  private void addTermToDocVectors(ObjectVector termVectorObject, int docStripe, int numDocStripes)
+      throws IOException {
+    Vector termVector = termVectorObject.getVector();
+    String word = (String) termVectorObject.getObject();
+
+    // Go through checking terms for each fieldName.
+    for (String fieldName : flagConfig.contentsfields()) {
+      Term term = new Term(fieldName, word);
+      float globalweight = luceneUtils.getGlobalTermWeight(term);
+      float fieldweight = 1;
+
+      // Get any docs for this term.
+      DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
+
+      // This may occur frequently if one term vector store is derived from multiple fields
+      if (docsEnum == null)  { continue; }
+
+      while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
+        if (docsEnum.docID() % numDocStripes != docStripe) { continue; }
+        // Add vector from this term, taking freq into account.
+        Vector docVector = this.docVectorsByLuceneId[docsEnum.docID()];
+        float localweight = docsEnum.freq();
+
+        if (flagConfig.fieldweight()) {
+          //field weight: 1/sqrt(number of terms in field)
+          TermsEnum terms = luceneUtils.getTermVector(docsEnum.docID(), fieldName).iterator(null);
+          int numTerms = 0;
+          while (terms.next() != null) {
+            numTerms++;
+          }
+          fieldweight = (float) (1/Math.sqrt(numTerms));
+        }
+
+        // Several Lucene documents may share an external ID, so the vector is locked even
+        // when documents are divided between threads. The lock is uncontended otherwise.
+        synchronized (docVector) {
+          docVector.superpose(
+              termVector, localweight * globalweight * fieldweight, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates doc vectors using several threads. Terms are read from the term vector store on
+   * the calling thread in batches of {@link #TERMS_PER_BATCH}, and each batch is divided between
+   * the threads.
+   *
+   * <p>By default, each thread processes a share of the terms in the batch, locking each
+   * document vector while adding to it. The order in which the terms are added to each document
+   * therefore varies from run to run, and results may differ slightly by floating point rounding.
+   * If {@link FlagConfig#deterministictraining()} is set, each thread instead processes all the
+   * terms in the batch for a share of the documents, so that terms are added to each document
+   * in the same order as when training on a single thread. This gives identical results, at the
+   * cost of each thread reading the postings for every term.
+   */
+  private void trainDocVectorsInParallel(int numThreads) throws IOException {
+    VerbatimLogger.info("Using " + numThreads + " threads ... ");
+    final boolean deterministic = flagConfig.deterministictraining();
+    Enumeration<ObjectVector> termEnum = termVectors.getAllVectors();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      int tc = 0;
+      while (termEnum.hasMoreElements()) {
+        final List<ObjectVector> batch = new ArrayList<ObjectVector>(TERMS_PER_BATCH);
+        while (batch.size() < TERMS_PER_BATCH && termEnum.hasMoreElements()) {
+          batch.add(termEnum.nextElement());
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numThreads);
+        for (int i = 0; i < numThreads; ++i) {
+          final int share = i;
+          final int numShares = numThreads;
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              if (deterministic) {
+                for (ObjectVector termVectorObject : batch) {
+                  addTermToDocVectors(termVectorObject, share, numShares);
+                }
+              } else {
+                for (int t = share; t < batch.size(); t += numShares) {
+                  addTermToDocVectors(batch.get(t), 0, 1);
+                }
+              }
+              return null;
+            }
+          });
+        }
+        for (Future<Void> result : executor.invokeAll(tasks)) {
+          result.get();
+        }
+
+        // Output progress counter.
+        tc += batch.size();
+        if ((tc % 10000 == 0) || (tc < 10000 && tc % 1000 == 0)) {
+          VerbatimLogger.info("Processed " + tc + " terms ... ");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building document vectors", e);
+    } catch (ExecutionException e) {
+      LuceneUtils.rethrowCause(e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   /**
    * Allocate doc vectors to zero vectors.
    */
   private void initializeZeroDocVectors() throws IOException {
     VerbatimLogger.info("Initializing new document vector store ... \n");
-    for (int i = 0; i < luceneUtils.getNumDocs(); ++i) {
-      String externalDocId = luceneUtils.getExternalDocId(i);
-      Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
-      this.docVectors.putVector(externalDocId, docVector);
+    luceneUtils.cacheExternalDocIds();
+    // Documents with the same external ID share a vector. Deleted documents have none,
+    // and never appear in postings.
+    docVectorsByLuceneId = new Vector[luceneUtils.getMaxDoc()];
+    for (LeafReaderContext leaf : luceneUtils.getLeaves()) {
+      Bits liveDocs = leaf.reader().getLiveDocs();
+      for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+        if (liveDocs != null && !liveDocs.get(doc)) continue;
+        int docID = leaf.docBase + doc;
+        String externalDocId = luceneUtils.getExternalDocId(docID);
+        Vector docVector = this.docVectors.getVector(externalDocId);
+        if (docVector == null) {
+          docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+          this.docVectors.putVector(externalDocId, docVector);
+        }
+        docVectorsByLuceneId[docID] = docVector;
+      }
     }
   }
 
@@ -188,16 +301,11 @@ public class DocVectors implements VectorStore {
   public VectorStore makeWriteableVectorStore() {
     VectorStoreRAM outputVectors = new VectorStoreRAM(flagConfig);
 
-    for (int i = 0; i < this.luceneUtils.getNumDocs(); ++i) {
-      try {
-        String externalDocId = luceneUtils.getExternalDocId(i);
-        Vector docVector = this.docVectors.getVector(externalDocId);
-        outputVectors.putVector(externalDocId, docVector);
-      } catch (CorruptIndexException e) {
-        e.printStackTrace();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+    // The doc vectors are already keyed by external ID, with one vector for each live document.
+    Enumeration<ObjectVector> docEnum = this.docVectors.getAllVectors();
+    while (docEnum.hasMoreElements()) {
+      ObjectVector docVector = docEnum.nextElement();
+      outputVectors.putVector(docVector.getObject(), docVector.getVector());
     }
     return outputVectors;
   }
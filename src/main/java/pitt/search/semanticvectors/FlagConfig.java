@@ -42,14 +42,18 @@ import java.util.Arrays;
 import java.util.logging.Logger;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.BinaryVector;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.RealVector.RealBindMethod;
 /** Imports must include the declarations of all enums used as flag values */
+import pitt.search.semanticvectors.vectors.BinaryVector.VotingRecordMethod;
+import pitt.search.semanticvectors.vectors.VectorQuantization;
 import pitt.search.semanticvectors.vectors.VectorType;
 import pitt.search.semanticvectors.CompoundVectorBuilder.VectorLookupSyntax;
 import pitt.search.semanticvectors.DocVectors.DocIndexingStrategy;
 import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
 import pitt.search.semanticvectors.LuceneUtils.TermWeight;
+import pitt.search.semanticvectors.NearestNeighborIndex.NearestNeighborIndexType;
 import pitt.search.semanticvectors.Search.SearchType;
 import pitt.search.semanticvectors.TermTermVectorsFromLucene.PositionalMethod;
 import pitt.search.semanticvectors.VectorStoreUtils.VectorStoreFormat;
@@ -102,6 +106,13 @@ public class FlagConfig {
   /** The binding method used for real vectors, see {@link RealVector#BIND_METHOD}. */
   public RealBindMethod realbindmethod() { return realbindmethod; }
   
+  private VotingRecordMethod binaryvotingrecord = VotingRecordMethod.BITSLICED;
+  /**
+   * How votes are accumulated when superposing binary vectors, see
+   * {@link BinaryVector#VOTING_RECORD_METHOD}. Default bitsliced.
+   */
+  public VotingRecordMethod binaryvotingrecord() { return binaryvotingrecord; }
+
   private ElementalGenerationMethod elementalmethod = ElementalGenerationMethod.CONTENTHASH;
   /** The method used for generating elemental vectors. */
   public ElementalGenerationMethod elementalmethod() { return elementalmethod; }
@@ -147,6 +158,70 @@ public class FlagConfig {
   private int numsearchresults = 20;
   /** Number of search results to return, default value 20. */
   public int numsearchresults() { return numsearchresults; }
+
+  private int searchthreads = 1;
+  /**
+   * Number of threads used to score vectors in {@link VectorSearcher#getNearestNeighbors}, default value 1.
+   * If greater than 1, {@link VectorSearcher#getScore} must be safe to call from several threads at once.
+   */
+  public int searchthreads() { return searchthreads; }
+
+  private int trainingthreads = 1;
+  /**
+   * Number of threads used to process documents when building models from a Lucene index, default value 1.
+   * Results may differ slightly between runs when greater than 1, since contributions are added in a different order.
+   */
+  public int trainingthreads() { return trainingthreads; }
+
+  private boolean deterministictraining = false;
+  /**
+   * If true, training with more than one thread (see {@link #trainingthreads()}) gives the same results
+   * as training on a single thread, at some cost in speed, default value false. Used by {@link DocVectors}.
+   */
+  public boolean deterministictraining() { return deterministictraining; }
+
+  private NearestNeighborIndexType nnindex = NearestNeighborIndexType.NONE;
+  /**
+   * Index used to find nearest neighbors in {@link Search} without comparing the query with every vector,
+   * default value {@link NearestNeighborIndexType#NONE}. The index must first be built, see {@link NearestNeighborIndex}.
+   */
+  public NearestNeighborIndexType nnindex() { return nnindex; }
+
+  private int hnswm = 16;
+  /** Number of neighbors linked to each vector in each layer of an {@link HnswIndex}, default value 16. */
+  public int hnswm() { return hnswm; }
+
+  private int hnswefconstruction = 200;
+  /** Number of candidate neighbors considered when adding each vector to an {@link HnswIndex}, default value 200. */
+  public int hnswefconstruction() { return hnswefconstruction; }
+
+  private int hnswef = 100;
+  /**
+   * Number of candidates kept when searching an {@link HnswIndex}, default value 100.
+   * Higher values give better recall but slower searches.
+   */
+  public int hnswef() { return hnswef; }
+
+  private int mihsubstringbits = 32;
+  /**
+   * Number of bits in each substring of a {@link MultiIndexHashingIndex}, default value 32.
+   * Must be 8, 16 or 32. Shorter substrings suit stores whose nearest neighbors are further apart.
+   */
+  public int mihsubstringbits() { return mihsubstringbits; }
+
+  private int pqsubvectors = 8;
+  /**
+   * Number of sub-vectors each vector is split into by a {@link ProductQuantizedIndex},
+   * default value 8. Must divide the dimension. Each sub-vector is stored in one byte.
+   */
+  public int pqsubvectors() { return pqsubvectors; }
+
+  private int pqrerank = 0;
+  /**
+   * Number of candidates found using a {@link ProductQuantizedIndex} that are rescored
+   * using the full vectors, default value 0, in which case results have approximate scores.
+   */
+  public int pqrerank() { return pqrerank; }
   
   private int treceval = -1;
   /** Output search results in trec_eval format, with query number = treceval**/
@@ -191,6 +266,13 @@ public class FlagConfig {
   /** Term weighting used when constructing document vectors, default value {@link TermWeight#NONE} */
   public LuceneUtils.TermWeight termweight() { return termweight; }
 
+  private String termweightsfile = "";
+  /**
+   * If set, global term weights computed from the Lucene index are written to this file, and read back
+   * instead of being recomputed while the index and {@link #termweight()} are unchanged, default value "".
+   */
+  public String termweightsfile() { return termweightsfile; }
+
   private boolean porterstemmer = false;
   /** Tells {@link pitt.search.lucene.IndexFilePositions} to stem terms using Porter Stemmer, default value false. */
   public boolean porterstemmer() { return porterstemmer; }
@@ -208,10 +290,25 @@ public class FlagConfig {
    *  Expands the size of the space to n-squared. */
   public boolean expandsearchspace() { return expandsearchspace; }
 
+  private boolean packedvectorstores = false;
+  /**
+   * If true, {@link SearchBatch} reads the query and search vector stores into a
+   * {@link VectorStorePackedRAM}, which takes much less memory for real, binary and complex vectors.
+   * Default false.
+   */
+  public boolean packedvectorstores() { return packedvectorstores; }
+
   private VectorStoreFormat indexfileformat = VectorStoreFormat.LUCENE;
   /** Format used for serializing / deserializing vectors from disk, default lucene. */
   public VectorStoreFormat indexfileformat() { return indexfileformat; }
 
+  private VectorQuantization vectorquantization = VectorQuantization.NONE;
+  /**
+   * Quantization of real and complex coordinates in vector stores written in Lucene format,
+   * default none. Readers detect quantization from the header of each store.
+   */
+  public VectorQuantization vectorquantization() { return vectorquantization; }
+
   private String termvectorsfile = "termvectors";
   /** File to which termvectors are written during indexing. */
   public String termvectorsfile() { return termvectorsfile; }
@@ -497,6 +594,7 @@ public class FlagConfig {
    * number.</li>
    * <li>Setting {@link #searchvectorfile()} to {@link #queryvectorfile()} unless explicitly set otherwise.</li>
    * <li>Setting {@link RealVector#setBindType} if directed (this is something of a hack).</li>
+   * <li>Setting {@link BinaryVector#setVotingRecordMethod} if batched (the same sort of hack).</li>
    * </ul>
    */
   private void makeFlagsCompatible() {
@@ -524,6 +622,11 @@ public class FlagConfig {
     if (vectortype == VectorType.REAL && realbindmethod == RealVector.RealBindMethod.PERMUTATION) {
       RealVector.setBindType(RealVector.RealBindMethod.PERMUTATION);
     }
+    // As with the bind type, the voting record method is only ever switched away from the default,
+    // since FlagConfigs are also built from vector store headers, which don't include this flag.
+    if (vectortype == VectorType.BINARY && binaryvotingrecord == VotingRecordMethod.BATCHED) {
+      BinaryVector.setVotingRecordMethod(VotingRecordMethod.BATCHED);
+    }
   }
   
   //utility method to allow control of this option without
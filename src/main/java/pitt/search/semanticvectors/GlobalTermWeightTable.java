@@ -0,0 +1,242 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+
+/**
+ * Global weights and document frequencies for the terms in a Lucene index, computed once by
+ * {@link LuceneUtils#precomputeGlobalTermWeights} so that they can be looked up during training
+ * without recomputing or caching them term by term.
+ *
+ * <p>
+ * Each term is given a dense ordinal, and weights and document frequencies are stored in arrays
+ * indexed by ordinal. Callers that look up the same terms many times can find each term's ordinal
+ * once using {@link #getOrdinal}, after which each lookup is an array read.
+ *
+ * <p>
+ * A table can be written to a file and read back, so that it can be reused across training runs and
+ * search sessions. The file starts with a header giving the version of the file format and describing
+ * the index and the weighting it was computed for, see {@link LuceneUtils}, and a table is only read
+ * back if its header matches.
+ * Terms are written in runs that share a field, and the text of each term is written as the length
+ * of the prefix it shares with the previous term followed by the rest of its text, which keeps the
+ * file small since terms are added in the order of the terms dictionary.
+ *
+ * <p>
+ * The table for an index can be built ahead of training by running this class, e.g.,
+ * <code>java pitt.search.semanticvectors.GlobalTermWeightTable -luceneindexpath $INDEX
+ * -termweight logentropy -termweightsfile termweights.bin -trainingthreads 4</code>,
+ * and is then read by BuildIndex, BuildPositionalIndex and the other builders given the same
+ * <code>-termweightsfile</code>.
+ */
+public class GlobalTermWeightTable {
+
+  /**
+   * Version of the file format, which must be incremented whenever the format changes so that
+   * files in an older format are rebuilt rather than misread. Version 1 wrote the field and text
+   * of every term in full.
+   */
+  static final int FORMAT_VERSION = 2;
+
+  private final HashMap<Term, Integer> ordinals = new HashMap<Term, Integer>();
+  private Term[] terms = new Term[1024];
+  private float[] weights = new float[1024];
+  private int[] docFreqs = new int[1024];
+  private int size = 0;
+
+  /** Adds a term, which is given the next ordinal. Terms must not be added more than once. */
+  void add(Term term, int docFreq, float weight) {
+    if (size == terms.length) {
+      terms = Arrays.copyOf(terms, 2 * size);
+      weights = Arrays.copyOf(weights, 2 * size);
+      docFreqs = Arrays.copyOf(docFreqs, 2 * size);
+    }
+    ordinals.put(term, size);
+    terms[size] = term;
+    weights[size] = weight;
+    docFreqs[size] = docFreq;
+    ++size;
+  }
+
+  /** Returns the number of terms in the table. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the ordinal of the term, or -1 if it is not in the table. */
+  public int getOrdinal(Term term) {
+    Integer ordinal = ordinals.get(term);
+    return ordinal == null ? -1 : ordinal;
+  }
+
+  /** Returns the term with the given ordinal. */
+  public Term getTerm(int ordinal) {
+    return terms[ordinal];
+  }
+
+  /** Returns the global weight of the term with the given ordinal. */
+  public float getWeight(int ordinal) {
+    return weights[ordinal];
+  }
+
+  /** Returns the number of documents containing the term with the given ordinal. */
+  public int getDocFreq(int ordinal) {
+    return docFreqs[ordinal];
+  }
+
+  /**
+   * Writes the table to a file.
+   *
+   * @param header describes the index and weighting, and must be given again to read the table back
+   */
+  public void writeToFile(String fileName, String header) throws IOException {
+    File file = new File(fileName);
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput output = directory.createOutput(file.getName(), IOContext.DEFAULT);
+    output.writeString(getVersionedHeader(header));
+    output.writeVInt(size);
+    int runStart = 0;
+    while (runStart < size) {
+      String field = terms[runStart].field();
+      int runEnd = runStart + 1;
+      while (runEnd < size && terms[runEnd].field().equals(field)) ++runEnd;
+      output.writeString(field);
+      output.writeVInt(runEnd - runStart);
+      String previousText = "";
+      for (int i = runStart; i < runEnd; ++i) {
+        String text = terms[i].text();
+        int prefixLength = sharedPrefixLength(previousText, text);
+        output.writeVInt(prefixLength);
+        output.writeString(text.substring(prefixLength));
+        output.writeVInt(docFreqs[i]);
+        output.writeInt(Float.floatToIntBits(weights[i]));
+        previousText = text;
+      }
+      runStart = runEnd;
+    }
+    output.close();
+    directory.close();
+  }
+
+  /**
+   * Reads a table written by {@link #writeToFile}.
+   *
+   * @param header the header the table must have been written with
+   * @return the table, or null if the file doesn't exist or was written with a different header
+   *     or in a different version of the file format
+   */
+  public static GlobalTermWeightTable readFromFile(String fileName, String header) throws IOException {
+    File file = new File(fileName);
+    if (!file.isFile()) return null;
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput input = directory.openInput(file.getName(), IOContext.READONCE);
+    try {
+      if (!input.readString().equals(getVersionedHeader(header))) return null;
+      GlobalTermWeightTable table = new GlobalTermWeightTable();
+      int numTerms = input.readVInt();
+      while (table.size() < numTerms) {
+        String field = input.readString();
+        int runLength = input.readVInt();
+        String previousText = "";
+        for (int i = 0; i < runLength; ++i) {
+          int prefixLength = input.readVInt();
+          String text = previousText.substring(0, prefixLength) + input.readString();
+          int docFreq = input.readVInt();
+          table.add(new Term(field, text), docFreq, Float.intBitsToFloat(input.readInt()));
+          previousText = text;
+        }
+      }
+      return table;
+    } finally {
+      input.close();
+      directory.close();
+    }
+  }
+
+  /** Returns the header written to the file, which starts with the format version. */
+  private static String getVersionedHeader(String header) {
+    return "-termweightsformat " + FORMAT_VERSION + " " + header;
+  }
+
+  /** Returns the length of the longest common prefix of the two strings. */
+  private static int sharedPrefixLength(String previous, String current) {
+    int maxLength = Math.min(previous.length(), current.length());
+    int i = 0;
+    while (i < maxLength && previous.charAt(i) == current.charAt(i)) ++i;
+    // Don't split a surrogate pair between the prefix and the suffix.
+    if (i > 0 && Character.isHighSurrogate(current.charAt(i - 1))) --i;
+    return i;
+  }
+
+  /**
+   * Computes the global term weights for the index given by <code>-luceneindexpath</code> and
+   * writes them to the file given by <code>-termweightsfile</code>.
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    if (flagConfig.luceneindexpath().isEmpty() || flagConfig.termweightsfile().isEmpty()) {
+      throw new IllegalArgumentException(
+          "GlobalTermWeightTable requires -luceneindexpath and -termweightsfile.");
+    }
+    if (flagConfig.termweight() != LuceneUtils.TermWeight.IDF
+        && flagConfig.termweight() != LuceneUtils.TermWeight.LOGENTROPY) {
+      throw new IllegalArgumentException(
+          "Global term weights are only stored for -termweight idf or logentropy.");
+    }
+    LuceneUtils luceneUtils = new LuceneUtils(flagConfig);
+    if (luceneUtils.getGlobalTermWeightTable() != null) {
+      VerbatimLogger.info("Global term weights in " + flagConfig.termweightsfile()
+          + " are already up to date.\n");
+      return;
+    }
+    luceneUtils.precomputeGlobalTermWeights();
+  }
+}
@@ -0,0 +1,583 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * Approximate nearest neighbor index using a Hierarchical Navigable Small World graph,
+ * as described in Malkov and Yashunin, "Efficient and robust approximate nearest neighbor
+ * search using Hierarchical Navigable Small World graphs", 2016.
+ *
+ * <p>
+ * Each vector is a node in a layered graph, where each node is linked to (up to)
+ * {@link FlagConfig#hnswm()} of its nearest neighbors in each layer it belongs to, and twice
+ * as many in the bottom layer. A search descends greedily through the sparse upper layers
+ * and then does a best-first search of the bottom layer, keeping the best
+ * {@link FlagConfig#hnswef()} candidates found so far. Larger values of these flags give better
+ * recall at the cost of speed. Similarity is given by {@link Vector#measureOverlap}, so the
+ * index can be built for any vector type.
+ *
+ * <p>
+ * The index stores only the graph and the keys of the vectors, and reads vectors from the
+ * vector store it was built from. If this is a {@link VectorStoreReaderMmap}, overlaps are
+ * computed from the mapped file. If it is a {@link VectorStoreReaderLucene}, the file offset
+ * of each node's vector is looked up once when the store is attached, and vectors are then
+ * read directly from those offsets.
+ *
+ * <p>
+ * Building is single-threaded and holds all the vectors in memory. Searches are safe for
+ * concurrent use from different threads.
+ */
+public class HnswIndex extends NearestNeighborIndex {
+  private static final Logger logger = Logger.getLogger(HnswIndex.class.getCanonicalName());
+
+  /** Suffix appended to the vector store file name to give the index file name. */
+  public static final String HNSW_SUFFIX = ".hnsw";
+
+  private final int m;
+  private final int efConstruction;
+  private final int ef;
+  private final String[] objects;
+  /** Neighbors of each node in each layer it belongs to, indexed by node and layer. */
+  private final int[][][] links;
+  private int entryPoint = -1;
+  private int maxLayer = -1;
+
+  /** Vectors held in memory if the index was built rather than read from file, otherwise null. */
+  private Vector[] vectors;
+  private VectorStore vectorStore;
+  /** If the vector store is memory-mapped, the index of each node in the store. */
+  private VectorStoreReaderMmap mmapStore;
+  private int[] mmapIndexes;
+  /** If the vector store is in Lucene format, the file offset of each node's record. */
+  private VectorStoreReaderLucene luceneStore;
+  private long[] luceneOffsets;
+
+  private final ThreadLocal<VisitedSet> visitedSets = new ThreadLocal<VisitedSet>() {
+    @Override
+    protected VisitedSet initialValue() {
+      return new VisitedSet(objects.length);
+    }
+  };
+
+  private HnswIndex(int numNodes, FlagConfig flagConfig) {
+    this.m = flagConfig.hnswm();
+    this.efConstruction = flagConfig.hnswefconstruction();
+    this.ef = flagConfig.hnswef();
+    this.objects = new String[numNodes];
+    this.links = new int[numNodes][][];
+  }
+
+  /**
+   * Returns the name of the index file for the given vector store file,
+   * e.g., "termvectors.bin.hnsw" for "termvectors.bin".
+   */
+  public static String getIndexFileName(String vectorFileName) {
+    return vectorFileName + HNSW_SUFFIX;
+  }
+
+  /** Returns the number of vectors in the index. */
+  public int getNumVectors() {
+    return objects.length;
+  }
+
+  /**
+   * Builds an index containing all the vectors in the vector store, using
+   * {@link FlagConfig#hnswm()} and {@link FlagConfig#hnswefconstruction()}.
+   */
+  public static HnswIndex build(VectorStore vectorStore, FlagConfig flagConfig) {
+    HnswIndex index = new HnswIndex(vectorStore.getNumVectors(), flagConfig);
+    index.vectors = new Vector[index.objects.length];
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    for (int i = 0; i < index.objects.length; ++i) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      index.objects[i] = objectVector.getObject().toString();
+      index.vectors[i] = objectVector.getVector();
+    }
+
+    // Layers are assigned randomly, but fixed seed means the same store gives the same index.
+    Random random = new Random(0);
+    double levelMultiplier = 1 / Math.log(Math.max(index.m, 2));
+    VisitedSet visited = new VisitedSet(index.objects.length);
+    for (int i = 0; i < index.objects.length; ++i) {
+      int layer = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+      index.insert(i, layer, visited);
+      if ((i + 1) % 100000 == 0) {
+        VerbatimLogger.info("Added " + (i + 1) + " vectors to HNSW index ...\n");
+      }
+    }
+    index.attachVectorStore(vectorStore);
+    return index;
+  }
+
+  private void attachVectorStore(VectorStore vectorStore) throws IllegalArgumentException {
+    this.vectorStore = vectorStore;
+    if (vectorStore instanceof VectorStoreReaderMmap) {
+      mmapStore = (VectorStoreReaderMmap) vectorStore;
+      mmapIndexes = new int[objects.length];
+      for (int i = 0; i < objects.length; ++i) {
+        mmapIndexes[i] = mmapStore.getIndex(objects[i]);
+        if (mmapIndexes[i] < 0) {
+          throw new IllegalArgumentException("Vector store has no vector for " + objects[i]);
+        }
+      }
+    } else if (vectorStore instanceof VectorStoreReaderLucene) {
+      luceneStore = (VectorStoreReaderLucene) vectorStore;
+      luceneOffsets = new long[objects.length];
+      try {
+        for (int i = 0; i < objects.length; ++i) {
+          luceneOffsets[i] = luceneStore.getOffset(objects[i]);
+          if (luceneOffsets[i] < 0) {
+            throw new IllegalArgumentException("Vector store has no vector for " + objects[i]);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e.getMessage(), e);
+      }
+    }
+  }
+
+  /** Returns the vector for this node. */
+  private Vector getNodeVector(int node) {
+    if (vectors != null) {
+      return vectors[node];
+    }
+    if (mmapStore != null) {
+      return mmapStore.getVector(mmapIndexes[node]);
+    }
+    if (luceneStore != null) {
+      try {
+        return luceneStore.getVectorAtOffset(luceneOffsets[node]);
+      } catch (IOException e) {
+        throw new RuntimeException(e.getMessage(), e);
+      }
+    }
+    return vectorStore.getVector(objects[node]);
+  }
+
+  /** Returns the overlap between the query vector and this node. */
+  private double similarity(Vector queryVector, int node) {
+    if (vectors == null && mmapStore != null) {
+      return mmapStore.measureOverlap(queryVector, mmapIndexes[node]);
+    }
+    return queryVector.measureOverlap(getNodeVector(node));
+  }
+
+  private int maxNeighbors(int layer) {
+    return layer == 0 ? 2 * m : m;
+  }
+
+  private void insert(int node, int layer, VisitedSet visited) {
+    links[node] = new int[layer + 1][];
+    for (int l = 0; l <= layer; ++l) {
+      links[node][l] = new int[0];
+    }
+    if (entryPoint < 0) {
+      entryPoint = node;
+      maxLayer = layer;
+      return;
+    }
+
+    Vector queryVector = vectors[node];
+    NodeHeap entryPoints = new NodeHeap(false);
+    entryPoints.push(similarity(queryVector, entryPoint), entryPoint);
+    for (int l = maxLayer; l > layer; --l) {
+      entryPoints = searchLayer(queryVector, entryPoints, 1, l, visited);
+    }
+    for (int l = Math.min(layer, maxLayer); l >= 0; --l) {
+      NodeHeap candidates = searchLayer(queryVector, entryPoints, efConstruction, l, visited);
+      int numCandidates = candidates.size();
+      double[] scores = new double[numCandidates];
+      int[] nodes = new int[numCandidates];
+      candidates.copyTo(scores, nodes);
+      int[] neighbors = selectNeighbors(scores, nodes, numCandidates, m);
+      links[node][l] = neighbors;
+      for (int neighbor : neighbors) {
+        addLink(neighbor, node, l);
+      }
+      entryPoints = new NodeHeap(false);
+      for (int i = 0; i < numCandidates; ++i) {
+        entryPoints.push(scores[i], nodes[i]);
+      }
+    }
+    if (layer > maxLayer) {
+      entryPoint = node;
+      maxLayer = layer;
+    }
+  }
+
+  /** Links from node to newNeighbor, pruning node's links if there are now too many. */
+  private void addLink(int node, int newNeighbor, int layer) {
+    int[] neighbors = links[node][layer];
+    if (neighbors.length < maxNeighbors(layer)) {
+      neighbors = Arrays.copyOf(neighbors, neighbors.length + 1);
+      neighbors[neighbors.length - 1] = newNeighbor;
+      links[node][layer] = neighbors;
+      return;
+    }
+    Vector nodeVector = getNodeVector(node);
+    int numCandidates = neighbors.length + 1;
+    double[] scores = new double[numCandidates];
+    int[] nodes = Arrays.copyOf(neighbors, numCandidates);
+    nodes[neighbors.length] = newNeighbor;
+    for (int i = 0; i < numCandidates; ++i) {
+      scores[i] = similarity(nodeVector, nodes[i]);
+    }
+    sortDescending(scores, nodes, numCandidates);
+    links[node][layer] = selectNeighbors(scores, nodes, numCandidates, maxNeighbors(layer));
+  }
+
+  /**
+   * Selects up to maxNeighbors of the candidates, sorted by descending similarity to the base
+   * node, using the heuristic from the HNSW paper: a candidate is preferred if it is closer to
+   * the base node than to any neighbor already selected, which keeps links to distant clusters.
+   * Remaining places are filled with the closest of the other candidates.
+   */
+  private int[] selectNeighbors(double[] scores, int[] nodes, int numCandidates, int maxNeighbors) {
+    int[] selected = new int[Math.min(numCandidates, maxNeighbors)];
+    int numSelected = 0;
+    int[] pruned = new int[numCandidates];
+    int numPruned = 0;
+    for (int i = 0; i < numCandidates && numSelected < selected.length; ++i) {
+      Vector candidateVector = getNodeVector(nodes[i]);
+      boolean diverse = true;
+      for (int j = 0; j < numSelected; ++j) {
+        if (similarity(candidateVector, selected[j]) > scores[i]) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        selected[numSelected++] = nodes[i];
+      } else {
+        pruned[numPruned++] = nodes[i];
+      }
+    }
+    for (int i = 0; i < numPruned && numSelected < selected.length; ++i) {
+      selected[numSelected++] = pruned[i];
+    }
+    return numSelected == selected.length ? selected : Arrays.copyOf(selected, numSelected);
+  }
+
+  /**
+   * Best-first search of one layer of the graph, starting from the entry points.
+   *
+   * @return min-heap of the (at most) ef best nodes found
+   */
+  private NodeHeap searchLayer(
+      Vector queryVector, NodeHeap entryPoints, int ef, int layer, VisitedSet visited) {
+    visited.clear();
+    NodeHeap candidates = new NodeHeap(true);
+    NodeHeap results = new NodeHeap(false);
+    for (int i = 0; i < entryPoints.size(); ++i) {
+      int node = entryPoints.nodes[i];
+      visited.visit(node);
+      candidates.push(entryPoints.scores[i], node);
+      results.push(entryPoints.scores[i], node);
+      if (results.size() > ef) results.pop();
+    }
+    while (candidates.size() > 0) {
+      double candidateScore = candidates.peekScore();
+      int candidate = candidates.pop();
+      if (results.size() >= ef && candidateScore < results.peekScore()) {
+        break;
+      }
+      for (int neighbor : links[candidate][layer]) {
+        if (visited.visit(neighbor)) continue;
+        double score = similarity(queryVector, neighbor);
+        if (results.size() < ef || score > results.peekScore()) {
+          candidates.push(score, neighbor);
+          results.push(score, neighbor);
+          if (results.size() > ef) results.pop();
+        }
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public List<SearchResult> getNearestNeighbors(Vector queryVector, int numResults) {
+    List<SearchResult> results = new ArrayList<SearchResult>();
+    if (entryPoint < 0 || numResults <= 0) {
+      return results;
+    }
+    VisitedSet visited = visitedSets.get();
+    NodeHeap entryPoints = new NodeHeap(false);
+    entryPoints.push(similarity(queryVector, entryPoint), entryPoint);
+    for (int l = maxLayer; l > 0; --l) {
+      entryPoints = searchLayer(queryVector, entryPoints, 1, l, visited);
+    }
+    NodeHeap candidates = searchLayer(queryVector, entryPoints, Math.max(ef, numResults), 0, visited);
+    int numCandidates = candidates.size();
+    double[] scores = new double[numCandidates];
+    int[] nodes = new int[numCandidates];
+    candidates.copyTo(scores, nodes);
+    for (int i = 0; i < Math.min(numCandidates, numResults); ++i) {
+      results.add(new SearchResult(
+          scores[i], new ObjectVector(objects[nodes[i]], getNodeVector(nodes[i]))));
+    }
+    return results;
+  }
+
+  /** Sorts the first n scores in descending order, keeping nodes in step. */
+  private static void sortDescending(double[] scores, int[] nodes, int n) {
+    NodeHeap heap = new NodeHeap(false);
+    for (int i = 0; i < n; ++i) {
+      heap.push(scores[i], nodes[i]);
+    }
+    heap.copyTo(scores, nodes);
+  }
+
+  /**
+   * Writes the index to a file, which can be read by {@link #readFromFile}.
+   */
+  public void writeToFile(String indexFileName, FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(indexFile.getName(), IOContext.DEFAULT);
+    outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    outputStream.writeVInt(m);
+    outputStream.writeVInt(objects.length);
+    outputStream.writeVInt(maxLayer + 1);
+    outputStream.writeVInt(entryPoint + 1);
+    for (int node = 0; node < objects.length; ++node) {
+      outputStream.writeString(objects[node]);
+      outputStream.writeVInt(links[node].length);
+      for (int[] neighbors : links[node]) {
+        outputStream.writeVInt(neighbors.length);
+        for (int neighbor : neighbors) {
+          outputStream.writeVInt(neighbor);
+        }
+      }
+    }
+    outputStream.close();
+    fsDirectory.close();
+  }
+
+  /**
+   * Reads an index written by {@link #writeToFile}.
+   *
+   * @param vectorStore the vector store the index was built from
+   * @throws IOException if the index cannot be read, or was built for a different vector store
+   */
+  public static HnswIndex readFromFile(String indexFileName, VectorStore vectorStore,
+      FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput inputStream = fsDirectory.openInput(indexFile.getName(), IOContext.READONCE);
+    try {
+      String header = inputStream.readString();
+      if (!header.equals(VectorStoreWriter.generateHeaderString(flagConfig))) {
+        throw new IOException("HNSW index " + indexFileName + " has header '" + header
+            + "', which does not match vector store.");
+      }
+      inputStream.readVInt();  // m is only needed for building.
+      int numNodes = inputStream.readVInt();
+      if (numNodes != vectorStore.getNumVectors()) {
+        throw new IOException("HNSW index " + indexFileName + " has " + numNodes
+            + " vectors, but vector store has " + vectorStore.getNumVectors()
+            + ". Index should be rebuilt.");
+      }
+      HnswIndex index = new HnswIndex(numNodes, flagConfig);
+      index.maxLayer = inputStream.readVInt() - 1;
+      index.entryPoint = inputStream.readVInt() - 1;
+      for (int node = 0; node < numNodes; ++node) {
+        index.objects[node] = inputStream.readString();
+        index.links[node] = new int[inputStream.readVInt()][];
+        for (int l = 0; l < index.links[node].length; ++l) {
+          int[] neighbors = new int[inputStream.readVInt()];
+          for (int i = 0; i < neighbors.length; ++i) {
+            neighbors[i] = inputStream.readVInt();
+          }
+          index.links[node][l] = neighbors;
+        }
+      }
+      index.attachVectorStore(vectorStore);
+      return index;
+    } catch (IllegalArgumentException e) {
+      throw new IOException("HNSW index " + indexFileName + " does not match vector store: "
+          + e.getMessage());
+    } finally {
+      inputStream.close();
+      fsDirectory.close();
+    }
+  }
+
+  /**
+   * Binary heap of nodes with their scores, stored in parallel primitive arrays.
+   */
+  private static class NodeHeap {
+    private final boolean maxHeap;
+    double[] scores = new double[16];
+    int[] nodes = new int[16];
+    private int size = 0;
+
+    /** @param maxHeap if true, the highest score is at the top, otherwise the lowest. */
+    NodeHeap(boolean maxHeap) {
+      this.maxHeap = maxHeap;
+    }
+
+    int size() {
+      return size;
+    }
+
+    double peekScore() {
+      return scores[0];
+    }
+
+    void push(double score, int node) {
+      if (size == scores.length) {
+        scores = Arrays.copyOf(scores, 2 * size);
+        nodes = Arrays.copyOf(nodes, 2 * size);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!above(score, scores[parent])) break;
+        scores[i] = scores[parent];
+        nodes[i] = nodes[parent];
+        i = parent;
+      }
+      scores[i] = score;
+      nodes[i] = node;
+    }
+
+    /** Removes the top of the heap and returns its node. */
+    int pop() {
+      int top = nodes[0];
+      --size;
+      double score = scores[size];
+      int node = nodes[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) break;
+        if (child + 1 < size && above(scores[child + 1], scores[child])) ++child;
+        if (!above(scores[child], score)) break;
+        scores[i] = scores[child];
+        nodes[i] = nodes[child];
+        i = child;
+      }
+      scores[i] = score;
+      nodes[i] = node;
+      return top;
+    }
+
+    /**
+     * Empties the heap into the arrays, sorted by descending score.
+     */
+    void copyTo(double[] sortedScores, int[] sortedNodes) {
+      int n = size;
+      for (int i = 0; i < n; ++i) {
+        int position = maxHeap ? i : n - 1 - i;
+        sortedScores[position] = peekScore();
+        sortedNodes[position] = pop();
+      }
+    }
+
+    private boolean above(double score1, double score2) {
+      return maxHeap ? score1 > score2 : score1 < score2;
+    }
+  }
+
+  /**
+   * Set of visited nodes that can be cleared in constant time, by marking nodes with
+   * the number of the current search.
+   */
+  private static class VisitedSet {
+    private final int[] marks;
+    private int generation = 0;
+
+    VisitedSet(int numNodes) {
+      marks = new int[numNodes];
+    }
+
+    void clear() {
+      if (++generation == 0) {
+        Arrays.fill(marks, 0);
+        generation = 1;
+      }
+    }
+
+    /** Marks the node as visited, returning true if it had already been visited. */
+    boolean visit(int node) {
+      if (marks[node] == generation) return true;
+      marks[node] = generation;
+      return false;
+    }
+  }
+
+  /**
+   * Builds an HNSW index for a vector store and writes it next to the vector store file.
+   * Usage: java pitt.search.semanticvectors.HnswIndex [-hnswm M] [-hnswefconstruction EF] STORE_NAME
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    if (flagConfig.remainingArgs.length != 1) {
+      throw new IllegalArgumentException(
+          "Usage: java pitt.search.semanticvectors.HnswIndex [-hnswm M] [-hnswefconstruction EF] STORE_NAME");
+    }
+    String storeName = flagConfig.remainingArgs[0];
+    String vectorFileName = VectorStoreUtils.getStoreFileName(storeName, flagConfig);
+    CloseableVectorStore vectorStore = VectorStoreReader.openVectorStore(storeName, flagConfig);
+    VerbatimLogger.info("Building HNSW index for " + vectorStore.getNumVectors()
+        + " vectors from " + vectorFileName + " ...\n");
+    HnswIndex index = build(vectorStore, flagConfig);
+    String indexFileName = getIndexFileName(vectorFileName);
+    index.writeToFile(indexFileName, flagConfig);
+    vectorStore.close();
+    logger.info("Wrote HNSW index to " + indexFileName);
+  }
+}
@@ -38,13 +38,23 @@ package pitt.search.semanticvectors;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
@@ -91,15 +101,19 @@ public class IncrementalDocVectors {
 
   private void trainIncrementalDocVectors() throws IOException {
     int numdocs = luceneUtils.getNumDocs();
+    luceneUtils.precomputeGlobalTermWeights();
 
     // Open file and write headers.
     File vectorFile = new File(
-        VectorStoreUtils.getStoreFileName(flagConfig.docvectorsfile(), flagConfig));
+        VectorStoreUtils.getIncrementalStoreFileName(flagConfig.docvectorsfile(), flagConfig));
     String parentPath = vectorFile.getParent();
     if (parentPath == null) parentPath = "";
     FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
 
     IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
+    IndexOutput keyIndexOutput = fsDirectory.createOutput(
+        VectorStoreKeyIndex.getKeyIndexFileName(vectorFile.getName()), IOContext.DEFAULT);
+    VectorStoreKeyIndex.Writer keyIndexWriter = new VectorStoreKeyIndex.Writer(keyIndexOutput, outputStream);
 
     VerbatimLogger.info("Writing vectors incrementally to file " + vectorFile + " ... ");
 
@@ -107,79 +121,212 @@ public class IncrementalDocVectors {
     outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
 
     // Iterate through documents.
-    for (int dc = 0; dc < numdocs; dc++) {
-      // Output progress counter.
-      if ((dc > 0) && ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0))) {
-        VerbatimLogger.info("Processed " + dc + " documents ... ");
-      }
+    if (flagConfig.trainingthreads() > 1) {
+      writeDocVectorsInParallel(numdocs, flagConfig.trainingthreads(), outputStream, keyIndexWriter);
+    } else {
+      int dc = 0;
+      for (LeafReaderContext leaf : luceneUtils.getLeaves()) {
+        Bits liveDocs = leaf.reader().getLiveDocs();
+        for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+          if (liveDocs != null && !liveDocs.get(doc)) continue;
+          // Output progress counter.
+          if ((dc > 0) && ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0))) {
+            VerbatimLogger.info("Processed " + dc + " documents ... ");
+          }
+          DocumentTerms documentTerms = readDocumentTerms(leaf, doc);
+          writeDocVector(documentTerms.docID, buildDocVector(documentTerms), outputStream, keyIndexWriter);
+          dc++;
+        }
+      } // Finish iterating through documents.
+    }
 
-      // Get filename and path to be used as document vector ID, defaulting to doc number only if
-      // docidfield is not pupoulated.
-      String docID = luceneUtils.getExternalDocId(dc);
+    VerbatimLogger.info("Finished writing vectors.\n");
+    keyIndexWriter.finish();
+    keyIndexOutput.close();
+    outputStream.close();
+    fsDirectory.close();
+    VectorStoreWriter.convertIncrementalStore(flagConfig.docvectorsfile(), flagConfig);
+  }
 
-      Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+  /**
+   * The terms of a single document that are needed to build its vector, read from the
+   * Lucene index so that the vector can be built on a different thread.
+   */
+  private static class DocumentTerms {
+    final String docID;
+    final ArrayList<String> fieldNames = new ArrayList<String>();
+    final ArrayList<String> termStrings = new ArrayList<String>();
+    final ArrayList<Integer> freqs = new ArrayList<Integer>();
+    /** Number of distinct terms in the field each term occurs in, used for field weighting. */
+    final ArrayList<Long> fieldSizes = new ArrayList<Long>();
+
+    DocumentTerms(String docID) {
+      this.docID = docID;
+    }
+  }
 
-      for (String fieldName : flagConfig.contentsfields()) {
-        Terms terms = luceneUtils.getTermVector(dc, fieldName);
+  /** A document vector waiting to be written, with its ID. */
+  private static class DocVectorResult {
+    final String docID;
+    final Vector docVector;
 
-        if (terms == null) {
-          VerbatimLogger.fine(
-              String.format(
-                  "When building document vectors, no term vector for field: '%s' in document '%s'.",
-                  fieldName, docID));
-          continue;
-        }
+    DocVectorResult(String docID, Vector docVector) {
+      this.docID = docID;
+      this.docVector = docVector;
+    }
+  }
 
-        TermsEnum tmp = null;
-        TermsEnum termsEnum = terms.iterator(tmp);
-        BytesRef bytes;
-        while ((bytes = termsEnum.next()) != null) {
-          Term term = new Term(fieldName, bytes);
-          String termString = term.text();
-          DocsEnum docs = termsEnum.docs(null, null);
-          docs.nextDoc();
-          int freq = docs.freq();
-
-          try {
-            Vector termVector = termVectorData.getVector(termString);
-            if (termVector != null && termVector.getDimension() > 0) {
-              float localweight = luceneUtils.getLocalTermWeight(freq);
-              float globalweight = luceneUtils.getGlobalTermWeight(new Term(fieldName, termString));
-              float fieldweight = 1;
-
-              if (flagConfig.fieldweight()) {
-                //field weight: 1/sqrt(number of terms in field)
-                fieldweight = (float) (1 / Math.sqrt(terms.size()));
-              }
+  /**
+   * Reads the ID and the term frequencies for each of the contents fields of a document,
+   * reading term vectors directly from the document's segment.
+   *
+   * @param doc the document number within the segment
+   */
+  private DocumentTerms readDocumentTerms(LeafReaderContext leaf, int doc) throws IOException {
+    // Get filename and path to be used as document vector ID, defaulting to doc number only if
+    // docidfield is not pupoulated.
+    DocumentTerms documentTerms = new DocumentTerms(luceneUtils.getExternalDocId(leaf.docBase + doc));
+
+    for (String fieldName : flagConfig.contentsfields()) {
+      Terms terms = leaf.reader().getTermVector(doc, fieldName);
+
+      if (terms == null) {
+        VerbatimLogger.fine(
+            String.format(
+                "When building document vectors, no term vector for field: '%s' in document '%s'.",
+                fieldName, documentTerms.docID));
+        continue;
+      }
+
+      TermsEnum tmp = null;
+      TermsEnum termsEnum = terms.iterator(tmp);
+      BytesRef bytes;
+      while ((bytes = termsEnum.next()) != null) {
+        DocsEnum docs = termsEnum.docs(null, null);
+        docs.nextDoc();
+        documentTerms.fieldNames.add(fieldName);
+        documentTerms.termStrings.add(bytes.utf8ToString());
+        documentTerms.freqs.add(docs.freq());
+        documentTerms.fieldSizes.add(terms.size());
+      }
+    }
+    return documentTerms;
+  }
 
-              // Add contribution from this term, excluding terms that
-              // are not represented in termVectorData.
-              docVector.superpose(termVector, localweight * globalweight * fieldweight, null);
-            }
-          } catch (NullPointerException npe) {
-            // Don't normally print anything - too much data!
-            logger.finest("term " + termString + " not represented");
+  /** Builds the normalized vector for a document from its terms. */
+  private Vector buildDocVector(DocumentTerms documentTerms) {
+    Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+
+    for (int i = 0; i < documentTerms.termStrings.size(); ++i) {
+      String fieldName = documentTerms.fieldNames.get(i);
+      String termString = documentTerms.termStrings.get(i);
+      try {
+        Vector termVector = termVectorData.getVector(termString);
+        if (termVector != null && termVector.getDimension() > 0) {
+          float localweight = luceneUtils.getLocalTermWeight(documentTerms.freqs.get(i));
+          float globalweight = luceneUtils.getGlobalTermWeight(new Term(fieldName, termString));
+          float fieldweight = 1;
+
+          if (flagConfig.fieldweight()) {
+            //field weight: 1/sqrt(number of terms in field)
+            fieldweight = (float) (1 / Math.sqrt(documentTerms.fieldSizes.get(i)));
           }
+
+          // Add contribution from this term, excluding terms that
+          // are not represented in termVectorData.
+          docVector.superpose(termVector, localweight * globalweight * fieldweight, null);
         }
+      } catch (NullPointerException npe) {
+        // Don't normally print anything - too much data!
+        logger.finest("term " + termString + " not represented");
       }
+    }
 
-      if (docVector.isZeroVector()) {
-        logger.warning(String.format(
-            "Outputting zero vector for document '%s'. This probably means that none of " +
-                "the -contentsfields were populated, or all terms failed the LuceneUtils termsfilter." +
-                " You may want to investigate.",
-            docID));
-      }
+    if (docVector.isZeroVector()) {
+      logger.warning(String.format(
+          "Outputting zero vector for document '%s'. This probably means that none of " +
+              "the -contentsfields were populated, or all terms failed the LuceneUtils termsfilter." +
+              " You may want to investigate.",
+          documentTerms.docID));
+    }
+
+    docVector.normalize();
+    return docVector;
+  }
 
-      // All fields in document have been processed. Write out documentID and normalized vector.
-      docVector.normalize();
-      outputStream.writeString(docID);
-      docVector.writeToLuceneStream(outputStream);
-    } // Finish iterating through documents.
+  /** Writes out documentID and normalized vector, recording its position in the key index. */
+  private static void writeDocVector(String docID, Vector docVector,
+      IndexOutput outputStream, VectorStoreKeyIndex.Writer keyIndexWriter) throws IOException {
+    keyIndexWriter.addEntry(docID, outputStream.getFilePointer());
+    outputStream.writeString(docID);
+    docVector.writeToLuceneStream(outputStream);
+  }
 
-    VerbatimLogger.info("Finished writing vectors.\n");
-    outputStream.close();
-    fsDirectory.close();
+  /**
+   * Builds and writes document vectors using a pipeline of three stages. A single reader
+   * thread reads the terms of each document from the Lucene index in order, segment by segment,
+   * and submits
+   * each document to a pool of worker threads that build and normalize its vector. The
+   * calling thread writes the vectors out in document order, waiting for each in turn.
+   * Pending documents are passed from the reader to the writer through a bounded queue,
+   * so the number of documents in memory at once doesn't grow with the size of the index.
+   */
+  private void writeDocVectorsInParallel(final int numdocs, int numThreads,
+      IndexOutput outputStream, VectorStoreKeyIndex.Writer keyIndexWriter) throws IOException {
+    VerbatimLogger.info("Building document vectors using " + numThreads + " threads.\n");
+    final ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+    ExecutorService reader = Executors.newSingleThreadExecutor();
+    final BlockingQueue<Future<DocVectorResult>> pending =
+        new ArrayBlockingQueue<Future<DocVectorResult>>(4 * numThreads);
+
+    Future<Void> readerResult = reader.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        for (LeafReaderContext leaf : luceneUtils.getLeaves()) {
+          Bits liveDocs = leaf.reader().getLiveDocs();
+          for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+            if (liveDocs != null && !liveDocs.get(doc)) continue;
+            final DocumentTerms documentTerms = readDocumentTerms(leaf, doc);
+            pending.put(workers.submit(new Callable<DocVectorResult>() {
+              @Override
+              public DocVectorResult call() {
+                return new DocVectorResult(documentTerms.docID, buildDocVector(documentTerms));
+              }
+            }));
+          }
+        }
+        return null;
+      }
+    });
+
+    try {
+      for (int dc = 0; dc < numdocs; dc++) {
+        // Output progress counter.
+        if ((dc > 0) && ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0))) {
+          VerbatimLogger.info("Processed " + dc + " documents ... ");
+        }
+        Future<DocVectorResult> next = null;
+        while (next == null) {
+          next = pending.poll(1, TimeUnit.SECONDS);
+          // If the reader has stopped without queueing this document, it has failed.
+          if (next == null && readerResult.isDone() && (next = pending.poll()) == null) {
+            readerResult.get();
+            throw new IllegalStateException("Reader stopped after " + dc + " documents.");
+          }
+        }
+        DocVectorResult result = next.get();
+        writeDocVector(result.docID, result.docVector, outputStream, keyIndexWriter);
+      }
+      readerResult.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building document vectors", e);
+    } catch (ExecutionException e) {
+      LuceneUtils.rethrowCause(e);
+    } finally {
+      reader.shutdownNow();
+      workers.shutdownNow();
+    }
   }
 
   public static void main(String[] args) throws Exception {
@@ -35,20 +35,15 @@
 
 package pitt.search.semanticvectors;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import org.apache.lucene.index.*;
-import org.apache.lucene.store.IOContext;
-import org.apache.lucene.store.IndexInput;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 
-import java.nio.file.FileSystems;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.logging.Logger;
@@ -114,27 +109,21 @@ public class IncrementalTermVectors implements VectorStore {
   private void createIncrementalTermVectorsFromLucene() throws IOException {
     int numdocs = luceneUtils.getNumDocs();
 
-    // Open file and write headers.
-    File vectorFile = new File(flagConfig.docvectorsfile());
-    String parentPath = vectorFile.getParent();
-    if (parentPath == null) parentPath = "";
-    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
-
     // The following try / except supports the use of either prepared doc vectors from a file,
     // or random vectors if no -docvectors file exists. This conditional complexity is repeated
     // a bit in the training routine below.
-    IndexInput docVectorsInputStream;
+    CloseableVectorStore docVectors;
+    Enumeration<ObjectVector> docVectorsEnum;
     Random random = new Random();
     try {
-      docVectorsInputStream = fsDirectory.openInput(
-          VectorStoreUtils.getStoreFileName(flagConfig.docvectorsfile(), flagConfig), IOContext.DEFAULT);
-      logger.info("Reading vectors incrementally from file " + vectorFile);
-      // Read number of dimensions and vector type from document vectors.
-      String header = docVectorsInputStream.readString();
-      FlagConfig.mergeWriteableFlagsFromString(header, flagConfig);
+      // Reads number of dimensions and vector type from document vectors.
+      docVectors = VectorStoreReader.openVectorStore(flagConfig.docvectorsfile(), flagConfig);
+      logger.info("Reading vectors incrementally from file " + flagConfig.docvectorsfile());
+      docVectorsEnum = docVectors.getAllVectors();
     } catch (FileNotFoundException e) {
-      logger.info("No file '" + vectorFile + "' so will use random elemental vectors instead.");
-      docVectorsInputStream = null;
+      logger.info("No file '" + flagConfig.docvectorsfile() + "' so will use random elemental vectors instead.");
+      docVectors = null;
+      docVectorsEnum = null;
     }
     initializeVectorStore();
 
@@ -146,10 +135,8 @@ public class IncrementalTermVectors implements VectorStore {
       }
 
       Vector docVector;
-      if (docVectorsInputStream.getFilePointer() < docVectorsInputStream.length() - 1) {
-        docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
-        docVectorsInputStream.readString(); // ignore document name
-        docVector.readFromLuceneStream(docVectorsInputStream);
+      if (docVectorsEnum.hasMoreElements()) {
+        docVector = docVectorsEnum.nextElement().getVector();
        
 
       for (String fieldName : this.flagConfig.contentsfields()) {
@@ -190,8 +177,8 @@ public class IncrementalTermVectors implements VectorStore {
       obVec.setVector(termVector);
     }
 
-    if (docVectorsInputStream != null) {
-      docVectorsInputStream.close();
+    if (docVectors != null) {
+      docVectors.close();
     }
   }
 
@@ -54,6 +54,7 @@ public class LSA {
   private LSA(String luceneIndexDir, FlagConfig flagConfig) throws IOException {
     this.flagConfig = flagConfig;    
     this.luceneUtils = new LuceneUtils(flagConfig);
+    this.luceneUtils.precomputeGlobalTermWeights();
 
     if (flagConfig.contentsfields().length > 1) {
       logger.warning(
@@ -109,6 +110,7 @@ public class LSA {
 
     terms = this.luceneUtils.getTermsForField(contentsField);
     TermsEnum termsEnum = terms.iterator(termsEnumDummy);
+    DocsEnum docsEnum = null;
     BytesRef bytes;
     
     // This first loop is all setup and preparing counters.
@@ -118,7 +120,7 @@ public class LSA {
         termList[termCounter] = term.text();
 
         // Create matrix of nonzero indices.
-        DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
+        docsEnum = this.luceneUtils.getDocsForTerm(termsEnum, docsEnum);
         int numDocsWithTerm = 0;
         while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
           ++numDocsWithTerm;
@@ -127,7 +129,7 @@ public class LSA {
         baseIndex[termCounter] = new int[numDocsWithTerm];
 
         // Fill in matrix of nonzero indices, enumerating docsEnum again.
-        docsEnum = this.luceneUtils.getDocsForTerm(term);
+        docsEnum = this.luceneUtils.getDocsForTerm(termsEnum, docsEnum);
         int count = 0;
         while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
           baseIndex[termCounter][count] = docsEnum.docID();
@@ -147,8 +149,9 @@ public class LSA {
     while((bytes = termsEnum.next()) != null) {
       Term term = new Term(contentsField, bytes);
       if (this.luceneUtils.termFilter(term)) {
-        DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
+        docsEnum = this.luceneUtils.getDocsForTerm(termsEnum, docsEnum);
         S.pointr[termCounter] = firstNonZero;
+        float globalTermWeight = luceneUtils.getGlobalTermWeight(term);
 
         while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
           /** public int[] pointr; For each col (plus 1), index of
@@ -158,7 +161,7 @@ public class LSA {
             *  information from the lucene index)
             */
           S.rowind[firstNonZero] = docsEnum.docID();  // set row index to document number
-          float value = docsEnum.freq() * luceneUtils.getGlobalTermWeight(term);
+          float value = docsEnum.freq() * globalTermWeight;
           S.value[firstNonZero] = value;  // set value to frequency (with/without weighting)
           firstNonZero++;
         }
@@ -173,15 +176,18 @@ public class LSA {
   private void writeOutput(DMat vT, DMat uT) throws IOException {
     // Open file and write headers.
     FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath("."));
-    IndexOutput outputStream = fsDirectory.createOutput(
-        VectorStoreUtils.getStoreFileName(flagConfig.termvectorsfile(), flagConfig),
-        IOContext.DEFAULT);
+    String termVectorsFileName = VectorStoreUtils.getIncrementalStoreFileName(flagConfig.termvectorsfile(), flagConfig);
+    IndexOutput outputStream = fsDirectory.createOutput(termVectorsFileName, IOContext.DEFAULT);
+    IndexOutput keyIndexOutput = fsDirectory.createOutput(
+        VectorStoreKeyIndex.getKeyIndexFileName(termVectorsFileName), IOContext.DEFAULT);
+    VectorStoreKeyIndex.Writer keyIndexWriter = new VectorStoreKeyIndex.Writer(keyIndexOutput, outputStream);
   
     // Write header giving number of dimensions for all vectors and make sure type is real.
     outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
     int cnt;
     // Write out term vectors
     for (cnt = 0; cnt < vT.cols; cnt++) {
+      keyIndexWriter.addEntry(this.termList[cnt], outputStream.getFilePointer());
       outputStream.writeString(this.termList[cnt]);
       Vector termVector;
   
@@ -193,14 +199,19 @@ public class LSA {
   
       termVector.writeToLuceneStream(outputStream);
     }
+    keyIndexWriter.finish();
+    keyIndexOutput.close();
     outputStream.close();
     VerbatimLogger.info(
         "Wrote " + cnt + " term vectors incrementally to file " + flagConfig.termvectorsfile() + ".\n");
   
     // Write document vectors.
     // Open file and write headers.
-    outputStream = fsDirectory.createOutput(
-        VectorStoreUtils.getStoreFileName(flagConfig.docvectorsfile(), flagConfig), IOContext.DEFAULT);
+    String docVectorsFileName = VectorStoreUtils.getIncrementalStoreFileName(flagConfig.docvectorsfile(), flagConfig);
+    outputStream = fsDirectory.createOutput(docVectorsFileName, IOContext.DEFAULT);
+    keyIndexOutput = fsDirectory.createOutput(
+        VectorStoreKeyIndex.getKeyIndexFileName(docVectorsFileName), IOContext.DEFAULT);
+    keyIndexWriter = new VectorStoreKeyIndex.Writer(keyIndexOutput, outputStream);
   
     // Write header giving number of dimensions for all vectors and make sure type is real.
     outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
@@ -208,6 +219,7 @@ public class LSA {
     // Write out document vectors
     for (cnt = 0; cnt < uT.cols; cnt++) {
       String thePath = this.luceneUtils.getDoc(cnt).get(flagConfig.docidfield());
+      keyIndexWriter.addEntry(thePath, outputStream.getFilePointer());
       outputStream.writeString(thePath);
       float[] tmp = new float[flagConfig.dimension()];
   
@@ -218,9 +230,13 @@ public class LSA {
       
       docVector.writeToLuceneStream(outputStream);
     }
+    keyIndexWriter.finish();
+    keyIndexOutput.close();
     outputStream.close();
     VerbatimLogger.info("Wrote " + cnt + " document vectors incrementally to file "
                         + flagConfig.docvectorsfile() + ". Done.\n");
+    VectorStoreWriter.convertIncrementalStore(flagConfig.termvectorsfile(), flagConfig);
+    VectorStoreWriter.convertIncrementalStore(flagConfig.docvectorsfile(), flagConfig);
   }
 
   public static void main(String[] args) throws IllegalArgumentException, IOException {
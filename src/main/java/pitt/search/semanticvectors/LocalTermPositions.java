@@ -0,0 +1,185 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * The terms in a document's term position vector, and the term found at each position,
+ * for use by sliding window training methods such as {@link TermTermVectorsFromLucene}.
+ *
+ * <p>
+ * Each distinct term in the document is given a "local index", in the order in which terms are
+ * enumerated, and positions are mapped to local indexes by an array rather than a map. An instance
+ * can be reused for many documents, so that the arrays are allocated only when a document is larger
+ * than any seen before. Instances are not thread-safe.
+ */
+public class LocalTermPositions {
+
+  /** Returned by {@link #getLocalIndex} for positions that have no term. */
+  public static final int NO_TERM = -1;
+
+  private String[] terms = new String[64];
+  private int[] freqs = new int[64];
+  private int numTerms = 0;
+
+  /** Local index of the term at each position, or {@link #NO_TERM}. */
+  private int[] localIndexes = new int[256];
+  /** One greater than the largest position recorded. */
+  private int positionsLength = 0;
+  /** Number of distinct positions recorded. */
+  private int numPositions = 0;
+
+  public LocalTermPositions() {
+    Arrays.fill(localIndexes, NO_TERM);
+  }
+
+  /**
+   * Reads the terms and positions from a term position vector, replacing the contents of this instance.
+   * Terms that are not in the given vector store are skipped, as are terms without positions.
+   * If more than one term is found at the same position, the last one read is used.
+   *
+   * @param termPositionVector term vector for one field of a document
+   * @param termFilter if not null, only terms that have vectors in this store are read
+   */
+  public void load(Terms termPositionVector, VectorStore termFilter) throws IOException {
+    Arrays.fill(localIndexes, 0, positionsLength, NO_TERM);
+    Arrays.fill(terms, 0, numTerms, null);
+    numTerms = 0;
+    positionsLength = 0;
+    numPositions = 0;
+    if (termPositionVector == null) return;
+
+    TermsEnum termsEnum = termPositionVector.iterator(null);
+    DocsAndPositionsEnum docsAndPositions = null;
+    BytesRef text;
+    while ((text = termsEnum.next()) != null) {
+      String theTerm = text.utf8ToString();
+      if (termFilter != null && !termFilter.containsVector(theTerm)) continue;
+      docsAndPositions = termsEnum.docsAndPositions(null, docsAndPositions);
+      if (docsAndPositions == null) continue;
+      docsAndPositions.nextDoc();
+      int freq = docsAndPositions.freq();
+      addTerm(theTerm, freq);
+      for (int x = 0; x < freq; x++) {
+        addPosition(docsAndPositions.nextPosition(), numTerms - 1);
+      }
+    }
+  }
+
+  private void addTerm(String term, int freq) {
+    if (numTerms == terms.length) {
+      terms = Arrays.copyOf(terms, 2 * numTerms);
+      freqs = Arrays.copyOf(freqs, 2 * numTerms);
+    }
+    terms[numTerms] = term;
+    freqs[numTerms] = freq;
+    ++numTerms;
+  }
+
+  private void addPosition(int position, int localIndex) {
+    if (position >= localIndexes.length) {
+      int oldLength = localIndexes.length;
+      localIndexes = Arrays.copyOf(localIndexes, Math.max(2 * oldLength, position + 1));
+      Arrays.fill(localIndexes, oldLength, localIndexes.length, NO_TERM);
+    }
+    if (position >= positionsLength) {
+      positionsLength = position + 1;
+    }
+    if (localIndexes[position] == NO_TERM) {
+      ++numPositions;
+    }
+    localIndexes[position] = localIndex;
+  }
+
+  /** Returns the number of distinct terms read. */
+  public int getNumTerms() {
+    return numTerms;
+  }
+
+  /** Returns the term with the given local index. */
+  public String getTerm(int localIndex) {
+    return terms[localIndex];
+  }
+
+  /** Returns the frequency in the document of the term with the given local index. */
+  public int getFreq(int localIndex) {
+    return freqs[localIndex];
+  }
+
+  /**
+   * Returns the number of distinct positions at which terms were found. Sliding window methods
+   * consider positions from 0 up to this number, which ignores any positions beyond it left
+   * by gaps such as removed stopwords.
+   */
+  public int getNumPositions() {
+    return numPositions;
+  }
+
+  /** Returns the local index of the term at the given position, or {@link #NO_TERM}. */
+  public int getLocalIndex(int position) {
+    if (position < 0 || position >= positionsLength) return NO_TERM;
+    return localIndexes[position];
+  }
+
+  /** Returns the vector for each term in the given store, indexed by local index. */
+  public Vector[] getVectors(VectorStore vectorStore) {
+    Vector[] vectors = new Vector[numTerms];
+    for (int i = 0; i < numTerms; ++i) {
+      vectors[i] = vectorStore.getVector(terms[i]);
+    }
+    return vectors;
+  }
+
+  /**
+   * Returns the global weight of each term when it occurs in the given field, indexed by local index.
+   * See {@link LuceneUtils#getGlobalTermWeight}.
+   */
+  public float[] getGlobalTermWeights(LuceneUtils luceneUtils, String field) {
+    float[] weights = new float[numTerms];
+    for (int i = 0; i < numTerms; ++i) {
+      weights[i] = luceneUtils.getGlobalTermWeight(new Term(field, terms[i]));
+    }
+    return weights;
+  }
+}
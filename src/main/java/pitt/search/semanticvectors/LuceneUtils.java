@@ -40,9 +40,16 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -50,13 +57,18 @@ import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.BaseCompositeReader;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.MultiFields;
-import org.apache.lucene.index.SlowCompositeReaderWrapper;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 
 import pitt.search.semanticvectors.utils.StringUtils;
@@ -65,6 +77,12 @@ import pitt.search.semanticvectors.utils.VerbatimLogger;
 /**
  * Class to support reading extra information from Lucene indexes,
  * including term frequency, doc frequency.
+ *
+ * <p>
+ * Terms and postings are read from a merged view of the index's segments, since term vectors
+ * and global term weights are computed across the whole index. Callers that process documents
+ * one by one can instead iterate over the segments given by {@link #getLeaves}, adding each
+ * segment's {@link LeafReaderContext#docBase} to its document numbers.
  */
 public class LuceneUtils {
   public static final Version LUCENE_VERSION = Version.LUCENE_5_0_0;
@@ -72,11 +90,19 @@ public class LuceneUtils {
   private static final Logger logger = Logger.getLogger(DocVectors.class.getCanonicalName());
   private FlagConfig flagConfig;
   private BaseCompositeReader<LeafReader> compositeReader;
-  private LeafReader leafReader;
+  /** Merged terms and postings of all segments, or null if the index has no postings. */
+  private Fields fields;
+  /** Merged live documents of all segments, or null if there are no deletions. */
+  private Bits liveDocs;
+  private FieldInfos fieldInfos;
   private Hashtable<Term, Float> termEntropy = new Hashtable<Term, Float>();
   private Hashtable<Term, Float> termIDF = new Hashtable<>();
   private TreeSet<String> stopwords = null;
   private TreeSet<String> startwords = null;
+  /** External document IDs indexed by Lucene document number, see {@link #cacheExternalDocIds}. */
+  private volatile String[] externalDocIds = null;
+  /** Global term weights, see {@link #precomputeGlobalTermWeights}. */
+  private volatile GlobalTermWeightTable globalTermWeights = null;
 
   /**
    * Determines which term-weighting strategy to use in indexing, 
@@ -107,8 +133,9 @@ public class LuceneUtils {
 
     this.compositeReader = DirectoryReader.open(
         FSDirectory.open(FileSystems.getDefault().getPath(flagConfig.luceneindexpath())));
-    this.leafReader =  SlowCompositeReaderWrapper.wrap(compositeReader);
-    MultiFields.getFields(compositeReader);
+    this.fields = MultiFields.getFields(compositeReader);
+    this.liveDocs = MultiFields.getLiveDocs(compositeReader);
+    this.fieldInfos = MultiFields.getMergedFieldInfos(compositeReader);
     this.flagConfig = flagConfig;
     if (!flagConfig.stoplistfile().isEmpty())
       loadStopWords(flagConfig.stoplistfile());
@@ -117,6 +144,15 @@ public class LuceneUtils {
         loadStartWords(flagConfig.startlistfile());
 
     VerbatimLogger.info("Initialized LuceneUtils from Lucene index in directory: " + flagConfig.luceneindexpath() + "\n");
+
+    if (usesGlobalTermWeightTable() && !flagConfig.termweightsfile().isEmpty()) {
+      globalTermWeights = GlobalTermWeightTable.readFromFile(
+          flagConfig.termweightsfile(), getGlobalTermWeightsHeader());
+      if (globalTermWeights != null) {
+        VerbatimLogger.info("Read global term weights for " + globalTermWeights.size()
+            + " terms from " + flagConfig.termweightsfile() + "\n");
+      }
+    }
   }
 
   /**
@@ -182,17 +218,55 @@ public class LuceneUtils {
   }
   
   public Document getDoc(int docID) throws IOException {
-    return this.leafReader.document(docID);
+    return this.compositeReader.document(docID);
   }
 
+  /**
+   * Returns the external ID of a document, i.e., the value of {@link FlagConfig#docidfield()}, or the
+   * Lucene document number if this is "luceneID". If {@link #cacheExternalDocIds} has been called,
+   * the ID is looked up in memory, otherwise it is read from the stored fields of the document.
+   */
   public String getExternalDocId(int docID) throws IOException {
 	  
 	  //to save time, avoid using external ID if so desired
 	  if (flagConfig.docidfield().equals("luceneID")) return docID +"";
-	   
-	String externalDocId;
+
+    String[] cachedIds = externalDocIds;
+    if (cachedIds != null) return cachedIds[docID];
+    return readExternalDocId(compositeReader, docID, Collections.singleton(flagConfig.docidfield()));
+  }
+
+  /**
+   * Reads the external IDs of all documents into memory, so that later calls to
+   * {@link #getExternalDocId} don't need to read stored fields from the index.
+   * This is worthwhile for callers that look up each document many times, e.g., once
+   * for each posting, at the cost of holding all the IDs in memory.
+   * Does nothing if the IDs have already been cached, or if Lucene document numbers are used as IDs.
+   */
+  public synchronized void cacheExternalDocIds() throws IOException {
+    if (externalDocIds != null || flagConfig.docidfield().equals("luceneID")) return;
+    VerbatimLogger.info("Reading external document IDs from field '" + flagConfig.docidfield() + "' ... ");
+    Set<String> fieldsToLoad = Collections.singleton(flagConfig.docidfield());
+    String[] ids = new String[compositeReader.maxDoc()];
+    for (LeafReaderContext leaf : getLeaves()) {
+      LeafReader reader = leaf.reader();
+      for (int docID = 0; docID < reader.maxDoc(); ++docID) {
+        ids[leaf.docBase + docID] = readExternalDocId(reader, docID, fieldsToLoad);
+      }
+    }
+    VerbatimLogger.info("read " + ids.length + " IDs.\n");
+    externalDocIds = ids;
+  }
+
+  /**
+   * Reads the external ID of a document, loading only the stored fields given.
+   *
+   * @param reader the whole index or one of its segments, in which case docID is relative to the segment
+   */
+  private String readExternalDocId(IndexReader reader, int docID, Set<String> fieldsToLoad) throws IOException {
+    String externalDocId;
     try {
-      externalDocId = this.getDoc(docID).getField(flagConfig.docidfield()).stringValue();
+      externalDocId = reader.document(docID, fieldsToLoad).getField(flagConfig.docidfield()).stringValue();
     } catch (IOException e) {
       logger.severe(String.format(
           "Failed to get external doc ID from doc no. %d in Lucene index." +
@@ -209,29 +283,53 @@ public class LuceneUtils {
    * Gets the terms for a given field. Throws {@link java.lang.NullPointerException} if this is null.
    */
   public Terms getTermsForField(String field) throws IOException {
-    Terms terms = leafReader.terms(field);
+    Terms terms = getTerms(field);
     if (terms == null) {
       throw new NullPointerException(String.format(
           "No terms for field: '%s'.\nKnown fields are: '%s'.", field, StringUtils.join(this.getFieldNames())));
     }
-    return leafReader.terms(field);
+    return terms;
+  }
+
+  /** Returns the merged terms for a given field, or null if there are none. */
+  private Terms getTerms(String field) throws IOException {
+    return fields == null ? null : fields.terms(field);
   }
   
   public DocsEnum getDocsForTerm(Term term) throws IOException {
-    return this.leafReader.termDocsEnum(term);
+    return MultiFields.getTermDocsEnum(compositeReader, liveDocs, term.field(), term.bytes());
+  }
+
+  /**
+   * Returns the postings of the term the given enumeration is positioned on, with frequencies.
+   * This avoids looking the term up again as {@link #getDocsForTerm} does, for callers that are
+   * already enumerating the terms from {@link #getTermsForField}.
+   *
+   * @param reuse postings from a previous call for the same enumeration, or null
+   */
+  public DocsEnum getDocsForTerm(TermsEnum termsEnum, DocsEnum reuse) throws IOException {
+    return termsEnum.docs(liveDocs, reuse, DocsEnum.FLAG_FREQS);
   }
 
   public Terms getTermVector(int docID, String field) throws IOException {
-    return this.leafReader.getTermVector(docID, field);
+    return this.compositeReader.getTermVector(docID, field);
+  }
+
+  /**
+   * Returns the segments of the index. The documents of each segment are numbered from 0 within the
+   * segment, and from its {@link LeafReaderContext#docBase} in the whole index.
+   */
+  public List<LeafReaderContext> getLeaves() {
+    return this.compositeReader.leaves();
   }
   
   public FieldInfos getFieldInfos() {
-    return this.leafReader.getFieldInfos();
+    return this.fieldInfos;
   }
 
   public List<String> getFieldNames() {
     List<String> fieldNames = new ArrayList<>();
-    for(FieldInfo fieldName : this.leafReader.getFieldInfos()) {
+    for(FieldInfo fieldName : this.fieldInfos) {
       fieldNames.add(fieldName.name);
     }
     return fieldNames;
@@ -244,15 +342,21 @@ public class LuceneUtils {
    * @return Global term frequency of term, or 1 if unavailable.
    */
   public int getGlobalTermFreq(Term term) {
-	  int tf = 0;
+	  long tf = 0;
 	
     try {
-		  tf  = (int) compositeReader.totalTermFreq(term);
+		  tf  = compositeReader.totalTermFreq(term);
     }
     catch (IOException e) {
       logger.info("Couldn't get term frequency for term " + term.text());
       return 1;
     }
+    return getTotalTermFreq(term, tf);
+  }
+
+  /** Returns the total frequency of the term as an int, replacing -1 (i.e., unknown) by 0. */
+  private int getTotalTermFreq(Term term, long totalTermFreq) {
+    int tf = (int) totalTermFreq;
     if (tf == -1) {
       logger.warning("Lucene StandardDirectoryReader returned -1 for term: '"
           + term.text() + "' in field: '" + term.field() + "'. Changing to 0."
@@ -284,6 +388,11 @@ public class LuceneUtils {
    * @return Global term weight, or 1 if unavailable.
    */
   public float getGlobalTermWeight(Term term) {
+    GlobalTermWeightTable table = globalTermWeights;
+    if (table != null) {
+      int ordinal = table.getOrdinal(term);
+      if (ordinal != -1) return table.getWeight(ordinal);
+    }
     switch (flagConfig.termweight()) {
     case NONE:
     case SQRT:
@@ -298,6 +407,182 @@ public class LuceneUtils {
     return 1;
   }
 
+  /** Returns true if the global weights for the {@link FlagConfig#termweight()} setting depend on the index. */
+  private boolean usesGlobalTermWeightTable() {
+    return flagConfig.termweight() == TermWeight.IDF || flagConfig.termweight() == TermWeight.LOGENTROPY;
+  }
+
+  /**
+   * Describes the index and weighting that global term weights are computed for, so that a
+   * persisted table is only reused if neither has changed.
+   */
+  private String getGlobalTermWeightsHeader() {
+    return "-termweight " + flagConfig.termweight()
+        + " -numdocs " + compositeReader.numDocs()
+        + " -indexversion " + ((DirectoryReader) compositeReader).getVersion();
+  }
+
+  /**
+   * Rethrows the cause of an exception from a task run on another thread during training:
+   * as it is if it is an {@link IOException} or unchecked, otherwise wrapped in a
+   * {@link RuntimeException}.
+   */
+  static void rethrowCause(ExecutionException e) throws IOException {
+    Throwable cause = e.getCause();
+    if (cause instanceof IOException) throw (IOException) cause;
+    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+    throw new RuntimeException(cause);
+  }
+
+  /** Number of consecutive terms whose weights are computed together by one thread. */
+  private static final int TERMS_PER_WEIGHT_BATCH = 1024;
+
+  /** Consecutive terms from one field whose global weights are to be computed. */
+  private static class TermBatch {
+    final String field;
+    final Term[] terms = new Term[TERMS_PER_WEIGHT_BATCH];
+    final int[] docFreqs = new int[TERMS_PER_WEIGHT_BATCH];
+    final int[] totalTermFreqs = new int[TERMS_PER_WEIGHT_BATCH];
+    int size = 0;
+
+    TermBatch(String field) {
+      this.field = field;
+    }
+  }
+
+  /**
+   * Computes the global weight of every term that passes the {@link #termFilter} in each of the
+   * {@link FlagConfig#contentsfields()}, so that {@link #getGlobalTermWeight} no longer computes
+   * and caches weights term by term.
+   * If {@link FlagConfig#termweightsfile()} is set, the table is written to this file, and will be
+   * read from it instead of being recomputed by later instances if the index hasn't changed.
+   *
+   * <p>The terms dictionary is read once, on the calling thread, taking document and total
+   * frequencies from the terms enumeration rather than looking up each term again. For log-entropy
+   * weighting, the postings of each batch of {@link #TERMS_PER_WEIGHT_BATCH} terms are read on one
+   * of {@link FlagConfig#trainingthreads()} threads, each of which walks its batch with a single
+   * seek. The weights are the same as those computed term by term.
+   *
+   * <p>Does nothing if the weights have already been computed or read, or if the global weight
+   * of every term is 1.
+   */
+  public synchronized void precomputeGlobalTermWeights() throws IOException {
+    if (globalTermWeights != null || !usesGlobalTermWeightTable()) return;
+    VerbatimLogger.info("Computing global term weights ... ");
+    int numThreads = flagConfig.termweight() == TermWeight.LOGENTROPY ? flagConfig.trainingthreads() : 1;
+    ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+    List<TermBatch> batches = new ArrayList<TermBatch>();
+    List<Future<float[]>> results = new ArrayList<Future<float[]>>();
+    GlobalTermWeightTable table = new GlobalTermWeightTable();
+    try {
+      for (String fieldName : flagConfig.contentsfields()) {
+        Terms terms = getTerms(fieldName);
+        if (terms == null) continue;
+        TermsEnum termsEnum = terms.iterator(null);
+        TermBatch batch = new TermBatch(fieldName);
+        BytesRef bytes;
+        while ((bytes = termsEnum.next()) != null) {
+          Term term = new Term(fieldName, BytesRef.deepCopyOf(bytes));
+          if (!termFilter(term)) continue;
+          batch.terms[batch.size] = term;
+          batch.docFreqs[batch.size] = termsEnum.docFreq();
+          batch.totalTermFreqs[batch.size] = getTotalTermFreq(term, termsEnum.totalTermFreq());
+          ++batch.size;
+          if (batch.size == TERMS_PER_WEIGHT_BATCH) {
+            if (executor == null) {
+              addToTable(table, batch, computeGlobalTermWeights(batch));
+            } else {
+              batches.add(batch);
+              results.add(executor.submit(newGlobalTermWeightsTask(batch)));
+            }
+            batch = new TermBatch(fieldName);
+          }
+        }
+        if (batch.size > 0) {
+          if (executor == null) {
+            addToTable(table, batch, computeGlobalTermWeights(batch));
+          } else {
+            batches.add(batch);
+            results.add(executor.submit(newGlobalTermWeightsTask(batch)));
+          }
+        }
+      }
+      for (int i = 0; i < batches.size(); ++i) {
+        addToTable(table, batches.get(i), results.get(i).get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while computing global term weights", e);
+    } catch (ExecutionException e) {
+      rethrowCause(e);
+    } finally {
+      if (executor != null) executor.shutdown();
+    }
+
+    VerbatimLogger.info("computed weights for " + table.size() + " terms.\n");
+    if (!flagConfig.termweightsfile().isEmpty()) {
+      table.writeToFile(flagConfig.termweightsfile(), getGlobalTermWeightsHeader());
+      VerbatimLogger.info("Wrote global term weights to " + flagConfig.termweightsfile() + "\n");
+    }
+    globalTermWeights = table;
+    // The caches are no longer needed for terms in the table.
+    termIDF.clear();
+    termEntropy.clear();
+  }
+
+  private static void addToTable(GlobalTermWeightTable table, TermBatch batch, float[] weights) {
+    for (int i = 0; i < batch.size; ++i) {
+      table.add(batch.terms[i], batch.docFreqs[i], weights[i]);
+    }
+  }
+
+  private Callable<float[]> newGlobalTermWeightsTask(final TermBatch batch) {
+    return new Callable<float[]>() {
+      @Override
+      public float[] call() throws IOException {
+        return computeGlobalTermWeights(batch);
+      }
+    };
+  }
+
+  /** Computes the global weight of each term in the batch. Safe to call from several threads. */
+  private float[] computeGlobalTermWeights(TermBatch batch) throws IOException {
+    float[] weights = new float[batch.size];
+    if (flagConfig.termweight() == TermWeight.IDF) {
+      for (int i = 0; i < batch.size; ++i) {
+        weights[i] = computeIDF(batch.docFreqs[i]);
+      }
+      return weights;
+    }
+
+    // Walk through the batch with a single seek, since its terms are in enumeration order.
+    TermsEnum termsEnum = getTerms(batch.field).iterator(null);
+    if (!termsEnum.seekExact(batch.terms[0].bytes())) {
+      throw new IllegalStateException("Term not found in index: " + batch.terms[0]);
+    }
+    DocsEnum docsEnum = null;
+    int i = 0;
+    while (true) {
+      if (termsEnum.term().equals(batch.terms[i].bytes())) {
+        docsEnum = getDocsForTerm(termsEnum, docsEnum);
+        weights[i] = computeEntropy(docsEnum, batch.totalTermFreqs[i]);
+        if (++i == batch.size) break;
+      }
+      if (termsEnum.next() == null) {
+        throw new IllegalStateException("Term not found in index: " + batch.terms[i]);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * Returns the table of global term weights computed by {@link #precomputeGlobalTermWeights},
+   * or null if they have not been computed.
+   */
+  public GlobalTermWeightTable getGlobalTermWeightTable() {
+    return globalTermWeights;
+  }
+
   /**
    * Gets a local term weight for a term based on its document frequency, depending on the setting for
    * {@link FlagConfig#termweight()}.
@@ -328,6 +613,9 @@ public class LuceneUtils {
    */
   public int getNumDocs() { return compositeReader.numDocs(); }
 
+  /** Returns one greater than the largest Lucene document number, including any deleted documents. */
+  public int getMaxDoc() { return compositeReader.maxDoc(); }
+
   /**
    * Gets the IDF (i.e. log10(numdocs/doc frequency)) of a term
    *	@param term the term whose IDF you would like
@@ -341,7 +629,7 @@ public class LuceneUtils {
         if (freq == 0) { 
           return 0;
         }
-        float idf = (float) Math.log10(compositeReader.numDocs()/freq);
+        float idf = computeIDF(freq);
         termIDF.put(term, idf);
         return idf; 
       } catch (IOException e) {
@@ -352,6 +640,11 @@ public class LuceneUtils {
     }
   }
 
+  /** Computes the IDF of a term with the given (non-zero) document frequency, see {@link #getIDF}. */
+  private float computeIDF(int docFreq) {
+    return (float) Math.log10(compositeReader.numDocs()/docFreq);
+  }
+
   /**
    * Gets the 1 - entropy (i.e. 1+ plogp) of a term,
    * a function that favors terms that are focally distributed
@@ -367,23 +660,39 @@ public class LuceneUtils {
   private float getEntropy(Term term){
     if(termEntropy.containsKey(term))
       return termEntropy.get(term);
+    float entropy = computeEntropy(term);
+    termEntropy.put(term, entropy);
+    return entropy;
+  }
+
+  /** Computes the 1 - entropy of a term, see {@link #getEntropy}. */
+  private float computeEntropy(Term term) {
     int gf = getGlobalTermFreq(term);
-    double entropy = 0;
     try {
-      DocsEnum docsEnum = this.getDocsForTerm(term);
-      while((docsEnum.nextDoc()) != DocsEnum.NO_MORE_DOCS) {
-        double p = docsEnum.freq(); //frequency in this document
-        p = p / gf;		//frequency across all documents
-        entropy += p * (Math.log(p) / Math.log(2)); //sum of Plog(P)
-      }
-      int n= this.getNumDocs();
-      double log2n = Math.log(n)/Math.log(2);
-      entropy = entropy/log2n;
+      return computeEntropy(this.getDocsForTerm(term), gf);
     }
     catch (IOException e) {
       logger.info("Couldn't get term entropy for term " + term.text());
     }
-    termEntropy.put(term, 1 + (float)entropy);
+    return 1;
+  }
+
+  /**
+   * Computes the 1 - entropy of a term from its postings.
+   *
+   * @param docsEnum postings of the term, including frequencies
+   * @param gf total frequency of the term, see {@link #getGlobalTermFreq}
+   */
+  private float computeEntropy(DocsEnum docsEnum, int gf) throws IOException {
+    double entropy = 0;
+    while((docsEnum.nextDoc()) != DocsEnum.NO_MORE_DOCS) {
+      double p = docsEnum.freq(); //frequency in this document
+      p = p / gf;		//frequency across all documents
+      entropy += p * (Math.log(p) / Math.log(2)); //sum of Plog(P)
+    }
+    int n= this.getNumDocs();
+    double log2n = Math.log(n)/Math.log(2);
+    entropy = entropy/log2n;
     return (float) (1 + entropy);
   }
 
@@ -0,0 +1,347 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.apache.lucene.util.FixedBitSet;
+
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVectorUtils;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Exact nearest neighbor index for {@link BinaryVector} stores using multi-index hashing,
+ * as described in Norouzi, Punjani and Fleet, "Fast Search in Hamming Space with Multi-Index
+ * Hashing", 2012.
+ *
+ * <p>
+ * The overlap between binary vectors is 1 minus twice the normalized Hamming distance, so
+ * the nearest neighbors are those at the smallest Hamming distance. Each vector is split into
+ * substrings of {@link FlagConfig#mihsubstringbits()} bits, and there is a table for each
+ * substring position mapping substring values to the vectors that have them. If two vectors
+ * are within Hamming distance d, then for at least one position their substrings are within
+ * distance d / (number of substrings). A search therefore probes each table for substrings
+ * within increasing radius of the query's, scoring each vector found exactly, until enough
+ * results are guaranteed to have been found.
+ *
+ * <p>
+ * Searches fall back to scoring all remaining vectors if probing would be more work, as happens
+ * when the nearest neighbors are far from the query compared with the number of bits in each
+ * substring. Results are always exact.
+ *
+ * <p>
+ * The index is built when opened, by reading each vector once, and holds the bits of all the
+ * vectors in memory along with one table entry per vector per substring position.
+ * Searches are safe for concurrent use from different threads.
+ */
+public class MultiIndexHashingIndex extends NearestNeighborIndex {
+
+  /** Largest size of the bits array, a little below the largest size of a Java array. */
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private final VectorStore vectorStore;
+  private final int dimension;
+  private final int wordsPerVector;
+  private final int substringBits;
+  private final int substringsPerWord;
+  private final int numSubstrings;
+  private final String[] objects;
+  /** Bits of all the vectors, {@link #wordsPerVector} longs per vector. */
+  private final long[] bits;
+  /** Vectors with no bits set, which have overlap 0 with everything. */
+  private final FixedBitSet zeroVectors;
+
+  /**
+   * Table for each substring position: sorted distinct substring values, and for each
+   * value, the range of {@link #tableVectors} listing the vectors with that value.
+   */
+  private final long[][] tableKeys;
+  private final int[][] tableStarts;
+  private final int[][] tableVectors;
+
+  /**
+   * Builds an index for a store of binary vectors, using {@link FlagConfig#mihsubstringbits()}.
+   *
+   * @throws IncompatibleVectorsException if the store does not contain binary vectors
+   */
+  public MultiIndexHashingIndex(VectorStore vectorStore, FlagConfig flagConfig) {
+    if (flagConfig.vectortype() != VectorType.BINARY) {
+      throw new IncompatibleVectorsException(
+          "Multi-index hashing requires binary vectors, not " + flagConfig.vectortype());
+    }
+    this.substringBits = flagConfig.mihsubstringbits();
+    if (substringBits != 8 && substringBits != 16 && substringBits != 32) {
+      throw new IllegalArgumentException(
+          "-mihsubstringbits must be 8, 16 or 32, not " + substringBits);
+    }
+    this.vectorStore = vectorStore;
+    this.dimension = flagConfig.dimension();
+    this.wordsPerVector = dimension / 64;
+    this.substringsPerWord = 64 / substringBits;
+    this.numSubstrings = wordsPerVector * substringsPerWord;
+
+    int numVectors = vectorStore.getNumVectors();
+    // Offsets i * wordsPerVector are ints, which is safe once the whole array fits.
+    long numWords = (long) numVectors * wordsPerVector;
+    if (numWords > MAX_ARRAY_SIZE) {
+      throw new IllegalArgumentException("Cannot index " + numVectors + " vectors of dimension "
+          + dimension + " in a single array. Use a smaller store or a smaller dimension.");
+    }
+    this.objects = new String[numVectors];
+    this.bits = new long[(int) numWords];
+    this.zeroVectors = new FixedBitSet(numVectors);
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    for (int i = 0; i < numVectors; ++i) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      objects[i] = objectVector.getObject().toString();
+      BinaryVector vector = (BinaryVector) objectVector.getVector();
+      if (vector.isZeroVector()) {
+        zeroVectors.set(i);
+      }
+      System.arraycopy(vector.getCoordinates().getBits(), 0, bits, i * wordsPerVector, wordsPerVector);
+    }
+
+    this.tableKeys = new long[numSubstrings][];
+    this.tableStarts = new int[numSubstrings][];
+    this.tableVectors = new int[numSubstrings][];
+    // Sort (substring, vector) pairs packed into longs, then split into distinct substrings.
+    // A 32 bit substring fills the top half of the long, so the sign bit is flipped to make
+    // the signed sort order the same as the unsigned order of the substrings.
+    long[] packed = new long[numVectors];
+    for (int t = 0; t < numSubstrings; ++t) {
+      for (int i = 0; i < numVectors; ++i) {
+        packed[i] = ((substring(bits, i * wordsPerVector, t) << 32) | i) ^ Long.MIN_VALUE;
+      }
+      Arrays.sort(packed);
+      int numKeys = 0;
+      long[] keys = new long[numVectors];
+      int[] starts = new int[numVectors + 1];
+      int[] vectors = new int[numVectors];
+      for (int i = 0; i < numVectors; ++i) {
+        long key = (packed[i] ^ Long.MIN_VALUE) >>> 32;
+        if (numKeys == 0 || keys[numKeys - 1] != key) {
+          keys[numKeys] = key;
+          starts[numKeys++] = i;
+        }
+        vectors[i] = (int) packed[i];
+      }
+      starts[numKeys] = numVectors;
+      tableKeys[t] = Arrays.copyOf(keys, numKeys);
+      tableStarts[t] = Arrays.copyOf(starts, numKeys + 1);
+      tableVectors[t] = vectors;
+    }
+  }
+
+  /** Returns the value of substring t of the vector whose bits start at offset. */
+  private long substring(long[] words, int offset, int t) {
+    long word = words[offset + t / substringsPerWord];
+    int shift = (t % substringsPerWord) * substringBits;
+    return (word >>> shift) & ((1L << substringBits) - 1);
+  }
+
+  /** Returns the Hamming distance between the query bits and vector i. */
+  private int hammingDistance(long[] queryBits, int i) {
+    return (int) BinaryVectorUtils.hammingDistance(
+        queryBits, 0, bits, i * wordsPerVector, wordsPerVector);
+  }
+
+  /** Overlap for this Hamming distance, as in {@link BinaryVector#measureOverlap}. */
+  private double overlap(int i, int hammingDistance) {
+    if (zeroVectors.get(i)) return 0;
+    return 2 * (0.5 - (hammingDistance / (double) dimension));
+  }
+
+  /** Returns the number of substring values within distance r of a given value, capped at max. */
+  private long numProbes(int r, long max) {
+    long count = 1;
+    for (int i = 0; i < r; ++i) {
+      count = count * (substringBits - i) / (i + 1);
+      if (count > max) return max;
+    }
+    return count;
+  }
+
+  /**
+   * Probes every table for substrings at exactly distance r from the query's, scoring
+   * each vector found that has not been visited already.
+   */
+  private void probe(long[] queryBits, int r, FixedBitSet visited, Visitor visitor) {
+    for (int t = 0; t < numSubstrings; ++t) {
+      long querySubstring = substring(queryBits, 0, t);
+      long[] keys = tableKeys[t];
+      // Enumerate r-bit masks in increasing order using Gosper's hack.
+      long mask = (1L << r) - 1;
+      while (mask < (1L << substringBits)) {
+        int k = Arrays.binarySearch(keys, querySubstring ^ mask);
+        if (k >= 0) {
+          for (int j = tableStarts[t][k]; j < tableStarts[t][k + 1]; ++j) {
+            int i = tableVectors[t][j];
+            if (!visited.getAndSet(i)) {
+              visitor.visit(i, hammingDistance(queryBits, i));
+            }
+          }
+        }
+        if (mask == 0) break;
+        long lowest = mask & -mask;
+        long ripple = mask + lowest;
+        mask = (((ripple ^ mask) >>> 2) / lowest) | ripple;
+      }
+    }
+  }
+
+  /** Scores all the vectors not yet visited. */
+  private void scan(long[] queryBits, FixedBitSet visited, Visitor visitor) {
+    for (int i = 0; i < objects.length; ++i) {
+      if (!visited.getAndSet(i)) {
+        visitor.visit(i, hammingDistance(queryBits, i));
+      }
+    }
+  }
+
+  private interface Visitor {
+    void visit(int i, int hammingDistance);
+  }
+
+  private long[] getQueryBits(Vector queryVector) {
+    if (queryVector.getVectorType() != VectorType.BINARY || queryVector.getDimension() != dimension) {
+      throw new IncompatibleVectorsException("Trying to search index of binary vectors of dimension "
+          + dimension + " with " + queryVector.getVectorType() + " vector of dimension "
+          + queryVector.getDimension());
+    }
+    return ((BinaryVector) queryVector).getCoordinates().getBits();
+  }
+
+  private SearchResult makeSearchResult(double score, int i) {
+    return new SearchResult(score, new ObjectVector(objects[i], vectorStore.getVector(objects[i])));
+  }
+
+  @Override
+  public List<SearchResult> getNearestNeighbors(Vector queryVector, int numResults) {
+    final long[] queryBits = getQueryBits(queryVector);
+    final boolean zeroQuery = queryVector.isZeroVector();
+    final TopKCollector<Void> topResults = new TopKCollector<Void>(Math.min(numResults, objects.length));
+    FixedBitSet visited = new FixedBitSet(objects.length);
+    Visitor visitor = new Visitor() {
+      @Override
+      public void visit(int i, int hammingDistance) {
+        topResults.offer(zeroQuery ? 0 : overlap(i, hammingDistance), i, null);
+      }
+    };
+
+    if (zeroQuery) {
+      scan(queryBits, visited, visitor);
+    } else {
+      // Zero vectors have overlap 0 at any Hamming distance, so score them up front.
+      for (int i = 0; i < objects.length; ++i) {
+        if (zeroVectors.get(i)) {
+          visited.set(i);
+          visitor.visit(i, 0);
+        }
+      }
+      for (int r = 0; r <= substringBits; ++r) {
+        if (numSubstrings * numProbes(r, objects.length) >= objects.length) {
+          scan(queryBits, visited, visitor);
+          break;
+        }
+        probe(queryBits, r, visited, visitor);
+        // Any vector not yet visited differs from the query in more than r bits of every substring.
+        int minUnvisitedDistance = numSubstrings * (r + 1);
+        if (topResults.isFull()
+            && topResults.minScore() >= 2 * (0.5 - (minUnvisitedDistance / (double) dimension))) {
+          break;
+        }
+      }
+    }
+
+    topResults.sort();
+    List<SearchResult> results = new ArrayList<SearchResult>(topResults.size());
+    for (int i = 0; i < topResults.size(); ++i) {
+      results.add(makeSearchResult(topResults.getScore(i), topResults.getId(i)));
+    }
+    return results;
+  }
+
+  /**
+   * Returns all the vectors whose overlap with the query vector is greater than the threshold,
+   * from highest to lowest score.
+   */
+  @Override
+  public List<SearchResult> getAllAboveThreshold(Vector queryVector, double threshold) {
+    final long[] queryBits = getQueryBits(queryVector);
+    final boolean zeroQuery = queryVector.isZeroVector();
+    final double minScore = threshold;
+    final TopKCollector<Void> matches = new TopKCollector<Void>(objects.length);
+    FixedBitSet visited = new FixedBitSet(objects.length);
+    Visitor visitor = new Visitor() {
+      @Override
+      public void visit(int i, int hammingDistance) {
+        double score = zeroQuery ? 0 : overlap(i, hammingDistance);
+        if (score > minScore) matches.offer(score, i, null);
+      }
+    };
+
+    // Overlap is greater than threshold iff Hamming distance is at most maxDistance.
+    int maxDistance = (int) Math.ceil((1 - threshold) * dimension / 2) - 1;
+    if (zeroQuery || threshold < 0 || maxDistance >= dimension) {
+      // Zero vectors, which have overlap 0, may be above threshold at any distance.
+      scan(queryBits, visited, visitor);
+    } else if (maxDistance >= 0) {
+      int maxRadius = maxDistance / numSubstrings;
+      long probes = 0;
+      for (int r = 0; r <= maxRadius; ++r) {
+        probes += numSubstrings * numProbes(r, objects.length);
+      }
+      if (probes >= objects.length) {
+        scan(queryBits, visited, visitor);
+      } else {
+        for (int r = 0; r <= maxRadius; ++r) {
+          probe(queryBits, r, visited, visitor);
+        }
+      }
+    }
+
+    matches.sort();
+    List<SearchResult> results = new ArrayList<SearchResult>(matches.size());
+    for (int i = 0; i < matches.size(); ++i) {
+      results.add(makeSearchResult(matches.getScore(i), matches.getId(i)));
+    }
+    return results;
+  }
+}
@@ -0,0 +1,116 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.List;
+
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * Index over a vector store that finds the nearest neighbors of a query vector without
+ * comparing it with every vector in the store.
+ *
+ * <p>
+ * Most indexes are built with the main method of each implementation and written next to the
+ * vector store file. Set {@link FlagConfig#nnindex()} to use an index in {@link Search}; it is
+ * then used by the {@link VectorSearcher} subclasses that score vectors by their overlap with
+ * a single query vector.
+ */
+public abstract class NearestNeighborIndex {
+
+  /**
+   * Enumeration of nearest neighbor indexes.
+   */
+  public enum NearestNeighborIndexType {
+    /** No index: compare the query vector with every vector in the store. */
+    NONE,
+
+    /** Approximate search using a hierarchical navigable small world graph, see {@link HnswIndex}. */
+    HNSW,
+
+    /**
+     * Exact search of binary vectors by multi-index hashing, see {@link MultiIndexHashingIndex}.
+     * Built in memory when the vector store is opened.
+     */
+    MIH,
+
+    /**
+     * Approximate search of real vectors compressed by product quantization,
+     * see {@link ProductQuantizedIndex}.
+     */
+    PQ
+  }
+
+  /**
+   * Returns (at most) the numResults vectors in the index with the greatest overlap with the
+   * query vector, as measured by {@link Vector#measureOverlap}, from highest to lowest score.
+   */
+  public abstract List<SearchResult> getNearestNeighbors(Vector queryVector, int numResults);
+
+  /**
+   * Returns all the vectors in the index whose overlap with the query vector is greater than
+   * the threshold, from highest to lowest score, or null if this index does not support
+   * threshold queries. Returns null by default.
+   */
+  public List<SearchResult> getAllAboveThreshold(Vector queryVector, double threshold) {
+    return null;
+  }
+
+  /**
+   * Opens the index of type {@link FlagConfig#nnindex()} written for the given vector store.
+   *
+   * @param storeName name of the vector store file, as passed to {@link VectorStoreReader#openVectorStore}
+   * @param vectorStore the opened vector store, used for reading vectors found by the index
+   * @return the index, or null if {@link FlagConfig#nnindex()} is {@link NearestNeighborIndexType#NONE}
+   * @throws IOException if the index file is not found or does not match the vector store
+   */
+  public static NearestNeighborIndex openIndex(
+      String storeName, VectorStore vectorStore, FlagConfig flagConfig) throws IOException {
+    String vectorFileName = VectorStoreUtils.getStoreFileName(storeName, flagConfig);
+    switch (flagConfig.nnindex()) {
+    case NONE:
+      return null;
+    case HNSW:
+      return HnswIndex.readFromFile(HnswIndex.getIndexFileName(vectorFileName), vectorStore, flagConfig);
+    case PQ:
+      return ProductQuantizedIndex.readFromFile(
+          ProductQuantizedIndex.getIndexFileName(vectorFileName), vectorStore, flagConfig);
+    case MIH:
+      return new MultiIndexHashingIndex(vectorStore, flagConfig);
+    default:
+      throw new IllegalStateException("Unknown -nnindex: " + flagConfig.nnindex());
+    }
+  }
+}
@@ -36,10 +36,8 @@
 package pitt.search.semanticvectors;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -65,6 +63,8 @@ public class PSITOK {
   private ElementalVectorStore elementalItemVectors;
   private ElementalVectorStore predicateVectors;
   private VectorStoreRAM semanticItemVectors;
+  /** Reused for each term position vector processed. */
+  private final LocalTermPositions localTermPositions = new LocalTermPositions();
   private static final String SUBJECT_FIELD = "tokenized_subject";
   private static final String PREDICATE_FIELD = "tokenized_predicate";
   private static final String OBJECT_FIELD = "tokenized_object";
@@ -240,56 +240,27 @@ public class PSITOK {
   private Vector processTermPositionVector(Terms terms, String field, boolean toWeight)
       throws ArrayIndexOutOfBoundsException, IOException {
    
-    ArrayList<String> localTerms = new ArrayList<String>();
-    ArrayList<Integer> freqs = new ArrayList<Integer>();
-    Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
-
     VectorStore lookupVectors 		= elementalItemVectors;
     if (!toWeight) lookupVectors	= predicateVectors;
     
     Vector semanticVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
     if (terms == null) return semanticVector;
 
-    TermsEnum termsEnum = terms.iterator(null);
-    BytesRef text;
-    int termcount = 0;
-
-    while((text = termsEnum.next()) != null) {
-      String theTerm = text.utf8ToString();
-      if (!lookupVectors.containsVector(theTerm)) continue;
-     
-      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
-      if (docsAndPositions == null) continue;
-      docsAndPositions.nextDoc();
-      freqs.add(docsAndPositions.freq());
-      localTerms.add(theTerm); 
-
-      for (int x = 0; x < docsAndPositions.freq(); x++) {
-    	   localTermPositions.put(new Integer(docsAndPositions.nextPosition()), termcount);
-    }
+    localTermPositions.load(terms, lookupVectors);
+    Vector[] localVectors = localTermPositions.getVectors(lookupVectors);
+    float[] globalweights = null;
+    if (toWeight) globalweights = localTermPositions.getGlobalTermWeights(luceneUtils, field);
 
-     
-         
-      termcount++;
-        
-    }
-
-  
     // Iterate through positions adding index vectors of terms
     // occurring within window to term vector for focus term
-    for (int cursor = 0; cursor < localTermPositions.size(); cursor++) {
-     
-    	if (!localTermPositions.containsKey(cursor)) continue;
-        String coterm = localTerms.get(localTermPositions.get(cursor));
-       
-        if (coterm == null) continue;
-        
-        Vector toSuperpose = lookupVectors.getVector(coterm);
+    for (int cursor = 0; cursor < localTermPositions.getNumPositions(); cursor++) {
+        int coterm = localTermPositions.getLocalIndex(cursor);
+        if (coterm == LocalTermPositions.NO_TERM) continue;
         
         float globalweight = 1;
         
-        if (toWeight) globalweight = luceneUtils.getGlobalTermWeight(new Term(field, coterm));
-         semanticVector.superpose(toSuperpose, globalweight, null);
+        if (toWeight) globalweight = globalweights[coterm];
+         semanticVector.superpose(localVectors[coterm], globalweight, null);
       
       } //end of current sliding window   
   
@@ -319,41 +290,18 @@ public class PSITOK {
 	  	Vector boundProduct = predicateVector.copy();
 	  	boundProduct.bind(argumentVector);
 	  
-	    ArrayList<String> localTerms = new ArrayList<String>();
-	    ArrayList<Integer> freqs = new ArrayList<Integer>();
-	    Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
-
-	    TermsEnum termsEnum = terms.iterator(null);
-	    BytesRef text;
-	    int termcount = 0;
-
-	    while((text = termsEnum.next()) != null) {
-	      String theTerm = text.utf8ToString();
-	      if (!semanticItemVectors.containsVector(theTerm)) continue;
-	      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
-	      if (docsAndPositions == null) continue;
-	      docsAndPositions.nextDoc();
-	      freqs.add(docsAndPositions.freq());
-	      localTerms.add(theTerm); 
-
-	      for (int x = 0; x < docsAndPositions.freq(); x++) {
-	        localTermPositions.put(new Integer(docsAndPositions.nextPosition()), termcount);
-	      }
-
-	      termcount++;
-	    }
+	    localTermPositions.load(terms, semanticItemVectors);
+	    Vector[] localVectors = localTermPositions.getVectors(semanticItemVectors);
 
 	    // Iterate through positions adding index vectors of terms
 	    // occurring within window to term vector for focus term
 	     
-	    for (int cursor = 0; cursor < localTermPositions.size(); ++cursor) {
-	      if (localTermPositions.get(cursor) == null) continue;
-	      
-	         String coterm = localTerms.get(localTermPositions.get(cursor));
-	         if (coterm == null) continue;
+	    for (int cursor = 0; cursor < localTermPositions.getNumPositions(); ++cursor) {
+	         int coterm = localTermPositions.getLocalIndex(cursor);
+	         if (coterm == LocalTermPositions.NO_TERM) continue;
 	        
 	        float globalweight = 1; 
-	          semanticItemVectors.getVector(coterm).superpose(boundProduct, globalweight, null);
+	          localVectors[coterm].superpose(boundProduct, globalweight, null);
 	      
 	      } //end of current sliding window   
 	  
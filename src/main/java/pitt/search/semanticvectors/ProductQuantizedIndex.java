@@ -0,0 +1,535 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.LuceneStreamUtils;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Compressed copy of a store of {@link RealVector}s using product quantization, as described in
+ * J&eacute;gou, Douze and Schmid, "Product quantization for nearest neighbor search", 2011.
+ *
+ * <p>
+ * Each vector is normalized and split into {@link FlagConfig#pqsubvectors()} equal sub-vectors,
+ * and each sub-vector is replaced by the nearest of (up to) 256 centroids, so that a vector is
+ * stored in one byte per sub-vector instead of four bytes per dimension. The centroids for each
+ * sub-vector position are found by k-means clustering of a sample of the vectors, in the same way
+ * as {@link ClusterResults#kMeansCluster} but with Euclidean distance.
+ *
+ * <p>
+ * Searches compare the query vector with the centroids of each sub-vector position once,
+ * after which the approximate cosine similarity with each vector is given by adding up
+ * entries in lookup tables (asymmetric distance computation). If {@link FlagConfig#pqrerank()}
+ * is positive, that many of the best candidates are then rescored exactly using the vectors
+ * read from the vector store, otherwise results have approximate scores.
+ *
+ * <p>
+ * The index is built with {@link #main} and written next to the vector store file.
+ * Searches are safe for concurrent use from different threads.
+ */
+public class ProductQuantizedIndex extends NearestNeighborIndex {
+  private static final Logger logger = Logger.getLogger(ProductQuantizedIndex.class.getCanonicalName());
+
+  /** Suffix appended to the vector store file name to give the index file name. */
+  public static final String PQ_SUFFIX = ".pq";
+
+  /** Maximum number of centroids for each sub-vector position, so that codes fit in a byte. */
+  private static final int MAX_CENTROIDS = 256;
+
+  /** Maximum number of vectors sampled for training the centroids. */
+  private static final int MAX_TRAINING_VECTORS = 65536;
+
+  /** Maximum number of k-means iterations for each sub-vector position. */
+  private static final int MAX_ITERATIONS = 25;
+
+  /** Largest size of the codes array, a little below the largest size of a Java array. */
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private final int dimension;
+  private final int numSubvectors;
+  private final int subvectorLength;
+  private final int numCentroids;
+  private final int rerank;
+  private final String[] objects;
+  /**
+   * Centroids for each sub-vector position, numCentroids centroids of subvectorLength
+   * floats for position 0, followed by position 1, and so on.
+   */
+  private final float[] centroids;
+  /** Squared norm of each centroid, indexed as position * numCentroids + centroid. */
+  private final float[] centroidNorms;
+  /** Codes for all the vectors, numSubvectors bytes per vector. */
+  private final byte[] codes;
+  private VectorStore vectorStore;
+  /** If the vector store is in Lucene format, the file offset of each vector's record. */
+  private VectorStoreReaderLucene luceneStore;
+  private long[] luceneOffsets;
+
+  private ProductQuantizedIndex(int numVectors, int numSubvectors, int numCentroids, FlagConfig flagConfig) {
+    // Offsets i * numSubvectors are ints, which is safe once the whole array fits.
+    long numCodes = (long) numVectors * numSubvectors;
+    if (numCodes > MAX_ARRAY_SIZE) {
+      throw new IllegalArgumentException("Cannot index " + numVectors + " vectors with "
+          + numSubvectors + " sub-vectors in a single array. Use a smaller store or fewer -pqsubvectors.");
+    }
+    this.dimension = flagConfig.dimension();
+    this.numSubvectors = numSubvectors;
+    this.subvectorLength = dimension / numSubvectors;
+    this.numCentroids = numCentroids;
+    this.rerank = flagConfig.pqrerank();
+    this.objects = new String[numVectors];
+    this.centroids = new float[numSubvectors * numCentroids * subvectorLength];
+    this.centroidNorms = new float[numSubvectors * numCentroids];
+    this.codes = new byte[(int) numCodes];
+  }
+
+  /**
+   * Returns the name of the index file for the given vector store file,
+   * e.g., "docvectors.bin.pq" for "docvectors.bin".
+   */
+  public static String getIndexFileName(String vectorFileName) {
+    return vectorFileName + PQ_SUFFIX;
+  }
+
+  /** Returns the number of vectors in the index. */
+  public int getNumVectors() {
+    return objects.length;
+  }
+
+  private static void checkFlags(FlagConfig flagConfig) {
+    if (flagConfig.vectortype() != VectorType.REAL) {
+      throw new IncompatibleVectorsException(
+          "Product quantization requires real vectors, not " + flagConfig.vectortype());
+    }
+    if (flagConfig.pqsubvectors() <= 0 || flagConfig.dimension() % flagConfig.pqsubvectors() != 0) {
+      throw new IllegalArgumentException("-pqsubvectors " + flagConfig.pqsubvectors()
+          + " must be positive and divide -dimension " + flagConfig.dimension());
+    }
+  }
+
+  /** Returns the coordinates of the vector scaled to unit length, or zeros for a zero vector. */
+  private static float[] getNormalizedCoordinates(Vector vector) {
+    float[] coordinates = ((RealVector) vector).getCoordinates().clone();
+    double norm = 0;
+    for (float coordinate : coordinates) {
+      norm += coordinate * coordinate;
+    }
+    if (norm > 0) {
+      float scale = (float) (1 / Math.sqrt(norm));
+      for (int i = 0; i < coordinates.length; ++i) {
+        coordinates[i] *= scale;
+      }
+    }
+    return coordinates;
+  }
+
+  /**
+   * Builds an index containing all the vectors in the vector store, using
+   * {@link FlagConfig#pqsubvectors()}. Reads the store twice, once to sample
+   * vectors for training and once to encode them.
+   */
+  public static ProductQuantizedIndex build(VectorStore vectorStore, FlagConfig flagConfig) {
+    checkFlags(flagConfig);
+    int numVectors = vectorStore.getNumVectors();
+
+    float[][] sample = new float[Math.min(numVectors, MAX_TRAINING_VECTORS)][];
+    int numCentroids = Math.max(1, Math.min(MAX_CENTROIDS, sample.length));
+    ProductQuantizedIndex index = new ProductQuantizedIndex(
+        numVectors, flagConfig.pqsubvectors(), numCentroids, flagConfig);
+
+    // Reservoir sample of the vectors, with fixed seed so the same store gives the same index.
+    Random random = new Random(0);
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    for (int i = 0; i < numVectors; ++i) {
+      Vector vector = vecEnum.nextElement().getVector();
+      int slot = i < sample.length ? i : random.nextInt(i + 1);
+      if (slot < sample.length) {
+        sample[slot] = getNormalizedCoordinates(vector);
+      }
+    }
+
+    for (int position = 0; position < index.numSubvectors && sample.length > 0; ++position) {
+      index.trainCentroids(position, sample, random);
+    }
+    index.computeCentroidNorms();
+
+    vecEnum = vectorStore.getAllVectors();
+    for (int i = 0; i < numVectors; ++i) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      index.objects[i] = objectVector.getObject().toString();
+      float[] coordinates = getNormalizedCoordinates(objectVector.getVector());
+      for (int position = 0; position < index.numSubvectors; ++position) {
+        index.codes[i * index.numSubvectors + position] =
+            (byte) index.nearestCentroid(position, coordinates, position * index.subvectorLength);
+      }
+      if ((i + 1) % 1000000 == 0) {
+        VerbatimLogger.info("Encoded " + (i + 1) + " vectors ...\n");
+      }
+    }
+    index.attachVectorStore(vectorStore);
+    return index;
+  }
+
+  /**
+   * Sets the vector store that vectors are read from for reranking and results. For a
+   * {@link VectorStoreReaderLucene}, the file offset of each vector is looked up once here,
+   * and vectors are then read directly from those offsets.
+   */
+  private void attachVectorStore(VectorStore vectorStore) throws IllegalArgumentException {
+    this.vectorStore = vectorStore;
+    if (vectorStore instanceof VectorStoreReaderLucene) {
+      luceneStore = (VectorStoreReaderLucene) vectorStore;
+      luceneOffsets = new long[objects.length];
+      try {
+        for (int i = 0; i < objects.length; ++i) {
+          luceneOffsets[i] = luceneStore.getOffset(objects[i]);
+          if (luceneOffsets[i] < 0) {
+            throw new IllegalArgumentException("Vector store has no vector for " + objects[i]);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e.getMessage(), e);
+      }
+    }
+  }
+
+  /** Returns vector i, read from the vector store. */
+  private Vector getStoreVector(int i) {
+    if (luceneStore != null) {
+      try {
+        return luceneStore.getVectorAtOffset(luceneOffsets[i]);
+      } catch (IOException e) {
+        throw new RuntimeException(e.getMessage(), e);
+      }
+    }
+    return vectorStore.getVector(objects[i]);
+  }
+
+  /**
+   * Returns the centroid for this sub-vector position with the smallest Euclidean distance
+   * from the sub-vector of the coordinates starting at offset.
+   */
+  private int nearestCentroid(int position, float[] coordinates, int offset) {
+    int nearest = 0;
+    double nearestDistance = Double.MAX_VALUE;
+    int centroidOffset = position * numCentroids * subvectorLength;
+    for (int c = 0; c < numCentroids; ++c, centroidOffset += subvectorLength) {
+      double distance = 0;
+      for (int d = 0; d < subvectorLength; ++d) {
+        double difference = coordinates[offset + d] - centroids[centroidOffset + d];
+        distance += difference * difference;
+      }
+      if (distance < nearestDistance) {
+        nearestDistance = distance;
+        nearest = c;
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * Finds the centroids for a sub-vector position using k-means clustering of the sample,
+   * starting from randomly chosen sample vectors.
+   */
+  private void trainCentroids(int position, float[][] sample, Random random) {
+    int offset = position * subvectorLength;
+    int centroidsOffset = position * numCentroids * subvectorLength;
+    int[] order = new int[sample.length];
+    for (int i = 0; i < order.length; ++i) {
+      order[i] = i;
+    }
+    for (int i = order.length - 1; i > 0; --i) {
+      int j = random.nextInt(i + 1);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+    for (int c = 0; c < numCentroids; ++c) {
+      System.arraycopy(sample[order[c]], offset, centroids, centroidsOffset + c * subvectorLength,
+          subvectorLength);
+    }
+
+    int[] clusterMappings = new int[sample.length];
+    Arrays.fill(clusterMappings, -1);
+    int[] clusterSizes = new int[numCentroids];
+    for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+      // Map sample vectors to clusters.
+      boolean changeFlag = false;
+      for (int i = 0; i < sample.length; ++i) {
+        int c = nearestCentroid(position, sample[i], offset);
+        if (c != clusterMappings[i]) {
+          changeFlag = true;
+          clusterMappings[i] = c;
+        }
+      }
+      if (!changeFlag) {
+        break;
+      }
+
+      // Generate new cluster centroids.
+      Arrays.fill(centroids, centroidsOffset, centroidsOffset + numCentroids * subvectorLength, 0);
+      Arrays.fill(clusterSizes, 0);
+      for (int i = 0; i < sample.length; ++i) {
+        int centroidOffset = centroidsOffset + clusterMappings[i] * subvectorLength;
+        for (int d = 0; d < subvectorLength; ++d) {
+          centroids[centroidOffset + d] += sample[i][offset + d];
+        }
+        ++clusterSizes[clusterMappings[i]];
+      }
+      for (int c = 0; c < numCentroids; ++c) {
+        int centroidOffset = centroidsOffset + c * subvectorLength;
+        if (clusterSizes[c] == 0) {
+          // Restart empty clusters from a random sample vector.
+          System.arraycopy(sample[random.nextInt(sample.length)], offset, centroids, centroidOffset,
+              subvectorLength);
+          continue;
+        }
+        for (int d = 0; d < subvectorLength; ++d) {
+          centroids[centroidOffset + d] /= clusterSizes[c];
+        }
+      }
+    }
+  }
+
+  private void computeCentroidNorms() {
+    for (int c = 0; c < centroidNorms.length; ++c) {
+      float norm = 0;
+      for (int d = 0; d < subvectorLength; ++d) {
+        float coordinate = centroids[c * subvectorLength + d];
+        norm += coordinate * coordinate;
+      }
+      centroidNorms[c] = norm;
+    }
+  }
+
+  /** Returns the object for the vector at this index, in the order of the vector store. */
+  public String getObject(int i) {
+    return objects[i];
+  }
+
+  /**
+   * Returns the vector given by the centroids for the codes of the vector at this index,
+   * which approximates the normalized vector.
+   */
+  public Vector getQuantizedVector(int i) {
+    float[] coordinates = new float[dimension];
+    for (int position = 0; position < numSubvectors; ++position) {
+      int c = codes[i * numSubvectors + position] & 0xFF;
+      System.arraycopy(centroids, (position * numCentroids + c) * subvectorLength,
+          coordinates, position * subvectorLength, subvectorLength);
+    }
+    return new RealVector(coordinates);
+  }
+
+  /**
+   * Returns the dot product of the query with each centroid, indexed as position * numCentroids
+   * + centroid, so that the dot product of the query with a quantized vector is the sum of
+   * the entries for its codes.
+   */
+  private float[] getLookupTable(float[] queryCoordinates) {
+    float[] table = new float[numSubvectors * numCentroids];
+    for (int position = 0; position < numSubvectors; ++position) {
+      int queryOffset = position * subvectorLength;
+      for (int c = 0; c < numCentroids; ++c) {
+        int entry = position * numCentroids + c;
+        float dotProduct = 0;
+        for (int d = 0; d < subvectorLength; ++d) {
+          dotProduct += queryCoordinates[queryOffset + d] * centroids[entry * subvectorLength + d];
+        }
+        table[entry] = dotProduct;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Returns the numResults vectors with the greatest approximate overlap with the query vector.
+   * If {@link FlagConfig#pqrerank()} is positive, the best candidates are rescored exactly
+   * and the results have exact scores.
+   */
+  @Override
+  public List<SearchResult> getNearestNeighbors(Vector queryVector, int numResults) {
+    if (queryVector.getVectorType() != VectorType.REAL || queryVector.getDimension() != dimension) {
+      throw new IncompatibleVectorsException("Trying to search index of real vectors of dimension "
+          + dimension + " with " + queryVector.getVectorType() + " vector of dimension "
+          + queryVector.getDimension());
+    }
+    int numVectors = objects.length;
+    int numCandidates = Math.min(numVectors, Math.max(numResults, rerank));
+    if (queryVector.isZeroVector() || numCandidates == 0) {
+      return new ArrayList<SearchResult>();
+    }
+    TopKCollector<Void> candidates = new TopKCollector<Void>(numCandidates);
+    float[] table = getLookupTable(getNormalizedCoordinates(queryVector));
+    for (int i = 0, codeOffset = 0; i < numVectors; ++i) {
+      float dotProduct = 0;
+      float norm = 0;
+      for (int position = 0; position < numSubvectors; ++position, ++codeOffset) {
+        int entry = position * numCentroids + (codes[codeOffset] & 0xFF);
+        dotProduct += table[entry];
+        norm += centroidNorms[entry];
+      }
+      candidates.offer(norm == 0 ? 0 : dotProduct / Math.sqrt(norm), i, null);
+    }
+    candidates.sort();
+
+    List<SearchResult> results = new ArrayList<SearchResult>(numResults);
+    if (rerank <= 0) {
+      for (int i = 0; i < candidates.size(); ++i) {
+        int id = candidates.getId(i);
+        results.add(new SearchResult(candidates.getScore(i),
+            new ObjectVector(objects[id], getStoreVector(id))));
+      }
+      return results;
+    }
+    TopKCollector<Vector> reranked = new TopKCollector<Vector>(Math.min(numResults, numCandidates));
+    for (int i = 0; i < candidates.size(); ++i) {
+      int id = candidates.getId(i);
+      Vector vector = getStoreVector(id);
+      reranked.offer(queryVector.measureOverlap(vector), id, vector);
+    }
+    reranked.sort();
+    for (int i = 0; i < reranked.size(); ++i) {
+      results.add(new SearchResult(reranked.getScore(i),
+          new ObjectVector(objects[reranked.getId(i)], reranked.getValue(i))));
+    }
+    return results;
+  }
+
+  /**
+   * Writes the index to a file, which can be read by {@link #readFromFile}.
+   */
+  public void writeToFile(String indexFileName, FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(indexFile.getName(), IOContext.DEFAULT);
+    outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    outputStream.writeVInt(numSubvectors);
+    outputStream.writeVInt(numCentroids);
+    outputStream.writeVInt(objects.length);
+    LuceneStreamUtils.writeFloats(outputStream, centroids, centroids.length);
+    for (int i = 0; i < objects.length; ++i) {
+      outputStream.writeString(objects[i]);
+      outputStream.writeBytes(codes, i * numSubvectors, numSubvectors);
+    }
+    outputStream.close();
+    fsDirectory.close();
+  }
+
+  /**
+   * Reads an index written by {@link #writeToFile}.
+   *
+   * @param vectorStore the vector store the index was built from
+   * @throws IOException if the index cannot be read, or was built for a different vector store
+   */
+  public static ProductQuantizedIndex readFromFile(String indexFileName, VectorStore vectorStore,
+      FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput inputStream = fsDirectory.openInput(indexFile.getName(), IOContext.READONCE);
+    try {
+      String header = inputStream.readString();
+      if (!header.equals(VectorStoreWriter.generateHeaderString(flagConfig))) {
+        throw new IOException("PQ index " + indexFileName + " has header '" + header
+            + "', which does not match vector store.");
+      }
+      int numSubvectors = inputStream.readVInt();
+      int numCentroids = inputStream.readVInt();
+      int numVectors = inputStream.readVInt();
+      if (numVectors != vectorStore.getNumVectors()) {
+        throw new IOException("PQ index " + indexFileName + " has " + numVectors
+            + " vectors, but vector store has " + vectorStore.getNumVectors()
+            + ". Index should be rebuilt.");
+      }
+      ProductQuantizedIndex index =
+          new ProductQuantizedIndex(numVectors, numSubvectors, numCentroids, flagConfig);
+      LuceneStreamUtils.readFloats(inputStream, index.centroids, index.centroids.length);
+      index.computeCentroidNorms();
+      for (int i = 0; i < numVectors; ++i) {
+        index.objects[i] = inputStream.readString();
+        inputStream.readBytes(index.codes, i * numSubvectors, numSubvectors);
+      }
+      index.attachVectorStore(vectorStore);
+      return index;
+    } finally {
+      inputStream.close();
+      fsDirectory.close();
+    }
+  }
+
+  /**
+   * Builds an index for the vector store given as the remaining argument and writes it
+   * to {@link #getIndexFileName}.
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    if (flagConfig.remainingArgs.length != 1) {
+      throw new IllegalArgumentException(
+          "Usage: java pitt.search.semanticvectors.ProductQuantizedIndex [-pqsubvectors M] STORE_NAME");
+    }
+    String storeName = flagConfig.remainingArgs[0];
+    String vectorFileName = VectorStoreUtils.getStoreFileName(storeName, flagConfig);
+    CloseableVectorStore vectorStore = VectorStoreReader.openVectorStore(storeName, flagConfig);
+    VerbatimLogger.info("Building PQ index for " + vectorStore.getNumVectors()
+        + " vectors from " + vectorFileName + " ...\n");
+    ProductQuantizedIndex index = build(vectorStore, flagConfig);
+    String indexFileName = getIndexFileName(vectorFileName);
+    index.writeToFile(indexFileName, flagConfig);
+    vectorStore.close();
+    logger.info("Wrote PQ index to " + indexFileName);
+  }
+}
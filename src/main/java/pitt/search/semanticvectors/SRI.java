@@ -38,15 +38,12 @@ package pitt.search.semanticvectors;
 
 
 
-import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.logging.Logger;
 import java.io.IOException;
 import java.lang.RuntimeException;
 
-import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
@@ -122,11 +119,13 @@ public class SRI implements VectorStore {
 	   this.flagConfig = flagConfig;
 	   termVectors = new VectorStoreRAM(flagConfig);
 	   this.lUtils = new LuceneUtils(flagConfig);
+	   lUtils.precomputeGlobalTermWeights();
 	   
 	   //initialize zero vectors and index vectors
 	   initializeVectorStores();
 	   
 	   int numdocs = lUtils.getNumDocs();
+	   LocalTermPositions localTermPositions = new LocalTermPositions();
 	
 	   for (int dc = 0; dc < numdocs; ++dc) {
 		   /* output progress counter */
@@ -144,41 +143,19 @@ public class SRI implements VectorStore {
 		        Terms terms = lUtils.getTermVector(dc, field);
 		        if (terms == null) {VerbatimLogger.severe("No term vector for document "+dc); continue; }
 		   
-		        ArrayList<String> localTerms = new ArrayList<String>();
-		        ArrayList<Integer> freqs = new ArrayList<Integer>();
-		        Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
-
-		        TermsEnum termsEnum = terms.iterator(null);
-		        BytesRef text;
-		        int termcount = 0;
-
-		    //get all the terms and frequencies required for processing
-		    while((text = termsEnum.next()) != null) {
-		      String theTerm = text.utf8ToString();
-		      if (!termVectors.containsVector(theTerm)) continue;
-		      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
-		      if (docsAndPositions == null) return;
-		      docsAndPositions.nextDoc();
-		      freqs.add(docsAndPositions.freq());
-		      localTerms.add(theTerm); 
-
-		      for (int x = 0; x < docsAndPositions.freq(); x++) {
-		        localTermPositions.put(new Integer(docsAndPositions.nextPosition()), termcount);
-		      }
-
-		      termcount++;
-		    }
+		        //get all the terms and frequencies required for processing
+		        localTermPositions.load(terms, termVectors);
   
 		   
-			int numwords = freqs.size();
+			int numwords = localTermPositions.getNumTerms();
 			float norm = 0;
 			
 			/** transform the frequencies into weighted frequencies (if required) **/
-			float[] freaks = new float[freqs.size()];
+			float[] freaks = new float[numwords];
+			float[] globalweights = localTermPositions.getGlobalTermWeights(lUtils, field);
 			for (int x = 0; x < freaks.length; x++)
-			{ int freq = freqs.get(x);
-			  String aTerm = localTerms.get(x);
-			  float globalweight = lUtils.getGlobalTermWeight(new Term(field,aTerm));
+			{ int freq = localTermPositions.getFreq(x);
+			  float globalweight = globalweights[x];
 			   float localweight =lUtils.getLocalTermWeight(freq);
 			   freaks[x] = localweight*globalweight;
 			   norm += Math.pow(freaks[x], 2);
@@ -190,26 +167,16 @@ public class SRI implements VectorStore {
 				freaks[x] = freaks[x] / norm;
 				
 			/** create local random index and term vectors for relevant terms**/
-			Vector[] localindexvectors		 = new Vector[numwords];
-			Vector[] localtermvectors 		 = new Vector[numwords];
-		   
-			
-			for (short tcn = 0; tcn < numwords; ++tcn)	{ 
-				// Only terms that have passed the term filter are included in the VectorStores.
-				if (this.termVectors.containsVector(localTerms.get(tcn))) {
-					/** retrieve relevant random index vectors**/
-					localindexvectors[tcn] = indexVectors.getVector(localTerms.get(tcn));
-					
-					/** retrieve the float[] arrays of relevant term vectors **/
-					localtermvectors[tcn] = termVectors.getVector(localTerms.get(tcn));
-				
-				}  
-				
-			}
+			// Only terms that have passed the term filter are included in the VectorStores,
+			// and only these are loaded into localTermPositions.
+			/** retrieve relevant random index vectors**/
+			Vector[] localindexvectors		 = localTermPositions.getVectors(indexVectors);
+			/** retrieve the float[] arrays of relevant term vectors **/
+			Vector[] localtermvectors 		 = localTermPositions.getVectors(termVectors);
 			
 			
-			for (int x =0; x < localTerms.size()-1; x++)
-				for (int y =x+1; y < localTerms.size(); y++)
+			for (int x =0; x < numwords-1; x++)
+				for (int y =x+1; y < numwords; y++)
 				{	
 					if ((localtermvectors[x] != null) && (localtermvectors[y] != null))
 					{
@@ -43,6 +43,7 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
+import pitt.search.semanticvectors.NearestNeighborIndex.NearestNeighborIndexType;
 import pitt.search.semanticvectors.utils.PsiUtils;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.BinaryVector;
@@ -402,6 +403,18 @@ public class Search {
       return new LinkedList<>();
     }
 
+    if (flagConfig.nnindex() != NearestNeighborIndexType.NONE && searchVecReader != null) {
+      String searchStoreName = flagConfig.searchvectorfile().isEmpty()
+          ? flagConfig.queryvectorfile() : flagConfig.searchvectorfile();
+      try {
+        vecSearcher.setNearestNeighborIndex(
+            NearestNeighborIndex.openIndex(searchStoreName, searchVecReader, flagConfig));
+      } catch (IOException e) {
+        logger.warning("Couldn't open " + flagConfig.nnindex() + " index for " + searchStoreName
+            + ". Will search all vectors.\n" + e.getMessage());
+      }
+    }
+
     results = vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
 
     // Optional: Release filesystem resources. Temporarily removed because of errors in
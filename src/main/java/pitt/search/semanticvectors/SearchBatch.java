@@ -53,6 +53,7 @@ import org.apache.lucene.util.Version;
 
 import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.ZeroVectorException;
 
@@ -182,6 +183,25 @@ public class SearchBatch {
       + "\n<QUERYTERMS> should be a list of words, separated by spaces."
       + "\n    If the term NOT is used, terms after that will be negated.";
 
+  /**
+   * Reads the vector store into memory, using a {@link VectorStorePackedRAM} if
+   * {@link FlagConfig#packedvectorstores()} is set and the vector type allows it,
+   * otherwise a {@link VectorStoreRAM}.
+   */
+  private static VectorStore readVectorStore(FlagConfig flagConfig, String vectorFile)
+      throws IOException {
+    if (flagConfig.packedvectorstores()) {
+      try {
+        return VectorStorePackedRAM.readFromFile(flagConfig, vectorFile);
+      } catch (IncompatibleVectorsException e) {
+        logger.warning(e.getMessage() + ". Will use VectorStoreRAM instead.");
+      }
+    }
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    store.initFromFile(vectorFile);
+    return store;
+  }
+
   /**
    * Takes a user's query, creates a query vector, and searches a vector store.
    * @param flagConfig configuration object for controlling the search
@@ -256,8 +276,7 @@ public class SearchBatch {
         			else VerbatimLogger.info("Please select either -elementalmethod orthographic OR -elementalmethod contenthash depending upon the deterministic approach you would like used.");
         		}
         		else 
-        		{queryVecReader = new VectorStoreRAM(flagConfig);
-        	((VectorStoreRAM) queryVecReader).initFromFile(flagConfig.queryvectorfile());
+        		{queryVecReader = readVectorStore(flagConfig, flagConfig.queryvectorfile());
         		}
         	}
       
@@ -277,8 +296,7 @@ public class SearchBatch {
         searchVecReader = queryVecReader;
       } else {
         VerbatimLogger.info("Opening search vector store from file: " + flagConfig.searchvectorfile() + "\n");
-        searchVecReader = new VectorStoreRAM(flagConfig);
-        ((VectorStoreRAM) searchVecReader).initFromFile(flagConfig.searchvectorfile());
+        searchVecReader = readVectorStore(flagConfig, flagConfig.searchvectorfile());
 
       }
 
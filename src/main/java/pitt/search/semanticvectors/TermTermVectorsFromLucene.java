@@ -38,12 +38,20 @@ package pitt.search.semanticvectors;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.Hashtable;
-import org.apache.lucene.index.DocsAndPositionsEnum;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 
 import pitt.search.semanticvectors.orthography.NumberRepresentation;
@@ -94,6 +102,23 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
   private int[][] permutationCache;
 
   static final short NONEXISTENT = -1;
+
+  /** Number of consecutive documents claimed at a time by each training thread. */
+  private static final int DOCS_PER_CHUNK = 100;
+
+  /**
+   * True while documents are being processed by more than one thread, in which case
+   * each semantic vector is locked while it is being updated.
+   */
+  private boolean parallelTraining = false;
+
+  /** Reused for each document processed by a thread. */
+  private final ThreadLocal<LocalTermPositions> localTermPositions = new ThreadLocal<LocalTermPositions>() {
+    @Override
+    protected LocalTermPositions initialValue() {
+      return new LocalTermPositions();
+    }
+  };
   
   /** Returns the semantic (learned) vectors. */
   public VectorStore getSemanticTermVectors() { return this.semanticTermVectors; }
@@ -201,6 +226,7 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
   private void trainTermTermVectors() throws IOException, RuntimeException { 
     LuceneUtils.compressIndex(flagConfig.luceneindexpath());
     luceneUtils = new LuceneUtils(flagConfig);
+    luceneUtils.precomputeGlobalTermWeights();
 
     // Check that the Lucene index contains Term Positions.
     FieldInfos fieldsWithPositions = luceneUtils.getFieldInfos();
@@ -236,19 +262,20 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
     VerbatimLogger.info("There are now elemental term vectors for " + tc + " terms (and "
         + luceneUtils.getNumDocs() + " docs).\n");
 
-    // Iterate through documents.
-    int numdocs = luceneUtils.getNumDocs();
-
-    for (int dc = 0; dc < numdocs; ++dc) {
-      // Output progress counter.
-      if ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0)) {
-        VerbatimLogger.info("Processed " + dc + " documents ... ");
-      }
-
-      for (String field: flagConfig.contentsfields()) {
-        Terms terms = luceneUtils.getTermVector(dc, field);
-        if (terms == null) {VerbatimLogger.severe("No term vector for document "+dc); continue; }
-        processTermPositionVector(terms, field);
+    // Iterate through documents, segment by segment.
+    if (flagConfig.trainingthreads() > 1) {
+      processDocumentsInParallel(flagConfig.trainingthreads());
+    } else {
+      Vector[] numberVectors = getPositionalNumberVectors(false);
+      int dc = 0;
+      for (LeafReaderContext leaf : luceneUtils.getLeaves()) {
+        for (int doc = 0; doc < leaf.reader().maxDoc(); ++doc) {
+          // Output progress counter.
+          if ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0)) {
+            VerbatimLogger.info("Processed " + dc + " documents ... ");
+          }
+          if (processDocument(leaf, doc, numberVectors)) ++dc;
+        }
       }
     }
 
@@ -285,6 +312,121 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
     }
   }
 
+  /**
+   * Processes the term position vectors for each of the contents fields of a document,
+   * reading them directly from the document's segment.
+   *
+   * @param doc the document number within the segment
+   * @param numberVectors the positional number vectors to use, see {@link #processTermPositionVector}
+   * @return false if the document has been deleted, in which case it is skipped
+   */
+  private boolean processDocument(LeafReaderContext leaf, int doc, Vector[] numberVectors)
+      throws IOException {
+    LeafReader reader = leaf.reader();
+    Bits liveDocs = reader.getLiveDocs();
+    if (liveDocs != null && !liveDocs.get(doc)) return false;
+    for (String field: flagConfig.contentsfields()) {
+      Terms terms = reader.getTermVector(doc, field);
+      if (terms == null) {VerbatimLogger.severe("No term vector for document "+(leaf.docBase + doc)); continue; }
+      processTermPositionVector(terms, field, numberVectors);
+    }
+    return true;
+  }
+
+  /**
+   * Processes all documents using a pool of threads. Each segment is divided into chunks of
+   * {@link #DOCS_PER_CHUNK} documents, and each thread repeatedly claims the next chunk until
+   * there are none left, so that threads work on different segments as well as different parts
+   * of large segments. Threads add to the shared semantic vectors while holding the lock on the
+   * vector being updated. Because the order in which contributions are added varies from run to
+   * run, the results may differ from those of serial training by floating point rounding.
+   */
+  private void processDocumentsInParallel(int numThreads) throws IOException {
+    VerbatimLogger.info("Processing documents using " + numThreads + " threads.\n");
+    // Each chunk is given by the index of its segment and its first document in the segment.
+    final List<LeafReaderContext> leaves = luceneUtils.getLeaves();
+    final List<int[]> chunks = new ArrayList<int[]>();
+    for (int i = 0; i < leaves.size(); ++i) {
+      for (int start = 0; start < leaves.get(i).reader().maxDoc(); start += DOCS_PER_CHUNK) {
+        chunks.add(new int[] {i, start});
+      }
+    }
+    final AtomicInteger nextChunk = new AtomicInteger(0);
+    List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < numThreads; ++i) {
+      workers.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          // Binding may change the representation of its argument, so each thread needs
+          // its own positional number vectors.
+          Vector[] numberVectors = getPositionalNumberVectors(true);
+          int chunk;
+          while ((chunk = nextChunk.getAndIncrement()) < chunks.size()) {
+            if ((chunk * DOCS_PER_CHUNK) % 10000 == 0) {
+              VerbatimLogger.info("Processed about " + chunk * DOCS_PER_CHUNK + " documents ... ");
+            }
+            LeafReaderContext leaf = leaves.get(chunks.get(chunk)[0]);
+            int start = chunks.get(chunk)[1];
+            int end = Math.min(start + DOCS_PER_CHUNK, leaf.reader().maxDoc());
+            for (int doc = start; doc < end; ++doc) {
+              processDocument(leaf, doc, numberVectors);
+            }
+          }
+          return null;
+        }
+      });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    parallelTraining = true;
+    try {
+      for (Future<Void> result : executor.invokeAll(workers)) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while processing documents", e);
+    } catch (ExecutionException e) {
+      LuceneUtils.rethrowCause(e);
+    } finally {
+      parallelTraining = false;
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the vectors in {@link #positionalNumberVectors} indexed by offset from the focus term
+   * plus {@link FlagConfig#windowradius()}, or null if the positional method doesn't use them.
+   *
+   * @param copy if true, the vectors are copied, for use by a single training thread
+   */
+  private Vector[] getPositionalNumberVectors(boolean copy) {
+    if (positionalNumberVectors == null) return null;
+    int radius = flagConfig.windowradius();
+    Vector[] numberVectors = new Vector[2 * radius + 1];
+    for (int offset = -radius; offset <= radius; ++offset) {
+      Vector numberVector = positionalNumberVectors.getVector(offset);
+      if (numberVector != null && copy) numberVector = numberVector.copy();
+      numberVectors[offset + radius] = numberVector;
+    }
+    return numberVectors;
+  }
+
+  /**
+   * Adds the given vector to the semantic vector for the focus term, locking the semantic
+   * vector if documents are being processed in parallel.
+   */
+  private void superposeOntoSemanticVector(
+      Vector semanticVector, Vector toSuperpose, double weight, int[] permutation) {
+    if (parallelTraining) {
+      synchronized (semanticVector) {
+        semanticVector.superpose(toSuperpose, weight, permutation);
+      }
+    } else {
+      semanticVector.superpose(toSuperpose, weight, permutation);
+    }
+  }
+
   /**
    * For each term, add term index vector
    * for any term occurring within a window of size windowSize such
@@ -297,80 +439,70 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
    * term frequencies and (3) term positions within a
    * document. The index of a particular term within this array
    * will be referred to as the 'local index' in comments.
+   *
+   * @param numberVectors vectors used to bind positions within the window, indexed by offset from
+   *        the focus term plus {@link FlagConfig#windowradius()}. Used only with {@link PositionalMethod#PROXIMITY}.
    * @throws IOException 
    */
-  private void processTermPositionVector(Terms terms, String field)
+  private void processTermPositionVector(Terms terms, String field, Vector[] numberVectors)
       throws ArrayIndexOutOfBoundsException, IOException {
     if (terms == null) return;
 
-    ArrayList<String> localTerms = new ArrayList<String>();
-    ArrayList<Integer> freqs = new ArrayList<Integer>();
-    Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
-
-    TermsEnum termsEnum = terms.iterator(null);
-    BytesRef text;
-    int termcount = 0;
-
-    while((text = termsEnum.next()) != null) {
-      String theTerm = text.utf8ToString();
-      if (!semanticTermVectors.containsVector(theTerm)) continue;
-      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
-      if (docsAndPositions == null) return;
-      docsAndPositions.nextDoc();
-      freqs.add(docsAndPositions.freq());
-      localTerms.add(theTerm); 
-
-      for (int x = 0; x < docsAndPositions.freq(); x++) {
-        localTermPositions.put(new Integer(docsAndPositions.nextPosition()), termcount);
-      }
+    LocalTermPositions positions = localTermPositions.get();
+    positions.load(terms, semanticTermVectors);
 
-      termcount++;
-    }
+    // Look up vectors and weights once for each local term, rather than for each window position.
+    Vector[] localSemanticVectors = positions.getVectors(semanticTermVectors);
+    Vector[] localElementalVectors = positions.getVectors(elementalTermVectors);
+    float[] globalweights = positions.getGlobalTermWeights(luceneUtils, field);
+    int numPositions = positions.getNumPositions();
+    int radius = flagConfig.windowradius();
+    PositionalMethod positionalMethod = flagConfig.positionalmethod();
 
     // Iterate through positions adding index vectors of terms
     // occurring within window to term vector for focus term
-    for (int focusposn = 0; focusposn < localTermPositions.size(); ++focusposn) {
-      if (localTermPositions.get(focusposn) == null) continue;
-      String focusterm = localTerms.get(localTermPositions.get(focusposn));
-      int windowstart = Math.max(0, focusposn - flagConfig.windowradius());
-      int windowend = Math.min(focusposn + flagConfig.windowradius(), localTermPositions.size() - 1);
+    for (int focusposn = 0; focusposn < numPositions; ++focusposn) {
+      int focusterm = positions.getLocalIndex(focusposn);
+      if (focusterm == LocalTermPositions.NO_TERM) continue;
+      Vector semanticVector = localSemanticVectors[focusterm];
+      int windowstart = Math.max(0, focusposn - radius);
+      int windowend = Math.min(focusposn + radius, numPositions - 1);
 
       for (int cursor = windowstart; cursor <= windowend; cursor++) {
     	   if (cursor == focusposn) continue;
-        if (localTermPositions.get(cursor) == null) continue;
-        String coterm = localTerms.get(localTermPositions.get(cursor));
-        if (coterm == null) continue;
-        Vector toSuperpose = elementalTermVectors.getVector(coterm);
+        int coterm = positions.getLocalIndex(cursor);
+        if (coterm == LocalTermPositions.NO_TERM) continue;
+        Vector toSuperpose = localElementalVectors[coterm];
         
-        float globalweight = luceneUtils.getGlobalTermWeight(new Term(field, coterm));
+        float globalweight = globalweights[coterm];
         
         //weight according to distance from focusterm
         double rampedweight = 1;
         if (flagConfig.rampedwindow())
-        	{rampedweight =     (1+flagConfig.windowradius() - Math.abs(cursor - focusposn)) / 
-        						(double) flagConfig.windowradius();
+        	{rampedweight =     (1+radius - Math.abs(cursor - focusposn)) / 
+        						(double) radius;
         		}
         
         // bind to appropriate position vector
-        if (flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
-            toSuperpose =  elementalTermVectors.getVector(coterm).copy();
-            toSuperpose.bind(positionalNumberVectors.getVector(cursor-focusposn));
+        if (positionalMethod == PositionalMethod.PROXIMITY) {
+            toSuperpose =  localElementalVectors[coterm].copy();
+            toSuperpose.bind(numberVectors[cursor - focusposn + radius]);
              }
 
         // calculate permutation required for either Sahlgren (2008) implementation
         // encoding word order, or encoding direction as in Burgess and Lund's HAL
-        if (flagConfig.positionalmethod() == PositionalMethod.BASIC
-            || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC
-            	||flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight*rampedweight, null);
+        if (positionalMethod == PositionalMethod.BASIC
+            || positionalMethod == PositionalMethod.PERMUTATIONPLUSBASIC
+            	||positionalMethod == PositionalMethod.PROXIMITY) {
+          superposeOntoSemanticVector(semanticVector, toSuperpose, globalweight*rampedweight, null);
         }
-        if (flagConfig.positionalmethod() == PositionalMethod.PERMUTATION
-            || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC) {
-          int[] permutation = permutationCache[cursor - focusposn + flagConfig.windowradius()];
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight*rampedweight, permutation);
-        } else if (flagConfig.positionalmethod() == PositionalMethod.DIRECTIONAL) {
+        if (positionalMethod == PositionalMethod.PERMUTATION
+            || positionalMethod == PositionalMethod.PERMUTATIONPLUSBASIC) {
+          int[] permutation = permutationCache[cursor - focusposn + radius];
+          superposeOntoSemanticVector(semanticVector, toSuperpose, globalweight*rampedweight, permutation);
+        } else if (positionalMethod == PositionalMethod.DIRECTIONAL) {
           int[] permutation = permutationCache[(int) Math.max(0,Math.signum(cursor - focusposn))];
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight*rampedweight, permutation);
+          superposeOntoSemanticVector(semanticVector, toSuperpose, globalweight*rampedweight, permutation);
 
            }
       } //end of current sliding window   
@@ -121,6 +121,10 @@ public class TermVectorsFromLucene {
     this.termVectors = new VectorStoreRAM(flagConfig);
     // Iterate through an enumeration of terms and create termVector table.
     VerbatimLogger.log(Level.INFO, "Creating semantic term vectors ...\n");
+    luceneUtils.cacheExternalDocIds();
+    luceneUtils.precomputeGlobalTermWeights();
+    // Elemental vectors indexed by Lucene document number, filled in as documents are encountered.
+    Vector[] elementalVectorsByLuceneId = new Vector[luceneUtils.getMaxDoc()];
 
     for (String fieldName : flagConfig.contentsfields()) {
       Terms termsForField = this.luceneUtils.getTermsForField(fieldName);
@@ -136,6 +140,7 @@ public class TermVectorsFromLucene {
       VerbatimLogger.info("Training term vectors for field " + fieldName + "\n");
       int tc = 0;
       TermsEnum terms = this.luceneUtils.getTermsForField(fieldName).iterator(termsEnum);
+      DocsEnum docsEnum = null;
       BytesRef bytes;
       while ((bytes = terms.next()) != null) {
         // Output progress counter.
@@ -153,11 +158,16 @@ public class TermVectorsFromLucene {
         // Initialize new termVector.
         Vector termVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
 
-        DocsEnum docsEnum = luceneUtils.getDocsForTerm(term);
+        docsEnum = luceneUtils.getDocsForTerm(terms, docsEnum);
         while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
-          String docID = luceneUtils.getExternalDocId(docsEnum.docID());
+          int luceneDocID = docsEnum.docID();
+          Vector elementalVector = elementalVectorsByLuceneId[luceneDocID];
+          if (elementalVector == null) {
+            elementalVector = elementalDocVectors.getVector(luceneUtils.getExternalDocId(luceneDocID));
+            elementalVectorsByLuceneId[luceneDocID] = elementalVector;
+          }
           int freq = docsEnum.freq();
-          termVector.superpose(elementalDocVectors.getVector(docID), freq, null);
+          termVector.superpose(elementalVector, freq, null);
         }
         termVector.normalize();
         ((VectorStoreRAM) termVectors).putVector(term.text(), termVector);
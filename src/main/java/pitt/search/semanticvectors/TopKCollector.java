@@ -0,0 +1,204 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+/**
+ * Collects the k highest scoring of a stream of candidates, each identified by an int id
+ * and optionally carrying a value, such as the {@link ObjectVector} that was scored.
+ *
+ * <p>
+ * Candidates are kept in a binary min-heap stored in parallel primitive arrays, so that
+ * offering a candidate takes O(log k) time and allocates nothing. Candidates with equal
+ * scores are ordered by id, lowest first, so results do not depend on the order in which
+ * candidates (or collectors, see {@link #merge}) are offered.
+ *
+ * <p>
+ * Not thread-safe: concurrent searches should use a collector per thread and merge them.
+ *
+ * @param <T> type of the value carried with each candidate
+ */
+public class TopKCollector<T> {
+  private final int k;
+  private final double[] scores;
+  private final int[] ids;
+  private final Object[] values;
+  private int size = 0;
+  private boolean sorted = false;
+
+  /**
+   * @param k maximum number of candidates to keep
+   */
+  public TopKCollector(int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("Number of results must be non-negative, not " + k);
+    }
+    this.k = k;
+    this.scores = new double[k];
+    this.ids = new int[k];
+    this.values = new Object[k];
+  }
+
+  /** Returns the number of candidates currently kept, at most k. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns true if k candidates are already kept. */
+  public boolean isFull() {
+    return size == k;
+  }
+
+  /**
+   * Returns the lowest score kept if the collector is full, otherwise negative infinity.
+   * Candidates scoring less than this will be rejected.
+   */
+  public double minScore() {
+    return isFull() && k > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Offers a candidate, which is kept if it is among the k best so far.
+   *
+   * @return true if the candidate was kept
+   */
+  public boolean offer(double score, int id, T value) {
+    if (sorted) {
+      throw new IllegalStateException("Cannot offer candidates after results have been sorted.");
+    }
+    if (size < k) {
+      scores[size] = score;
+      ids[size] = id;
+      values[size] = value;
+      siftUp(size++);
+      return true;
+    }
+    if (k == 0 || !isWorse(scores[0], ids[0], score, id)) {
+      return false;
+    }
+    scores[0] = score;
+    ids[0] = id;
+    values[0] = value;
+    siftDown(0, size);
+    return true;
+  }
+
+  /** Offers all the candidates kept by the other collector. */
+  @SuppressWarnings("unchecked")
+  public void merge(TopKCollector<? extends T> other) {
+    for (int i = 0; i < other.size; ++i) {
+      offer(other.scores[i], other.ids[i], (T) other.values[i]);
+    }
+  }
+
+  /**
+   * Sorts the candidates kept from highest to lowest score, after which they can be read
+   * using {@link #getScore}, {@link #getId} and {@link #getValue}. No more candidates may be
+   * offered after this.
+   */
+  public void sort() {
+    if (sorted) return;
+    // Heapsort: repeatedly move the lowest remaining candidate to the end.
+    for (int end = size - 1; end > 0; --end) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    sorted = true;
+  }
+
+  /** Returns the score of the ith best candidate. Requires {@link #sort}. */
+  public double getScore(int i) {
+    checkSorted();
+    return scores[i];
+  }
+
+  /** Returns the id of the ith best candidate. Requires {@link #sort}. */
+  public int getId(int i) {
+    checkSorted();
+    return ids[i];
+  }
+
+  /** Returns the value of the ith best candidate. Requires {@link #sort}. */
+  @SuppressWarnings("unchecked")
+  public T getValue(int i) {
+    checkSorted();
+    return (T) values[i];
+  }
+
+  private void checkSorted() {
+    if (!sorted) {
+      throw new IllegalStateException("Results must be sorted before they are read.");
+    }
+  }
+
+  /** Returns true if candidate 1 ranks below candidate 2. */
+  private static boolean isWorse(double score1, int id1, double score2, int id2) {
+    return score1 < score2 || (score1 == score2 && id1 > id2);
+  }
+
+  private boolean isWorse(int i, int j) {
+    return isWorse(scores[i], ids[i], scores[j], ids[j]);
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!isWorse(i, parent)) break;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i, int end) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= end) break;
+      if (child + 1 < end && isWorse(child + 1, child)) ++child;
+      if (!isWorse(child, i)) break;
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private void swap(int i, int j) {
+    double score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+    int id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+    Object value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+  }
+}
@@ -45,6 +45,9 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -81,6 +84,7 @@ abstract public class VectorSearcher {
   private FlagConfig flagConfig;
   private VectorStore searchVecStore;
   private LuceneUtils luceneUtils;
+  private NearestNeighborIndex nearestNeighborIndex;
 
   /**
    * Expand search space for dual-predicate searches
@@ -124,6 +128,111 @@ abstract public class VectorSearcher {
    */
   public abstract double getScore(Vector testVector);
 
+  /**
+   * Returns the single query vector whose overlap with each vector gives its score, for
+   * searchers that can use a {@link NearestNeighborIndex}; otherwise returns null.
+   */
+  protected Vector getQueryVector() {
+    return null;
+  }
+
+  /**
+   * Sets an index over the search vector store, to be used by {@link #getNearestNeighbors}
+   * and {@link #getAllAboveThreshold} instead of scoring every vector if this searcher has a {@link #getQueryVector()}.
+   * Not used with flags that need every vector to be scored, such as {@link FlagConfig#stdev()}.
+   */
+  public void setNearestNeighborIndex(NearestNeighborIndex nearestNeighborIndex) {
+    this.nearestNeighborIndex = nearestNeighborIndex;
+  }
+
+  /**
+   * Returns true if the results from {@link #nearestNeighborIndex} would be the same as
+   * the results of scoring every vector.
+   */
+  private boolean canUseNearestNeighborIndex() {
+    return nearestNeighborIndex != null && getQueryVector() != null && !flagConfig.stdev()
+        && !flagConfig.expandsearchspace()
+        && !(luceneUtils != null && flagConfig.usetermweightsinsearch());
+  }
+
+  /**
+   * Assigns a relevance score to an element of the search vector store. By default this
+   * is {@link #getScore(Vector)} of the element's vector; subclasses may override this
+   * to score elements without reading their vectors, e.g., using {@link #measureOverlap}.
+   */
+  protected double getScore(ObjectVector testElement) {
+    return getScore(testElement.getVector());
+  }
+
+  /**
+   * Version of {@link #getScore(ObjectVector)} for use when only scores of at least minScore
+   * are needed, which returns some value less than minScore for any element scoring less.
+   * By default this returns the exact score; subclasses may override this to stop scoring
+   * an element as soon as its score is known to be too low.
+   */
+  protected double getScore(ObjectVector testElement, double minScore) {
+    return getScore(testElement);
+  }
+
+  /**
+   * Returns the overlap between the query vector and the vector of the test element.
+   * For elements of a {@link VectorStoreReaderMmap}, this is computed from the mapped file,
+   * for elements of a quantized {@link VectorStoreReaderLucene}, from the quantized coordinates,
+   * and for elements of a {@link VectorStorePackedRAM}, from the packed coordinates.
+   */
+  protected static double measureOverlap(Vector queryVector, ObjectVector testElement) {
+    if (testElement instanceof VectorStoreReaderMmap.MappedObjectVector) {
+      return ((VectorStoreReaderMmap.MappedObjectVector) testElement).measureOverlap(queryVector);
+    }
+    if (testElement instanceof VectorStoreReaderLucene.QuantizedObjectVector) {
+      return ((VectorStoreReaderLucene.QuantizedObjectVector) testElement).measureOverlap(queryVector);
+    }
+    if (testElement instanceof VectorStorePackedRAM.PackedObjectVector) {
+      return ((VectorStorePackedRAM.PackedObjectVector) testElement).measureOverlap(queryVector);
+    }
+    return queryVector.measureOverlap(testElement.getVector());
+  }
+
+  /**
+   * Version of {@link #measureOverlap(Vector, ObjectVector)} that returns some value less than
+   * minOverlap for any element with a lower overlap. For {@link VectorType#BINARY} vectors
+   * this stops comparing bits once the Hamming distance is too great.
+   */
+  protected static double measureOverlap(Vector queryVector, ObjectVector testElement,
+      double minOverlap) {
+    if (queryVector.getVectorType() != VectorType.BINARY) {
+      return measureOverlap(queryVector, testElement);
+    }
+    if (testElement instanceof VectorStoreReaderMmap.MappedObjectVector) {
+      return ((VectorStoreReaderMmap.MappedObjectVector) testElement).measureOverlap(
+          queryVector, minOverlap);
+    }
+    if (testElement instanceof VectorStorePackedRAM.PackedObjectVector) {
+      return ((VectorStorePackedRAM.PackedObjectVector) testElement).measureOverlap(
+          queryVector, minOverlap);
+    }
+    return ((BinaryVector) queryVector).measureOverlap(testElement.getVector(), minOverlap);
+  }
+
+  /**
+   * Returns all the vectors in the search vector store. For a {@link VectorStoreReaderMmap},
+   * a quantized {@link VectorStoreReaderLucene} or a {@link VectorStorePackedRAM}, these are
+   * read lazily, so vectors of elements kept in search results must be read
+   * using {@link ObjectVector#getVector()} before returning.
+   */
+  private Enumeration<ObjectVector> getSearchVectors() {
+    if (searchVecStore instanceof VectorStoreReaderMmap) {
+      return ((VectorStoreReaderMmap) searchVecStore).getAllMappedVectors();
+    }
+    if (searchVecStore instanceof VectorStoreReaderLucene) {
+      return ((VectorStoreReaderLucene) searchVecStore).getAllQuantizedVectors();
+    }
+    if (searchVecStore instanceof VectorStorePackedRAM) {
+      return ((VectorStorePackedRAM) searchVecStore).getAllPackedVectors(getQueryVector());
+    }
+    return searchVecStore.getAllVectors();
+  }
+
   /**
    * Performs basic initialization; subclasses should normally call super() to use this.
    * @param queryVecStore Vector store to use for query generation.
@@ -151,74 +260,162 @@ abstract public class VectorSearcher {
    * @param numResults the number of results / length of the result list.
    */
   public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
-    final double unsetScore = -Math.PI;
-    final int bufferSize = 1000;
-    final int indexSize = numResults + bufferSize;
-    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
-    List<SearchResult> tmpResults = new ArrayList<SearchResult>(indexSize);
-    double score = -1;
+    if (canUseNearestNeighborIndex()) {
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      for (SearchResult result : nearestNeighborIndex.getNearestNeighbors(getQueryVector(), numResults)) {
+        if (result.getScore() > flagConfig.searchresultsminscore()) results.add(result);
+      }
+      return results;
+    }
+    if (flagConfig.searchthreads() > 1) {
+      return getNearestNeighborsInParallel(numResults, flagConfig.searchthreads());
+    }
+    ShardResults results = new ShardResults(numResults);
     double threshold = flagConfig.searchresultsminscore();
     if (flagConfig.stdev()) threshold = 0;
-    //Counters for statistics to calculate standard deviation
-    double sum=0, sumsquared=0;
-    int count=0;
-    int pos = 0;
-    for(int i=0; i < indexSize; i++)
-    {
-      tmpResults.add(new SearchResult(unsetScore, null));
-    }
 
-    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    Enumeration<ObjectVector> vecEnum = getSearchVectors();
+    int id = 0;
     while (vecEnum.hasMoreElements()) {
       // Test this element.
-      ObjectVector testElement = vecEnum.nextElement();
-      score = getScore(testElement.getVector());
-
-      // This is a way of using the Lucene Index to get term and
-      // document frequency information to reweight all results. It
-      // seems to be good at moving excessively common terms further
-      // down the results. Note that using this means that scores
-      // returned are no longer just cosine similarities.
-      if (this.luceneUtils != null && flagConfig.usetermweightsinsearch()) {
-        score = score *
-            luceneUtils.getGlobalTermWeightFromString((String) testElement.getObject());
-      }
+      results.score(vecEnum.nextElement(), id++, threshold);
+    }
+    return results.getSearchResults();
+  }
+
+  /**
+   * Returns {@link #getScore(ObjectVector, double)} for the test element, or its exact score
+   * weighted by its global term weight if {@link FlagConfig#usetermweightsinsearch()} is set.
+   */
+  private double getWeightedScore(ObjectVector testElement, double minScore) {
+    if (this.luceneUtils == null || !flagConfig.usetermweightsinsearch()) {
+      return getScore(testElement, minScore);
+    }
+    double score = getScore(testElement);
+
+    // This is a way of using the Lucene Index to get term and
+    // document frequency information to reweight all results. It
+    // seems to be good at moving excessively common terms further
+    // down the results. Note that using this means that scores
+    // returned are no longer just cosine similarities.
+    return score * luceneUtils.getGlobalTermWeightFromString((String) testElement.getObject());
+  }
+
+  /** Number of vectors scored together by each task in {@link #getNearestNeighborsInParallel}. */
+  private static final int SHARD_SIZE = 4096;
 
+  /**
+   * Top results and score statistics for the whole search vector store, or for one shard of it.
+   * Elements are identified by their position in the store, which breaks ties between equal scores.
+   */
+  private class ShardResults {
+    final TopKCollector<ObjectVector> topResults;
+    //Counters for statistics to calculate standard deviation
+    double sum = 0, sumsquared = 0;
+    int count = 0;
+
+    ShardResults(int numResults) {
+      topResults = new TopKCollector<ObjectVector>(numResults);
+    }
+
+    /** Scores the test element, and keeps it if it is one of the best scoring above threshold. */
+    void score(ObjectVector testElement, int id, double threshold) {
+      // Elements scoring less than the worst result kept are dropped, so need not be scored
+      // exactly, unless statistics are needed over every score.
+      double minScore = flagConfig.stdev()
+          ? Double.NEGATIVE_INFINITY : Math.max(threshold, topResults.minScore());
+      double score = getWeightedScore(testElement, minScore);
       if (flagConfig.stdev()) {
         count++;
         sum += score;
         sumsquared += Math.pow(score, 2);
       }
-
       if (score > threshold) {
-        // set existing object in buffer space
-        tmpResults.get(numResults+pos++).set(score, testElement);
+        topResults.offer(score, id, testElement);
       }
+    }
 
-      if(pos == bufferSize)
-      {
-        pos = 0;
-        Collections.sort(tmpResults);
-        threshold = tmpResults.get(indexSize - 1).getScore();
-      }
+    void merge(ShardResults other) {
+      topResults.merge(other.topResults);
+      sum += other.sum;
+      sumsquared += other.sumsquared;
+      count += other.count;
     }
-    
-    Collections.sort(tmpResults);
-    
-    for(int i = 0; i < numResults; i++)
-    {
-      SearchResult sr = tmpResults.get(i);
-      if(sr.getScore() == unsetScore)
-      {
-        break;
+
+    /**
+     * Returns the top results, best first, reading the vectors of any that are read lazily
+     * from the search vector store.
+     */
+    LinkedList<SearchResult> getSearchResults() {
+      topResults.sort();
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      for (int i = 0; i < topResults.size(); ++i) {
+        ObjectVector testElement = topResults.getValue(i);
+        testElement.getVector();
+        results.add(new SearchResult(topResults.getScore(i), testElement));
       }
-      results.add(sr);
+      if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
+      return results;
     }
-    
-    if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
+  }
 
-    
-    return results;
+  /**
+   * Version of {@link #getNearestNeighbors} that reads the search vector store on the calling
+   * thread in shards of {@link #SHARD_SIZE} vectors, and scores each shard as a separate task
+   * on a {@link ForkJoinPool}. Each task keeps its own bounded heap of top results, and these
+   * are merged as tasks complete. The number of shards waiting to be merged is bounded so that
+   * the whole store is never held in memory at once.
+   *
+   * @param numResults the number of results / length of the result list.
+   * @param numThreads the number of threads used for scoring.
+   */
+  private LinkedList<SearchResult> getNearestNeighborsInParallel(final int numResults, int numThreads) {
+    double initialThreshold = flagConfig.searchresultsminscore();
+    if (flagConfig.stdev()) initialThreshold = 0;
+    final double threshold = initialThreshold;
+
+    ShardResults merged = new ShardResults(numResults);
+    Enumeration<ObjectVector> vecEnum = getSearchVectors();
+    int id = 0;
+    if (vecEnum.hasMoreElements()) {
+      // Score the first element on this thread, so that any lazy initialization of the query
+      // happens before it is shared between threads.
+      merged.score(vecEnum.nextElement(), id++, threshold);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    LinkedList<ForkJoinTask<ShardResults>> pending = new LinkedList<ForkJoinTask<ShardResults>>();
+    try {
+      while (vecEnum.hasMoreElements()) {
+        final ObjectVector[] shard = new ObjectVector[SHARD_SIZE];
+        int shardSize = 0;
+        while (shardSize < SHARD_SIZE && vecEnum.hasMoreElements()) {
+          shard[shardSize++] = vecEnum.nextElement();
+        }
+        final int numElements = shardSize;
+        final int firstId = id;
+        id += shardSize;
+        pending.add(pool.submit(new Callable<ShardResults>() {
+          @Override
+          public ShardResults call() {
+            ShardResults shardResults = new ShardResults(numResults);
+            for (int i = 0; i < numElements; ++i) {
+              shardResults.score(shard[i], firstId + i, threshold);
+            }
+            return shardResults;
+          }
+        }));
+        if (pending.size() > 2 * numThreads) {
+          merged.merge(pending.removeFirst().join());
+        }
+      }
+      while (!pending.isEmpty()) {
+        merged.merge(pending.removeFirst().join());
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return merged.getSearchResults();
   }
 
   /**
@@ -236,11 +433,15 @@ abstract public class VectorSearcher {
    * @param threshold minimum score required to get into results list.
    */
   public LinkedList<SearchResult> getAllAboveThreshold(float threshold) {
+    if (canUseNearestNeighborIndex() && threshold != Float.MIN_VALUE) {
+      List<SearchResult> indexResults = nearestNeighborIndex.getAllAboveThreshold(getQueryVector(), threshold);
+      if (indexResults != null) return new LinkedList<SearchResult>(indexResults);
+    }
     LinkedList<SearchResult> results = new LinkedList<SearchResult>();
     double score;
 
     Enumeration<ObjectVector> vecEnum = null;
-    vecEnum = searchVecStore.getAllVectors();
+    vecEnum = getSearchVectors();
 
     while (vecEnum.hasMoreElements()) {
       // Test this element.
@@ -249,12 +450,12 @@ abstract public class VectorSearcher {
       else
       {
 
-        Vector testVector = testElement.getVector();
-        score = getScore(testVector);
+        score = getScore(testElement);
 
       }
 
       if (score > threshold || threshold == Float.MIN_VALUE) {
+        if (testElement != null) testElement.getVector();
         results.add(new SearchResult(score, testElement));}
     }
 
@@ -280,6 +481,21 @@ abstract public class VectorSearcher {
     public double getScore(Vector testVector) {
       return queryVector.measureOverlap(testVector);
     }
+
+    @Override
+    protected double getScore(ObjectVector testElement) {
+      return measureOverlap(queryVector, testElement);
+    }
+
+    @Override
+    protected double getScore(ObjectVector testElement, double minScore) {
+      return measureOverlap(queryVector, testElement, minScore);
+    }
+
+    @Override
+    protected Vector getQueryVector() {
+      return queryVector;
+    }
   }
 
   /**
@@ -331,6 +547,21 @@ abstract public class VectorSearcher {
     public double getScore(Vector testVector) {
       return this.queryVector.measureOverlap(testVector);
     }
+
+    @Override
+    protected double getScore(ObjectVector testElement) {
+      return measureOverlap(this.queryVector, testElement);
+    }
+
+    @Override
+    protected double getScore(ObjectVector testElement, double minScore) {
+      return measureOverlap(this.queryVector, testElement, minScore);
+    }
+
+    @Override
+    protected Vector getQueryVector() {
+      return this.queryVector;
+    }
   }
 
   /**
@@ -413,6 +644,16 @@ abstract public class VectorSearcher {
     public double getScore(Vector testVector) {
       return this.queryVector.measureOverlap(testVector);
     }
+
+    @Override
+    protected double getScore(ObjectVector testElement) {
+      return measureOverlap(this.queryVector, testElement);
+    }
+
+    @Override
+    protected double getScore(ObjectVector testElement, double minScore) {
+      return measureOverlap(this.queryVector, testElement, minScore);
+    }
   }
 
   /**
@@ -837,6 +1078,16 @@ abstract public class VectorSearcher {
     public double getScore(Vector testVector) {
       return queryVector.measureOverlap(testVector);
     }
+
+    @Override
+    protected double getScore(ObjectVector testElement) {
+      return measureOverlap(queryVector, testElement);
+    }
+
+    @Override
+    protected double getScore(ObjectVector testElement, double minScore) {
+      return measureOverlap(queryVector, testElement, minScore);
+    }
   }
 
   /**
@@ -899,7 +1150,7 @@ abstract public class VectorSearcher {
      */
     @Override
     public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
-      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      TopKCollector<ObjectVector> topResults = new TopKCollector<ObjectVector>(numResults);
       double score, score1, score2 = -1;
       double threshold = specialFlagConfig.searchresultsminscore();
       if (specialFlagConfig.stdev())
@@ -911,6 +1162,7 @@ abstract public class VectorSearcher {
 
       Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
       Enumeration<ObjectVector> vecEnum2 = queryVecStore.getAllVectors();
+      int id = 0;
       while (vecEnum.hasMoreElements()) {
         // Test this element.
         ObjectVector testElement = vecEnum.nextElement();
@@ -936,24 +1188,14 @@ abstract public class VectorSearcher {
         }
 
         if (score > threshold) {
-          boolean added = false;
-          for (int i = 0; i < results.size(); ++i) {
-            // Add to list if this is right place.
-            if (score > results.get(i).getScore() && added == false) {
-              results.add(i, new SearchResult(score, testElement));
-              added = true;
-            }
-          }
-          // Prune list if there are already numResults.
-          if (results.size() > numResults) {
-            results.removeLast();
-            threshold = results.getLast().getScore();
-          } else {
-            if (added == false) {
-              results.add(new SearchResult(score, testElement));
-            }
-          }
+          topResults.offer(score, id, testElement);
         }
+        ++id;
+      }
+      topResults.sort();
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      for (int i = 0; i < topResults.size(); ++i) {
+        results.add(new SearchResult(topResults.getScore(i), topResults.getValue(i)));
       }
       if (specialFlagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
       return results;
@@ -1163,7 +1405,7 @@ public double getScore(Vector testVector) {
    * @return list of results with scores as number of standard deviations from mean
    */
   public LinkedList<SearchResult> transformToStats(
-      LinkedList<SearchResult> rawResults,int count, double sum, double sumsq) {
+      List<SearchResult> rawResults,int count, double sum, double sumsq) {
     LinkedList<SearchResult> transformedResults = new LinkedList<SearchResult>();
     double variancesquared = sumsq - (Math.pow(sum,2)/count);
     double stdev = Math.sqrt(variancesquared/(count));
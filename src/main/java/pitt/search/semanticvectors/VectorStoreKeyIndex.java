@@ -0,0 +1,273 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.InPlaceMergeSorter;
+
+/**
+ * Maps each object in a Lucene-format vector store to the file offset of its record,
+ * so that {@link VectorStoreReaderLucene} can seek directly to a vector instead of
+ * scanning the whole file.
+ *
+ * <p>
+ * Keys are held in a sorted array alongside a parallel array of offsets, and looked up
+ * by binary search.
+ *
+ * <p>
+ * The index is written as a sidecar file next to the vector store (see
+ * {@link #getKeyIndexFileName}) by {@link VectorStoreWriter} and other classes that
+ * write Lucene-format stores. The sidecar consists of one (string, vlong) entry per
+ * record followed by a fixed-width footer giving the number of records, the length
+ * of the vector store file it was written for, and a CRC32 checksum of the start of
+ * that file (its header and at least the first {@link #CHECKSUM_PREFIX_LENGTH} bytes,
+ * rounded up to a record boundary). The footer is used to detect sidecars that are out
+ * of date with respect to their vector store, in which case the reader rebuilds the
+ * index with a single scan instead.
+ */
+public class VectorStoreKeyIndex {
+
+  /** Suffix appended to the vector store file name to give the key index file name. */
+  public static final String KEY_INDEX_SUFFIX = ".idx";
+
+  /** Minimum number of bytes at the start of the vector store covered by the checksum. */
+  public static final int CHECKSUM_PREFIX_LENGTH = 4096;
+
+  /** Size in bytes of the footer, four longs. */
+  private static final int FOOTER_LENGTH = 32;
+
+  /** Keys in sorted order, without duplicates. */
+  private final String[] keys;
+  /** Offset of the first record for the key at the same position in {@link #keys}. */
+  private final long[] offsets;
+  private final int numVectors;
+
+  /**
+   * Creates an index from entries in file order, which are sorted in place. If the same
+   * key appears more than once, the first entry is kept.
+   */
+  private VectorStoreKeyIndex(final String[] entryKeys, final long[] entryOffsets, int numEntries) {
+    this.numVectors = numEntries;
+    // Merge sort is stable, so the first of any duplicate keys stays first.
+    new InPlaceMergeSorter() {
+      @Override
+      protected int compare(int i, int j) {
+        return entryKeys[i].compareTo(entryKeys[j]);
+      }
+
+      @Override
+      protected void swap(int i, int j) {
+        String key = entryKeys[i];
+        entryKeys[i] = entryKeys[j];
+        entryKeys[j] = key;
+        long offset = entryOffsets[i];
+        entryOffsets[i] = entryOffsets[j];
+        entryOffsets[j] = offset;
+      }
+    }.sort(0, numEntries);
+
+    int numKeys = 0;
+    for (int i = 0; i < numEntries; ++i) {
+      if (numKeys == 0 || !entryKeys[i].equals(entryKeys[numKeys - 1])) {
+        entryKeys[numKeys] = entryKeys[i];
+        entryOffsets[numKeys] = entryOffsets[i];
+        ++numKeys;
+      }
+    }
+    this.keys = numKeys == entryKeys.length ? entryKeys : Arrays.copyOf(entryKeys, numKeys);
+    this.offsets = numKeys == entryOffsets.length ? entryOffsets : Arrays.copyOf(entryOffsets, numKeys);
+  }
+
+  /**
+   * Returns the name of the sidecar key index file for the given vector store file,
+   * e.g., "termvectors.bin.idx" for "termvectors.bin".
+   */
+  public static String getKeyIndexFileName(String vectorFileName) {
+    return vectorFileName + KEY_INDEX_SUFFIX;
+  }
+
+  /** Returns the number of records in the vector store, including any with duplicate keys. */
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  /** Returns true if there is a record for this key. */
+  public boolean containsKey(String key) {
+    return Arrays.binarySearch(keys, key) >= 0;
+  }
+
+  /**
+   * Returns the file offset at which the record for this key starts (i.e., the offset of its
+   * key string), or -1 if there is no such record. If the same key appears more than once,
+   * the first record is used, as with a linear scan.
+   */
+  public long getOffset(String key) {
+    int position = Arrays.binarySearch(keys, key);
+    return position < 0 ? -1 : offsets[position];
+  }
+
+  /**
+   * Reads a key index previously written by {@link Writer}.
+   *
+   * @param keyIndexInput input positioned anywhere in the key index file
+   * @param vectorInput input for the vector store the index is for, positioned anywhere
+   * @return the index, or null if the index was written for a vector store of different length
+   *     or whose leading bytes have a different checksum
+   */
+  public static VectorStoreKeyIndex readFromIndexInput(IndexInput keyIndexInput, IndexInput vectorInput)
+      throws IOException {
+    if (keyIndexInput.length() < FOOTER_LENGTH) {
+      return null;
+    }
+    keyIndexInput.seek(keyIndexInput.length() - FOOTER_LENGTH);
+    long numEntries = keyIndexInput.readLong();
+    long dataLength = keyIndexInput.readLong();
+    long checksumLength = keyIndexInput.readLong();
+    long checksum = keyIndexInput.readLong();
+    if (dataLength != vectorInput.length() || checksumLength > dataLength
+        || checksum != getPrefixChecksum(vectorInput, checksumLength)) {
+      return null;
+    }
+    String[] entryKeys = new String[(int) numEntries];
+    long[] entryOffsets = new long[(int) numEntries];
+    keyIndexInput.seek(0);
+    for (int i = 0; i < numEntries; ++i) {
+      entryKeys[i] = keyIndexInput.readString();
+      entryOffsets[i] = keyIndexInput.readVLong();
+    }
+    return new VectorStoreKeyIndex(entryKeys, entryOffsets, (int) numEntries);
+  }
+
+  /** Returns the CRC32 checksum of the first {@code length} bytes of the input. */
+  private static long getPrefixChecksum(IndexInput input, long length) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[CHECKSUM_PREFIX_LENGTH];
+    input.seek(0);
+    for (long remaining = length; remaining > 0; ) {
+      int numBytes = (int) Math.min(remaining, buffer.length);
+      input.readBytes(buffer, 0, numBytes);
+      crc.update(buffer, 0, numBytes);
+      remaining -= numBytes;
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Builds a key index by scanning a vector store, skipping over the vector data for each record.
+   *
+   * @param vectorInput input for the vector store, whose header has already been read
+   * @param luceneByteSize number of bytes taken by each serialized vector
+   */
+  public static VectorStoreKeyIndex buildFromVectorStore(IndexInput vectorInput, int luceneByteSize)
+      throws IOException {
+    String[] entryKeys = new String[16];
+    long[] entryOffsets = new long[16];
+    int numEntries = 0;
+    while (vectorInput.getFilePointer() < vectorInput.length()) {
+      if (numEntries == entryKeys.length) {
+        entryOffsets = ArrayUtil.grow(entryOffsets);
+        entryKeys = Arrays.copyOf(entryKeys, entryOffsets.length);
+      }
+      entryOffsets[numEntries] = vectorInput.getFilePointer();
+      entryKeys[numEntries] = vectorInput.readString();
+      ++numEntries;
+      vectorInput.seek(vectorInput.getFilePointer() + luceneByteSize);
+    }
+    return new VectorStoreKeyIndex(entryKeys, entryOffsets, numEntries);
+  }
+
+  /**
+   * Writes a key index alongside a vector store as records are written.
+   * Caller is responsible for opening and closing both output streams.
+   */
+  public static class Writer {
+    private final IndexOutput keyIndexOutput;
+    private final IndexOutput vectorOutput;
+    private long numEntries = 0;
+    private long checksumLength = -1;
+    private long checksum;
+
+    /**
+     * @param keyIndexOutput output for the key index
+     * @param vectorOutput output for the vector store, whose running checksum is recorded
+     *     so that readers can tell whether the store has since been rewritten
+     */
+    public Writer(IndexOutput keyIndexOutput, IndexOutput vectorOutput) {
+      this.keyIndexOutput = keyIndexOutput;
+      this.vectorOutput = vectorOutput;
+    }
+
+    /**
+     * Records that the record for this key starts at the given offset in the vector store,
+     * i.e., the value of {@link IndexOutput#getFilePointer()} before writing the key.
+     */
+    public void addEntry(String key, long offset) throws IOException {
+      if (checksumLength < 0 && offset >= CHECKSUM_PREFIX_LENGTH) {
+        recordChecksum(offset);
+      }
+      keyIndexOutput.writeString(key);
+      keyIndexOutput.writeVLong(offset);
+      ++numEntries;
+    }
+
+    private void recordChecksum(long vectorFilePointer) throws IOException {
+      if (vectorOutput.getFilePointer() != vectorFilePointer) {
+        throw new IllegalStateException("Key index entries must be added before writing each record.");
+      }
+      checksumLength = vectorFilePointer;
+      checksum = vectorOutput.getChecksum();
+    }
+
+    /**
+     * Writes the footer. Must be called once after all entries have been added and
+     * all records have been written to the vector store.
+     */
+    public void finish() throws IOException {
+      long vectorFileLength = vectorOutput.getFilePointer();
+      if (checksumLength < 0) {
+        recordChecksum(vectorFileLength);
+      }
+      keyIndexOutput.writeLong(numEntries);
+      keyIndexOutput.writeLong(vectorFileLength);
+      keyIndexOutput.writeLong(checksumLength);
+      keyIndexOutput.writeLong(checksum);
+    }
+  }
+}
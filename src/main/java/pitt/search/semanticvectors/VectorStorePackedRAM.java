@@ -0,0 +1,487 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVectorUtils;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.PolarOverlapScorer;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.RealVectorUtils;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * In-memory vector store that packs the coordinates of all its vectors into a single
+ * primitive array, a {@code float[]} for {@link VectorType#REAL} vectors, a {@code long[]}
+ * for {@link VectorType#BINARY} vectors and a {@code short[]} of phase angles for
+ * {@link VectorType#COMPLEX} vectors, with an open-addressing hash table from objects to
+ * positions in the array. Complex vectors also have a bitmap of their nonzero entries,
+ * see {@link PolarOverlapScorer#pack}.
+ *
+ * <p>
+ * This uses much less memory than {@link VectorStoreRAM} for large stores, which has several
+ * objects per vector, and scanning the store reads memory sequentially. Vectors are copied into
+ * the store by {@link #putVector} and out of it by {@link #getVector}, so changing a vector
+ * returned by the store does not change the store: this class is intended for stores that are
+ * read and searched rather than built up incrementally. Binary vectors should be normalized
+ * before they are added.
+ *
+ * <p>
+ * Vectors can also be accessed by their index, from 0 to {@link #getNumVectors()} - 1 in the
+ * order they were added. Searchers compare query vectors with vectors in the store using
+ * {@link #getAllPackedVectors(Vector)} and {@link PackedObjectVector#measureOverlap}, which works
+ * directly on the packed coordinates.
+ *
+ * <p>
+ * Not thread-safe for concurrent writes; concurrent reads are safe once the store is built.
+ */
+public class VectorStorePackedRAM implements VectorStore {
+  private static final Logger logger = Logger.getLogger(VectorStorePackedRAM.class.getCanonicalName());
+
+  /** Largest size of the coordinate array, a little below the largest size of a Java array. */
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private final VectorType vectorType;
+  private final int dimension;
+  /** Number of floats, longs or shorts used by each vector. */
+  private final int stride;
+  /** Number of longs in the bitmap of nonzero entries of each complex vector. */
+  private final int maskStride;
+
+  private int numVectors = 0;
+  private String[] objects;
+  /** Coordinates of real vectors, {@link #stride} floats per vector. */
+  private float[] realCoordinates;
+  /** Bits of binary vectors, {@link #stride} longs per vector. */
+  private long[] binaryCoordinates;
+  /** Phase angles of complex vectors, {@link #stride} shorts per vector. */
+  private short[] complexPhases;
+  /** Bitmaps of nonzero entries of complex vectors, {@link #maskStride} longs per vector. */
+  private long[] complexMasks;
+  /**
+   * Squared norm of each real vector, number of bits set in each binary vector,
+   * or number of nonzero entries in each complex vector.
+   */
+  private double[] norms;
+
+  /** Hash table of vector index + 1 for each object, with 0 for empty slots. */
+  private int[] hashTable;
+
+  /**
+   * Creates an empty store for vectors of {@link FlagConfig#vectortype()} and
+   * {@link FlagConfig#dimension()}.
+   *
+   * @param expectedNumVectors number of vectors to allocate space for initially
+   * @throws IncompatibleVectorsException if the vector type is not real, binary or complex
+   */
+  public VectorStorePackedRAM(FlagConfig flagConfig, int expectedNumVectors) {
+    this.vectorType = flagConfig.vectortype();
+    this.dimension = flagConfig.dimension();
+    switch (vectorType) {
+    case REAL:
+    case COMPLEX:
+      stride = dimension;
+      break;
+    case BINARY:
+      stride = dimension / 64;
+      break;
+    default:
+      throw new IncompatibleVectorsException(
+          "VectorStorePackedRAM supports real, binary and complex vectors, not " + vectorType);
+    }
+    maskStride = vectorType == VectorType.COMPLEX ? PolarOverlapScorer.getNumMaskWords(dimension) : 0;
+    int capacity = Math.max(16, expectedNumVectors);
+    objects = new String[capacity];
+    norms = new double[capacity];
+    if (vectorType == VectorType.REAL) {
+      realCoordinates = new float[checkedArraySize(capacity)];
+    } else if (vectorType == VectorType.BINARY) {
+      binaryCoordinates = new long[checkedArraySize(capacity)];
+    } else {
+      complexPhases = new short[checkedArraySize(capacity)];
+      complexMasks = new long[capacity * maskStride];
+    }
+    hashTable = new int[tableSizeFor(capacity)];
+  }
+
+  public VectorStorePackedRAM(FlagConfig flagConfig) {
+    this(flagConfig, 16);
+  }
+
+  /**
+   * Returns a new vector store, initialized from disk with the given vectorFile.
+   *
+   * Dimension and vector type from store on disk may overwrite any previous values in flagConfig.
+   */
+  public static VectorStorePackedRAM readFromFile(FlagConfig flagConfig, String vectorFile) throws IOException {
+    if (vectorFile.isEmpty()) {
+      throw new IllegalArgumentException("vectorFile argument cannot be empty.");
+    }
+    // Open the store first so that flagConfig has its vector type and dimension.
+    CloseableVectorStore vectorReaderDisk = VectorStoreReader.openVectorStore(vectorFile, flagConfig);
+    try {
+      VectorStorePackedRAM store = new VectorStorePackedRAM(flagConfig, vectorReaderDisk.getNumVectors());
+      Enumeration<ObjectVector> vectorEnumeration = vectorReaderDisk.getAllVectors();
+      logger.fine("Reading vectors from store on disk into packed memory store ...");
+      while (vectorEnumeration.hasMoreElements()) {
+        ObjectVector objectVector = vectorEnumeration.nextElement();
+        store.putVector(objectVector.getObject(), objectVector.getVector());
+      }
+      logger.fine("Cached " + store.getNumVectors() + " vectors.");
+      return store;
+    } finally {
+      vectorReaderDisk.close();
+    }
+  }
+
+  private int checkedArraySize(int numVectors) {
+    long size = (long) numVectors * stride;
+    if (size > MAX_ARRAY_SIZE) {
+      throw new IllegalStateException("Cannot store " + numVectors + " vectors of dimension "
+          + dimension + " in a single array. Use VectorStoreRAM or a smaller dimension.");
+    }
+    return (int) size;
+  }
+
+  /** Returns a power of two at least twice the number of vectors, so the table is at most half full. */
+  private static int tableSizeFor(int numVectors) {
+    return Integer.highestOneBit(Math.max(numVectors, 1) * 2 - 1) << 1;
+  }
+
+  /** Returns the slot of the hash table holding this object, or the empty slot where it belongs. */
+  private int findSlot(String object) {
+    int mask = hashTable.length - 1;
+    // Spread the bits of the hash code, as in java.util.HashMap.
+    int hash = object.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (hashTable[slot] != 0 && !objects[hashTable[slot] - 1].equals(object)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void grow() {
+    int capacity = (int) Math.min((long) objects.length * 2, MAX_ARRAY_SIZE / Math.max(stride, 1));
+    if (capacity <= objects.length) {
+      checkedArraySize(objects.length + 1);
+    }
+    objects = Arrays.copyOf(objects, capacity);
+    norms = Arrays.copyOf(norms, capacity);
+    if (vectorType == VectorType.REAL) {
+      realCoordinates = Arrays.copyOf(realCoordinates, checkedArraySize(capacity));
+    } else if (vectorType == VectorType.BINARY) {
+      binaryCoordinates = Arrays.copyOf(binaryCoordinates, checkedArraySize(capacity));
+    } else {
+      complexPhases = Arrays.copyOf(complexPhases, checkedArraySize(capacity));
+      complexMasks = Arrays.copyOf(complexMasks, capacity * maskStride);
+    }
+    hashTable = new int[tableSizeFor(capacity)];
+    for (int i = 0; i < numVectors; ++i) {
+      hashTable[findSlot(objects[i])] = i + 1;
+    }
+  }
+
+  /**
+   * Copies the vector into the store with the given key, which is converted to a string.
+   * Overwrites any existing vector with this key.
+   */
+  public void putVector(Object key, Vector vector) {
+    if (vector.getVectorType() != vectorType || vector.getDimension() != dimension) {
+      throw new IncompatibleVectorsException("Trying to add " + vector.getVectorType()
+          + " vector of dimension " + vector.getDimension() + " to store of "
+          + vectorType + " vectors of dimension " + dimension);
+    }
+    String object = key.toString();
+    int slot = findSlot(object);
+    int index = hashTable[slot] - 1;
+    if (index < 0) {
+      if (numVectors == objects.length) {
+        grow();
+        slot = findSlot(object);
+      }
+      index = numVectors++;
+      objects[index] = object;
+      hashTable[slot] = index + 1;
+    }
+
+    int offset = index * stride;
+    double norm = 0;
+    if (vectorType == VectorType.REAL) {
+      float[] coordinates = ((RealVector) vector).getCoordinates();
+      System.arraycopy(coordinates, 0, realCoordinates, offset, stride);
+      norm = ((RealVector) vector).getNormSquared();
+    } else if (vectorType == VectorType.COMPLEX) {
+      int maskOffset = index * maskStride;
+      Arrays.fill(complexMasks, maskOffset, maskOffset + maskStride, 0);
+      norm = PolarOverlapScorer.pack(
+          (ComplexVector) vector, complexPhases, offset, complexMasks, maskOffset);
+    } else {
+      long[] bits = ((BinaryVector) vector).getCoordinates().getBits();
+      System.arraycopy(bits, 0, binaryCoordinates, offset, stride);
+      for (int i = 0; i < stride; ++i) {
+        norm += Long.bitCount(bits[i]);
+      }
+    }
+    norms[index] = norm;
+  }
+
+  /** Returns the index of the vector for this object, or -1 if there is none. */
+  public int getIndex(Object object) {
+    return hashTable[findSlot(object.toString())] - 1;
+  }
+
+  /** Returns the object for the vector with the given index. */
+  public String getObject(int index) {
+    return objects[index];
+  }
+
+  /**
+   * Returns a copy of the vector for this object, or null if not found.
+   */
+  @Override
+  public Vector getVector(Object object) {
+    int index = getIndex(object);
+    return index < 0 ? null : getVector(index);
+  }
+
+  /** Returns a copy of the vector with the given index. */
+  public Vector getVector(int index) {
+    int offset = index * stride;
+    if (vectorType == VectorType.REAL) {
+      return new RealVector(Arrays.copyOfRange(realCoordinates, offset, offset + stride));
+    }
+    if (vectorType == VectorType.COMPLEX) {
+      return PolarOverlapScorer.unpack(
+          dimension, complexPhases, offset, complexMasks, index * maskStride);
+    }
+    BinaryVector vector = new BinaryVector(dimension);
+    System.arraycopy(binaryCoordinates, offset, vector.getCoordinates().getBits(), 0, stride);
+    return vector;
+  }
+
+  /**
+   * Returns the overlap between the query vector and the vector with the given index,
+   * as given by {@link Vector#measureOverlap}, computed from the packed coordinates.
+   */
+  public double measureOverlap(Vector queryVector, int index) {
+    return measureOverlap(queryVector, index, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Version of {@link #measureOverlap(Vector, int)} for use in searches that only need overlaps
+   * of at least minOverlap. For {@link VectorType#BINARY} vectors, stops comparing words once
+   * the Hamming distance is too great.
+   *
+   * @return the overlap if it is at least minOverlap, otherwise some value less than minOverlap
+   */
+  public double measureOverlap(Vector queryVector, int index, double minOverlap) {
+    if (queryVector.getVectorType() != vectorType || queryVector.getDimension() != dimension) {
+      throw new IncompatibleVectorsException("Trying to compare " + queryVector.getVectorType()
+          + " vector of dimension " + queryVector.getDimension() + " with store of "
+          + vectorType + " vectors of dimension " + dimension);
+    }
+    if (vectorType == VectorType.COMPLEX) {
+      if (ComplexVector.getDominantMode() != ComplexVector.Mode.POLAR_DENSE) {
+        return queryVector.measureOverlap(getVector(index));
+      }
+      return measureOverlap(new PolarOverlapScorer((ComplexVector) queryVector), index);
+    }
+    if (queryVector.isZeroVector() || norms[index] == 0) return 0;
+    int offset = index * stride;
+    if (vectorType == VectorType.REAL) {
+      // Cosine similarity, as in RealVector#measureOverlap.
+      RealVector realQueryVector = (RealVector) queryVector;
+      double result = RealVectorUtils.dotProduct(
+          realQueryVector.getCoordinates(), 0, realCoordinates, offset, stride);
+      return result / Math.sqrt(realQueryVector.getNormSquared() * norms[index]);
+    }
+    // 1 - normalized Hamming distance, as in BinaryVector#measureOverlap.
+    long[] queryBits = ((BinaryVector) queryVector).getCoordinates().getBits();
+    long hammingDistance = BinaryVectorUtils.hammingDistance(queryBits, 0, binaryCoordinates, offset,
+        stride, BinaryVectorUtils.maxHammingDistance(minOverlap, dimension));
+    return BinaryVectorUtils.overlapFromHammingDistance(hammingDistance, dimension);
+  }
+
+  /**
+   * Returns the overlap between the scorer's query vector and the complex vector with the
+   * given index, as given by {@link Vector#measureOverlap}. Searches that compare one query
+   * vector with many vectors in the store should create the scorer once.
+   */
+  public double measureOverlap(PolarOverlapScorer scorer, int index) {
+    if (norms[index] == 0) return 0;
+    return scorer.measureOverlap(complexPhases, index * stride, complexMasks, index * maskStride);
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return getIndex(object) >= 0;
+  }
+
+  @Override
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  /**
+   * Returns an enumeration of all the object vectors, in the order they were added,
+   * each with a copy of its vector.
+   */
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new PackedVectorEnumeration(false, null);
+  }
+
+  /**
+   * Returns an enumeration of {@link PackedObjectVector}s, whose vectors are only copied
+   * out of the store if {@link ObjectVector#getVector()} is called.
+   */
+  public Enumeration<ObjectVector> getAllPackedVectors() {
+    return new PackedVectorEnumeration(true, null);
+  }
+
+  /**
+   * Version of {@link #getAllPackedVectors()} for comparing each vector with the given query
+   * vector, which may be null. For {@link VectorType#COMPLEX} vectors compared in
+   * {@link ComplexVector.Mode#POLAR_DENSE} mode, the query is prepared once for the whole
+   * enumeration by a {@link PolarOverlapScorer}, so it must not be changed while the
+   * enumeration is in use.
+   */
+  public Enumeration<ObjectVector> getAllPackedVectors(Vector queryVector) {
+    PolarOverlapScorer scorer = null;
+    if (vectorType == VectorType.COMPLEX && queryVector != null
+        && queryVector.getVectorType() == VectorType.COMPLEX
+        && queryVector.getDimension() == dimension
+        && ComplexVector.getDominantMode() == ComplexVector.Mode.POLAR_DENSE) {
+      scorer = new PolarOverlapScorer((ComplexVector) queryVector);
+    }
+    return new PackedVectorEnumeration(true, scorer);
+  }
+
+  private class PackedVectorEnumeration implements Enumeration<ObjectVector> {
+    private final boolean lazy;
+    private final PolarOverlapScorer scorer;
+    private int index = 0;
+
+    PackedVectorEnumeration(boolean lazy, PolarOverlapScorer scorer) {
+      this.lazy = lazy;
+      this.scorer = scorer;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return index < numVectors;
+    }
+
+    @Override
+    public ObjectVector nextElement() {
+      if (index >= numVectors) {
+        throw new NoSuchElementException();
+      }
+      if (lazy) {
+        return new PackedObjectVector(index++, scorer);
+      }
+      ObjectVector objectVector = new ObjectVector(objects[index], getVector(index));
+      ++index;
+      return objectVector;
+    }
+  }
+
+  /**
+   * Object vector for a vector in the store, which is copied out of the store the first time
+   * {@link #getVector()} is called.
+   */
+  public class PackedObjectVector extends ObjectVector {
+    private final int index;
+    private final PolarOverlapScorer scorer;
+    private boolean isRead = false;
+
+    private PackedObjectVector(int index, PolarOverlapScorer scorer) {
+      super(objects[index], null);
+      this.index = index;
+      this.scorer = scorer;
+    }
+
+    /** Returns the index of this vector in the store. */
+    public int getIndex() {
+      return index;
+    }
+
+    @Override
+    public Vector getVector() {
+      if (!isRead) {
+        setVector(VectorStorePackedRAM.this.getVector(index));
+      }
+      return super.getVector();
+    }
+
+    @Override
+    public void setVector(Vector newVector) {
+      super.setVector(newVector);
+      isRead = true;
+    }
+
+    /**
+     * Returns the overlap between the query vector and this vector, see
+     * {@link VectorStorePackedRAM#measureOverlap}.
+     */
+    public double measureOverlap(Vector queryVector) {
+      if (isRead) {
+        return queryVector.measureOverlap(super.getVector());
+      }
+      if (scorer != null && scorer.getQueryVector() == queryVector) {
+        return VectorStorePackedRAM.this.measureOverlap(scorer, index);
+      }
+      return VectorStorePackedRAM.this.measureOverlap(queryVector, index);
+    }
+
+    /**
+     * Returns the overlap with the query vector if it is at least minOverlap, otherwise
+     * some value less than minOverlap, see {@link VectorStorePackedRAM#measureOverlap}.
+     */
+    public double measureOverlap(Vector queryVector, double minOverlap) {
+      if (isRead) {
+        return queryVector.measureOverlap(super.getVector());
+      }
+      return VectorStorePackedRAM.this.measureOverlap(queryVector, index, minOverlap);
+    }
+  }
+}
@@ -62,6 +62,9 @@ public class VectorStoreReader {
     case TEXT:
       vectorStore = new VectorStoreReaderText(storeName, flagConfig);
       break;
+    case MMAP:
+      vectorStore = new VectorStoreReaderMmap(storeName, flagConfig);
+      break;
     default:
       throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
     }
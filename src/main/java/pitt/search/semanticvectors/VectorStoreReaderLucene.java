@@ -48,9 +48,11 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.QuantizedVectorUtils;
+import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorQuantization;
 import pitt.search.semanticvectors.vectors.VectorType;
-import pitt.search.semanticvectors.vectors.VectorFactory;
 
 /**
    This class provides methods for reading a VectorStore from disk. <p>
@@ -59,7 +61,16 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
    should be serialized as a String. <p>
 
    The implementation uses Lucene's I/O package, which proved much faster
-   than the native java.io.DataOutputStream.
+   than the native java.io.DataOutputStream. <p>
+
+   Lookups by object use a {@link VectorStoreKeyIndex}, which is read from the
+   sidecar file written alongside the store if present and up to date, or else
+   built with a single scan of the store the first time it is needed. <p>
+
+   Stores whose coordinates are quantized (see {@link VectorQuantization}) are
+   dequantized as they are read. {@link #getAllQuantizedVectors()} instead gives
+   {@link QuantizedObjectVector}s, which can be compared with a real query vector
+   without decoding them. <p>
    
    Attempts to be thread-safe but this is not fully tested.
    
@@ -75,6 +86,10 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   private FlagConfig flagConfig;
   
   private ThreadLocal<IndexInput> threadLocalIndexInput;
+  /** Quantization of the coordinates, read from the header. */
+  private VectorQuantization quantization = VectorQuantization.NONE;
+  /** Lazily initialized by {@link #getKeyIndex()}. */
+  private volatile VectorStoreKeyIndex keyIndex;
 
   public IndexInput getIndexInput() {
     return threadLocalIndexInput.get();
@@ -125,6 +140,17 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   public void readHeadersFromIndexInput(FlagConfig flagConfig) throws IOException {
     String header = threadLocalIndexInput.get().readString();
     FlagConfig.mergeWriteableFlagsFromString(header, flagConfig);
+    quantization = FlagConfig.parseFlagsFromString(header).vectorquantization();
+  }
+
+  /** Returns the quantization of the coordinates in this store. */
+  public VectorQuantization getQuantization() {
+    return quantization;
+  }
+
+  private Vector readVector(IndexInput indexInput) throws IOException {
+    return QuantizedVectorUtils.readFromLuceneStream(
+        indexInput, flagConfig.vectortype(), flagConfig.dimension(), quantization);
   }
 
   public void close() {
@@ -158,6 +184,56 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
     return new VectorEnumeration(getIndexInput());
   }
 
+  /**
+   * Returns the key index for this store, reading it from the sidecar file if there is
+   * an up to date one, otherwise building it by scanning the store once.
+   */
+  public VectorStoreKeyIndex getKeyIndex() throws IOException {
+    if (keyIndex == null) {
+      synchronized (this) {
+        if (keyIndex == null) {
+          keyIndex = readKeyIndexFile();
+          if (keyIndex == null) {
+            IndexInput indexInput = getIndexInput();
+            indexInput.seek(0);
+            // Skip header line.
+            indexInput.readString();
+            keyIndex = VectorStoreKeyIndex.buildFromVectorStore(indexInput,
+                QuantizedVectorUtils.getLuceneByteSize(
+                    flagConfig.vectortype(), flagConfig.dimension(), quantization));
+          }
+        }
+      }
+    }
+    return keyIndex;
+  }
+
+  /**
+   * Returns the key index from the sidecar file, or null if there is no such file or it
+   * does not match the vector store.
+   */
+  private VectorStoreKeyIndex readKeyIndexFile() throws IOException {
+    if (directory == null) {
+      return null;
+    }
+    String keyIndexFileName = VectorStoreKeyIndex.getKeyIndexFileName(vectorFile.getName());
+    if (!new File(VectorStoreKeyIndex.getKeyIndexFileName(vectorFileName)).exists()) {
+      return null;
+    }
+    IndexInput keyIndexInput = directory.openInput(keyIndexFileName, IOContext.READONCE);
+    try {
+      VectorStoreKeyIndex fileKeyIndex =
+          VectorStoreKeyIndex.readFromIndexInput(keyIndexInput, getIndexInput());
+      if (fileKeyIndex == null) {
+        logger.info("Key index file " + keyIndexFileName + " is out of date with "
+            + vectorFileName + ", ignoring it.");
+      }
+      return fileKeyIndex;
+    } finally {
+      keyIndexInput.close();
+    }
+  }
+
   /**
    * Given an object, get its corresponding vector <br>
    * This implementation only works for string objects so far <br>
@@ -168,22 +244,10 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   public Vector getVector(Object desiredObject) {
     try {
       String stringTarget = desiredObject.toString();
-      getIndexInput().seek(0);
-      // Skip header line.
-      getIndexInput().readString();
-      while (getIndexInput().getFilePointer() < getIndexInput().length() - 1) {
-        String objectString = getIndexInput().readString();
-        if (objectString.equals(stringTarget)) {
-          VerbatimLogger.info("Found vector for '" + stringTarget + "'\n");
-          Vector vector = VectorFactory.createZeroVector(
-              flagConfig.vectortype(), flagConfig.dimension());
-          vector.readFromLuceneStream(getIndexInput());
-          return vector;
-        }
-        else{
-          getIndexInput().seek(getIndexInput().getFilePointer()
-              + VectorFactory.getLuceneByteSize(flagConfig.vectortype(), flagConfig.dimension()));
-        }
+      long offset = getOffset(stringTarget);
+      if (offset >= 0) {
+        logger.fine("Found vector for '" + stringTarget + "'");
+        return getVectorAtOffset(offset);
       }
     }
     catch (IOException e) {
@@ -194,16 +258,35 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   }
 
   /**
-   * Trivial (costly) implementation of getNumVectors that iterates and counts vectors.
+   * Returns the file offset of the record for this object, to be passed to
+   * {@link #getVectorAtOffset}, or -1 if there is no such record.
+   */
+  public long getOffset(Object desiredObject) throws IOException {
+    return getKeyIndex().getOffset(desiredObject.toString());
+  }
+
+  /**
+   * Returns the vector of the record starting at this offset, as given by {@link #getOffset}.
+   * Used by nearest neighbor indexes that read many vectors per search, so does not look up
+   * the key or log anything.
+   */
+  public Vector getVectorAtOffset(long offset) throws IOException {
+    IndexInput indexInput = getIndexInput();
+    indexInput.seek(offset);
+    // Skip object string.
+    indexInput.readString();
+    return readVector(indexInput);
+  }
+
+  /**
+   * Returns the number of vectors in the store, using the key index.
    */
   public int getNumVectors() {
-    Enumeration<ObjectVector> allVectors = this.getAllVectors();
-    int i = 0;
-    while (allVectors.hasMoreElements()) {
-      allVectors.nextElement();
-      ++i;
+    try {
+      return getKeyIndex().getNumVectors();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
     }
-    return i;
   }
   
   /**
@@ -223,10 +306,10 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
 
     public ObjectVector nextElement() {
       String object = null;
-      Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      Vector vector = null;
       try {
         object = indexInput.readString();
-        vector.readFromLuceneStream(indexInput);
+        vector = readVector(indexInput);
       }
       catch (IOException e) {
         e.printStackTrace();
@@ -234,10 +317,92 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
       return new ObjectVector(object, vector);
     }
   }
+
+  /**
+   * Returns an enumeration of {@link QuantizedObjectVector}s, whose vectors are only decoded
+   * when needed. If the store is not quantized, this is the same as {@link #getAllVectors()}.
+   */
+  public Enumeration<ObjectVector> getAllQuantizedVectors() {
+    if (quantization == VectorQuantization.NONE) {
+      return getAllVectors();
+    }
+    final IndexInput indexInput = getIndexInput();
+    try {
+      indexInput.seek(0);
+      // Skip header line.
+      indexInput.readString();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    return new Enumeration<ObjectVector>() {
+      public boolean hasMoreElements() {
+        return (indexInput.getFilePointer() < indexInput.length());
+      }
+
+      public ObjectVector nextElement() {
+        try {
+          String object = indexInput.readString();
+          return new QuantizedObjectVector(object, QuantizedVectorUtils.readRecord(
+              indexInput, flagConfig.vectortype(), flagConfig.dimension(), quantization));
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e.getMessage(), e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Object vector holding the quantized serialization of its vector, which is decoded
+   * the first time {@link #getVector()} is called.
+   */
+  public class QuantizedObjectVector extends ObjectVector {
+    private final byte[] record;
+    private boolean isRead = false;
+
+    private QuantizedObjectVector(String object, byte[] record) {
+      super(object, null);
+      this.record = record;
+    }
+
+    @Override
+    public Vector getVector() {
+      if (!isRead) {
+        setVector(QuantizedVectorUtils.decode(
+            record, flagConfig.vectortype(), flagConfig.dimension(), quantization));
+      }
+      return super.getVector();
+    }
+
+    @Override
+    public void setVector(Vector newVector) {
+      super.setVector(newVector);
+      isRead = true;
+    }
+
+    /**
+     * Returns the overlap between the query vector and this vector, computed from the
+     * quantized coordinates if both are real vectors.
+     */
+    public double measureOverlap(Vector queryVector) {
+      if (!isRead && queryVector.getVectorType() == VectorType.REAL
+          && flagConfig.vectortype() == VectorType.REAL
+          && queryVector.getDimension() == flagConfig.dimension()) {
+        return QuantizedVectorUtils.measureOverlap((RealVector) queryVector, record, quantization);
+      }
+      return queryVector.measureOverlap(getVector());
+    }
+  }
   
   @Override
   public boolean containsVector(Object object) {
-	  return this.getVector(object) != null;
+    try {
+      return getKeyIndex().containsKey(object.toString());
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
   }
 
 }
@@ -0,0 +1,400 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVectorUtils;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+   This class provides methods for reading a VectorStore written in
+   {@link VectorStoreUtils.VectorStoreFormat#MMAP} format, which is laid out as follows. <p>
+
+   <ul>
+   <li>The header string, as in the Lucene format.</li>
+   <li>Zero padding up to the next multiple of {@link #PAGE_SIZE} bytes.</li>
+   <li>A block of fixed-stride vector records, each serialized exactly as in the Lucene format,
+   in the same order as the keys.</li>
+   <li>The key table, one string per vector.</li>
+   <li>A footer of three longs giving the offset of the vector block, the offset of the key table
+   and the number of vectors.</li>
+   </ul>
+
+   The file is memory-mapped using Lucene's {@link MMapDirectory}, and the key table is
+   read into memory when the store is opened. Since records have fixed size, the vector
+   for the ith key is found by arithmetic, with no scanning or per-lookup index. <p>
+
+   As with other stores, {@link #getAllVectors()} returns a new copy of each vector.
+   For scanning the store, {@link #getAllMappedVectors()} instead returns
+   {@link MappedObjectVector}s, whose vectors are only read from the mapped file when
+   {@link ObjectVector#getVector()} is called. Searchers that compare a single query vector
+   with each vector in the store can use {@link MappedObjectVector#measureOverlap}, which
+   scores real and binary vectors directly from the mapped file without creating a new vector. <p>
+
+   Safe for concurrent reads from different threads.
+
+   @see VectorStoreWriter#writeVectorsInMmapFormat
+ **/
+public class VectorStoreReaderMmap implements CloseableVectorStore {
+  private static final Logger logger = Logger.getLogger(
+      VectorStoreReaderMmap.class.getCanonicalName());
+
+  /** Vector blocks start at a multiple of this many bytes. */
+  public static final int PAGE_SIZE = 4096;
+
+  /** Size in bytes of the footer, three longs. */
+  public static final int FOOTER_LENGTH = 24;
+
+  private final String vectorFileName;
+  private final Directory directory;
+  private final IndexInput indexInput;
+  private final RandomAccessInput vectorBlock;
+  private final long vectorsOffset;
+  private final VectorType vectorType;
+  private final int dimension;
+  private final int recordSize;
+  private final String[] objects;
+  private final HashMap<String, Integer> objectIndex;
+
+  public VectorStoreReaderMmap(String vectorFileName, FlagConfig flagConfig) throws IOException {
+    this.vectorFileName = vectorFileName;
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    this.directory = new MMapDirectory(FileSystems.getDefault().getPath(parentPath));
+    try {
+      this.indexInput = directory.openInput(vectorFile.getName(), IOContext.READ);
+    } catch (IOException e) {
+      logger.warning("Cannot open file: " + this.vectorFileName + "\n" + e.getMessage());
+      directory.close();
+      throw e;
+    }
+
+    // Read number of dimension and vector type from header information.
+    FlagConfig.mergeWriteableFlagsFromString(indexInput.readString(), flagConfig);
+    this.vectorType = flagConfig.vectortype();
+    this.dimension = flagConfig.dimension();
+    this.recordSize = VectorFactory.getLuceneByteSize(vectorType, dimension);
+
+    indexInput.seek(indexInput.length() - FOOTER_LENGTH);
+    this.vectorsOffset = indexInput.readLong();
+    long keysOffset = indexInput.readLong();
+    int numVectors = (int) indexInput.readLong();
+    if (keysOffset - vectorsOffset != (long) numVectors * recordSize) {
+      throw new IOException("Vector block in " + vectorFileName + " has length "
+          + (keysOffset - vectorsOffset) + ", expected " + numVectors + " records of "
+          + recordSize + " bytes. File may be corrupt.");
+    }
+    this.vectorBlock = indexInput.randomAccessSlice(vectorsOffset, keysOffset - vectorsOffset);
+
+    this.objects = new String[numVectors];
+    this.objectIndex = new HashMap<String, Integer>();
+    indexInput.seek(keysOffset);
+    for (int i = 0; i < numVectors; ++i) {
+      objects[i] = indexInput.readString();
+      if (!objectIndex.containsKey(objects[i])) {
+        objectIndex.put(objects[i], i);
+      }
+    }
+  }
+
+  public void close() {
+    try {
+      indexInput.close();
+      directory.close();
+    } catch (IOException e) {
+      logger.info("Cannot close resources from file: " + this.vectorFileName
+          + "\n" + e.getMessage());
+    }
+  }
+
+  @Override
+  public int getNumVectors() {
+    return objects.length;
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return objectIndex.containsKey(object.toString());
+  }
+
+  /**
+   * Returns the index of the vector for this object, or -1 if not found.
+   */
+  public int getIndex(Object object) {
+    Integer index = objectIndex.get(object.toString());
+    return index == null ? -1 : index;
+  }
+
+  /** Returns the object for the vector with the given index. */
+  public String getObject(int index) {
+    return objects[index];
+  }
+
+  /**
+   * Given an object, get its corresponding vector.
+   *
+   * @param desiredObject - the string you're searching for
+   * @return new copy of the vector from the VectorStore, or null if not found.
+   */
+  @Override
+  public Vector getVector(Object desiredObject) {
+    int index = getIndex(desiredObject);
+    if (index < 0) {
+      return null;
+    }
+    return getVector(index);
+  }
+
+  /**
+   * Returns a new vector read from the record with the given index.
+   */
+  public Vector getVector(int index) {
+    long offset = (long) index * recordSize;
+    try {
+      switch (vectorType) {
+      case REAL:
+        float[] coordinates = new float[dimension];
+        for (int i = 0; i < dimension; ++i) {
+          coordinates[i] = Float.intBitsToFloat(vectorBlock.readInt(offset + 4 * i));
+        }
+        return new RealVector(coordinates);
+      default:
+        // Other vector types only expose their coordinates to the vectors package,
+        // so are read using their usual Lucene deserialization.
+        IndexInput recordInput = indexInput.slice("record " + index, vectorsOffset + offset, recordSize);
+        Vector vector = VectorFactory.createZeroVector(vectorType, dimension);
+        vector.readFromLuceneStream(recordInput);
+        recordInput.close();
+        return vector;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read vector " + index + " from " + vectorFileName, e);
+    }
+  }
+
+  /**
+   * Returns the overlap between the query vector and the vector with the given index,
+   * as given by {@link Vector#measureOverlap}. For {@link VectorType#REAL} and
+   * {@link VectorType#BINARY} vectors this is computed directly from the mapped file.
+   */
+  public double measureOverlap(Vector queryVector, int index) {
+    return measureOverlap(queryVector, index, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Version of {@link #measureOverlap(Vector, int)} for use in searches that only need overlaps
+   * of at least minOverlap. For {@link VectorType#BINARY} vectors, stops reading words once
+   * the Hamming distance is too great.
+   *
+   * @return the overlap if it is at least minOverlap, otherwise some value less than minOverlap
+   */
+  public double measureOverlap(Vector queryVector, int index, double minOverlap) {
+    if (queryVector.getVectorType() != vectorType || queryVector.getDimension() != dimension) {
+      throw new IncompatibleVectorsException("Trying to compare " + queryVector.getVectorType()
+          + " vector of dimension " + queryVector.getDimension() + " with store of "
+          + vectorType + " vectors of dimension " + dimension);
+    }
+    try {
+      switch (vectorType) {
+      case REAL:
+        return measureRealOverlap((RealVector) queryVector, (long) index * recordSize);
+      case BINARY:
+        return measureBinaryOverlap((BinaryVector) queryVector, (long) index * recordSize, minOverlap);
+      default:
+        return queryVector.measureOverlap(getVector(index));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read vector " + index + " from " + vectorFileName, e);
+    }
+  }
+
+  /** Cosine similarity, as in {@link RealVector#measureOverlap}. */
+  private double measureRealOverlap(RealVector queryVector, long offset) throws IOException {
+    if (queryVector.isZeroVector()) return 0;
+    float[] queryCoordinates = queryVector.getCoordinates();
+    double result = 0;
+    double norm2 = 0;
+    for (int i = 0; i < dimension; ++i) {
+      float coordinate = Float.intBitsToFloat(vectorBlock.readInt(offset + 4 * i));
+      result += queryCoordinates[i] * coordinate;
+      norm2 += coordinate * coordinate;
+    }
+    if (norm2 == 0) return 0;
+    // The query norm is cached by the query vector, so it is only computed once per search.
+    return result / Math.sqrt(queryVector.getNormSquared() * norm2);
+  }
+
+  /** 1 - normalized Hamming distance, as in {@link BinaryVector#measureOverlap}. */
+  private double measureBinaryOverlap(BinaryVector queryVector, long offset, double minOverlap)
+      throws IOException {
+    if (queryVector.isZeroVector()) return 0;
+    long[] queryBits = queryVector.getCoordinates().getBits();
+    int numWords = dimension / 64;
+    long maxDistance = BinaryVectorUtils.maxHammingDistance(minOverlap, dimension);
+    long hammingDistance = 0;
+    long cardinality = 0;
+    for (int i = 0; i < numWords; ++i) {
+      long word = vectorBlock.readLong(offset + 8 * i);
+      cardinality |= word;
+      hammingDistance += Long.bitCount(queryBits[i] ^ word);
+      // Checked once per 1024 bits. The overlap at any greater distance is less than minOverlap.
+      if ((i & 15) == 15 && hammingDistance > maxDistance) {
+        return BinaryVectorUtils.overlapFromHammingDistance(hammingDistance, dimension);
+      }
+    }
+    if (cardinality == 0) return 0;
+    return BinaryVectorUtils.overlapFromHammingDistance(hammingDistance, dimension);
+  }
+
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new MappedVectorEnumeration(false);
+  }
+
+  /**
+   * Returns an enumeration of {@link MappedObjectVector}s, whose vectors are read lazily.
+   * Callers that keep any of these after the store is closed must call
+   * {@link ObjectVector#getVector()} on them before closing it.
+   */
+  public Enumeration<ObjectVector> getAllMappedVectors() {
+    return new MappedVectorEnumeration(true);
+  }
+
+  /**
+   * Object vector backed by a record in this store. The vector is read from the mapped
+   * file the first time {@link #getVector()} is called.
+   */
+  public class MappedObjectVector extends ObjectVector {
+    private final int index;
+    private boolean isRead = false;
+
+    private MappedObjectVector(int index) {
+      super(objects[index], null);
+      this.index = index;
+    }
+
+    /** Returns the index of this vector in the store. */
+    public int getIndex() {
+      return index;
+    }
+
+    @Override
+    public Vector getVector() {
+      if (!isRead) {
+        setVector(VectorStoreReaderMmap.this.getVector(index));
+      }
+      return super.getVector();
+    }
+
+    @Override
+    public void setVector(Vector newVector) {
+      super.setVector(newVector);
+      isRead = true;
+    }
+
+    /**
+     * Returns the overlap between the query vector and this vector, see
+     * {@link VectorStoreReaderMmap#measureOverlap}.
+     */
+    public double measureOverlap(Vector queryVector) {
+      if (isRead) {
+        return queryVector.measureOverlap(super.getVector());
+      }
+      return VectorStoreReaderMmap.this.measureOverlap(queryVector, index);
+    }
+
+    /**
+     * Returns the overlap with the query vector if it is at least minOverlap, otherwise
+     * some value less than minOverlap, see {@link VectorStoreReaderMmap#measureOverlap}.
+     */
+    public double measureOverlap(Vector queryVector, double minOverlap) {
+      if (isRead) {
+        return queryVector.measureOverlap(super.getVector());
+      }
+      return VectorStoreReaderMmap.this.measureOverlap(queryVector, index, minOverlap);
+    }
+  }
+
+  /**
+   * Enumerates vectors in the order they are stored.
+   */
+  public class MappedVectorEnumeration implements Enumeration<ObjectVector> {
+    private final boolean lazy;
+    private int nextIndex = 0;
+
+    /**
+     * @param lazy if true, returns {@link MappedObjectVector}s, otherwise returns object vectors
+     *        with newly read vectors.
+     */
+    public MappedVectorEnumeration(boolean lazy) {
+      this.lazy = lazy;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return nextIndex < objects.length;
+    }
+
+    @Override
+    public ObjectVector nextElement() {
+      if (nextIndex >= objects.length) {
+        throw new NoSuchElementException();
+      }
+      int index = nextIndex++;
+      if (lazy) {
+        return new MappedObjectVector(index);
+      }
+      return new ObjectVector(objects[index], getVector(index));
+    }
+  }
+}
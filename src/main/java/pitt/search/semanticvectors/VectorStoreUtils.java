@@ -40,14 +40,22 @@
      LUCENE,
 
      /** Plan text format, used for interchange with external systems. */
-     TEXT
+     TEXT,
+
+     /**
+      * Fixed-stride binary format designed to be memory-mapped, see {@link VectorStoreReaderMmap}.
+      * Stores in this format are written in a single pass by {@link VectorStoreWriter},
+      * so incremental indexing classes write in {@link #LUCENE} format and convert at the end.
+      */
+     MMAP
    }
 
    /**
     * Returns "$storeName.bin" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#LUCENE}.
     * Returns "$storeName.txt" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#TEXT}.
+    * Returns "$storeName.mmap" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#MMAP}.
     * 
-    * Method is idempotent: if file already ends with ".bin" or ".txt" as appropriate, input
+    * Method is idempotent: if file already ends with ".bin", ".txt" or ".mmap" as appropriate, input
     * is returned unchanged.
     */
    public static String getStoreFileName(String storeName, FlagConfig flagConfig) {
@@ -66,8 +74,32 @@
        else {
          return storeName + ".txt";
        }
+     case MMAP:
+       if (storeName.endsWith(".mmap")) {
+         return storeName;
+       }
+       else {
+         return storeName + ".mmap";
+       }
      default:
        throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
      }
    }
+
+   /**
+    * Returns the name of the file that classes which write vectors incrementally should use.
+    * This is the same as {@link #getStoreFileName} except for {@link VectorStoreFormat#MMAP},
+    * which cannot be written incrementally, in which case "$storeName.bin" is returned and
+    * the store should be converted using {@link VectorStoreWriter#convertIncrementalStore},
+    * which deletes it afterwards.
+    */
+   public static String getIncrementalStoreFileName(String storeName, FlagConfig flagConfig) {
+     if (flagConfig.indexfileformat() == VectorStoreFormat.MMAP) {
+       if (storeName.endsWith(".mmap")) {
+         storeName = storeName.substring(0, storeName.length() - ".mmap".length());
+       }
+       return storeName.endsWith(".bin") ? storeName : storeName + ".bin";
+     }
+     return getStoreFileName(storeName, flagConfig);
+   }
  }
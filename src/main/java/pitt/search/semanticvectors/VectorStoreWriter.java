@@ -40,12 +40,15 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexOutput;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.QuantizedVectorUtils;
+import pitt.search.semanticvectors.vectors.VectorQuantization;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.util.ArrayList;
 import java.util.Enumeration;
 
 /**
@@ -76,7 +79,7 @@ public class VectorStoreWriter {
   }
 
   /**
-   * Writes vectors in text or lucene format depending on {@link FlagConfig#indexfileformat}.
+   * Writes vectors in text, lucene or mmap format depending on {@link FlagConfig#indexfileformat}.
    * 
    * @param storeName The name of the vector store to write to
    * @param objectVectors The vector store to be written to disk
@@ -91,13 +94,17 @@ public class VectorStoreWriter {
     case TEXT:
       writeVectorsInTextFormat(vectorFileName, flagConfig, objectVectors);
       break;
+    case MMAP:
+      writeVectorsInMmapFormat(vectorFileName, flagConfig, objectVectors);
+      break;
     default:
       throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
     }
   }
 
   /**
-   * Outputs a vector store in Lucene binary format.
+   * Outputs a vector store in Lucene binary format, with coordinates quantized
+   * according to {@link FlagConfig#vectorquantization()}.
    * 
    * @param vectorFileName The name of the file to write to
    * @param objectVectors The vector store to be written to disk
@@ -111,8 +118,11 @@ public class VectorStoreWriter {
     if (parentPath == null) parentPath = "";
     FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
     IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
-    writeToIndexOutput(objectVectors, flagConfig, outputStream);
+    IndexOutput keyIndexOutput = fsDirectory.createOutput(
+        VectorStoreKeyIndex.getKeyIndexFileName(vectorFile.getName()), IOContext.DEFAULT);
+    writeToIndexOutput(objectVectors, flagConfig, outputStream, keyIndexOutput);
     outputStream.close();
+    keyIndexOutput.close();
     fsDirectory.close();
   }
 
@@ -122,19 +132,120 @@ public class VectorStoreWriter {
    */
   public static void writeToIndexOutput(VectorStore objectVectors, FlagConfig flagConfig, IndexOutput outputStream)
       throws IOException {
-    // Write header giving vector type and dimension for all vectors.
-    outputStream.writeString(generateHeaderString(flagConfig));
+    writeToIndexOutput(objectVectors, flagConfig, outputStream, null);
+  }
+
+  /**
+   * Writes the object vectors to this Lucene output stream, and if {@code keyIndexOutput}
+   * is not null, writes a {@link VectorStoreKeyIndex} for the vectors to that stream.
+   * Caller is responsible for opening and closing both output streams.
+   */
+  public static void writeToIndexOutput(VectorStore objectVectors, FlagConfig flagConfig,
+      IndexOutput outputStream, IndexOutput keyIndexOutput) throws IOException {
+    VectorStoreKeyIndex.Writer keyIndexWriter =
+        keyIndexOutput == null ? null : new VectorStoreKeyIndex.Writer(keyIndexOutput, outputStream);
+    // Write header giving vector type and dimension for all vectors, and any quantization.
+    VectorQuantization quantization = flagConfig.vectorquantization();
+    QuantizedVectorUtils.checkQuantizationSupported(flagConfig.vectortype(), quantization);
+    String header = generateHeaderString(flagConfig);
+    if (quantization != VectorQuantization.NONE) {
+      header += " -vectorquantization " + quantization.toString();
+    }
+    outputStream.writeString(header);
     Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
 
     // Write each vector.
     while (vecEnum.hasMoreElements()) {
       ObjectVector objectVector = vecEnum.nextElement();
-      outputStream.writeString(objectVector.getObject().toString());
+      String objectString = objectVector.getObject().toString();
+      if (keyIndexWriter != null) {
+        keyIndexWriter.addEntry(objectString, outputStream.getFilePointer());
+      }
+      outputStream.writeString(objectString);
+      QuantizedVectorUtils.writeToLuceneStream(objectVector.getVector(), outputStream, quantization);
+    }
+    if (keyIndexWriter != null) {
+      keyIndexWriter.finish();
+    }
+    VerbatimLogger.info("finished writing vectors.\n");
+  }
+
+  /**
+   * Outputs a vector store in the memory-mappable format read by {@link VectorStoreReaderMmap}.
+   * Coordinates are always written unquantized.
+   * 
+   * @param vectorFileName The name of the file to write to
+   * @param objectVectors The vector store to be written to disk
+   * @throws IllegalArgumentException if {@link FlagConfig#vectorquantization()} is set
+   */
+  public static void writeVectorsInMmapFormat(String vectorFileName, FlagConfig flagConfig, VectorStore objectVectors)
+      throws IOException {
+    if (flagConfig.vectorquantization() != VectorQuantization.NONE) {
+      throw new IllegalArgumentException("Cannot write vectors quantized as "
+          + flagConfig.vectorquantization() + " in mmap format. Use -indexfileformat lucene.");
+    }
+    VerbatimLogger.info("About to write " + objectVectors.getNumVectors() + " vectors of dimension "
+        + flagConfig.dimension() + " to mmap format file: " + vectorFileName + " ... ");
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
+    outputStream.writeString(generateHeaderString(flagConfig));
+    while (outputStream.getFilePointer() % VectorStoreReaderMmap.PAGE_SIZE != 0) {
+      outputStream.writeByte((byte) 0);
+    }
+
+    // Write fixed-size vector records, keeping the keys to write afterwards.
+    long vectorsOffset = outputStream.getFilePointer();
+    ArrayList<String> objects = new ArrayList<String>();
+    Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      objects.add(objectVector.getObject().toString());
       objectVector.getVector().writeToLuceneStream(outputStream);
     }
+
+    long keysOffset = outputStream.getFilePointer();
+    for (String object : objects) {
+      outputStream.writeString(object);
+    }
+    outputStream.writeLong(vectorsOffset);
+    outputStream.writeLong(keysOffset);
+    outputStream.writeLong(objects.size());
+    outputStream.close();
+    fsDirectory.close();
     VerbatimLogger.info("finished writing vectors.\n");
   }
 
+  /**
+   * If {@link FlagConfig#indexfileformat} is {@link VectorStoreUtils.VectorStoreFormat#MMAP},
+   * converts the Lucene format store written incrementally to
+   * {@link VectorStoreUtils#getIncrementalStoreFileName} into mmap format, and deletes the
+   * Lucene format store and its key index. Otherwise does nothing.
+   * 
+   * @param storeName The name of the vector store that was written incrementally
+   */
+  public static void convertIncrementalStore(String storeName, FlagConfig flagConfig)
+      throws IOException {
+    if (flagConfig.indexfileformat() != VectorStoreUtils.VectorStoreFormat.MMAP) {
+      return;
+    }
+    String incrementalFileName = VectorStoreUtils.getIncrementalStoreFileName(storeName, flagConfig);
+    try {
+      VectorStoreReaderLucene luceneStore = new VectorStoreReaderLucene(incrementalFileName, flagConfig);
+      try {
+        writeVectorsInMmapFormat(
+            VectorStoreUtils.getStoreFileName(storeName, flagConfig), flagConfig, luceneStore);
+      } finally {
+        luceneStore.close();
+      }
+    } finally {
+      new File(incrementalFileName).delete();
+      new File(VectorStoreKeyIndex.getKeyIndexFileName(incrementalFileName)).delete();
+    }
+  }
+
   /**
    * Outputs a vector store as a plain text file.
    * 
@@ -2,6 +2,7 @@ package pitt.search.semanticvectors.vectors;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -39,6 +40,36 @@ public class BinaryVector implements Vector {
   public static final int BINARY_VECTOR_DECIMAL_PLACES = 2;
   public static final boolean BINARY_BINDING_WITH_PERMUTE = false;
 
+  /**
+   * Ways of accumulating the votes of superposed vectors, see {@link #VOTING_RECORD_METHOD}.
+   */
+  public enum VotingRecordMethod {
+    /**
+     * Keeps the counts bit-sliced across a growing list of bitsets, see {@link #votingRecord}.
+     * Compact, since rows are only added as the counts grow, but each addition sweeps
+     * several rows.
+     */
+    BITSLICED,
+    /**
+     * Counts incoming vectors in a small fixed-size bit-sliced batch, see {@link #voteBatch},
+     * which is added to the voting record in a single pass when full. Faster, since each addition
+     * only ripples a carry through the batch, but takes an extra 4 bits per dimension while
+     * training, or 12 bits if weights are fractional. The counts are the same as with BITSLICED,
+     * so {@link #tallyVotes} gives the same results, but the probabilistic {@link #normalize} is
+     * seeded from the voting record and so may break ties differently.
+     */
+    BATCHED
+  }
+
+  public static VotingRecordMethod VOTING_RECORD_METHOD = VotingRecordMethod.BITSLICED;
+  public static void setVotingRecordMethod(VotingRecordMethod votingRecordMethod) {
+    if (votingRecordMethod != VOTING_RECORD_METHOD) {
+      logger.info("Globally setting binary vector VOTING_RECORD_METHOD to: '"
+          + votingRecordMethod + "'");
+      VOTING_RECORD_METHOD = votingRecordMethod;
+    }
+  }
+
 
   private static int DEBUG_PRINT_LENGTH = 64;
   private Random random;
@@ -61,6 +92,25 @@ public class BinaryVector implements Vector {
    */ 
   private ArrayList<FixedBitSet> votingRecord;
 
+  /**
+   * Number of bit-sliced rows in the {@link #voteBatch} when weights are rounded to integers,
+   * and when they are counted to {@link #BINARY_VECTOR_DECIMAL_PLACES}. Fewer rows mean shorter
+   * carries, but the batch must be added to the voting record more often.
+   */
+  private static final int VOTE_BATCH_ROWS = 4;
+  private static final int DECIMAL_VOTE_BATCH_ROWS = 12;
+
+  /**
+   * Votes added using {@link VotingRecordMethod#BATCHED} that have not yet been added to the
+   * {@link #votingRecord}, or null if none have been added. Bit-sliced like the voting record,
+   * with the {@link #voteBatchRows} rows for each 64 bit word of the dimensions stored
+   * together. See {@link #flushVoteBatch}.
+   */
+  private long[] voteBatch;
+  private int voteBatchRows;
+  /** Total weight of the votes in the {@link #voteBatch}. */
+  private int voteBatchWeight;
+
   int decimalPlaces = 0;
   /** Accumulated sum of the weights with which vectors have been added into the voting record */
   int totalNumberOfVotes = 0;
@@ -88,6 +138,7 @@ public class BinaryVector implements Vector {
    */
   @SuppressWarnings("unchecked")
   public BinaryVector copy() {
+    flushVoteBatch();
     BinaryVector copy = new BinaryVector(dimension);
     copy.bitSet = (FixedBitSet) bitSet.clone();
     if (!isSparse)
@@ -103,6 +154,7 @@ public class BinaryVector implements Vector {
       debugString.append("\nCardinality " + bitSet.cardinality()+"\n");
     }
     else {
+      flushVoteBatch();
       debugString.append("  Dense.  First " + DEBUG_PRINT_LENGTH + " values are:\n");
       for (int x = 0; x < DEBUG_PRINT_LENGTH; x++) debugString.append(bitSet.get(x) ? "1 " : "0 ");
       // output voting record for first DEBUG_PRINT_LENGTH dimension
@@ -160,7 +212,11 @@ public class BinaryVector implements Vector {
   public boolean isZeroVector() {
     if (isSparse) 
     {
-      return bitSet.cardinality() == 0;
+      // Stops at the first set word, rather than counting every bit as cardinality() would.
+      for (long word : bitSet.getBits()) {
+        if (word != 0) return false;
+      }
+      return true;
     } else {
       return (votingRecord == null) || (votingRecord.size() == 0);
     }
@@ -215,9 +271,26 @@ public class BinaryVector implements Vector {
     BinaryVector binaryOther = (BinaryVector) other;
     if (binaryOther.isZeroVector()) return 0;
 
-    // Calculate hamming distance in place. Have not checked if this is fastest performance.
-    double hammingDistance = BinaryVectorUtils.xorCount(this.bitSet, binaryOther.bitSet);
-    return 2*(0.5 - (hammingDistance / (double) dimension));
+    long hammingDistance = BinaryVectorUtils.xorCount(this.bitSet, binaryOther.bitSet);
+    return BinaryVectorUtils.overlapFromHammingDistance(hammingDistance, dimension);
+  }
+
+  /**
+   * Version of {@link #measureOverlap(Vector)} for use in searches that only need overlaps
+   * of at least minOverlap. Stops comparing bits once the Hamming distance is too great.
+   *
+   * @return the overlap if it is at least minOverlap, otherwise some value less than minOverlap
+   */
+  public double measureOverlap(Vector other, double minOverlap) {
+    IncompatibleVectorsException.checkVectorsCompatible(this, other);
+    if (isZeroVector()) return 0;
+    BinaryVector binaryOther = (BinaryVector) other;
+    if (binaryOther.isZeroVector()) return 0;
+
+    long[] bits = this.bitSet.getBits();
+    long hammingDistance = BinaryVectorUtils.hammingDistance(bits, 0, binaryOther.bitSet.getBits(), 0,
+        bits.length, BinaryVectorUtils.maxHammingDistance(minOverlap, dimension));
+    return BinaryVectorUtils.overlapFromHammingDistance(hammingDistance, dimension);
   }
 
   @Override
@@ -254,13 +327,12 @@ public class BinaryVector implements Vector {
             + " must have permutation of length " + dimension / 64
             + " not " + permutation.length);
       }
-      //TODO permute in place and reverse, to avoid creating a new BinaryVector here
-      BinaryVector temp = binaryOther.copy();
-      temp.permute(permutation);
-      superposeBitSet(temp.bitSet, weight);
+      // The permutation is applied word by word as the incoming vector is added, so no permuted
+      // copy of it is made.
+      superposeBitSet(binaryOther.bitSet, weight, permutation);
     }
     else {
-      superposeBitSet(binaryOther.bitSet, weight);
+      superposeBitSet(binaryOther.bitSet, weight, null);
     }
   }
 
@@ -279,6 +351,14 @@ public class BinaryVector implements Vector {
    * @param weight
    */
   protected void superposeBitSet(FixedBitSet incomingBitSet, double weight) {
+    superposeBitSet(incomingBitSet, weight, null);
+  }
+
+  /**
+   * As {@link #superposeBitSet(FixedBitSet, double)}, adding the incoming bitset with its 64 bit
+   * words permuted as in {@link #permute}, or unpermuted if the permutation is null.
+   */
+  private void superposeBitSet(FixedBitSet incomingBitSet, double weight, int[] permutation) {
     // If fractional weights are used, encode all weights as integers (1000 x double value).
     weight = (int) Math.round(weight * Math.pow(10, decimalPlaces));
     if (weight == 0) return;
@@ -286,22 +366,30 @@ public class BinaryVector implements Vector {
     // Keep track of number (or cumulative weight) of votes.
     totalNumberOfVotes += weight;
 
+    if (VOTING_RECORD_METHOD == VotingRecordMethod.BATCHED
+        && weight < 1 << (decimalPlaces == 0 ? VOTE_BATCH_ROWS : DECIMAL_VOTE_BATCH_ROWS)) {
+      // Negative weights are counted in the total, but add no votes, as below.
+      if (weight > 0) addToVoteBatch(incomingBitSet, (int) weight, permutation);
+      return;
+    }
+    flushVoteBatch();
+
     // Decompose superposition task such that addition of some power of 2 (e.g. 64) is accomplished
     // by beginning the process at the relevant row (e.g. 7) instead of starting multiple (e.g. 64)
     // superposition processes at the first row.
-    int logFloorOfWeight = (int) (Math.floor(Math.log(weight)/Math.log(2)));
+    int logFloorOfWeight = floorLog2((int) weight);
 
     if (logFloorOfWeight < votingRecord.size() - 1) {
       while (logFloorOfWeight > 0) {
-        superposeBitSetFromRowFloor(incomingBitSet, logFloorOfWeight);	
-        weight = weight - (int) Math.pow(2,logFloorOfWeight);
-        logFloorOfWeight = (int) (Math.floor(Math.log(weight)/Math.log(2)));	
+        superposeBitSetFromRowFloor(incomingBitSet, permutation, logFloorOfWeight);
+        weight = weight - (1 << logFloorOfWeight);
+        logFloorOfWeight = floorLog2((int) weight);
       }
     }
 
     // Add remaining component of weight incrementally.
     for (int x = 0; x < weight; x++)
-      superposeBitSetFromRowFloor(incomingBitSet, 0);
+      superposeBitSetFromRowFloor(incomingBitSet, permutation, 0);
   }
 
   /**
@@ -314,6 +402,19 @@ public class BinaryVector implements Vector {
    * @param rowfloor the index of the place in the voting record to start the sweep at
    */
   protected void superposeBitSetFromRowFloor(FixedBitSet incomingBitSet, int rowfloor) {
+    superposeBitSetFromRowFloor(incomingBitSet, null, rowfloor);
+  }
+
+  /**
+   * As {@link #superposeBitSetFromRowFloor(FixedBitSet, int)}, adding the incoming bitset with its
+   * 64 bit words permuted as in {@link #permute}, or unpermuted if the permutation is null.
+   *
+   * The sweep works a word at a time, using {@link #tempSet} to hold the carry (the columns
+   * in which a '1' is still to be added), so no bitsets are allocated unless a row must be added
+   * to the voting record.
+   */
+  private void superposeBitSetFromRowFloor(
+      FixedBitSet incomingBitSet, int[] permutation, int rowfloor) {
     // Attempt to save space when minimum value across all columns > 0
     // by decrementing across the board and raising the minimum where possible.
     int max = getMaximumSharedWeight();	
@@ -322,33 +423,106 @@ public class BinaryVector implements Vector {
       decrement(max);
     }
 
-    // Handle overflow: if any column that will be incremented
-    // contains all 1's, add a new row to the voting record.
-    tempSet.xor(tempSet);
-    tempSet.xor(incomingBitSet);
+    long[] incoming = incomingBitSet.getBits();
+    long[] carry = tempSet.getBits();
+    int numWords = carry.length;
+    for (int i = 0; i < numWords; ++i) {
+      carry[i] = incoming[permutation == null ? i : permutation[i]];
+    }
 
-    for (int x = rowfloor; x < votingRecord.size() && tempSet.cardinality() > 0; x++) {
-      tempSet.and(votingRecord.get(x));
+    // Sweep the carry across rows of the voting record. The xor step transforms 1's to 0's
+    // or vice versa in columns where the carry contains a '1'. Columns in which a new '1'
+    // has been added drop out of the carry and will not affect future rows.
+    boolean anyCarry = true;
+    for (int x = rowfloor; x < votingRecord.size() && anyCarry; x++) {
+      long[] row = votingRecord.get(x).getBits();
+      anyCarry = false;
+      for (int i = 0; i < numWords; ++i) {
+        long previous = row[i];
+        row[i] = previous ^ carry[i];
+        carry[i] &= previous;
+        anyCarry |= carry[i] != 0;
+      }
     }
 
-    if (tempSet.cardinality() > 0) {
-      votingRecord.add(new FixedBitSet(dimension));
+    // Handle overflow: columns that contained all 1's from the floor upwards need a new row.
+    if (anyCarry) {
+      votingRecord.add(new FixedBitSet(carry.clone(), dimension));
     }
+  }
 
-    // Sweep copy of bitset to be added across rows of voting record.
-    // If a new '1' is added, this position in the copy is changed to zero
-    // and will not affect future rows.
-    // The xor step will transform 1's to 0's or vice versa for 
-    // dimension in which the temporary bitset contains a '1'.
-    votingRecord.get(rowfloor).xor(incomingBitSet);
+  /**
+   * Returns the floor of the base 2 logarithm of a positive number, or -1 for numbers less
+   * than 1, as with Math.floor(Math.log(x) / Math.log(2)) but without rounding errors.
+   */
+  private static int floorLog2(int x) {
+    return x < 1 ? -1 : 31 - Integer.numberOfLeadingZeros(x);
+  }
+
+  /**
+   * Adds the incoming bitset with the given weight to the {@link #voteBatch}, with its 64 bit
+   * words permuted as in {@link #permute}, or unpermuted if the permutation is null. Adds the
+   * batch to the voting record first if it doesn't have room for the weight.
+   */
+  private void addToVoteBatch(FixedBitSet incomingBitSet, int weight, int[] permutation) {
+    int numWords = dimension / 64;
+    if (voteBatch == null) {
+      voteBatchRows = decimalPlaces == 0 ? VOTE_BATCH_ROWS : DECIMAL_VOTE_BATCH_ROWS;
+      voteBatch = new long[numWords * voteBatchRows];
+    } else if (voteBatchWeight + weight >= 1 << voteBatchRows) {
+      flushVoteBatch();
+    }
+    voteBatchWeight += weight;
+    long[] incoming = incomingBitSet.getBits();
+    for (int i = 0; i < numWords; ++i) {
+      long word = incoming[permutation == null ? i : permutation[i]];
+      int rowsStart = i * voteBatchRows;
+      // Add the word once from the row for each binary digit of the weight. Carries stop as soon
+      // as they are absorbed, and can't run off the end since the batch weight is bounded.
+      for (int digit = 0; (weight >>> digit) != 0; ++digit) {
+        if (((weight >>> digit) & 1) == 0) continue;
+        long carry = word;
+        for (int x = rowsStart + digit; carry != 0; ++x) {
+          long previous = voteBatch[x];
+          voteBatch[x] = previous ^ carry;
+          carry &= previous;
+        }
+      }
+    }
+  }
 
-    tempSet.xor(tempSet);
-    tempSet.xor(incomingBitSet);
+  /**
+   * Adds any votes in the {@link #voteBatch} to the {@link #votingRecord}, which the methods that
+   * read the votes use, adding rows if needed, and empties the batch. The two bit-sliced counts
+   * are added a word at a time with a ripple-carry adder.
+   */
+  private void flushVoteBatch() {
+    if (voteBatchWeight == 0) return;
+    int numWords = dimension / 64;
+    for (int i = 0; i < numWords; ++i) {
+      int rowsStart = i * voteBatchRows;
+      long carry = 0;
+      for (int x = 0; x < voteBatchRows || carry != 0; ++x) {
+        long batchWord = x < voteBatchRows ? voteBatch[rowsStart + x] : 0;
+        if (x >= votingRecord.size()) {
+          if (batchWord == 0 && carry == 0) continue;
+          while (x >= votingRecord.size()) {
+            votingRecord.add(new FixedBitSet(dimension));
+          }
+        }
+        long[] row = votingRecord.get(x).getBits();
+        long recordWord = row[i];
+        row[i] = recordWord ^ batchWord ^ carry;
+        carry = (recordWord & batchWord) | (carry & (recordWord ^ batchWord));
+      }
+    }
+    Arrays.fill(voteBatch, 0);
+    voteBatchWeight = 0;
 
-    for (int x = rowfloor + 1; x < votingRecord.size(); x++) {	
-      tempSet.andNot(votingRecord.get(x-1)); //if 1 already added, eliminate dimension from tempSet
-      votingRecord.get(x).xor(tempSet);	
-      // votingRecord.get(x).trimTrailingZeros(); //attempt to save in sparsely populated rows
+    // As in superposeBitSetFromRowFloor, but once per batch.
+    int max = getMaximumSharedWeight();
+    if (max > 0) {
+      decrement(max);
     }
   }
 
@@ -398,11 +572,13 @@ public class BinaryVector implements Vector {
    * @return an FixedBitSet representing the superposition of all vectors added up to this point
    */
   protected FixedBitSet concludeVote() {
+    flushVoteBatch();
     if (votingRecord.size() == 0 || votingRecord.size() == 1 && votingRecord.get(0).cardinality() ==0) return new FixedBitSet(dimension);
     else return concludeVote(totalNumberOfVotes);
   }
 
   protected FixedBitSet concludeVote(int target) {
+    flushVoteBatch();
     int target2 = (int) Math.ceil((double) target / (double) 2);
     target2 = target2 - minimum;
 
@@ -482,6 +658,7 @@ public class BinaryVector implements Vector {
    * i.e: no underflow check currently - will wreak havoc with zero counts
    */
   public void decrement() {	
+    flushVoteBatch();
     tempSet.set(0, dimension);
     for (int q = 0; q < votingRecord.size(); q++) {
       votingRecord.get(q).xor(tempSet);
@@ -495,15 +672,16 @@ public class BinaryVector implements Vector {
    */
   public void decrement(int weight) {
     if (weight == 0) return;
+    flushVoteBatch();
     minimum+= weight;
 
-    int logfloor = (int) (Math.floor(Math.log(weight)/Math.log(2)));
+    int logfloor = floorLog2(weight);
 
     if (logfloor < votingRecord.size() - 1) {
       while (logfloor > 0) {
         selectedDecrement(logfloor);	
-        weight = weight - (int) Math.pow(2,logfloor);
-        logfloor = (int) (Math.floor(Math.log(weight)/Math.log(2)));
+        weight = weight - (1 << logfloor);
+        logfloor = floorLog2(weight);
       }
     }
 
@@ -513,6 +691,7 @@ public class BinaryVector implements Vector {
   }
 
   public void selectedDecrement(int floor) {
+    flushVoteBatch();
     tempSet.set(0, dimension);
     for (int q = floor; q < votingRecord.size(); q++) {
       votingRecord.get(q).xor(tempSet);
@@ -524,24 +703,37 @@ public class BinaryVector implements Vector {
    * Returns the highest value shared by all dimensions.
    */
   protected int getMaximumSharedWeight() {
+    flushVoteBatch();
     int thismaximum = 0;
     tempSet.xor(tempSet);  // Reset tempset to zeros.
     for (int x = votingRecord.size() - 1; x >= 0; x--) {
       tempSet.or(votingRecord.get(x));
-      if (tempSet.cardinality() == dimension) {
-        thismaximum += (int) Math.pow(2, x);
+      if (isFull(tempSet)) {
+        thismaximum += 1 << x;
         tempSet.xor(tempSet);
       }
     }
     return thismaximum;	
   }
 
+  /**
+   * Returns true if every bit is set. Stops at the first word that isn't full, rather than
+   * counting every bit as cardinality() would.
+   */
+  private static boolean isFull(FixedBitSet bits) {
+    for (long word : bits.getBits()) {
+      if (word != -1L) return false;
+    }
+    return true;
+  }
+
   /**
    * Implements binding using permutations and XOR. 
    */
   public void bind(Vector other, int direction) {
     IncompatibleVectorsException.checkVectorsCompatible(this, other);
-    BinaryVector binaryOther = (BinaryVector) other.copy();
+    // Only copy the other vector if permuting this one would change it.
+    BinaryVector binaryOther = other == this ? copy() : (BinaryVector) other;
     if (direction > 0) {
       //as per Kanerva 2009: bind(A,B) = perm+(A) XOR B = C
       //this also functions as the left inverse:  left inverse (A,C) = perm+(A) XOR C  = B 
@@ -605,6 +797,7 @@ public class BinaryVector implements Vector {
    * superposition, e.g. 0.624000:jazz;  0.246000:rock
    */
   public void normalize() {
+    flushVoteBatch();
     if (votingRecord == null) return;
     if (votingRecord.size() == 1) {
       this.bitSet = votingRecord.get(0);
@@ -664,6 +857,7 @@ public class BinaryVector implements Vector {
     //housekeeping
     votingRecord = new ArrayList<FixedBitSet>();
     votingRecord.add((FixedBitSet) bitSet.clone());
+    voteBatch = null;
     totalNumberOfVotes = 1;
     tempSet = new FixedBitSet(dimension);
     minimum = 0;
@@ -696,6 +890,7 @@ public class BinaryVector implements Vector {
 
     votingRecord = new ArrayList<FixedBitSet>();
     votingRecord.add((FixedBitSet) bitSet.clone());
+    voteBatch = null;
     totalNumberOfVotes = 1;
     tempSet = new FixedBitSet(dimension);
     minimum = 0;
@@ -719,13 +914,11 @@ public class BinaryVector implements Vector {
     }
     long[] bitArray = bitSet.getBits();
 
-    for (int i = 0; i < bitArray.length; i++) {
-      try {
-        outputStream.writeLong(bitArray[i]);
-      } catch (IOException e) {
-        logger.severe("Couldn't write binary vector to lucene output stream.");
-        e.printStackTrace();
-      }
+    try {
+      LuceneStreamUtils.writeLongs(outputStream, bitArray, dimension / 64);
+    } catch (IOException e) {
+      logger.severe("Couldn't write binary vector to lucene output stream.");
+      e.printStackTrace();
     }
   }
 
@@ -736,13 +929,11 @@ public class BinaryVector implements Vector {
   public void readFromLuceneStream(IndexInput inputStream) {
     long bitArray[] = new long[(dimension / 64)];
 
-    for (int i = 0; i < dimension / 64; ++i) {
-      try {
-        bitArray[i] = inputStream.readLong();
-      } catch (IOException e) {
-        logger.severe("Couldn't read binary vector from lucene output stream.");
-        e.printStackTrace();
-      }
+    try {
+      LuceneStreamUtils.readLongs(inputStream, bitArray, dimension / 64);
+    } catch (IOException e) {
+      logger.severe("Couldn't read binary vector from lucene output stream.");
+      e.printStackTrace();
     }
     this.bitSet = new FixedBitSet(bitArray, dimension);
     this.isSparse = true;
@@ -803,6 +994,8 @@ public class BinaryVector implements Vector {
     }
     votingRecord = new ArrayList<FixedBitSet>();
     votingRecord.add((FixedBitSet) bitSet.clone());
+    voteBatch = null;
+    voteBatchWeight = 0;
     tempSet = new FixedBitSet(dimension);
 
     isSparse = false;
@@ -840,8 +1033,17 @@ public class BinaryVector implements Vector {
     return bitSet.getBits().length;
   }
 
+  // Monitor memory taken by the voting record and any vote batch, in bytes.
+  protected long getVotingRecordBytes() {
+    if (isSparse) return 0;
+    long bytes = votingRecord.size() * (dimension / 8L);
+    if (voteBatch != null) bytes += voteBatch.length * 8L;
+    return bytes;
+  }
+
   // Monitor growth of voting record.
   protected int numRows() {
+    flushVoteBatch();
     if (isSparse) return 0;
     return votingRecord.size();
   }
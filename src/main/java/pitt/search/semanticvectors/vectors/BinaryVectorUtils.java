@@ -189,8 +189,82 @@ public class BinaryVectorUtils {
     return conclusion;
   }
 
-  // Have not checked that this is optimal.
+  /**
+   * Number of words compared between checks of the partial distance in
+   * {@link #hammingDistance(long[], int, long[], int, int, long)}.
+   */
+  private static final int WORDS_PER_DISTANCE_CHECK = 16;
+
+  /** Returns the Hamming distance between the two bit sets, i.e., the cardinality of their xor. */
   public static long xorCount(FixedBitSet first, FixedBitSet second) {
-    return FixedBitSet.andNotCount(first, second) + FixedBitSet.andNotCount(second, first);
+    long[] firstBits = first.getBits();
+    long[] secondBits = second.getBits();
+    if (firstBits.length != secondBits.length) {
+      return FixedBitSet.andNotCount(first, second) + FixedBitSet.andNotCount(second, first);
+    }
+    return hammingDistance(firstBits, 0, secondBits, 0, firstBits.length);
+  }
+
+  /**
+   * Returns the Hamming distance between numWords words of each array, starting at the given
+   * offsets. The loop is unrolled over four accumulators so that successive popcounts are
+   * independent of one another.
+   */
+  public static long hammingDistance(
+      long[] first, int firstOffset, long[] second, int secondOffset, int numWords) {
+    long d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+    int i = 0;
+    for (; i + 3 < numWords; i += 4) {
+      d0 += Long.bitCount(first[firstOffset + i] ^ second[secondOffset + i]);
+      d1 += Long.bitCount(first[firstOffset + i + 1] ^ second[secondOffset + i + 1]);
+      d2 += Long.bitCount(first[firstOffset + i + 2] ^ second[secondOffset + i + 2]);
+      d3 += Long.bitCount(first[firstOffset + i + 3] ^ second[secondOffset + i + 3]);
+    }
+    for (; i < numWords; ++i) {
+      d0 += Long.bitCount(first[firstOffset + i] ^ second[secondOffset + i]);
+    }
+    return (d0 + d1) + (d2 + d3);
+  }
+
+  /**
+   * Version of {@link #hammingDistance(long[], int, long[], int, int)} that stops comparing
+   * words once the distance is known to exceed maxDistance.
+   *
+   * @return the Hamming distance if it is at most maxDistance, otherwise some partial
+   *   distance greater than maxDistance
+   */
+  public static long hammingDistance(long[] first, int firstOffset, long[] second, int secondOffset,
+      int numWords, long maxDistance) {
+    long distance = 0;
+    for (int i = 0; i < numWords; i += WORDS_PER_DISTANCE_CHECK) {
+      int blockWords = Math.min(WORDS_PER_DISTANCE_CHECK, numWords - i);
+      distance += hammingDistance(first, firstOffset + i, second, secondOffset + i, blockWords);
+      if (distance > maxDistance) {
+        return distance;
+      }
+    }
+    return distance;
+  }
+
+  /**
+   * Returns the overlap of two binary vectors of the given dimension at this Hamming distance,
+   * i.e., 1 - normalized Hamming distance as in {@link BinaryVector#measureOverlap}.
+   */
+  public static double overlapFromHammingDistance(long hammingDistance, int dimension) {
+    return 2 * (0.5 - (hammingDistance / (double) dimension));
+  }
+
+  /**
+   * Returns a Hamming distance such that any greater distance gives an overlap less than
+   * minOverlap, for use as the maxDistance of
+   * {@link #hammingDistance(long[], int, long[], int, int, long)}. This allows one bit of
+   * slack so that rounding in {@link #overlapFromHammingDistance} never rejects a vector
+   * whose overlap is exactly minOverlap.
+   */
+  public static long maxHammingDistance(double minOverlap, int dimension) {
+    if (!(minOverlap > -1)) {
+      return dimension;
+    }
+    return (long) Math.floor(dimension * (1 - minOverlap) / 2) + 1;
   }
 }
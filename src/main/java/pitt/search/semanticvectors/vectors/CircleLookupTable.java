@@ -55,14 +55,14 @@ public final class CircleLookupTable {
    * Initialize the {@code singletonInstance} with its lookup tables.
    */
   private static void initialize() {
-    singletonInstance = new CircleLookupTable();
-    singletonInstance.realLUT[0] = 0;
-    singletonInstance.imagLUT[0] = 0;
+    // Fill the tables before publishing the instance, so other threads never see them partly filled.
+    CircleLookupTable instance = new CircleLookupTable();
     for (short i = 0; i < PHASE_RESOLUTION; i++) {
       double theta = i * RADIANS_PER_STEP;
-      singletonInstance.realLUT[i] = (float)Math.cos(theta);
-      singletonInstance.imagLUT[i] = (float)Math.sin(theta);
+      instance.realLUT[i] = (float)Math.cos(theta);
+      instance.imagLUT[i] = (float)Math.sin(theta);
     } 
+    singletonInstance = instance;
   }
 
   /**
@@ -92,6 +92,18 @@ public final class CircleLookupTable {
     return singletonInstance.realLUT[i];
   }
   
+  /**
+   * Returns the whole table of real entries, indexed by phase angle, for loops that look up
+   * many entries. Unlike {@link #getRealEntry}, this has no entry for {@link #ZERO_INDEX}.
+   * Callers must not modify the table.
+   */
+  static float[] getRealTable() {
+    if (singletonInstance == null) {
+      initialize();
+    }
+    return singletonInstance.realLUT;
+  }
+
   public static float getImagEntry(short i) {
     if (i == ZERO_INDEX) return 0;
     if (singletonInstance == null) {
@@ -340,22 +340,40 @@ public class ComplexVector implements Vector {
      * are self-similar).
      *
      * Transforms this and other vector to POLAR_DENSE representations.
+     * See {@link PolarOverlapScorer} for comparing one vector with many others.
      */
     protected double measurePolarDenseOverlap(ComplexVector other) {
       toDensePolar();
       other.toDensePolar();
-      int nonZeroEntries = 0;
       short[] phaseAnglesOther = other.getPhaseAngles();
-      float sum = 0.0f;
-      for (short i=0; i < dimension; i++) {
-        if (phaseAngles[i] != CircleLookupTable.ZERO_INDEX) {
-          ++nonZeroEntries;
-          if (phaseAnglesOther[i] != CircleLookupTable.ZERO_INDEX) {
-            sum += CircleLookupTable.getRealEntry((short) Math.abs(phaseAngles[i] - phaseAnglesOther[i]));
-          }
-        }
+      float[] cosines = CircleLookupTable.getRealTable();
+      // Four partial sums, each over every fourth dimension, so that additions can overlap.
+      // PolarOverlapScorer adds in the same order, so gives identical results.
+      float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+      int i = 0;
+      for (; i + 3 < dimension; i += 4) {
+        sum0 += cosineOfDifference(cosines, phaseAngles[i], phaseAnglesOther[i]);
+        sum1 += cosineOfDifference(cosines, phaseAngles[i + 1], phaseAnglesOther[i + 1]);
+        sum2 += cosineOfDifference(cosines, phaseAngles[i + 2], phaseAnglesOther[i + 2]);
+        sum3 += cosineOfDifference(cosines, phaseAngles[i + 3], phaseAnglesOther[i + 3]);
+      }
+      for (; i < dimension; ++i) {
+        sum0 += cosineOfDifference(cosines, phaseAngles[i], phaseAnglesOther[i]);
       }
-      return sum / nonZeroEntries;
+      int nonZeroEntries = 0;
+      for (short phaseAngle : phaseAngles) {
+        if (phaseAngle != CircleLookupTable.ZERO_INDEX) ++nonZeroEntries;
+      }
+      if (nonZeroEntries == 0) return 0;
+      return ((sum0 + sum1) + (sum2 + sum3)) / nonZeroEntries;
+    }
+
+    /** Returns the cosine of the difference between the phase angles, or 0 if either is zero. */
+    private static float cosineOfDifference(float[] cosines, short phaseAngle, short phaseAngleOther) {
+      if (phaseAngle == CircleLookupTable.ZERO_INDEX || phaseAngleOther == CircleLookupTable.ZERO_INDEX) {
+        return 0;
+      }
+      return cosines[Math.abs(phaseAngle - phaseAngleOther)];
     }
 
     @Override
@@ -634,12 +652,10 @@ public class ComplexVector implements Vector {
      */
     public void writeToLuceneStream(IndexOutput outputStream) {
       toCartesian();
-      for (int i = 0; i < dimension*2; ++i) {
-        try {
-          outputStream.writeInt(Float.floatToIntBits(coordinates[i]));
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
+      try {
+        LuceneStreamUtils.writeFloats(outputStream, coordinates, dimension*2);
+      } catch (IOException e) {
+        e.printStackTrace();
       }
 
       /* DORMANT CODE!
@@ -664,14 +680,12 @@ public class ComplexVector implements Vector {
     public void readFromLuceneStream(IndexInput inputStream) {
       opMode = Mode.CARTESIAN;
       coordinates = new float[dimension*2];
-      for (int i = 0; i < dimension*2; ++i) {
-        try {
-          coordinates[i] = Float.intBitsToFloat(inputStream.readInt());
-        } catch (IOException e) {
-          logger.severe("Failed to parse vector from Lucene stream.  This signifies a "
-              + "programming or runtime error, e.g., a dimension mismatch.");
-          e.printStackTrace();
-        }
+      try {
+        LuceneStreamUtils.readFloats(inputStream, coordinates, dimension*2);
+      } catch (IOException e) {
+        logger.severe("Failed to parse vector from Lucene stream.  This signifies a "
+            + "programming or runtime error, e.g., a dimension mismatch.");
+        e.printStackTrace();
       }
 
       /* DORMANT CODE!
@@ -74,20 +74,22 @@ public class ComplexVectorUtils {
    * Superposes vec2 with vec1 with weight and permutation.
    * vec1 is in CARTESIAN mode.
    * vec2 is in sparse POLAR mode.
+   * Only the non-zero entries of vec2 are visited, so the cost depends on the seed length
+   * and not the dimension. vec2 is left in sparse POLAR mode.
    */
   public static void superposeWithSparseAngle(
       ComplexVector vec1, ComplexVector vec2, float weight, int[] permutation) {
     assert(vec1.getOpMode() == Mode.CARTESIAN);
     assert(vec2.getOpMode() == Mode.POLAR_SPARSE);
     short offsets[] = vec2.getSparseOffsets();
+    if (offsets == null) return;
     float[] coordinates = vec1.getCoordinates();
 
     for (int i = 0; i < offsets.length; i += 2) {
-      int positionToAdd = offsets[i] << 1;
-      if (permutation != null) positionToAdd = permutation[offsets[i]] << 1;
-      int phaseAngleIdx = i+1;
-      coordinates[positionToAdd] += CircleLookupTable.getRealEntry(offsets[phaseAngleIdx]) * weight;
-      coordinates[positionToAdd+1] += CircleLookupTable.getImagEntry(offsets[phaseAngleIdx]) * weight;
+      int positionToAdd = (permutation == null ? offsets[i] : permutation[offsets[i]]) << 1;
+      short phaseAngle = offsets[i + 1];
+      coordinates[positionToAdd] += CircleLookupTable.getRealEntry(phaseAngle) * weight;
+      coordinates[positionToAdd+1] += CircleLookupTable.getImagEntry(phaseAngle) * weight;
     }
   }
 
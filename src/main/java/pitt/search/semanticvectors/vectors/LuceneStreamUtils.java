@@ -0,0 +1,130 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+
+/**
+ * Reads and writes whole arrays of vector coordinates from Lucene streams in a single
+ * call, rather than calling {@link DataInput#readInt()} and similar methods once per
+ * coordinate.
+ *
+ * <p>
+ * Coordinates are copied through a per-thread byte buffer, decoded and encoded using a
+ * big-endian {@link ByteBuffer} view so that the bytes are exactly those written by
+ * {@link DataOutput#writeInt} and {@link DataOutput#writeLong}. This means that stores
+ * written with the bulk methods can be read one coordinate at a time, and vice versa.
+ */
+public class LuceneStreamUtils {
+
+  /** Largest number of bytes copied in a single call, to bound the size of the buffer. */
+  private static final int MAX_BUFFER_BYTES = 1 << 16;
+
+  private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(MAX_BUFFER_BYTES);
+    }
+  };
+
+  private LuceneStreamUtils() {}
+
+  /**
+   * Reads {@code length} floats, each written as the int bits of the float, into
+   * {@code coordinates} starting at index 0.
+   */
+  public static void readFloats(DataInput inputStream, float[] coordinates, int length)
+      throws IOException {
+    ByteBuffer buffer = buffers.get();
+    int done = 0;
+    while (done < length) {
+      int chunk = Math.min(length - done, MAX_BUFFER_BYTES / 4);
+      buffer.clear();
+      inputStream.readBytes(buffer.array(), 0, chunk * 4);
+      buffer.limit(chunk * 4);
+      buffer.asFloatBuffer().get(coordinates, done, chunk);
+      done += chunk;
+    }
+  }
+
+  /**
+   * Writes the first {@code length} floats of {@code coordinates}, each as the int bits
+   * of the float.
+   */
+  public static void writeFloats(DataOutput outputStream, float[] coordinates, int length)
+      throws IOException {
+    ByteBuffer buffer = buffers.get();
+    int done = 0;
+    while (done < length) {
+      int chunk = Math.min(length - done, MAX_BUFFER_BYTES / 4);
+      buffer.clear();
+      buffer.asFloatBuffer().put(coordinates, done, chunk);
+      outputStream.writeBytes(buffer.array(), 0, chunk * 4);
+      done += chunk;
+    }
+  }
+
+  /** Reads {@code length} longs into {@code bits} starting at index 0. */
+  public static void readLongs(DataInput inputStream, long[] bits, int length)
+      throws IOException {
+    ByteBuffer buffer = buffers.get();
+    int done = 0;
+    while (done < length) {
+      int chunk = Math.min(length - done, MAX_BUFFER_BYTES / 8);
+      buffer.clear();
+      inputStream.readBytes(buffer.array(), 0, chunk * 8);
+      buffer.limit(chunk * 8);
+      buffer.asLongBuffer().get(bits, done, chunk);
+      done += chunk;
+    }
+  }
+
+  /** Writes the first {@code length} longs of {@code bits}. */
+  public static void writeLongs(DataOutput outputStream, long[] bits, int length)
+      throws IOException {
+    ByteBuffer buffer = buffers.get();
+    int done = 0;
+    while (done < length) {
+      int chunk = Math.min(length - done, MAX_BUFFER_BYTES / 8);
+      buffer.clear();
+      buffer.asLongBuffer().put(bits, done, chunk);
+      outputStream.writeBytes(buffer.array(), 0, chunk * 8);
+      done += chunk;
+    }
+  }
+}
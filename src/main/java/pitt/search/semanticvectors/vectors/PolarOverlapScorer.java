@@ -0,0 +1,175 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+/**
+ * Measures the overlap of one complex query vector with many others, as given by
+ * {@link ComplexVector#measureOverlap} in {@link ComplexVector.Mode#POLAR_DENSE} mode,
+ * i.e., the mean cosine of the differences between phase angles.
+ *
+ * <p>
+ * The query is converted to dense polar form once, when the scorer is created. The vectors
+ * it is compared with are read from packed arrays (see {@link #pack}): one short phase angle
+ * per dimension, with 0 in place of {@link CircleLookupTable#ZERO_INDEX}, and a bitmap with
+ * one bit set for each dimension whose entry is not zero. The bitmaps are compared a word at
+ * a time, so the inner loop does not test each entry for zero: words where both vectors have
+ * all 64 entries are summed directly, words with no dimension where both do are skipped, and
+ * otherwise each cosine is multiplied by its bit. Cosines are read directly from the lookup table.
+ *
+ * <p>
+ * Scores are identical to those of {@link ComplexVector#measureOverlap}. Scorers are not
+ * modified after they are created, so can be shared between threads.
+ */
+public class PolarOverlapScorer {
+
+  private final ComplexVector queryVector;
+  private final int dimension;
+  private final short[] queryPhases;
+  private final long[] queryMask;
+  private final int nonZeroEntries;
+  private final float[] cosines;
+
+  /**
+   * Creates a scorer for the query vector, which is not modified. The vector must not be
+   * changed while the scorer is in use.
+   */
+  public PolarOverlapScorer(ComplexVector queryVector) {
+    this.queryVector = queryVector;
+    this.dimension = queryVector.getDimension();
+    this.queryPhases = new short[dimension];
+    this.queryMask = new long[getNumMaskWords(dimension)];
+    this.nonZeroEntries = pack(queryVector, queryPhases, 0, queryMask, 0);
+    this.cosines = CircleLookupTable.getRealTable();
+  }
+
+  /** Returns the query vector this scorer was created for. */
+  public ComplexVector getQueryVector() {
+    return queryVector;
+  }
+
+  /** Returns the number of longs in the bitmap of nonzero entries for each vector. */
+  public static int getNumMaskWords(int dimension) {
+    return (dimension + 63) / 64;
+  }
+
+  /**
+   * Writes the phase angles of the vector into the phases array, starting at phaseOffset,
+   * and sets the bits for its nonzero entries in the mask array, starting at maskOffset.
+   * The vector is not modified, and the mask words must be zero beforehand.
+   *
+   * @return the number of nonzero entries
+   */
+  public static int pack(ComplexVector vector, short[] phases, int phaseOffset,
+      long[] mask, int maskOffset) {
+    if (vector.getOpMode() != ComplexVector.Mode.POLAR_DENSE) {
+      vector = vector.copy();
+      vector.toDensePolar();
+    }
+    short[] phaseAngles = vector.getPhaseAngles();
+    int nonZeroEntries = 0;
+    for (int i = 0; i < vector.getDimension(); ++i) {
+      if (phaseAngles[i] == CircleLookupTable.ZERO_INDEX) {
+        phases[phaseOffset + i] = 0;
+      } else {
+        phases[phaseOffset + i] = phaseAngles[i];
+        mask[maskOffset + (i >>> 6)] |= 1L << i;
+        ++nonZeroEntries;
+      }
+    }
+    return nonZeroEntries;
+  }
+
+  /**
+   * Returns a dense polar vector with the phase angles written by {@link #pack}.
+   */
+  public static ComplexVector unpack(int dimension, short[] phases, int phaseOffset,
+      long[] mask, int maskOffset) {
+    short[] phaseAngles = new short[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      boolean isZero = (mask[maskOffset + (i >>> 6)] & (1L << i)) == 0;
+      phaseAngles[i] = isZero ? CircleLookupTable.ZERO_INDEX : phases[phaseOffset + i];
+    }
+    return new ComplexVector(phaseAngles);
+  }
+
+  /**
+   * Returns the overlap of the query vector with the vector written by {@link #pack}
+   * at the given offsets. As with {@link ComplexVector#measureOverlap}, the result is 0
+   * if either vector is zero, and only dimensions where the query vector is nonzero
+   * are counted.
+   */
+  public double measureOverlap(short[] phases, int phaseOffset, long[] mask, int maskOffset) {
+    if (nonZeroEntries == 0) return 0;
+    // Partial sums over every fourth dimension, added in the same order as in
+    // ComplexVector#measurePolarDenseOverlap.
+    float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+    long otherNonZero = 0;
+    for (int w = 0; w < queryMask.length; ++w) {
+      long otherMask = mask[maskOffset + w];
+      otherNonZero |= otherMask;
+      long bothNonZero = queryMask[w] & otherMask;
+      if (bothNonZero == 0) continue;
+      int start = w << 6;
+      int end = Math.min(start + 64, dimension);
+      int i = start;
+      if (bothNonZero == -1L) {
+        // All 64 dimensions have entries in both vectors.
+        for (; i < end; i += 4) {
+          sum0 += cosines[Math.abs(queryPhases[i] - phases[phaseOffset + i])];
+          sum1 += cosines[Math.abs(queryPhases[i + 1] - phases[phaseOffset + i + 1])];
+          sum2 += cosines[Math.abs(queryPhases[i + 2] - phases[phaseOffset + i + 2])];
+          sum3 += cosines[Math.abs(queryPhases[i + 3] - phases[phaseOffset + i + 3])];
+        }
+        continue;
+      }
+      // Otherwise the cosine for each dimension is multiplied by its bit, 0 or 1.
+      for (; i + 3 < end; i += 4) {
+        sum0 += cosines[Math.abs(queryPhases[i] - phases[phaseOffset + i])]
+            * ((bothNonZero >>> (i - start)) & 1);
+        sum1 += cosines[Math.abs(queryPhases[i + 1] - phases[phaseOffset + i + 1])]
+            * ((bothNonZero >>> (i + 1 - start)) & 1);
+        sum2 += cosines[Math.abs(queryPhases[i + 2] - phases[phaseOffset + i + 2])]
+            * ((bothNonZero >>> (i + 2 - start)) & 1);
+        sum3 += cosines[Math.abs(queryPhases[i + 3] - phases[phaseOffset + i + 3])]
+            * ((bothNonZero >>> (i + 3 - start)) & 1);
+      }
+      for (; i < end; ++i) {
+        sum0 += cosines[Math.abs(queryPhases[i] - phases[phaseOffset + i])]
+            * ((bothNonZero >>> (i - start)) & 1);
+      }
+    }
+    if (otherNonZero == 0) return 0;
+    return ((sum0 + sum1) + (sum2 + sum3)) / nonZeroEntries;
+  }
+}
@@ -0,0 +1,316 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * Reads and writes vectors with quantized coordinates, see {@link VectorQuantization}.
+ *
+ * <p>
+ * Each vector is serialized as a fixed-size record: for {@link VectorQuantization#INT8}, a
+ * big-endian float giving the scale followed by one byte per coordinate, and for
+ * {@link VectorQuantization#FLOAT16}, two big-endian bytes per coordinate. Real vectors have
+ * one coordinate per dimension and complex vectors two, in the order written by
+ * {@link ComplexVector#writeToLuceneStream}. With {@link VectorQuantization#NONE}, vectors are
+ * read and written using {@link Vector#readFromLuceneStream} and {@link Vector#writeToLuceneStream}.
+ *
+ * <p>
+ * Records can be decoded into vectors, or compared with a real query vector directly
+ * using {@link #measureOverlap}, which avoids creating a vector for each record.
+ */
+public class QuantizedVectorUtils {
+
+  /** Largest magnitude of an {@link VectorQuantization#INT8} coordinate. */
+  private static final int INT8_RANGE = 127;
+
+  /** Float value of each half-precision bit pattern, so that decoding is a table lookup. */
+  private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+  static {
+    for (int i = 0; i < HALF_TO_FLOAT.length; ++i) {
+      HALF_TO_FLOAT[i] = halfBitsToFloat(i);
+    }
+  }
+
+  private QuantizedVectorUtils() {}
+
+  /**
+   * Throws {@link IllegalArgumentException} if vectors of this type cannot be written
+   * with this quantization.
+   */
+  public static void checkQuantizationSupported(VectorType vectorType, VectorQuantization quantization) {
+    if (quantization != VectorQuantization.NONE
+        && vectorType != VectorType.REAL && vectorType != VectorType.COMPLEX
+        && vectorType != VectorType.COMPLEXFLAT) {
+      throw new IllegalArgumentException(
+          "Cannot quantize " + vectorType + " vectors as " + quantization);
+    }
+  }
+
+  /** Returns the number of coordinates written for each vector of this type and dimension. */
+  private static int getNumCoordinates(VectorType vectorType, int dimension) {
+    return vectorType == VectorType.REAL ? dimension : 2 * dimension;
+  }
+
+  /** Returns the number of bytes in the serialization of each vector, as for {@link VectorFactory#getLuceneByteSize}. */
+  public static int getLuceneByteSize(VectorType vectorType, int dimension, VectorQuantization quantization) {
+    checkQuantizationSupported(vectorType, quantization);
+    switch (quantization) {
+      case NONE:
+        return VectorFactory.getLuceneByteSize(vectorType, dimension);
+      case INT8:
+        return 4 + getNumCoordinates(vectorType, dimension);
+      case FLOAT16:
+        return 2 * getNumCoordinates(vectorType, dimension);
+      default:
+        throw new IllegalArgumentException("Unrecognized VectorQuantization: " + quantization);
+    }
+  }
+
+  /** Writes the vector to the output stream with this quantization. */
+  public static void writeToLuceneStream(Vector vector, IndexOutput outputStream,
+      VectorQuantization quantization) throws IOException {
+    if (quantization == VectorQuantization.NONE) {
+      vector.writeToLuceneStream(outputStream);
+      return;
+    }
+    checkQuantizationSupported(vector.getVectorType(), quantization);
+    float[] coordinates;
+    if (vector.getVectorType() == VectorType.REAL) {
+      coordinates = ((RealVector) vector).getCoordinates();
+    } else {
+      ComplexVector complexVector = (ComplexVector) vector;
+      complexVector.toCartesian();
+      coordinates = complexVector.getCoordinates();
+    }
+    byte[] record = encode(coordinates, quantization);
+    outputStream.writeBytes(record, 0, record.length);
+  }
+
+  /**
+   * Reads a vector of this type and dimension written with this quantization from the input stream.
+   */
+  public static Vector readFromLuceneStream(IndexInput inputStream, VectorType vectorType,
+      int dimension, VectorQuantization quantization) throws IOException {
+    if (quantization == VectorQuantization.NONE) {
+      Vector vector = VectorFactory.createZeroVector(vectorType, dimension);
+      vector.readFromLuceneStream(inputStream);
+      return vector;
+    }
+    return decode(readRecord(inputStream, vectorType, dimension, quantization),
+        vectorType, dimension, quantization);
+  }
+
+  /**
+   * Reads the serialization of a vector written with this quantization, without decoding it.
+   */
+  public static byte[] readRecord(IndexInput inputStream, VectorType vectorType, int dimension,
+      VectorQuantization quantization) throws IOException {
+    byte[] record = new byte[getLuceneByteSize(vectorType, dimension, quantization)];
+    inputStream.readBytes(record, 0, record.length);
+    return record;
+  }
+
+  /** Returns the quantized serialization of these coordinates. */
+  public static byte[] encode(float[] coordinates, VectorQuantization quantization) {
+    switch (quantization) {
+      case INT8:
+        float maxMagnitude = 0;
+        for (float coordinate : coordinates) {
+          maxMagnitude = Math.max(maxMagnitude, Math.abs(coordinate));
+        }
+        float scale = maxMagnitude / INT8_RANGE;
+        byte[] int8Record = new byte[4 + coordinates.length];
+        writeInt(int8Record, 0, Float.floatToIntBits(scale));
+        if (scale > 0) {
+          for (int i = 0; i < coordinates.length; ++i) {
+            int value = Math.round(coordinates[i] / scale);
+            int8Record[4 + i] = (byte) Math.max(-INT8_RANGE, Math.min(INT8_RANGE, value));
+          }
+        }
+        return int8Record;
+      case FLOAT16:
+        byte[] float16Record = new byte[2 * coordinates.length];
+        for (int i = 0; i < coordinates.length; ++i) {
+          int halfBits = floatToHalfBits(coordinates[i]);
+          float16Record[2 * i] = (byte) (halfBits >>> 8);
+          float16Record[2 * i + 1] = (byte) halfBits;
+        }
+        return float16Record;
+      default:
+        throw new IllegalArgumentException("Cannot encode coordinates with " + quantization);
+    }
+  }
+
+  /** Returns the coordinates given by a quantized serialization. */
+  public static float[] decodeCoordinates(byte[] record, VectorQuantization quantization) {
+    switch (quantization) {
+      case INT8:
+        float scale = Float.intBitsToFloat(readInt(record, 0));
+        float[] int8Coordinates = new float[record.length - 4];
+        for (int i = 0; i < int8Coordinates.length; ++i) {
+          int8Coordinates[i] = record[4 + i] * scale;
+        }
+        return int8Coordinates;
+      case FLOAT16:
+        float[] float16Coordinates = new float[record.length / 2];
+        for (int i = 0; i < float16Coordinates.length; ++i) {
+          float16Coordinates[i] = HALF_TO_FLOAT[readHalfBits(record, 2 * i)];
+        }
+        return float16Coordinates;
+      default:
+        throw new IllegalArgumentException("Cannot decode coordinates with " + quantization);
+    }
+  }
+
+  /** Returns the vector given by a quantized serialization. */
+  public static Vector decode(byte[] record, VectorType vectorType, int dimension,
+      VectorQuantization quantization) {
+    float[] coordinates = decodeCoordinates(record, quantization);
+    if (vectorType == VectorType.REAL) {
+      return new RealVector(coordinates);
+    }
+    return new ComplexVector(coordinates);
+  }
+
+  /**
+   * Returns the overlap between a real query vector and the vector given by a quantized
+   * serialization, the same as {@link RealVector#measureOverlap} with the decoded vector
+   * but without decoding it. The query's norm is cached by the query vector
+   * (see {@link RealVector#getNormSquared}), so is only computed once for many records.
+   */
+  public static double measureOverlap(RealVector queryVector, byte[] record, VectorQuantization quantization) {
+    if (queryVector.isZeroVector()) return 0;
+    return measureOverlap(queryVector.getCoordinates(), queryVector.getNormSquared(), record, quantization);
+  }
+
+  /**
+   * Version of {@link #measureOverlap(RealVector, byte[], VectorQuantization)} for a query
+   * given by its coordinates and the sum of their squares, computed once for all the records
+   * it is compared with.
+   */
+  public static double measureOverlap(float[] queryCoordinates, double queryNormSquared,
+      byte[] record, VectorQuantization quantization) {
+    if (queryNormSquared == 0) return 0;
+    double result = 0;
+    double norm = 0;
+    switch (quantization) {
+      case INT8:
+        // The scale cancels out of the cosine, so compare the integer coordinates directly.
+        for (int i = 0; i < queryCoordinates.length; ++i) {
+          int coordinate = record[4 + i];
+          result += queryCoordinates[i] * coordinate;
+          norm += coordinate * coordinate;
+        }
+        break;
+      case FLOAT16:
+        for (int i = 0; i < queryCoordinates.length; ++i) {
+          float coordinate = HALF_TO_FLOAT[readHalfBits(record, 2 * i)];
+          result += queryCoordinates[i] * coordinate;
+          norm += coordinate * coordinate;
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Cannot measure overlap with " + quantization);
+    }
+    if (norm == 0) return 0;
+    return result / Math.sqrt(queryNormSquared * norm);
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+        | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+
+  private static int readHalfBits(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+  }
+
+  /**
+   * Returns the bits of the half-precision float nearest to this float, rounding halfway
+   * cases up in magnitude. Values too large for half precision become infinite.
+   */
+  static int floatToHalfBits(float value) {
+    int bits = Float.floatToIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int magnitude = bits & 0x7fffffff;
+    if (magnitude >= 0x7f800000) {
+      // Infinity or NaN, keeping the top bits of any NaN payload.
+      return sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 | ((magnitude >>> 13) & 0x3ff) : 0);
+    }
+    // Add half a unit in the last place of the result, so that truncation rounds.
+    int rounded = magnitude + 0x1000;
+    if (rounded >= 0x47800000) {
+      return sign | 0x7c00;
+    }
+    if (rounded >= 0x38800000) {
+      // Normal half, rebiasing the exponent from 127 to 15.
+      return sign | ((rounded - 0x38000000) >>> 13);
+    }
+    if (magnitude < 0x33000000) {
+      return sign;
+    }
+    // Subnormal half: shift the mantissa, with its implicit leading bit, into place and round.
+    int exponent = magnitude >>> 23;
+    int mantissa = (magnitude & 0x7fffff) | 0x800000;
+    int shift = 126 - exponent;
+    return sign | ((mantissa + (1 << (shift - 1))) >>> shift);
+  }
+
+  /** Returns the float with the value of these half-precision float bits. */
+  static float halfBitsToFloat(int halfBits) {
+    int sign = (halfBits & 0x8000) << 16;
+    int exponent = (halfBits >>> 10) & 0x1f;
+    int mantissa = halfBits & 0x3ff;
+    if (exponent == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+    }
+    if (exponent == 0) {
+      // Zero or subnormal, which is mantissa * 2^-24.
+      float magnitude = mantissa * 0x1p-24f;
+      return sign == 0 ? magnitude : -magnitude;
+    }
+    return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+  }
+}
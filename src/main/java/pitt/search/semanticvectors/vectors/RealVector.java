@@ -95,6 +95,16 @@ public class RealVector implements Vector {
    */ 
   private short[] sparseOffsets;
   private boolean isSparse;
+  /**
+   * Sum of the squares of the dense coordinates, or -1 if it hasn't been computed since they last
+   * changed. See {@link #getNormSquared}.
+   */
+  private volatile double normSquared = -1;
+  /**
+   * Spectrum of the coordinates, or null if it hasn't been computed since they last changed.
+   * See {@link #getSpectrum}.
+   */
+  private volatile float[] spectrum;
 
   protected RealVector(int dimension) {
     this.dimension = dimension;
@@ -244,6 +254,8 @@ public class RealVector implements Vector {
    * Measures overlap of two vectors using cosine similarity.
    * 
    * Causes this and other vector to be converted to dense representation.
+   * The norms of the vectors are cached (see {@link #getNormSquared}), so comparing a vector
+   * with many others, as in search, takes a single pass over the coordinates for each comparison.
    */
   public double measureOverlap(Vector other) {
     IncompatibleVectorsException.checkVectorsCompatible(this, other);
@@ -256,36 +268,60 @@ public class RealVector implements Vector {
     if (realOther.isSparse) {
       realOther.sparseToDense();
     }
-    double result = 0;
-    double norm1 = 0;
-    double norm2 = 0;
-    for (int i = 0; i < dimension; ++i) {
-      result += coordinates[i] * realOther.coordinates[i];
-      norm1 += coordinates[i] * coordinates[i];
-      norm2 += realOther.coordinates[i] * realOther.coordinates[i];
+    double result = RealVectorUtils.dotProduct(coordinates, 0, realOther.coordinates, 0, dimension);
+    return result / Math.sqrt(getNormSquared() * realOther.getNormSquared());
+  }
+
+  /** Clears the values cached from the coordinates. Must be called whenever they change. */
+  private void coordinatesChanged() {
+    normSquared = -1;
+    spectrum = null;
+  }
+
+  /**
+   * Returns the sum of the squares of the coordinates. This is cached until the vector is changed.
+   */
+  public double getNormSquared() {
+    if (isSparse) {
+      return RealVectorUtils.sumOfSquares(getCoordinates(), 0, dimension);
+    }
+    double cachedNormSquared = normSquared;
+    if (cachedNormSquared < 0) {
+      cachedNormSquared = RealVectorUtils.sumOfSquares(coordinates, 0, dimension);
+      normSquared = cachedNormSquared;
     }
-    return result / Math.sqrt(norm1 * norm2);
+    return cachedNormSquared;
+  }
+
+  /**
+   * Returns the discrete Fourier transform of the coordinates, as used for binding with
+   * convolution, see {@link RealVectorUtils#getSpectrum}. This is cached until the vector is
+   * changed, so vectors that are bound to many others, e.g., predicate vectors in PSI, are only
+   * transformed once. Callers must not change the returned array.
+   */
+  float[] getSpectrum() {
+    float[] cachedSpectrum = spectrum;
+    if (cachedSpectrum == null) {
+      cachedSpectrum = RealVectorUtils.getSpectrum(getCoordinates());
+      spectrum = cachedSpectrum;
+    }
+    return cachedSpectrum;
   }
 
   @Override
   /**
    * Adds the other vector to this one.  This vector is cast to dense format; other vector is
-   * left in sparse format if originally sparse.
+   * left in sparse format if originally sparse, in which case only its non-zero entries are
+   * visited, so the cost depends on the seed length and not the dimension.
    */
   public void superpose(Vector other, double weight, int[] permutation) {
     IncompatibleVectorsException.checkVectorsCompatible(this, other);
     RealVector realOther = (RealVector) other;
 
     if (isSparse) sparseToDense();
+    coordinatesChanged();
     if (realOther.isSparse) {
-      for (int i = 0; i < realOther.sparseOffsets.length; ++i) {
-        int entry = Integer.signum(realOther.sparseOffsets[i]);
-        int positionToAdd = Math.abs(realOther.sparseOffsets[i]) - 1;
-        if (permutation != null) {
-          positionToAdd = permutation[positionToAdd];
-        }
-        coordinates[positionToAdd] += entry * weight;
-      }
+      superposeSparse(realOther.sparseOffsets, weight, permutation);
     } else {
       boolean anyNans = false;
       for (int i = 0; i < dimension; ++i) {
@@ -295,12 +331,36 @@ public class RealVector implements Vector {
         }
       }
       if (anyNans) return;
-      for (int i = 0; i < dimension; ++i) {
-        int positionToAdd = i;
-        if (permutation != null) {
-          positionToAdd = permutation[positionToAdd];
+      if (permutation == null) {
+        RealVectorUtils.scaleAndAdd(coordinates, realOther.coordinates, weight, dimension);
+      } else {
+        for (int i = 0; i < dimension; ++i) {
+          coordinates[permutation[i]] += realOther.coordinates[i] * weight;
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds a sparse vector given by its signed offsets (see {@link #sparseToDense}) to this dense vector.
+   * Adding or subtracting the weight gives the same result as multiplying it by the sign of the entry.
+   */
+  private void superposeSparse(short[] offsets, double weight, int[] permutation) {
+    if (permutation == null) {
+      for (short offset : offsets) {
+        if (offset > 0) {
+          coordinates[offset - 1] += weight;
+        } else {
+          coordinates[-offset - 1] -= weight;
+        }
+      }
+    } else {
+      for (short offset : offsets) {
+        if (offset > 0) {
+          coordinates[permutation[offset - 1]] += weight;
+        } else {
+          coordinates[permutation[-offset - 1]] -= weight;
         }
-        coordinates[positionToAdd] += realOther.coordinates[i] * weight;
       }
     }
   }
@@ -341,42 +401,77 @@ public class RealVector implements Vector {
     }
   }
     
+  /**
+   * Implements binding using {@link RealVectorUtils#fftConvolution}, overwriting the coordinates
+   * of this vector with the result.
+   */
   public void bindWithConvolution(RealVector realOther) {
-    RealVector result = RealVectorUtils.fftConvolution(this, realOther);
-    this.coordinates = result.coordinates;
+    if (isSparse) sparseToDense();
+    float[] otherSpectrum = realOther.getSpectrum();
+    RealVectorUtils.convolveInPlace(coordinates, otherSpectrum, false);
+    coordinatesChanged();
   }
 
   /**
-   * Implements release using {@link RealVectorUtils#fftApproxInvConvolution}
+   * Implements release using {@link RealVectorUtils#fftApproxInvConvolution}, overwriting the
+   * coordinates of this vector with the result.
    */
   public void releaseWithConvolution(RealVector other) {
-    RealVector result = RealVectorUtils.fftApproxInvConvolution(other, this);
-    this.coordinates = result.coordinates;
+    if (isSparse) sparseToDense();
+    float[] otherSpectrum = other.getSpectrum();
+    RealVectorUtils.convolveInPlace(coordinates, otherSpectrum, true);
+    coordinatesChanged();
   }
 
   /**
-   * Implements binding as a single-shift permutation.  Currently wasteful; allocates
-   * the permutation array each time.
+   * Implements binding as a single-shift permutation: the result is the other vector shifted
+   * forward by one place plus this vector shifted back by one place. Computed in place.
    */
   public void bindWithPermutation(RealVector other) {
-    RealVector result = createZeroVector(dimension);    
-    result.superpose(
-        other, 1, PermutationUtils.getShiftPermutation(VectorType.REAL, dimension, 1));
-    result.superpose(
-        this, 1, PermutationUtils.getShiftPermutation(VectorType.REAL, dimension, -1));
-    this.coordinates = result.coordinates;
+    if (isSparse) sparseToDense();
+    if (other == this) other = copy();
+    float first = coordinates[0];
+    System.arraycopy(coordinates, 1, coordinates, 0, dimension - 1);
+    coordinates[dimension - 1] = first;
+    addShiftedForward(other, 1);
+    coordinatesChanged();
   }
 
   /**
-   * Implements release using the {@link #bindWithPermutation}.
+   * Implements release using the {@link #bindWithPermutation}: subtracts the other vector
+   * shifted forward by one place, and shifts the result forward by one place. Computed in place.
    */
   public void releaseWithPermutation(RealVector other) {
-    RealVector result = createZeroVector(dimension);
-    this.superpose(
-        other, -1, PermutationUtils.getShiftPermutation(VectorType.REAL, dimension, 1));
-    result.superpose(
-        this, 1, PermutationUtils.getShiftPermutation(VectorType.REAL, dimension, 1));
-    this.coordinates = result.coordinates;
+    if (isSparse) sparseToDense();
+    if (other == this) other = copy();
+    addShiftedForward(other, -1);
+    float last = coordinates[dimension - 1];
+    System.arraycopy(coordinates, 0, coordinates, 1, dimension - 1);
+    coordinates[0] = last;
+    coordinatesChanged();
+  }
+
+  /**
+   * Adds the other vector, multiplied by the weight and shifted forward by one place, to the
+   * (dense) coordinates of this vector. Same as {@link #superpose} with a shift permutation.
+   */
+  private void addShiftedForward(RealVector other, double weight) {
+    if (other.isSparse) {
+      for (short offset : other.sparseOffsets) {
+        int index = Math.abs(offset) % dimension;
+        if (offset > 0) {
+          coordinates[index] += weight;
+        } else {
+          coordinates[index] -= weight;
+        }
+      }
+    } else {
+      float[] otherCoordinates = other.coordinates;
+      coordinates[0] += otherCoordinates[dimension - 1] * weight;
+      for (int i = 1; i < dimension; ++i) {
+        coordinates[i] += otherCoordinates[i - 1] * weight;
+      }
+    }
   }
 
   @Override
@@ -387,14 +482,11 @@ public class RealVector implements Vector {
     if (this.isSparse) {
       this.sparseToDense();
     }
-    double normSq = 0;
-    for (int i = 0; i < dimension; ++i) {
-      normSq += coordinates[i] * coordinates[i];
-    }
-    float norm = (float) Math.sqrt(normSq);
+    float norm = (float) Math.sqrt(getNormSquared());
     for (int i = 0; i < dimension; ++i) {
       coordinates[i] = coordinates[i] / norm;
     }
+    coordinatesChanged();
   }
 
   @Override
@@ -411,12 +503,10 @@ public class RealVector implements Vector {
     } else {
       coordsToWrite = coordinates;
     }
-    for (int i = 0; i < dimension; ++i) {
-      try {
-        outputStream.writeInt(Float.floatToIntBits(coordsToWrite[i]));
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+    try {
+      LuceneStreamUtils.writeFloats(outputStream, coordsToWrite, dimension);
+    } catch (IOException e) {
+      e.printStackTrace();
     }
   }
 
@@ -430,14 +520,13 @@ public class RealVector implements Vector {
       sparseOffsets = null;
       isSparse = false;
     }
-    for (int i = 0; i < dimension; ++i) {
-      try {
-        coordinates[i] = Float.intBitsToFloat(inputStream.readInt());
-      } catch (IOException e) {
-        logger.severe("Failed to parse vector from Lucene stream.  This signifies a "
-            + "programming or runtime error, e.g., a dimension mismatch.");
-        e.printStackTrace();
-      }
+    coordinatesChanged();
+    try {
+      LuceneStreamUtils.readFloats(inputStream, coordinates, dimension);
+    } catch (IOException e) {
+      logger.severe("Failed to parse vector from Lucene stream.  This signifies a "
+          + "programming or runtime error, e.g., a dimension mismatch.");
+      e.printStackTrace();
     }
   }
 
@@ -474,6 +563,7 @@ public class RealVector implements Vector {
       sparseOffsets = null;
       isSparse = false;
     }
+    coordinatesChanged();
     for (int i = 0; i < dimension; ++i) {
       coordinates[i] = Float.parseFloat(entries[i]);
     }
@@ -503,6 +593,8 @@ public class RealVector implements Vector {
 
   /**
    * Available to support access to coordinates for legacy operations.  Try not to use in new code!
+   * The coordinates must not be changed through the returned array, which would leave the cached
+   * norm (see {@link #getNormSquared}) out of date.
    */
   public float[] getCoordinates() {
     if (isSparse) {
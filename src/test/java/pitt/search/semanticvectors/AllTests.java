@@ -49,12 +49,22 @@ public class AllTests {
     suite.addTestSuite(VectorStoreWriterTest.class);
     suite.addTestSuite(VectorStoreReaderLuceneTest.class);
     suite.addTestSuite(VectorStoreRAMTest.class);
+    suite.addTestSuite(VectorStorePackedRAMTest.class);
+    suite.addTestSuite(VectorSearcherTest.class);
+    suite.addTestSuite(TopKCollectorTest.class);
+    suite.addTestSuite(HnswIndexTest.class);
+    suite.addTestSuite(MultiIndexHashingIndexTest.class);
+    suite.addTestSuite(ProductQuantizedIndexTest.class);
     suite.addTestSuite(VectorStoreDeterministicTest.class);
+    suite.addTestSuite(LocalTermPositionsTest.class);
+    suite.addTestSuite(GlobalTermWeightTableTest.class);
+    suite.addTestSuite(LuceneUtilsTest.class);
     // suite.addTestSuite(RealVectorTest.class);  Updated to JUnit 4.
     suite.addTestSuite(BinaryVectorTest.class);
     // suite.addTestSuite(CircleLookupTableTest.class);   Accidentally never checked in - TODO(widdows) redo! 
     suite.addTestSuite(ComplexVectorTest.class);
     suite.addTestSuite(PermutationUtilsTest.class);
+    suite.addTestSuite(QuantizedVectorUtilsTest.class);
     //$JUnit-END$
     return suite;
   }
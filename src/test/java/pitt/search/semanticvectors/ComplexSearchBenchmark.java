@@ -0,0 +1,94 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package pitt.search.semanticvectors;
+
+import java.util.List;
+import java.util.Random;
+
+import pitt.search.semanticvectors.VectorSearcher.VectorSearcherPlain;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Measures the time taken by brute-force nearest neighbor search over a store of random dense
+ * {@link VectorType#COMPLEX} vectors, with the vectors held as objects in a {@link VectorStoreRAM}
+ * and packed in a {@link VectorStorePackedRAM}. Not run as part of the test suite.
+ *
+ * <p>
+ * Usage: ComplexSearchBenchmark [numVectors [dimension [numResults [iterations]]]]
+ */
+public class ComplexSearchBenchmark {
+
+  public static void main(String[] args) {
+    int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int numResults = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "complex", "-dimension", Integer.toString(dimension),
+        "-seedlength", Integer.toString(dimension)});
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    VectorStorePackedRAM packedStore = new VectorStorePackedRAM(flagConfig, numVectors);
+    for (int i = 0; i < numVectors; ++i) {
+      Vector vector = VectorFactory.generateRandomVector(
+          VectorType.COMPLEX, dimension, dimension, random);
+      store.putVector("vector" + i, vector);
+      packedStore.putVector("vector" + i, vector);
+    }
+    Vector queryVector = store.getVector("vector" + (numVectors / 2));
+
+    // First iteration warms up the JIT, and converts the vectors in the VectorStoreRAM to
+    // dense polar form.
+    for (int iteration = 0; iteration <= iterations; ++iteration) {
+      long start = System.nanoTime();
+      List<SearchResult> results =
+          new VectorSearcherPlain(store, queryVector, flagConfig).getNearestNeighbors(numResults);
+      long ramNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      new VectorSearcherPlain(packedStore, queryVector, flagConfig).getNearestNeighbors(numResults);
+      long packedNanos = System.nanoTime() - start;
+
+      if (iteration > 0) {
+        System.out.println(String.format(
+            "%d x %d, top %d: VectorStoreRAM %.1f ns/vector, VectorStorePackedRAM %.1f ns/vector"
+                + " (worst result %.4f)",
+            numVectors, dimension, numResults, (double) ramNanos / numVectors,
+            (double) packedNanos / numVectors, results.get(results.size() - 1).getScore()));
+      }
+    }
+  }
+}
@@ -37,6 +37,8 @@ import junit.framework.TestCase;
 
 import org.junit.*;
 
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVector.VotingRecordMethod;
 import pitt.search.semanticvectors.vectors.VectorType;
 
 public class FlagConfigTest extends TestCase {
@@ -77,6 +79,19 @@ public class FlagConfigTest extends TestCase {
     }
   }
   
+  @Test
+  public void testBinaryVotingRecordFlagSetsVotingRecordMethod() {
+    try {
+      FlagConfig.getFlagConfig(new String[] {"-vectortype", "binary", "-binaryvotingrecord", "batched"});
+      assertEquals(VotingRecordMethod.BATCHED, BinaryVector.VOTING_RECORD_METHOD);
+      // Other binary flag configs, e.g., those read from vector store headers, leave it alone.
+      FlagConfig.getFlagConfig(new String[] {"-vectortype", "binary"});
+      assertEquals(VotingRecordMethod.BATCHED, BinaryVector.VOTING_RECORD_METHOD);
+    } finally {
+      BinaryVector.setVotingRecordMethod(VotingRecordMethod.BITSLICED);
+    }
+  }
+
   @Test
   public void testParseFlagsFromString() {    
     FlagConfig flagConfig = FlagConfig.parseFlagsFromString("-vectortype complex -dimension 2");
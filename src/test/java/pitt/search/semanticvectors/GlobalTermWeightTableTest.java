@@ -0,0 +1,133 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.*;
+
+import junit.framework.TestCase;
+
+public class GlobalTermWeightTableTest extends TestCase {
+
+  @Test
+  public void testAddAndLookUp() {
+    GlobalTermWeightTable table = new GlobalTermWeightTable();
+    for (int i = 0; i < 2000; ++i) {
+      table.add(new Term("contents", "term" + i), i + 1, i / 10f);
+    }
+    assertEquals(2000, table.size());
+    int ordinal = table.getOrdinal(new Term("contents", "term1500"));
+    assertEquals(1500, ordinal);
+    assertEquals(150f, table.getWeight(ordinal));
+    assertEquals(1501, table.getDocFreq(ordinal));
+    assertEquals(new Term("contents", "term1500"), table.getTerm(ordinal));
+    assertEquals(-1, table.getOrdinal(new Term("contents", "term2000")));
+    assertEquals(-1, table.getOrdinal(new Term("title", "term1")));
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    GlobalTermWeightTable table = new GlobalTermWeightTable();
+    table.add(new Term("contents", "peter"), 12, 0.5f);
+    table.add(new Term("title", "peter"), 3, 1.25f);
+    File file = File.createTempFile("termweights", ".bin");
+    try {
+      table.writeToFile(file.getPath(), "-termweight IDF -numdocs 20");
+      GlobalTermWeightTable tableIn = GlobalTermWeightTable.readFromFile(
+          file.getPath(), "-termweight IDF -numdocs 20");
+      assertEquals(2, tableIn.size());
+      int ordinal = tableIn.getOrdinal(new Term("title", "peter"));
+      assertEquals(1.25f, tableIn.getWeight(ordinal));
+      assertEquals(3, tableIn.getDocFreq(ordinal));
+
+      assertNull(GlobalTermWeightTable.readFromFile(file.getPath(), "-termweight IDF -numdocs 21"));
+    } finally {
+      file.delete();
+    }
+    assertNull(GlobalTermWeightTable.readFromFile(file.getPath(), "-termweight IDF -numdocs 20"));
+  }
+
+  @Test
+  public void testFileInEarlierFormatIsNotRead() throws IOException {
+    // Written as by format version 1, with the same header but each term in full.
+    File file = File.createTempFile("termweights", ".bin");
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(file.getParent()));
+    file.delete();
+    IndexOutput output = directory.createOutput(file.getName(), IOContext.DEFAULT);
+    output.writeString("-termweight IDF -numdocs 20");
+    output.writeVInt(1);
+    output.writeString("contents");
+    output.writeString("peter");
+    output.writeVInt(12);
+    output.writeInt(Float.floatToIntBits(0.5f));
+    output.close();
+    directory.close();
+    try {
+      assertNull(GlobalTermWeightTable.readFromFile(file.getPath(), "-termweight IDF -numdocs 20"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testWriteAndReadSharedPrefixes() throws IOException {
+    String[] texts = new String[] {"", "a", "ab", "abc", "abd", "b", "ba", "\ud801\udc00", "\ud801\udc01"};
+    GlobalTermWeightTable table = new GlobalTermWeightTable();
+    for (String field : new String[] {"contents", "title"}) {
+      for (String text : texts) {
+        table.add(new Term(field, text), table.size() + 1, table.size() / 4f);
+      }
+    }
+    File file = File.createTempFile("termweights", ".bin");
+    try {
+      table.writeToFile(file.getPath(), "-termweight IDF");
+      GlobalTermWeightTable tableIn = GlobalTermWeightTable.readFromFile(file.getPath(), "-termweight IDF");
+      assertEquals(table.size(), tableIn.size());
+      for (int i = 0; i < table.size(); ++i) {
+        assertEquals(table.getTerm(i), tableIn.getTerm(i));
+        assertEquals(table.getDocFreq(i), tableIn.getDocFreq(i));
+        assertEquals(table.getWeight(i), tableIn.getWeight(i));
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+import pitt.search.semanticvectors.VectorSearcher.VectorSearcherPlain;
+import pitt.search.semanticvectors.vectors.Vector;
+
+import junit.framework.TestCase;
+
+public class HnswIndexTest extends TestCase {
+
+  static final String[] COMMAND_LINE_ARGS = {
+      "-vectortype", "real", "-dimension", "32", "-nnindex", "hnsw"};
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+
+  @Test
+  public void testRecallAgainstExhaustiveSearch() {
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 2000);
+    HnswIndex index = HnswIndex.build(store, FLAG_CONFIG);
+    assertEquals(2000, index.getNumVectors());
+
+    Random random = new Random(1);
+    int found = 0;
+    for (int query = 0; query < 20; ++query) {
+      Vector queryVector = MyTestUtils.randomGaussianVector(FLAG_CONFIG.dimension(), random);
+      HashSet<Object> exactResults = new HashSet<Object>();
+      for (SearchResult result
+          : new VectorSearcherPlain(store, queryVector, FLAG_CONFIG).getNearestNeighbors(10)) {
+        exactResults.add(result.getObjectVector().getObject());
+      }
+      List<SearchResult> approximateResults = index.getNearestNeighbors(queryVector, 10);
+      assertEquals(10, approximateResults.size());
+      for (int i = 0; i < approximateResults.size(); ++i) {
+        if (i > 0) {
+          assertTrue(approximateResults.get(i - 1).getScore() >= approximateResults.get(i).getScore());
+        }
+        if (exactResults.contains(approximateResults.get(i).getObjectVector().getObject())) ++found;
+      }
+    }
+    assertTrue("Recall was only " + found + " / 200", found >= 190);
+  }
+
+  @Test
+  public void testWriteAndReadIndex() throws IOException {
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 500);
+    HnswIndex index = HnswIndex.build(store, FLAG_CONFIG);
+    File indexFile = File.createTempFile("vectors", HnswIndex.HNSW_SUFFIX);
+    index.writeToFile(indexFile.getPath(), FLAG_CONFIG);
+    HnswIndex readIndex = HnswIndex.readFromFile(indexFile.getPath(), store, FLAG_CONFIG);
+
+    Vector queryVector = store.getVector("vector7");
+    List<SearchResult> readResults = readIndex.getNearestNeighbors(queryVector, 5);
+    assertEquals("vector7", readResults.get(0).getObjectVector().getObject());
+    MyTestUtils.assertSameResults(index.getNearestNeighbors(queryVector, 5), readResults);
+
+    try {
+      HnswIndex.readFromFile(
+          indexFile.getPath(), MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 10), FLAG_CONFIG);
+      fail("Index should not be read for a different vector store.");
+    } catch (IOException e) {
+      // Expected.
+    }
+    indexFile.delete();
+  }
+
+  @Test
+  public void testSearchIndexOverLuceneVectorStore() throws IOException {
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 500);
+    HnswIndex index = HnswIndex.build(store, FLAG_CONFIG);
+    File vectorFile = MyTestUtils.writeTempLuceneVectorStore(store, FLAG_CONFIG);
+    index.writeToFile(HnswIndex.getIndexFileName(vectorFile.getPath()), FLAG_CONFIG);
+
+    // Vectors of the nodes visited are read from the store by offset.
+    Vector queryVector = store.getVector("vector11");
+    MyTestUtils.assertSameResults(index.getNearestNeighbors(queryVector, 5),
+        MyTestUtils.searchIndexOverLuceneVectorStore(vectorFile, queryVector, 5, FLAG_CONFIG));
+  }
+}
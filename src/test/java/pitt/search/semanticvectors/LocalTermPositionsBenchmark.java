@@ -0,0 +1,208 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Random;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+/**
+ * Compares the time taken by a basic sliding window pass over a synthetic positional index
+ * when positions are mapped to terms using boxed integers in a {@link Hashtable} and vectors
+ * are looked up by string for each window position, and when using {@link LocalTermPositions}.
+ * Not run as part of the test suite.
+ *
+ * <p>
+ * Usage: LocalTermPositionsBenchmark [numDocs [docLength [iterations]]]
+ */
+public class LocalTermPositionsBenchmark {
+
+  private static final int VOCABULARY_SIZE = 5000;
+  private static final int WINDOW_RADIUS = 5;
+
+  public static void main(String[] args) throws IOException {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int docLength = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Path tempDir = Files.createTempDirectory("localtermpositionsbenchmark");
+    writeSyntheticIndex(tempDir, numDocs, docLength);
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-dimension", "200", "-vectortype", "real", "-seedlength", "10",
+        "-termweight", "idf", "-luceneindexpath", tempDir.toString()});
+    LuceneUtils luceneUtils = new LuceneUtils(flagConfig);
+
+    VectorStoreRAM semanticVectors = new VectorStoreRAM(flagConfig);
+    ElementalVectorStore elementalVectors = new ElementalVectorStore(flagConfig);
+    for (int i = 0; i < VOCABULARY_SIZE; ++i) {
+      semanticVectors.putVector("w" + i,
+          VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension()));
+      elementalVectors.getVector("w" + i);
+    }
+
+    // First iteration of each warms up the JIT and the file cache.
+    for (int iteration = 0; iteration <= iterations; ++iteration) {
+      long hashtableNanos = time(luceneUtils, semanticVectors, elementalVectors, numDocs, false);
+      long arrayNanos = time(luceneUtils, semanticVectors, elementalVectors, numDocs, true);
+      if (iteration > 0) {
+        System.out.println(String.format(
+            "%d docs x %d positions: hashtable %.1f ms, arrays %.1f ms",
+            numDocs, docLength, hashtableNanos / 1e6, arrayNanos / 1e6));
+      }
+    }
+
+    for (File file : new File(tempDir.toString()).listFiles()) {
+      file.delete();
+    }
+    new File(tempDir.toString()).delete();
+  }
+
+  /** Writes documents whose words are drawn from a vocabulary with a roughly Zipfian distribution. */
+  private static void writeSyntheticIndex(Path indexPath, int numDocs, int docLength) throws IOException {
+    FSDirectory directory = FSDirectory.open(indexPath);
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()));
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    fieldType.setTokenized(true);
+    fieldType.setStoreTermVectors(true);
+    fieldType.setStoreTermVectorPositions(true);
+    Random random = new Random(0);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < numDocs; ++i) {
+      text.setLength(0);
+      for (int j = 0; j < docLength; ++j) {
+        int word = (int) Math.pow(VOCABULARY_SIZE, random.nextDouble()) - 1;
+        text.append('w').append(word).append(' ');
+      }
+      Document document = new Document();
+      document.add(new Field("contents", text.toString(), fieldType));
+      writer.addDocument(document);
+    }
+    writer.close();
+    directory.close();
+  }
+
+  private static long time(LuceneUtils luceneUtils, VectorStoreRAM semanticVectors,
+      VectorStore elementalVectors, int numDocs, boolean useArrays) throws IOException {
+    LocalTermPositions positions = new LocalTermPositions();
+    long start = System.nanoTime();
+    for (int dc = 0; dc < numDocs; ++dc) {
+      Terms terms = luceneUtils.getTermVector(dc, "contents");
+      if (useArrays) {
+        slideWindowWithArrays(terms, positions, luceneUtils, semanticVectors, elementalVectors);
+      } else {
+        slideWindowWithHashtable(terms, luceneUtils, semanticVectors, elementalVectors);
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void slideWindowWithHashtable(Terms terms, LuceneUtils luceneUtils,
+      VectorStoreRAM semanticVectors, VectorStore elementalVectors) throws IOException {
+    ArrayList<String> localTerms = new ArrayList<String>();
+    Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
+    TermsEnum termsEnum = terms.iterator(null);
+    BytesRef text;
+    int termcount = 0;
+    while ((text = termsEnum.next()) != null) {
+      String theTerm = text.utf8ToString();
+      if (!semanticVectors.containsVector(theTerm)) continue;
+      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
+      docsAndPositions.nextDoc();
+      localTerms.add(theTerm);
+      for (int x = 0; x < docsAndPositions.freq(); x++) {
+        localTermPositions.put(new Integer(docsAndPositions.nextPosition()), termcount);
+      }
+      termcount++;
+    }
+
+    for (int focusposn = 0; focusposn < localTermPositions.size(); ++focusposn) {
+      if (localTermPositions.get(focusposn) == null) continue;
+      String focusterm = localTerms.get(localTermPositions.get(focusposn));
+      int windowstart = Math.max(0, focusposn - WINDOW_RADIUS);
+      int windowend = Math.min(focusposn + WINDOW_RADIUS, localTermPositions.size() - 1);
+      for (int cursor = windowstart; cursor <= windowend; cursor++) {
+        if (cursor == focusposn) continue;
+        if (localTermPositions.get(cursor) == null) continue;
+        String coterm = localTerms.get(localTermPositions.get(cursor));
+        float globalweight = luceneUtils.getGlobalTermWeight(new Term("contents", coterm));
+        semanticVectors.getVector(focusterm).superpose(elementalVectors.getVector(coterm), globalweight, null);
+      }
+    }
+  }
+
+  private static void slideWindowWithArrays(Terms terms, LocalTermPositions positions,
+      LuceneUtils luceneUtils, VectorStoreRAM semanticVectors, VectorStore elementalVectors)
+      throws IOException {
+    positions.load(terms, semanticVectors);
+    Vector[] localSemanticVectors = positions.getVectors(semanticVectors);
+    Vector[] localElementalVectors = positions.getVectors(elementalVectors);
+    float[] globalweights = positions.getGlobalTermWeights(luceneUtils, "contents");
+    int numPositions = positions.getNumPositions();
+
+    for (int focusposn = 0; focusposn < numPositions; ++focusposn) {
+      int focusterm = positions.getLocalIndex(focusposn);
+      if (focusterm == LocalTermPositions.NO_TERM) continue;
+      int windowstart = Math.max(0, focusposn - WINDOW_RADIUS);
+      int windowend = Math.min(focusposn + WINDOW_RADIUS, numPositions - 1);
+      for (int cursor = windowstart; cursor <= windowend; cursor++) {
+        if (cursor == focusposn) continue;
+        int coterm = positions.getLocalIndex(cursor);
+        if (coterm == LocalTermPositions.NO_TERM) continue;
+        localSemanticVectors[focusterm].superpose(localElementalVectors[coterm], globalweights[coterm], null);
+      }
+    }
+  }
+}
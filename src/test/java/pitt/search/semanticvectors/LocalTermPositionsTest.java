@@ -0,0 +1,147 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.*;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+import junit.framework.TestCase;
+
+public class LocalTermPositionsTest extends TestCase {
+
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(
+      new String[] {"-vectortype", "real", "-dimension", "2"});
+
+  /** Returns the term position vectors of a new in-memory index containing the given documents. */
+  private static Terms[] getTermPositionVectors(String... documents) throws IOException {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()));
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    fieldType.setTokenized(true);
+    fieldType.setStoreTermVectors(true);
+    fieldType.setStoreTermVectorPositions(true);
+    for (String text : documents) {
+      Document document = new Document();
+      document.add(new Field("contents", text, fieldType));
+      writer.addDocument(document);
+    }
+    writer.close();
+
+    DirectoryReader reader = DirectoryReader.open(directory);
+    Terms[] termPositionVectors = new Terms[documents.length];
+    for (int i = 0; i < documents.length; ++i) {
+      termPositionVectors[i] = reader.getTermVector(i, "contents");
+    }
+    return termPositionVectors;
+  }
+
+  private static VectorStoreRAM makeFilter(String... terms) {
+    VectorStoreRAM filter = new VectorStoreRAM(FLAG_CONFIG);
+    for (String term : terms) {
+      filter.putVector(term, VectorFactory.createZeroVector(FLAG_CONFIG.vectortype(), FLAG_CONFIG.dimension()));
+    }
+    return filter;
+  }
+
+  @Test
+  public void testLoadPositions() throws IOException {
+    Terms[] termPositionVectors = getTermPositionVectors("the cat sat on the mat", "mat cat");
+    VectorStoreRAM filter = makeFilter("cat", "mat", "on", "the");
+
+    LocalTermPositions positions = new LocalTermPositions();
+    positions.load(termPositionVectors[0], filter);
+    // Terms are enumerated in order, and "sat" is not in the filter.
+    assertEquals(4, positions.getNumTerms());
+    assertEquals("cat", positions.getTerm(0));
+    assertEquals("mat", positions.getTerm(1));
+    assertEquals("on", positions.getTerm(2));
+    assertEquals("the", positions.getTerm(3));
+    assertEquals(2, positions.getFreq(3));
+
+    assertEquals(5, positions.getNumPositions());
+    assertEquals(3, positions.getLocalIndex(0));
+    assertEquals(0, positions.getLocalIndex(1));
+    assertEquals(LocalTermPositions.NO_TERM, positions.getLocalIndex(2));
+    assertEquals(2, positions.getLocalIndex(3));
+    assertEquals(3, positions.getLocalIndex(4));
+    assertEquals(1, positions.getLocalIndex(5));
+    assertEquals(LocalTermPositions.NO_TERM, positions.getLocalIndex(6));
+    assertEquals(LocalTermPositions.NO_TERM, positions.getLocalIndex(-1));
+
+    Vector[] vectors = positions.getVectors(filter);
+    assertEquals(4, vectors.length);
+    assertSame(filter.getVector("on"), vectors[2]);
+
+    // Loading a smaller document clears everything from the larger one.
+    positions.load(termPositionVectors[1], filter);
+    assertEquals(2, positions.getNumTerms());
+    assertEquals(2, positions.getNumPositions());
+    assertEquals(1, positions.getLocalIndex(0));
+    assertEquals(0, positions.getLocalIndex(1));
+    assertEquals(LocalTermPositions.NO_TERM, positions.getLocalIndex(2));
+    assertEquals(LocalTermPositions.NO_TERM, positions.getLocalIndex(5));
+  }
+
+  @Test
+  public void testLoadLongDocument() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      text.append(i % 2 == 0 ? "even " : "odd ");
+    }
+    Terms[] termPositionVectors = getTermPositionVectors(text.toString());
+
+    LocalTermPositions positions = new LocalTermPositions();
+    positions.load(termPositionVectors[0], null);
+    assertEquals(2, positions.getNumTerms());
+    assertEquals(1000, positions.getNumPositions());
+    assertEquals(500, positions.getFreq(0));
+    assertEquals(0, positions.getLocalIndex(998));
+    assertEquals(1, positions.getLocalIndex(999));
+  }
+}
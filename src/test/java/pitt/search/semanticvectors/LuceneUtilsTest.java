@@ -0,0 +1,178 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.*;
+
+import junit.framework.TestCase;
+
+public class LuceneUtilsTest extends TestCase {
+
+  private static final String[][] SEGMENTS = new String[][] {
+      {"the cat sat", "the dog"},
+      {"a cat and a dog", "the mat"},
+      {"cat"}};
+
+  private Path indexPath;
+
+  /**
+   * Writes an index with one segment for each entry in {@link #SEGMENTS}, in which the document
+   * with path "doc1" has been deleted.
+   */
+  @Override
+  public void setUp() throws IOException {
+    indexPath = Files.createTempDirectory("luceneutilstest");
+    FSDirectory directory = FSDirectory.open(indexPath);
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMergePolicy(NoMergePolicy.INSTANCE);
+    IndexWriter writer = new IndexWriter(directory, config);
+    int docNum = 0;
+    for (String[] segment : SEGMENTS) {
+      for (String text : segment) {
+        Document document = new Document();
+        document.add(new StringField("path", "doc" + docNum++, Field.Store.YES));
+        document.add(new TextField("contents", text, Field.Store.NO));
+        writer.addDocument(document);
+      }
+      writer.commit();
+    }
+    writer.deleteDocuments(new Term("path", "doc1"));
+    writer.close();
+    directory.close();
+  }
+
+  @Override
+  public void tearDown() {
+    for (File file : indexPath.toFile().listFiles()) {
+      file.delete();
+    }
+    indexPath.toFile().delete();
+  }
+
+  private LuceneUtils makeLuceneUtils() throws IOException {
+    return new LuceneUtils(FlagConfig.getFlagConfig(
+        new String[] {"-luceneindexpath", indexPath.toString()}));
+  }
+
+  @Test
+  public void testLeavesAndExternalDocIds() throws IOException {
+    LuceneUtils luceneUtils = makeLuceneUtils();
+    assertEquals(SEGMENTS.length, luceneUtils.getLeaves().size());
+    assertEquals(4, luceneUtils.getLeaves().get(2).docBase);
+    assertEquals(4, luceneUtils.getNumDocs());
+    assertEquals(5, luceneUtils.getMaxDoc());
+
+    assertEquals("doc3", luceneUtils.getExternalDocId(3));
+    luceneUtils.cacheExternalDocIds();
+    for (int docID = 0; docID < luceneUtils.getMaxDoc(); ++docID) {
+      assertEquals("doc" + docID, luceneUtils.getExternalDocId(docID));
+    }
+  }
+
+  private static List<Integer> readDocIDs(DocsEnum docsEnum) throws IOException {
+    List<Integer> docIDs = new ArrayList<Integer>();
+    while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
+      docIDs.add(docsEnum.docID());
+    }
+    return docIDs;
+  }
+
+  @Test
+  public void testPostingsSpanSegmentsAndSkipDeletedDocs() throws IOException {
+    LuceneUtils luceneUtils = makeLuceneUtils();
+    List<Integer> expected = new ArrayList<Integer>();
+    expected.add(0);
+    expected.add(2);
+    expected.add(4);
+    assertEquals(expected, readDocIDs(luceneUtils.getDocsForTerm(new Term("contents", "cat"))));
+
+    TermsEnum termsEnum = luceneUtils.getTermsForField("contents").iterator(null);
+    DocsEnum docsEnum = null;
+    int numTerms = 0;
+    while (termsEnum.next() != null) {
+      Term term = new Term("contents", termsEnum.term());
+      docsEnum = luceneUtils.getDocsForTerm(termsEnum, docsEnum);
+      assertEquals(readDocIDs(luceneUtils.getDocsForTerm(term)), readDocIDs(docsEnum));
+      ++numTerms;
+    }
+    // The terms of the deleted document are still in the dictionary.
+    assertEquals(7, numTerms);
+    expected.clear();
+    expected.add(2);
+    assertEquals(expected, readDocIDs(luceneUtils.getDocsForTerm(new Term("contents", "dog"))));
+  }
+
+  @Test
+  public void testDocVectorsSkipDeletedDocs() throws IOException {
+    String[] terms = {"the", "cat", "sat", "dog", "a", "and", "mat"};
+    for (int threads : new int[] {1, 2}) {
+      FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+          "-luceneindexpath", indexPath.toString(), "-vectortype", "real", "-dimension", "16",
+          "-termweight", "none", "-trainingthreads", Integer.toString(threads)});
+      VectorStoreRAM termVectors = new VectorStoreRAM(flagConfig);
+      Random random = new Random(0);
+      for (String term : terms) {
+        termVectors.putVector(term, MyTestUtils.randomGaussianVector(flagConfig.dimension(), random));
+      }
+
+      // The last document has Lucene ID 4, which is not less than the number of live documents.
+      DocVectors docVectors = new DocVectors(termVectors, flagConfig, new LuceneUtils(flagConfig));
+      VectorStore writeableDocVectors = docVectors.makeWriteableVectorStore();
+      assertEquals(4, writeableDocVectors.getNumVectors());
+      assertFalse(writeableDocVectors.containsVector("doc1"));
+      assertEquals(1, termVectors.getVector("cat").measureOverlap(
+          writeableDocVectors.getVector("doc4")), 1e-6);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+import pitt.search.semanticvectors.VectorSearcher.VectorSearcherPlain;
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+import junit.framework.TestCase;
+
+public class MultiIndexHashingIndexTest extends TestCase {
+
+  static final String[] COMMAND_LINE_ARGS = {
+      "-vectortype", "binary", "-dimension", "128", "-mihsubstringbits", "16"};
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+  /** Substrings of 32 bits, whose values can have the top bit set. */
+  static final FlagConfig FLAG_CONFIG_32 = FlagConfig.getFlagConfig(new String[] {
+      "-vectortype", "binary", "-dimension", "128", "-mihsubstringbits", "32"});
+
+  /** Returns a copy of the vector with the given number of random bits flipped. */
+  private Vector perturbedVector(BinaryVector vector, int numFlips, Random random) {
+    BinaryVector perturbed = new BinaryVector(FLAG_CONFIG.dimension());
+    perturbed.getCoordinates().or(vector.getCoordinates());
+    for (int i = 0; i < numFlips; ++i) {
+      perturbed.getCoordinates().flip(random.nextInt(FLAG_CONFIG.dimension()));
+    }
+    return perturbed;
+  }
+
+  /**
+   * Returns a store of clusters of nearby vectors, so that nearest neighbors are close enough
+   * for the index to probe rather than scanning, plus a zero vector.
+   */
+  private VectorStoreRAM createClusteredVectorStore(Random random) {
+    VectorStoreRAM store = new VectorStoreRAM(FLAG_CONFIG);
+    for (int cluster = 0; cluster < 50; ++cluster) {
+      BinaryVector center = (BinaryVector) VectorFactory.generateRandomVector(
+          FLAG_CONFIG.vectortype(), FLAG_CONFIG.dimension(), FLAG_CONFIG.dimension() / 2, random);
+      for (int i = 0; i < 40; ++i) {
+        store.putVector("vector" + cluster + "_" + i, perturbedVector(center, 6, random));
+      }
+    }
+    store.putVector("zero", new BinaryVector(FLAG_CONFIG.dimension()));
+    return store;
+  }
+
+  private void assertSameScores(List<SearchResult> expected, List<SearchResult> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-9);
+      Vector vector = actual.get(i).getObjectVector().getVector();
+      assertNotNull(vector);
+    }
+  }
+
+  @Test
+  public void testNearestNeighborsMatchExhaustiveSearch() {
+    checkNearestNeighborsMatchExhaustiveSearch(FLAG_CONFIG);
+  }
+
+  @Test
+  public void testNearestNeighborsMatchExhaustiveSearchWith32BitSubstrings() {
+    checkNearestNeighborsMatchExhaustiveSearch(FLAG_CONFIG_32);
+  }
+
+  private void checkNearestNeighborsMatchExhaustiveSearch(FlagConfig flagConfig) {
+    Random random = new Random(0);
+    VectorStoreRAM store = createClusteredVectorStore(random);
+    MultiIndexHashingIndex index = new MultiIndexHashingIndex(store, flagConfig);
+
+    for (int query = 0; query < 20; ++query) {
+      BinaryVector target = (BinaryVector) store.getVector("vector" + query + "_0");
+      Vector queryVector = perturbedVector(target, query % 4, random);
+      List<SearchResult> expected =
+          new VectorSearcherPlain(store, queryVector, FLAG_CONFIG).getNearestNeighbors(10);
+      List<SearchResult> actual = index.getNearestNeighbors(queryVector, 10);
+      assertSameScores(expected, actual);
+      for (SearchResult result : actual) {
+        assertEquals(queryVector.measureOverlap(result.getObjectVector().getVector()), result.getScore(), 1e-9);
+      }
+    }
+
+    // A random query is far from everything, so the index falls back to scanning.
+    Vector randomQuery = VectorFactory.generateRandomVector(
+        FLAG_CONFIG.vectortype(), FLAG_CONFIG.dimension(), FLAG_CONFIG.dimension() / 2, random);
+    assertSameScores(
+        new VectorSearcherPlain(store, randomQuery, FLAG_CONFIG).getNearestNeighbors(10),
+        index.getNearestNeighbors(randomQuery, 10));
+  }
+
+  @Test
+  public void testAllAboveThresholdMatchesExhaustiveSearch() {
+    Random random = new Random(1);
+    VectorStoreRAM store = createClusteredVectorStore(random);
+    MultiIndexHashingIndex index = new MultiIndexHashingIndex(store, FLAG_CONFIG);
+
+    Vector queryVector = perturbedVector((BinaryVector) store.getVector("vector3_0"), 2, random);
+    for (float threshold : new float[] {0.9f, 0.75f, 0.5f, -0.1f}) {
+      VectorSearcherPlain searcher = new VectorSearcherPlain(store, queryVector, FLAG_CONFIG);
+      List<SearchResult> expected = searcher.getAllAboveThreshold(threshold);
+      assertSameScores(expected, index.getAllAboveThreshold(queryVector, threshold));
+
+      searcher.setNearestNeighborIndex(index);
+      assertSameScores(expected, searcher.getAllAboveThreshold(threshold));
+    }
+  }
+
+  @Test
+  public void testStoreTooLargeForOneArrayIsRejected() {
+    // Only the number of vectors is read before the size check.
+    VectorStore hugeStore = MyTestUtils.createEmptyStoreClaimingSize(Integer.MAX_VALUE / 2 + 1);
+    try {
+      new MultiIndexHashingIndex(hugeStore, FLAG_CONFIG);
+      fail("Index should not be built when the bits don't fit in one array.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Cannot index " + hugeStore.getNumVectors()));
+    }
+  }
+}
@@ -35,6 +35,17 @@ package pitt.search.semanticvectors;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
 public class MyTestUtils {
   
   public static void assertFloatArrayEquals(float[] expecteds, float[] actuals, double TOL) {
@@ -43,4 +54,92 @@ public class MyTestUtils {
       assertEquals(expecteds[i], actuals[i], TOL);
     }
   }
+
+  /** Returns a real vector whose coordinates are independent standard Gaussians. */
+  public static Vector randomGaussianVector(int dimension, Random random) {
+    float[] coordinates = new float[dimension];
+    for (int i = 0; i < coordinates.length; ++i) {
+      coordinates[i] = (float) random.nextGaussian();
+    }
+    return new RealVector(coordinates);
+  }
+
+  /**
+   * Returns a store of vectors "vector0", "vector1", ..., the same each time for the same flags.
+   * Real vectors are dense Gaussian vectors, other types are made by
+   * {@link VectorFactory#generateRandomVector} with {@link FlagConfig#seedlength()}.
+   */
+  public static VectorStoreRAM createRandomVectorStore(FlagConfig flagConfig, int numVectors) {
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < numVectors; ++i) {
+      Vector vector = flagConfig.vectortype() == VectorType.REAL
+          ? randomGaussianVector(flagConfig.dimension(), random)
+          : VectorFactory.generateRandomVector(
+              flagConfig.vectortype(), flagConfig.dimension(), flagConfig.seedlength(), random);
+      store.putVector("vector" + i, vector);
+    }
+    return store;
+  }
+
+  /**
+   * Returns a store that claims to hold numVectors vectors but holds none,
+   * for checking size limits without allocating the vectors.
+   */
+  public static VectorStore createEmptyStoreClaimingSize(final int numVectors) {
+    return new VectorStore() {
+      public Vector getVector(Object object) { return null; }
+      public boolean containsVector(Object object) { return false; }
+      public Enumeration<ObjectVector> getAllVectors() { return null; }
+      public int getNumVectors() { return numVectors; }
+    };
+  }
+
+  /**
+   * Writes the store and its key index in Lucene format to a new temporary file.
+   * Index files written beside it are deleted by {@link #searchIndexOverLuceneVectorStore}.
+   */
+  public static File writeTempLuceneVectorStore(VectorStore store, FlagConfig flagConfig)
+      throws IOException {
+    File vectorFile = File.createTempFile("vectors", ".bin");
+    VectorStoreWriter.writeVectorsInLuceneFormat(vectorFile.getPath(), flagConfig, store);
+    return vectorFile;
+  }
+
+  /**
+   * Opens the Lucene format vector file, and the index of type {@link FlagConfig#nnindex()}
+   * written beside it, and returns the nearest neighbors of the query vector found by the index.
+   * Afterwards deletes the vector file and every file whose name starts with its name.
+   */
+  public static List<SearchResult> searchIndexOverLuceneVectorStore(
+      File vectorFile, Vector queryVector, int numResults, FlagConfig flagConfig) throws IOException {
+    try {
+      VectorStoreReaderLucene luceneStore =
+          new VectorStoreReaderLucene(vectorFile.getPath(), FlagConfig.getFlagConfig(null));
+      try {
+        return NearestNeighborIndex.openIndex(vectorFile.getPath(), luceneStore, flagConfig)
+            .getNearestNeighbors(queryVector, numResults);
+      } finally {
+        luceneStore.close();
+      }
+    } finally {
+      for (File file : vectorFile.getAbsoluteFile().getParentFile().listFiles()) {
+        if (file.getName().startsWith(vectorFile.getName())) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  /** Checks that the results are for the same vectors in the same order, with the same scores. */
+  public static void assertSameResults(List<SearchResult> expected, List<SearchResult> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      ObjectVector expectedVector = expected.get(i).getObjectVector();
+      ObjectVector actualVector = actual.get(i).getObjectVector();
+      assertEquals(expectedVector.getObject(), actualVector.getObject());
+      assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-6);
+      assertEquals(1, expectedVector.getVector().measureOverlap(actualVector.getVector()), 1e-6);
+    }
+  }
 }
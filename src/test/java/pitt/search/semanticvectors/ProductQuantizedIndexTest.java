@@ -0,0 +1,153 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+import pitt.search.semanticvectors.VectorSearcher.VectorSearcherPlain;
+import pitt.search.semanticvectors.vectors.Vector;
+
+import junit.framework.TestCase;
+
+public class ProductQuantizedIndexTest extends TestCase {
+
+  static final String[] COMMAND_LINE_ARGS = {
+      "-vectortype", "real", "-dimension", "64", "-pqsubvectors", "8", "-pqrerank", "100",
+      "-nnindex", "pq"};
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+  static final FlagConfig NO_RERANK_FLAG_CONFIG = FlagConfig.getFlagConfig(
+      new String[] {"-vectortype", "real", "-dimension", "64", "-pqsubvectors", "8"});
+
+  private int countFound(VectorStore store, ProductQuantizedIndex index, Random random) {
+    int found = 0;
+    for (int query = 0; query < 20; ++query) {
+      Vector queryVector = MyTestUtils.randomGaussianVector(FLAG_CONFIG.dimension(), random);
+      HashSet<Object> exactResults = new HashSet<Object>();
+      for (SearchResult result
+          : new VectorSearcherPlain(store, queryVector, FLAG_CONFIG).getNearestNeighbors(10)) {
+        exactResults.add(result.getObjectVector().getObject());
+      }
+      List<SearchResult> approximateResults = index.getNearestNeighbors(queryVector, 10);
+      assertEquals(10, approximateResults.size());
+      for (int i = 0; i < approximateResults.size(); ++i) {
+        if (i > 0) {
+          assertTrue(approximateResults.get(i - 1).getScore() >= approximateResults.get(i).getScore());
+        }
+        if (exactResults.contains(approximateResults.get(i).getObjectVector().getObject())) ++found;
+      }
+    }
+    return found;
+  }
+
+  @Test
+  public void testRecallAgainstExhaustiveSearch() {
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 2000);
+    ProductQuantizedIndex index = ProductQuantizedIndex.build(store, FLAG_CONFIG);
+    assertEquals(2000, index.getNumVectors());
+    int found = countFound(store, index, new Random(1));
+    assertTrue("Recall with reranking was only " + found + " / 200", found >= 190);
+
+    // Random vectors are hard to quantize, so approximate scores often misorder close neighbors.
+    ProductQuantizedIndex approximateIndex = ProductQuantizedIndex.build(store, NO_RERANK_FLAG_CONFIG);
+    found = countFound(store, approximateIndex, new Random(1));
+    assertTrue("Recall without reranking was only " + found + " / 200", found >= 80);
+  }
+
+  @Test
+  public void testQuantizedVectorsApproximateVectors() {
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 2000);
+    ProductQuantizedIndex index = ProductQuantizedIndex.build(store, FLAG_CONFIG);
+    double totalOverlap = 0;
+    for (int i = 0; i < 100; ++i) {
+      totalOverlap += store.getVector(index.getObject(i)).measureOverlap(index.getQuantizedVector(i));
+    }
+    assertTrue("Mean overlap with quantized vectors was only " + totalOverlap / 100,
+        totalOverlap / 100 > 0.8);
+  }
+
+  @Test
+  public void testWriteAndReadIndex() throws IOException {
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 500);
+    ProductQuantizedIndex index = ProductQuantizedIndex.build(store, NO_RERANK_FLAG_CONFIG);
+    File indexFile = File.createTempFile("vectors", ProductQuantizedIndex.PQ_SUFFIX);
+    index.writeToFile(indexFile.getPath(), NO_RERANK_FLAG_CONFIG);
+    ProductQuantizedIndex readIndex =
+        ProductQuantizedIndex.readFromFile(indexFile.getPath(), store, NO_RERANK_FLAG_CONFIG);
+
+    Vector queryVector = store.getVector("vector7");
+    MyTestUtils.assertSameResults(index.getNearestNeighbors(queryVector, 5),
+        readIndex.getNearestNeighbors(queryVector, 5));
+
+    try {
+      ProductQuantizedIndex.readFromFile(indexFile.getPath(),
+          MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 10), NO_RERANK_FLAG_CONFIG);
+      fail("Index should not be read for a different vector store.");
+    } catch (IOException e) {
+      // Expected.
+    }
+    indexFile.delete();
+  }
+
+  @Test
+  public void testRerankFromLuceneVectorStore() throws IOException {
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(FLAG_CONFIG, 500);
+    ProductQuantizedIndex index = ProductQuantizedIndex.build(store, FLAG_CONFIG);
+    File vectorFile = MyTestUtils.writeTempLuceneVectorStore(store, FLAG_CONFIG);
+    index.writeToFile(ProductQuantizedIndex.getIndexFileName(vectorFile.getPath()), FLAG_CONFIG);
+
+    // Candidates are reranked with exact vectors read from the store by offset.
+    Vector queryVector = store.getVector("vector7");
+    MyTestUtils.assertSameResults(index.getNearestNeighbors(queryVector, 5),
+        MyTestUtils.searchIndexOverLuceneVectorStore(vectorFile, queryVector, 5, FLAG_CONFIG));
+  }
+
+  @Test
+  public void testStoreTooLargeForOneArrayIsRejected() {
+    // Only the number of vectors is read before the size check.
+    VectorStore hugeStore = MyTestUtils.createEmptyStoreClaimingSize(
+        Integer.MAX_VALUE / FLAG_CONFIG.pqsubvectors() + 1);
+    try {
+      ProductQuantizedIndex.build(hugeStore, FLAG_CONFIG);
+      fail("Index should not be built when the codes don't fit in one array.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Cannot index " + hugeStore.getNumVectors()));
+    }
+  }
+}
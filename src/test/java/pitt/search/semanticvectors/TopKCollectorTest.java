@@ -0,0 +1,90 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.*;
+
+import junit.framework.TestCase;
+
+public class TopKCollectorTest extends TestCase {
+
+  @Test
+  public void testKeepsBestScoresInOrder() {
+    Random random = new Random(0);
+    double[] allScores = new double[1000];
+    TopKCollector<String> collector = new TopKCollector<String>(10);
+    for (int i = 0; i < allScores.length; ++i) {
+      allScores[i] = random.nextDouble();
+      collector.offer(allScores[i], i, "value" + i);
+    }
+    assertEquals(10, collector.size());
+    collector.sort();
+    Arrays.sort(allScores);
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(allScores[allScores.length - 1 - i], collector.getScore(i), 0);
+      assertEquals("value" + collector.getId(i), collector.getValue(i));
+    }
+  }
+
+  @Test
+  public void testFewerCandidatesThanK() {
+    TopKCollector<String> collector = new TopKCollector<String>(5);
+    assertEquals(Double.NEGATIVE_INFINITY, collector.minScore());
+    collector.offer(0.5, 0, "a");
+    collector.offer(0.7, 1, "b");
+    assertFalse(collector.isFull());
+    collector.sort();
+    assertEquals(2, collector.size());
+    assertEquals("b", collector.getValue(0));
+    assertEquals("a", collector.getValue(1));
+  }
+
+  @Test
+  public void testTiesBrokenByIdAndMerge() {
+    TopKCollector<String> first = new TopKCollector<String>(2);
+    TopKCollector<String> second = new TopKCollector<String>(2);
+    second.offer(1, 3, "d");
+    second.offer(1, 2, "c");
+    first.offer(1, 1, "b");
+    assertTrue(first.offer(1, 0, "a"));
+    assertFalse(first.offer(1, 4, "e"));
+    second.merge(first);
+    second.sort();
+    assertEquals(0, second.getId(0));
+    assertEquals(1, second.getId(1));
+  }
+}
@@ -0,0 +1,103 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.junit.*;
+
+import pitt.search.semanticvectors.VectorSearcher.VectorSearcherPlain;
+import pitt.search.semanticvectors.vectors.Vector;
+
+import junit.framework.TestCase;
+
+public class VectorSearcherTest extends TestCase {
+
+  static final int NUM_VECTORS = 10000;
+
+  @Test
+  public void testParallelSearchMatchesSerialSearch() {
+    FlagConfig serialConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "32"});
+    FlagConfig parallelConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "32", "-searchthreads", "4"});
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(serialConfig, NUM_VECTORS);
+    Vector queryVector = store.getVector("vector42");
+
+    List<SearchResult> serialResults =
+        new VectorSearcherPlain(store, queryVector, serialConfig).getNearestNeighbors(20);
+    List<SearchResult> parallelResults =
+        new VectorSearcherPlain(store, queryVector, parallelConfig).getNearestNeighbors(20);
+
+    assertEquals(20, parallelResults.size());
+    assertEquals("vector42", parallelResults.get(0).getObjectVector().getObject());
+    for (int i = 0; i < serialResults.size(); ++i) {
+      assertEquals(serialResults.get(i).getScore(), parallelResults.get(i).getScore(), 1e-9);
+    }
+  }
+
+  @Test
+  public void testBinarySearchMatchesExhaustiveScores() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "binary", "-dimension", "2048", "-seedlength", "1024"});
+    VectorStoreRAM store = MyTestUtils.createRandomVectorStore(flagConfig, NUM_VECTORS);
+    VectorStorePackedRAM packedStore = new VectorStorePackedRAM(flagConfig);
+    Vector queryVector = store.getVector("vector42");
+    double[] exactScores = new double[NUM_VECTORS];
+    int i = 0;
+    Enumeration<ObjectVector> vecEnum = store.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      packedStore.putVector(objectVector.getObject(), objectVector.getVector());
+      exactScores[i++] = queryVector.measureOverlap(objectVector.getVector());
+    }
+    Arrays.sort(exactScores);
+
+    // Most vectors are abandoned part way through once 20 results are kept, which must
+    // not change the results.
+    for (VectorStore searchStore : new VectorStore[] {store, packedStore}) {
+      List<SearchResult> results =
+          new VectorSearcherPlain(searchStore, queryVector, flagConfig).getNearestNeighbors(20);
+      assertEquals(20, results.size());
+      assertEquals("vector42", results.get(0).getObjectVector().getObject());
+      for (int j = 0; j < results.size(); ++j) {
+        assertEquals(exactScores[NUM_VECTORS - 1 - j], results.get(j).getScore(), 1e-9);
+        assertEquals(queryVector.measureOverlap(results.get(j).getObjectVector().getVector()),
+            results.get(j).getScore(), 1e-9);
+      }
+    }
+  }
+}
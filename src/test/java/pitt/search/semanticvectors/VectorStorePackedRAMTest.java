@@ -0,0 +1,150 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+import pitt.search.semanticvectors.VectorSearcher.VectorSearcherPlain;
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import junit.framework.TestCase;
+
+public class VectorStorePackedRAMTest extends TestCase {
+
+  static final String[] COMMAND_LINE_ARGS = {"-vectortype", "real", "-dimension", "2"};
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+  static double TOL = 0.0001;
+
+  @Test
+  public void testCreateWriteAndRead() {
+    VectorStorePackedRAM vectorStore = new VectorStorePackedRAM(FLAG_CONFIG);
+    assertEquals(0, vectorStore.getNumVectors());
+    Vector vector = new RealVector(new float[] {1.0f, 0.0f});
+    vectorStore.putVector("my vector", vector);
+    assertEquals(1, vectorStore.getNumVectors());
+    assertTrue(vectorStore.containsVector("my vector"));
+    assertFalse(vectorStore.containsVector("your vector"));
+    assertNull(vectorStore.getVector("your vector"));
+    Vector vectorOut = vectorStore.getVector("my vector");
+    assertEquals(2, vectorOut.getDimension());
+    assertEquals(1, vectorOut.measureOverlap(vector), TOL);
+
+    // Vectors are copied, so changing them doesn't change the store.
+    vectorOut.superpose(new RealVector(new float[] {0.0f, 1.0f}), 1, null);
+    assertEquals(1, vectorStore.getVector("my vector").measureOverlap(vector), TOL);
+
+    vectorStore.putVector("my vector", new RealVector(new float[] {0.0f, 1.0f}));
+    assertEquals(1, vectorStore.getNumVectors());
+    assertEquals(0, vectorStore.getVector("my vector").measureOverlap(vector), TOL);
+
+    try {
+      vectorStore.putVector("wrong vector", new RealVector(new float[] {1.0f, 0.0f, 0.0f}));
+      fail("Vector of wrong dimension should not be added.");
+    } catch (IncompatibleVectorsException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testGrowAndMeasureOverlap() {
+    for (String vectorType : new String[] {"real", "binary", "complex"}) {
+      FlagConfig flagConfig = FlagConfig.getFlagConfig(
+          new String[] {"-vectortype", vectorType, "-dimension", "128", "-seedlength", "10"});
+      Random random = new Random(0);
+      VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+      VectorStorePackedRAM packedStore = new VectorStorePackedRAM(flagConfig);
+      for (int i = 0; i < 1000; ++i) {
+        Vector vector = VectorFactory.generateRandomVector(
+            flagConfig.vectortype(), 128, flagConfig.seedlength(), random);
+        store.putVector("vector" + i, vector);
+        packedStore.putVector("vector" + i, vector);
+      }
+      assertEquals(1000, packedStore.getNumVectors());
+      assertEquals("vector17", packedStore.getObject(17));
+      assertEquals(17, packedStore.getIndex("vector17"));
+      assertEquals(-1, packedStore.getIndex("vector1000"));
+
+      Vector queryVector = store.getVector("vector5");
+      for (int i = 0; i < 1000; ++i) {
+        Vector vector = store.getVector("vector" + i);
+        assertEquals(1, vector.measureOverlap(packedStore.getVector("vector" + i)), TOL);
+        assertEquals(queryVector.measureOverlap(vector), packedStore.measureOverlap(queryVector, i), 1e-9);
+      }
+
+      int count = 0;
+      for (Enumeration<ObjectVector> vecEnum = packedStore.getAllVectors(); vecEnum.hasMoreElements(); ) {
+        ObjectVector objectVector = vecEnum.nextElement();
+        assertEquals(1, store.getVector(objectVector.getObject()).measureOverlap(objectVector.getVector()), TOL);
+        ++count;
+      }
+      assertEquals(1000, count);
+
+      List<SearchResult> expected = new VectorSearcherPlain(store, queryVector, flagConfig).getNearestNeighbors(10);
+      List<SearchResult> actual = new VectorSearcherPlain(packedStore, queryVector, flagConfig).getNearestNeighbors(10);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-9);
+        assertNotNull(actual.get(i).getObjectVector().getVector());
+      }
+      assertEquals("vector5", actual.get(0).getObjectVector().getObject());
+    }
+  }
+
+  @Test
+  public void testReadFromFile() throws IOException {
+    File vectorFile = File.createTempFile("realvectors", ".bin");
+    VectorStoreRAM store = new VectorStoreRAM(FLAG_CONFIG);
+    store.putVector("isaac", new RealVector(new float[] {1, 0}));
+    store.putVector("abraham", new RealVector(new float[] {0.7f, 0.7f}));
+    VectorStoreWriter.writeVectorsInLuceneFormat(vectorFile.getPath(), FLAG_CONFIG, store);
+
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "binary"});
+    VectorStorePackedRAM packedStore = VectorStorePackedRAM.readFromFile(flagConfig, vectorFile.getPath());
+    assertEquals(VectorType.REAL, flagConfig.vectortype());
+    assertEquals(2, packedStore.getNumVectors());
+    assertEquals(0.7, packedStore.getVector("abraham").measureOverlap(packedStore.getVector("isaac")), 0.01);
+    new File(VectorStoreKeyIndex.getKeyIndexFileName(vectorFile.getPath())).delete();
+    vectorFile.delete();
+  }
+}
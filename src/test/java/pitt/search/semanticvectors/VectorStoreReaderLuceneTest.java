@@ -42,13 +42,18 @@ import org.junit.Test;
 
 import pitt.search.semanticvectors.ObjectVector;
 import pitt.search.semanticvectors.VectorStoreReaderLucene;
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVector.VotingRecordMethod;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -95,6 +100,39 @@ public class VectorStoreReaderLuceneTest extends TestCase {
     assertEquals(2, reader.getNumVectors());
     Vector abraham = reader.getVector("abraham");
     assertEquals(0.707106f, abraham.measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    assertTrue(reader.containsVector("isaac"));
+    assertFalse(reader.containsVector("jacob"));
+    assertNull(reader.getVector("jacob"));
+  }
+
+  @Test
+  public void testOpeningBinaryStoreKeepsVotingRecordMethod() throws IOException {
+    FlagConfig binaryConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "binary", "-dimension", "64", "-binaryvotingrecord", "batched"});
+    try {
+      assertEquals(VotingRecordMethod.BATCHED, BinaryVector.VOTING_RECORD_METHOD);
+      VectorStoreRAM store = new VectorStoreRAM(binaryConfig);
+      store.putVector("isaac", VectorFactory.generateRandomVector(VectorType.BINARY, 64, 32, new Random(0)));
+      IndexOutput binaryOutput = directory.createOutput("binaryvectors.bin", IOContext.DEFAULT);
+      VectorStoreWriter.writeToIndexOutput(store, binaryConfig, binaryOutput);
+      binaryOutput.close();
+
+      // Reading the header, which has no -binaryvotingrecord flag, builds FlagConfigs from it.
+      final IndexInput binaryInput = directory.openInput("binaryvectors.bin", IOContext.READ);
+      ThreadLocal<IndexInput> threadLocalBinaryInput = new ThreadLocal<IndexInput>() {
+        @Override
+        protected IndexInput initialValue() {
+          return binaryInput;
+        }
+      };
+      VectorStoreReaderLucene reader =
+          new VectorStoreReaderLucene(threadLocalBinaryInput, FlagConfig.getFlagConfig(null));
+      assertEquals(1, reader.getNumVectors());
+      assertEquals(VotingRecordMethod.BATCHED, BinaryVector.VOTING_RECORD_METHOD);
+      binaryInput.close();
+    } finally {
+      BinaryVector.setVotingRecordMethod(VotingRecordMethod.BITSLICED);
+    }
   }
 
   @Test
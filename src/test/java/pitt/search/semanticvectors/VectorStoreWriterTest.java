@@ -33,7 +33,9 @@
 
 package pitt.search.semanticvectors;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Random;
 
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
@@ -41,9 +43,14 @@ import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.RAMDirectory;
 import org.junit.*;
 
+import pitt.search.semanticvectors.VectorSearcher.VectorSearcherCosine;
+import pitt.search.semanticvectors.vectors.BinaryVector;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorQuantization;
 import pitt.search.semanticvectors.vectors.VectorType;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
 
 import junit.framework.TestCase;
 
@@ -92,4 +99,196 @@ public class VectorStoreWriterTest extends TestCase {
     Vector isaacVector = storeReader.getVector("isaac");
     assertEquals(0.7, abrahamVector.measureOverlap(isaacVector), 0.01);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testWriteKeyIndexAndRead() throws IOException {
+    IndexOutput indexOutput = directory.createOutput("keyindexed.bin", IOContext.DEFAULT);
+    IndexOutput keyIndexOutput = directory.createOutput("keyindexed.bin.idx", IOContext.DEFAULT);
+    VectorStore store = createTestVectorStore();
+    VectorStoreWriter.writeToIndexOutput(store, FLAG_CONFIG, indexOutput, keyIndexOutput);
+    indexOutput.close();
+    keyIndexOutput.close();
+
+    IndexInput indexInput = directory.openInput("keyindexed.bin", IOContext.READ);
+    IndexInput keyIndexInput = directory.openInput("keyindexed.bin.idx", IOContext.READ);
+    VectorStoreKeyIndex keyIndex = VectorStoreKeyIndex.readFromIndexInput(keyIndexInput, indexInput);
+    assertEquals(2, keyIndex.getNumVectors());
+    assertFalse(keyIndex.containsKey("jacob"));
+    assertEquals(-1, keyIndex.getOffset("jacob"));
+
+    indexInput.seek(keyIndex.getOffset("isaac"));
+    assertEquals("isaac", indexInput.readString());
+    Vector isaacVector = VectorFactory.createZeroVector(VectorType.REAL, 2);
+    isaacVector.readFromLuceneStream(indexInput);
+    assertEquals(1, isaacVector.measureOverlap(new RealVector(new float[] {1, 0})), 0.01);
+
+    // Index built by scanning the store should agree with the one written.
+    indexInput.seek(0);
+    indexInput.readString();
+    VectorStoreKeyIndex scannedKeyIndex = VectorStoreKeyIndex.buildFromVectorStore(indexInput, 8);
+    assertEquals(2, scannedKeyIndex.getNumVectors());
+    assertEquals(keyIndex.getOffset("abraham"), scannedKeyIndex.getOffset("abraham"));
+    indexInput.close();
+    keyIndexInput.close();
+  }
+
+  @Test
+  public void testKeyIndexForRewrittenStoreOfSameLengthIsIgnored() throws IOException {
+    IndexOutput indexOutput = directory.createOutput("rewritten.bin", IOContext.DEFAULT);
+    IndexOutput keyIndexOutput = directory.createOutput("rewritten.bin.idx", IOContext.DEFAULT);
+    VectorStoreWriter.writeToIndexOutput(createTestVectorStore(), FLAG_CONFIG, indexOutput, keyIndexOutput);
+    long originalLength = indexOutput.getFilePointer();
+    indexOutput.close();
+    keyIndexOutput.close();
+
+    // Rewrite the store with different keys of the same lengths, leaving the old key index.
+    directory.deleteFile("rewritten.bin");
+    indexOutput = directory.createOutput("rewritten.bin", IOContext.DEFAULT);
+    VectorStoreRAM rewritten = new VectorStoreRAM(FLAG_CONFIG);
+    rewritten.putVector("jacob", new RealVector(new float[] {1, 0}));
+    rewritten.putVector("ishmael", new RealVector(new float[] {0.7f, 0.7f}));
+    VectorStoreWriter.writeToIndexOutput(rewritten, FLAG_CONFIG, indexOutput);
+    assertEquals(originalLength, indexOutput.getFilePointer());
+    indexOutput.close();
+
+    IndexInput indexInput = directory.openInput("rewritten.bin", IOContext.READ);
+    IndexInput keyIndexInput = directory.openInput("rewritten.bin.idx", IOContext.READ);
+    assertNull(VectorStoreKeyIndex.readFromIndexInput(keyIndexInput, indexInput));
+    indexInput.close();
+    keyIndexInput.close();
+  }
+
+  @Test
+  public void testWriteMmapVectorStoreAndRead() throws IOException {
+    File vectorFile = File.createTempFile("realvectors", ".mmap");
+    VectorStoreWriter.writeVectorsInMmapFormat(vectorFile.getPath(), FLAG_CONFIG, createTestVectorStore());
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(null);
+    VectorStoreReaderMmap storeReader = new VectorStoreReaderMmap(vectorFile.getPath(), flagConfig);
+    assertEquals(VectorType.REAL, flagConfig.vectortype());
+    assertEquals(2, flagConfig.dimension());
+    assertEquals(2, storeReader.getNumVectors());
+    assertTrue(storeReader.containsVector("isaac"));
+    assertFalse(storeReader.containsVector("jacob"));
+    assertNull(storeReader.getVector("jacob"));
+    Vector abrahamVector = storeReader.getVector("abraham");
+    Vector isaacVector = storeReader.getVector("isaac");
+    assertEquals(0.7, abrahamVector.measureOverlap(isaacVector), 0.01);
+    assertEquals(abrahamVector.measureOverlap(isaacVector),
+        storeReader.measureOverlap(isaacVector, storeReader.getIndex("abraham")), 1e-6);
+    storeReader.close();
+    vectorFile.delete();
+  }
+
+  @Test
+  public void testSearchMmapBinaryVectorStore() throws IOException, ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "binary", "-dimension", "128", "-seedlength", "64"});
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 10; ++i) {
+      store.putVector("vector" + i, VectorFactory.generateRandomVector(
+          VectorType.BINARY, 128, 64, random));
+    }
+    File vectorFile = File.createTempFile("binaryvectors", ".mmap");
+    VectorStoreWriter.writeVectorsInMmapFormat(vectorFile.getPath(), flagConfig, store);
+    VectorStoreReaderMmap storeReader = new VectorStoreReaderMmap(vectorFile.getPath(), flagConfig);
+    assertEquals(10, storeReader.getNumVectors());
+
+    BinaryVector queryVector = (BinaryVector) store.getVector("vector3");
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(queryVector.measureOverlap(store.getVector("vector" + i)),
+          storeReader.measureOverlap(queryVector, storeReader.getIndex("vector" + i)), 1e-6);
+    }
+
+    VectorSearcherCosine searcher = new VectorSearcherCosine(
+        storeReader, storeReader, null, flagConfig, queryVector);
+    SearchResult topResult = searcher.getNearestNeighbors(1).get(0);
+    storeReader.close();
+    vectorFile.delete();
+    assertEquals("vector3", topResult.getObjectVector().getObject());
+    assertEquals(1, topResult.getScore(), 1e-6);
+    assertTrue(queryVector.measureOverlap(topResult.getObjectVector().getVector()) > 0.99);
+  }
+
+  @Test
+  public void testMmapFormatRejectsQuantization() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-vectorquantization", "int8"});
+    File vectorFile = File.createTempFile("realvectors", ".mmap");
+    try {
+      VectorStoreWriter.writeVectorsInMmapFormat(vectorFile.getPath(), flagConfig, createTestVectorStore());
+      fail("Quantized vectors should not be written in mmap format.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("INT8"));
+    } finally {
+      vectorFile.delete();
+    }
+  }
+
+  @Test
+  public void testConvertIncrementalStoreDeletesLuceneStore() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-indexfileformat", "mmap"});
+    File tempFile = File.createTempFile("incrementalvectors", "");
+    tempFile.delete();
+    String storeName = tempFile.getPath();
+    String incrementalFileName = VectorStoreUtils.getIncrementalStoreFileName(storeName, flagConfig);
+    VectorStoreWriter.writeVectorsInLuceneFormat(incrementalFileName, flagConfig, createTestVectorStore());
+    assertTrue(new File(VectorStoreKeyIndex.getKeyIndexFileName(incrementalFileName)).exists());
+
+    VectorStoreWriter.convertIncrementalStore(storeName, flagConfig);
+    assertFalse(new File(incrementalFileName).exists());
+    assertFalse(new File(VectorStoreKeyIndex.getKeyIndexFileName(incrementalFileName)).exists());
+    File mmapFile = new File(VectorStoreUtils.getStoreFileName(storeName, flagConfig));
+    VectorStoreReaderMmap storeReader = new VectorStoreReaderMmap(mmapFile.getPath(), flagConfig);
+    assertEquals(2, storeReader.getNumVectors());
+    assertTrue(storeReader.containsVector("isaac"));
+    storeReader.close();
+    mmapFile.delete();
+  }
+
+  @Test
+  public void testWriteQuantizedVectorStoresAndSearch() throws IOException, ZeroVectorException {
+    for (String vectorType : new String[] {"real", "complex"}) {
+      for (String quantization : new String[] {"int8", "float16"}) {
+        FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+            "-vectortype", vectorType, "-dimension", "100", "-vectorquantization", quantization});
+        Random random = new Random(0);
+        VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+        for (int i = 0; i < 20; ++i) {
+          Vector vector = VectorFactory.generateRandomVector(flagConfig.vectortype(), 100, 10, random);
+          vector.normalize();
+          store.putVector("vector" + i, vector);
+        }
+        File vectorFile = File.createTempFile("quantizedvectors", ".bin");
+        VectorStoreWriter.writeVectorsInLuceneFormat(vectorFile.getPath(), flagConfig, store);
+        long expectedLength = 20 * (4 + (flagConfig.vectortype() == VectorType.REAL ? 100 : 200));
+        if (flagConfig.vectorquantization() == VectorQuantization.FLOAT16) {
+          expectedLength = 20 * 2 * (flagConfig.vectortype() == VectorType.REAL ? 100 : 200);
+        }
+        assertTrue(vectorFile.length() < expectedLength + 20 * 10 + 100);
+
+        FlagConfig readConfig = FlagConfig.getFlagConfig(null);
+        VectorStoreReaderLucene storeReader = new VectorStoreReaderLucene(vectorFile.getPath(), readConfig);
+        assertEquals(flagConfig.vectortype(), readConfig.vectortype());
+        assertEquals(flagConfig.vectorquantization(), storeReader.getQuantization());
+        assertEquals(20, storeReader.getNumVectors());
+        Vector queryVector = store.getVector("vector3");
+        for (int i = 0; i < 20; ++i) {
+          assertEquals(queryVector.measureOverlap(store.getVector("vector" + i)),
+              queryVector.measureOverlap(storeReader.getVector("vector" + i)), 0.02);
+        }
+
+        VectorSearcherCosine searcher = new VectorSearcherCosine(
+            storeReader, storeReader, null, readConfig, queryVector);
+        SearchResult topResult = searcher.getNearestNeighbors(1).get(0);
+        assertEquals("vector3", topResult.getObjectVector().getObject());
+        assertEquals(1, topResult.getScore(), 0.01);
+        assertNotNull(topResult.getObjectVector().getVector());
+        storeReader.close();
+        new File(VectorStoreKeyIndex.getKeyIndexFileName(vectorFile.getPath())).delete();
+        vectorFile.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.integrationtests;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import pitt.search.semanticvectors.BuildPositionalIndex;
+import pitt.search.semanticvectors.PSI;
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVector.VotingRecordMethod;
+
+/**
+ * Measures the time and peak heap taken to train binary permutation term vectors and binary
+ * PSI vectors from the test corpora with each {@link VotingRecordMethod}.
+ * Not run as part of the test suite.
+ *
+ * <p>
+ * Should be run from the project base directory, like {@link RunTests}.
+ * Usage: BinaryTrainingBenchmark [dimension [iterations]]
+ */
+public class BinaryTrainingBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int dimension = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    RunTests.prepareTestData();
+
+    String[] termTermArgs = (
+        "-dimension " + dimension + " -vectortype binary -positionalmethod permutation "
+        + "-luceneindexpath positional_index -binaryvotingrecord ").split("\\s+");
+    String[] psiArgs = (
+        "-dimension " + dimension + " -maxnonalphabetchars 20 -vectortype binary "
+        + "-luceneindexpath predication_index -binaryvotingrecord ").split("\\s+");
+
+    // Methods take turns, so that they are equally affected by JIT warm up and other noise.
+    // First iteration warms up the JIT.
+    for (int iteration = 0; iteration <= iterations; ++iteration) {
+      for (VotingRecordMethod method : VotingRecordMethod.values()) {
+        termTermArgs[termTermArgs.length - 1] = method.toString().toLowerCase();
+        psiArgs[psiArgs.length - 1] = method.toString().toLowerCase();
+        // The flag only switches to BATCHED, so set the method directly to switch back.
+        BinaryVector.setVotingRecordMethod(method);
+        resetPeakHeap();
+        long start = System.nanoTime();
+        BuildPositionalIndex.main(termTermArgs);
+        long termTermNanos = System.nanoTime() - start;
+        long termTermPeakHeap = getPeakHeap();
+
+        resetPeakHeap();
+        start = System.nanoTime();
+        PSI.main(psiArgs);
+        long psiNanos = System.nanoTime() - start;
+        long psiPeakHeap = getPeakHeap();
+
+        if (iteration > 0) {
+          System.out.println(String.format(
+              "%s, dimension %d: permutation term vectors %d ms, peak heap %d MB; "
+              + "PSI %d ms, peak heap %d MB",
+              method, dimension, termTermNanos / 1000000, termTermPeakHeap >> 20,
+              psiNanos / 1000000, psiPeakHeap >> 20));
+        }
+      }
+    }
+  }
+
+  private static void resetPeakHeap() {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+    }
+  }
+
+  private static long getPeakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+    }
+    return peak;
+  }
+}
@@ -43,6 +43,8 @@ import pitt.search.semanticvectors.FlagConfig;
 import pitt.search.semanticvectors.PSI;
 import pitt.search.semanticvectors.Search;
 import pitt.search.semanticvectors.SearchResult;
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVector.VotingRecordMethod;
 import static org.junit.Assert.*;
 
 /**
@@ -117,6 +119,19 @@ public class PSITest {
     assertTrue(rank < 2);
   }
 
+  @Test
+  public void testBuildAndSearchBinaryPSIIndexBatchedVotingRecord() throws IOException, IllegalArgumentException {
+    String buildCmd = "-dimension 4096 -maxnonalphabetchars 20 -vectortype binary -binaryvotingrecord batched -luceneindexpath predication_index";
+    String searchCmd = "-searchtype boundproduct -queryvectorfile semanticvectors.bin -boundvectorfile predicatevectors.bin -searchvectorfile elementalvectors.bin -matchcase mexico HAS_CURRENCY";
+    try {
+      int rank = psiBuildSearchGetRank(buildCmd, searchCmd, "mexican_peso");
+      assertTrue(rank < 2);
+      assertEquals(VotingRecordMethod.BATCHED, BinaryVector.VOTING_RECORD_METHOD);
+    } finally {
+      BinaryVector.setVotingRecordMethod(VotingRecordMethod.BITSLICED);
+    }
+  }
+
   @Test
   public void testBuildAndSearchComplexPSIIndex() throws IOException, IllegalArgumentException {
     String buildCmd = "-dimension 1000 -maxnonalphabetchars 20 -vectortype complex -seedlength 1000 -luceneindexpath predication_index";
@@ -35,15 +35,25 @@ package pitt.search.semanticvectors.integrationtests;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 
 import org.junit.*;
 
 import pitt.search.semanticvectors.BuildIndex;
 import pitt.search.semanticvectors.BuildPositionalIndex;
+import pitt.search.semanticvectors.DocVectors;
 import pitt.search.semanticvectors.FlagConfig;
+import pitt.search.semanticvectors.GlobalTermWeightTable;
+import pitt.search.semanticvectors.IncrementalDocVectors;
+import pitt.search.semanticvectors.LuceneUtils;
+import pitt.search.semanticvectors.ObjectVector;
 import pitt.search.semanticvectors.Search;
 import pitt.search.semanticvectors.SearchResult;
+import pitt.search.semanticvectors.VectorStoreRAM;
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.BinaryVector.VotingRecordMethod;
+import pitt.search.semanticvectors.vectors.RealVector;
 
 import static org.junit.Assert.*;
 
@@ -120,6 +130,87 @@ public class RegressionTests {
         "src/test/resources/testdata/John/Chapter_21"));
   }
 
+  @Test
+  public void testMultithreadedDocVectorsMatchSerialDocVectors() throws Exception {
+    BuildIndex.main("-dimension 200 -luceneindexpath positional_index".split("\\s+"));
+    IncrementalDocVectors.main(("-dimension 200 -luceneindexpath positional_index "
+        + "-docvectorsfile serialdocvectors termvectors.bin positional_index").split("\\s+"));
+    IncrementalDocVectors.main(("-dimension 200 -luceneindexpath positional_index -trainingthreads 4 "
+        + "-docvectorsfile paralleldocvectors termvectors.bin positional_index").split("\\s+"));
+
+    // Each document vector is built in the same way on any thread, and they are written in order.
+    byte[] serialBytes = Files.readAllBytes(new File("serialdocvectors.bin").toPath());
+    byte[] parallelBytes = Files.readAllBytes(new File("paralleldocvectors.bin").toPath());
+    assertTrue(serialBytes.length > 0);
+    assertArrayEquals(serialBytes, parallelBytes);
+
+    for (String fn : new String[] {"termvectors.bin", "docvectors.bin", "serialdocvectors.bin",
+        "paralleldocvectors.bin"}) {
+      assertTrue(new File(fn).delete());
+    }
+  }
+
+  @Test
+  public void testDeterministicMultithreadedDocVectorsMatchSerialDocVectors() throws Exception {
+    BuildIndex.main("-dimension 200 -luceneindexpath positional_index".split("\\s+"));
+    FlagConfig serialConfig = FlagConfig.getFlagConfig(
+        "-dimension 200 -luceneindexpath positional_index".split("\\s+"));
+    FlagConfig parallelConfig = FlagConfig.getFlagConfig(
+        "-dimension 200 -luceneindexpath positional_index -trainingthreads 4 -deterministictraining".split("\\s+"));
+    VectorStoreRAM termVectors = VectorStoreRAM.readFromFile(serialConfig, "termvectors.bin");
+
+    DocVectors serialDocVectors = new DocVectors(termVectors, serialConfig, new LuceneUtils(serialConfig));
+    DocVectors parallelDocVectors = new DocVectors(termVectors, parallelConfig, new LuceneUtils(parallelConfig));
+
+    assertEquals(serialDocVectors.getNumVectors(), parallelDocVectors.getNumVectors());
+    Enumeration<ObjectVector> serialVectors = serialDocVectors.getAllVectors();
+    while (serialVectors.hasMoreElements()) {
+      ObjectVector serialVector = serialVectors.nextElement();
+      RealVector parallelVector = (RealVector) parallelDocVectors.getVector(serialVector.getObject());
+      assertArrayEquals(((RealVector) serialVector.getVector()).getCoordinates(),
+          parallelVector.getCoordinates(), 0f);
+    }
+
+    for (String fn : new String[] {"termvectors.bin", "docvectors.bin"}) {
+      assertTrue(new File(fn).delete());
+    }
+  }
+
+  @Test
+  public void testPrecomputedGlobalTermWeightsMatchLazyWeights() throws IOException {
+    for (String termweight : new String[] {"idf", "logentropy"}) {
+      for (int threads : new int[] {1, 4}) {
+        new File("termweights.bin").delete();
+        FlagConfig lazyConfig = FlagConfig.getFlagConfig(
+            ("-luceneindexpath positional_index -termweight " + termweight).split("\\s+"));
+        FlagConfig tableConfig = FlagConfig.getFlagConfig(
+            ("-luceneindexpath positional_index -termweight " + termweight
+                + " -termweightsfile termweights.bin -trainingthreads " + threads).split("\\s+"));
+        LuceneUtils lazyUtils = new LuceneUtils(lazyConfig);
+        LuceneUtils tableUtils = new LuceneUtils(tableConfig);
+        assertNull(tableUtils.getGlobalTermWeightTable());
+        tableUtils.precomputeGlobalTermWeights();
+        GlobalTermWeightTable table = tableUtils.getGlobalTermWeightTable();
+        assertTrue(table.size() > 100);
+        for (int i = 0; i < table.size(); ++i) {
+          assertEquals(lazyUtils.getGlobalTermWeight(table.getTerm(i)), table.getWeight(i), 0);
+          assertEquals(lazyUtils.getGlobalTermWeight(table.getTerm(i)),
+              tableUtils.getGlobalTermWeight(table.getTerm(i)), 0);
+        }
+
+        // A new instance reads the persisted table instead of computing it.
+        LuceneUtils persistedUtils = new LuceneUtils(tableConfig);
+        GlobalTermWeightTable persistedTable = persistedUtils.getGlobalTermWeightTable();
+        assertEquals(table.size(), persistedTable.size());
+        for (int i = 0; i < table.size(); ++i) {
+          assertEquals(table.getTerm(i), persistedTable.getTerm(i));
+          assertEquals(table.getWeight(i), persistedTable.getWeight(i), 0);
+        }
+        assertTrue(new File("termweights.bin").delete());
+      }
+    }
+  }
+
   @Test
   public void testBuildAndSearchBasicComplexIndex() {
     assertEquals(2, buildSearchGetRank(
@@ -209,6 +300,16 @@ public class RegressionTests {
        assertTrue(peterRank < 10);
   }
 
+  @Test
+  public void testBuildAndSearchRealPositionalIndexMultithreaded() {
+    int peterRank = positionalBuildSearchGetRank(
+        "-dimension 200 -vectortype real -seedlength 10 -trainingthreads 4 -luceneindexpath positional_index",
+        "-queryvectorfile termtermvectors.bin simon",
+        new String[] {"termtermvectors.bin", "docvectors.bin"},
+        "peter");
+    assertTrue(peterRank < 20);
+  }
+
   // Convolution for complex directional indexing seems to really need some termweighting to work well. 
   @Test
   public void testBuildAndSearchComplexDirectionalIndex() {
@@ -272,6 +373,33 @@ public class RegressionTests {
     assertTrue(3 >= peterRank);
   }
 
+  @Test
+  public void testBuildAndSearchBinaryPermutationIndexBatchedVotingRecord() {
+    try {
+      int peterRank = positionalBuildSearchGetRank(
+          "-dimension 1024 -vectortype binary -seedlength 512 -positionalmethod permutation "
+          + "-binaryvotingrecord batched -luceneindexpath positional_index",
+          "-searchtype permutation -queryvectorfile elementalvectors.bin -searchvectorfile permtermvectors.bin simon ?",
+          new String[] {"elementalvectors.bin", "permtermvectors.bin", "docvectors.bin"},
+          "peter");
+      assertTrue(3 >= peterRank);
+      assertEquals(VotingRecordMethod.BATCHED, BinaryVector.VOTING_RECORD_METHOD);
+    } finally {
+      BinaryVector.setVotingRecordMethod(VotingRecordMethod.BITSLICED);
+    }
+  }
+
+  @Test
+  public void testBuildAndSearchBinaryPermutationIndexMultithreaded() {
+    int peterRank = positionalBuildSearchGetRank(
+        "-dimension 1024 -vectortype binary -seedlength 512 -positionalmethod permutation -trainingthreads 4 "
+        + "-luceneindexpath positional_index",
+        "-searchtype permutation -queryvectorfile elementalvectors.bin -searchvectorfile permtermvectors.bin simon ?",
+        new String[] {"elementalvectors.bin", "permtermvectors.bin", "docvectors.bin"},
+        "peter");
+    assertTrue(3 >= peterRank);
+  }
+
   /*
    * This last test seems to throw lots of others off in Windows. I wonder if there's
    * some multithreading going on that makes this whole test suite very unsafe - not sure.
@@ -0,0 +1,125 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+/**
+ * Measures the time taken by {@link BinaryVector#superpose} when adding elemental vectors to
+ * semantic vectors, with and without permutations, as when training term vectors with a sliding
+ * window, and the size of the resulting voting records, for each
+ * {@link BinaryVector.VotingRecordMethod}. Not run as part of the test suite.
+ *
+ * <p>
+ * Usage: BinarySuperposeBenchmark [numAdditions [dimension [iterations]]]
+ */
+public class BinarySuperposeBenchmark {
+
+  private static final int NUM_SEMANTIC_VECTORS = 100;
+  private static final int NUM_ELEMENTAL_VECTORS = 1000;
+  private static final int WINDOW_RADIUS = 2;
+
+  public static void main(String[] args) {
+    int numAdditions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Random random = new Random(0);
+    BinaryVector[] elementalVectors = new BinaryVector[NUM_ELEMENTAL_VECTORS];
+    for (int i = 0; i < NUM_ELEMENTAL_VECTORS; ++i) {
+      elementalVectors[i] = (BinaryVector) VectorFactory.generateRandomVector(
+          VectorType.BINARY, dimension, dimension / 2, random);
+    }
+    int[][] permutations = new int[2 * WINDOW_RADIUS + 1][];
+    for (int i = 0; i < permutations.length; ++i) {
+      permutations[i] = PermutationUtils.getShiftPermutation(
+          VectorType.BINARY, dimension, i - WINDOW_RADIUS);
+    }
+
+    for (BinaryVector.VotingRecordMethod method : BinaryVector.VotingRecordMethod.values()) {
+      BinaryVector.setVotingRecordMethod(method);
+      // First iteration warms up the JIT.
+      for (int iteration = 0; iteration <= iterations; ++iteration) {
+        long plainNanos = runAdditions(elementalVectors, null, numAdditions, dimension);
+        long permutedNanos = runAdditions(elementalVectors, permutations, numAdditions, dimension);
+        if (iteration > 0) {
+          System.out.println(String.format(
+              "%s: %d additions of dimension %d: superpose %.1f ns/addition, "
+              + "with permutation %.1f ns/addition, voting record %d bytes/vector",
+              method, numAdditions, dimension, (double) plainNanos / numAdditions,
+              (double) permutedNanos / numAdditions, votingRecordBytes));
+        }
+      }
+    }
+  }
+
+  /** Average size of the voting record of each semantic vector just before votes are tallied. */
+  private static long votingRecordBytes;
+
+  /**
+   * Adds elemental vectors to semantic vectors, permuting them if permutations are given, and
+   * returns the time taken. Prints a checksum of the tallied semantic vectors.
+   */
+  private static long runAdditions(
+      BinaryVector[] elementalVectors, int[][] permutations, int numAdditions, int dimension) {
+    Random random = new Random(1);
+    BinaryVector[] semanticVectors = new BinaryVector[NUM_SEMANTIC_VECTORS];
+    for (int i = 0; i < NUM_SEMANTIC_VECTORS; ++i) {
+      semanticVectors[i] = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dimension);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < numAdditions; ++i) {
+      int[] permutation = permutations == null ? null : permutations[i % permutations.length];
+      semanticVectors[random.nextInt(NUM_SEMANTIC_VECTORS)].superpose(
+          elementalVectors[random.nextInt(elementalVectors.length)], 1, permutation);
+    }
+    long nanos = System.nanoTime() - start;
+
+    // Bit-sliced records take one bit per dimension per row, and batches take another bit per
+    // dimension per batch row while training.
+    long totalBytes = 0;
+    for (BinaryVector semanticVector : semanticVectors) {
+      totalBytes += semanticVector.getVotingRecordBytes();
+    }
+    votingRecordBytes = totalBytes / NUM_SEMANTIC_VECTORS;
+
+    long checksum = 0;
+    for (BinaryVector semanticVector : semanticVectors) {
+      semanticVector.tallyVotes();
+      checksum = 31 * checksum + semanticVector.writeLongToString().hashCode();
+    }
+    System.out.println("Checksum " + checksum);
+    return nanos;
+  }
+}
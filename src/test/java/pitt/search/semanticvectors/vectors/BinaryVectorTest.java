@@ -35,6 +35,7 @@
 package pitt.search.semanticvectors.vectors;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 import junit.framework.TestCase;
@@ -43,8 +44,11 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.FixedBitSet;
 import org.junit.Test;
 
+import pitt.search.semanticvectors.vectors.BinaryVector.VotingRecordMethod;
+
 public class BinaryVectorTest extends TestCase {
 
   @Test
@@ -191,6 +195,124 @@ public class BinaryVectorTest extends TestCase {
   }
 
 
+  @Test
+  public void testPermutedSuperposeMatchesSuperposingPermutedCopy() {
+    Random random = new Random(0);
+    int dimension = 512;
+    int[] permutation = PermutationUtils.getShiftPermutation(VectorType.BINARY, dimension, 3);
+    BinaryVector permutedInPlace = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dimension);
+    BinaryVector permutedCopies = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dimension);
+    for (int i = 0; i < 50; ++i) {
+      BinaryVector elementalVector = (BinaryVector) VectorFactory.generateRandomVector(
+          VectorType.BINARY, dimension, dimension / 2, random);
+      String elementalString = elementalVector.writeLongToString();
+      // Mix weights that are added in one sweep with weights decomposed into powers of 2.
+      double weight = 1 + random.nextInt(20);
+      permutedInPlace.superpose(elementalVector, weight, permutation);
+      assertEquals(elementalString, elementalVector.writeLongToString());
+
+      BinaryVector permutedCopy = elementalVector.copy();
+      permutedCopy.permute(permutation);
+      permutedCopies.superpose(permutedCopy, weight, null);
+    }
+    assertEquals(permutedCopies.numRows(), permutedInPlace.numRows());
+    permutedInPlace.tallyVotes();
+    permutedCopies.tallyVotes();
+    assertEquals(permutedCopies.writeLongToString(), permutedInPlace.writeLongToString());
+  }
+
+  /**
+   * Superposes the same random vectors with mixed weights and permutations into a vector using
+   * the given voting record method, and returns the vector.
+   */
+  private static BinaryVector superposeRandomVectors(
+      VotingRecordMethod votingRecordMethod, double firstWeight) {
+    VotingRecordMethod previousMethod = BinaryVector.VOTING_RECORD_METHOD;
+    BinaryVector.setVotingRecordMethod(votingRecordMethod);
+    try {
+      Random random = new Random(0);
+      int dimension = 256;
+      int[] permutation = PermutationUtils.getShiftPermutation(VectorType.BINARY, dimension, 1);
+      BinaryVector vector = (BinaryVector) VectorFactory.generateRandomVector(
+          VectorType.BINARY, dimension, dimension / 2, random);
+      for (int i = 0; i < 40; ++i) {
+        BinaryVector elementalVector = (BinaryVector) VectorFactory.generateRandomVector(
+            VectorType.BINARY, dimension, dimension / 2, random);
+        double weight = i == 0 ? firstWeight : 1 + random.nextInt(10);
+        vector.superpose(elementalVector, weight, i % 2 == 0 ? permutation : null);
+      }
+      return vector;
+    } finally {
+      BinaryVector.setVotingRecordMethod(previousMethod);
+    }
+  }
+
+  @Test
+  public void testBatchedVotingRecordMatchesBitSlicedVotingRecord() {
+    // Integer weights, and fractional weights which are counted to two decimal places.
+    for (double firstWeight : new double[] {1, 0.5}) {
+      BinaryVector bitSliced = superposeRandomVectors(VotingRecordMethod.BITSLICED, firstWeight);
+      BinaryVector batched = superposeRandomVectors(VotingRecordMethod.BATCHED, firstWeight);
+      assertFalse(batched.isZeroVector());
+      bitSliced.tallyVotes();
+      batched.tallyVotes();
+      assertEquals(bitSliced.writeLongToString(), batched.writeLongToString());
+
+      // Adding more votes after the batch has been added to the voting record.
+      BinaryVector extraVector = (BinaryVector) VectorFactory.generateRandomVector(
+          VectorType.BINARY, 256, 128, new Random(1));
+      bitSliced.superpose(extraVector, 3, null);
+      BinaryVector.setVotingRecordMethod(VotingRecordMethod.BATCHED);
+      try {
+        batched.superpose(extraVector, 3, null);
+      } finally {
+        BinaryVector.setVotingRecordMethod(VotingRecordMethod.BITSLICED);
+      }
+      bitSliced.normalizeBSC();
+      batched.normalizeBSC();
+      assertEquals(bitSliced.writeLongToString(), batched.writeLongToString());
+    }
+  }
+
+  @Test
+  public void testHammingDistance() {
+    Random random = new Random(0);
+    long[] first = new long[37];
+    long[] second = new long[40];
+    for (int i = 0; i < first.length; ++i) first[i] = random.nextLong();
+    for (int i = 0; i < second.length; ++i) second[i] = random.nextLong();
+
+    long expected = 0;
+    for (int i = 0; i < first.length; ++i) {
+      expected += Long.bitCount(first[i] ^ second[i + 3]);
+    }
+    assertEquals(expected, BinaryVectorUtils.hammingDistance(first, 0, second, 3, first.length));
+    assertEquals(expected,
+        BinaryVectorUtils.hammingDistance(first, 0, second, 3, first.length, expected));
+    long partial = BinaryVectorUtils.hammingDistance(first, 0, second, 3, first.length, 100);
+    assertTrue(partial > 100);
+    assertTrue(partial < expected);
+
+    FixedBitSet firstBits = new FixedBitSet(first, first.length * 64);
+    FixedBitSet secondBits = new FixedBitSet(Arrays.copyOf(second, first.length), first.length * 64);
+    assertEquals(FixedBitSet.andNotCount(firstBits, secondBits)
+        + FixedBitSet.andNotCount(secondBits, firstBits),
+        BinaryVectorUtils.xorCount(firstBits, secondBits));
+  }
+
+  @Test
+  public void testMeasureOverlapWithMinimum() {
+    Random random = new Random(0);
+    Vector first = VectorFactory.generateRandomVector(VectorType.BINARY, 4096, 2048, random);
+    Vector second = VectorFactory.generateRandomVector(VectorType.BINARY, 4096, 2048, random);
+    double overlap = first.measureOverlap(second);
+    BinaryVector binaryFirst = (BinaryVector) first;
+    assertEquals(overlap, binaryFirst.measureOverlap(second, overlap), 0);
+    assertEquals(overlap, binaryFirst.measureOverlap(second, Double.NEGATIVE_INFINITY), 0);
+    assertTrue(binaryFirst.measureOverlap(second, overlap + 0.01) < overlap + 0.01);
+    assertEquals(1, binaryFirst.measureOverlap(first, 0.99), 0);
+  }
+
   @Test
   public void testGenerateRandomVectorWriteAndRead() {
     Random random = new Random(0);
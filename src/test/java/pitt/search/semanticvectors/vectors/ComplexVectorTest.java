@@ -112,6 +112,19 @@ public class ComplexVectorTest extends TestCase {
         new float[] {0, 0, 5, 0, 0, 0, 0, 5}, cv2.getCoordinates(), TOL);
   }
 
+  @Test
+  public void testSuperposePermutedSparseLeavesSparse() {
+    int dim = 4;
+    ComplexVector cv1 = (ComplexVector) VectorFactory.createZeroVector(VectorType.COMPLEX, dim);
+    cv1.setSparseOffsets(new short[] {1, 0, 3, CircleLookupTable.PHASE_RESOLUTION / 4});
+    ComplexVector cv2 = (ComplexVector) VectorFactory.createZeroVector(VectorType.COMPLEX, dim);
+    cv2.superpose(cv1, 5, new int[] {2, 0, 3, 1});
+    cv2.superpose(cv1, 1, null);
+    assertEquals(Mode.POLAR_SPARSE, cv1.getOpMode());
+    assertFloatArrayEquals(
+        new float[] {5, 0, 1, 5, 0, 0, 0, 1}, cv2.getCoordinates(), TOL);
+  }
+
   @Test
   public void testSuperposeZeroOnSparse() {
     int dim = 4;
@@ -174,6 +187,41 @@ public class ComplexVectorTest extends TestCase {
     assertEquals(1, cv2.measurePolarDenseOverlap(cv2), TOL);  // Zero entry doesn't contribute.
     assertEquals(1, cv3.measurePolarDenseOverlap(cv3), TOL);
   }
+
+  @Test
+  public void testPolarOverlapScorerMatchesMeasureOverlap() {
+    ComplexVector.setDominantMode(Mode.POLAR_DENSE);
+    // Not a multiple of 64, so the last word of each bitmap is partly used.
+    int dimension = 200;
+    Random random = new Random(0);
+    ComplexVector[] vectors = new ComplexVector[6];
+    vectors[0] = new ComplexVector(dimension, Mode.POLAR_SPARSE).generateRandomVector(dimension, 10, random);
+    vectors[1] = new ComplexVector(dimension, Mode.POLAR_SPARSE).generateRandomVector(dimension, 150, random);
+    vectors[2] = new ComplexVector(dimension, Mode.POLAR_DENSE).generateRandomVector(dimension, random);
+    vectors[3] = vectors[2].copy();
+    vectors[3].superpose(vectors[1], 1, null);
+    vectors[3].normalize();
+    vectors[4] = new ComplexVector(dimension, Mode.POLAR_DENSE);
+    vectors[5] = new ComplexVector(dimension, Mode.CARTESIAN);
+
+    int maskWords = PolarOverlapScorer.getNumMaskWords(dimension);
+    short[] phases = new short[vectors.length * dimension];
+    long[] masks = new long[vectors.length * maskWords];
+    for (int i = 0; i < vectors.length; ++i) {
+      PolarOverlapScorer.pack(vectors[i], phases, i * dimension, masks, i * maskWords);
+    }
+    assertEquals(Mode.POLAR_SPARSE, vectors[0].getOpMode());
+
+    for (ComplexVector queryVector : vectors) {
+      PolarOverlapScorer scorer = new PolarOverlapScorer(queryVector);
+      for (int i = 0; i < vectors.length; ++i) {
+        double expected = queryVector.copy().measureOverlap(vectors[i].copy());
+        assertEquals(expected, scorer.measureOverlap(phases, i * dimension, masks, i * maskWords), 0);
+        ComplexVector unpacked = PolarOverlapScorer.unpack(dimension, phases, i * dimension, masks, i * maskWords);
+        assertEquals(expected, queryVector.copy().measureOverlap(unpacked), 0);
+      }
+    }
+  }
   
   @Test
   public void testConvolve() {
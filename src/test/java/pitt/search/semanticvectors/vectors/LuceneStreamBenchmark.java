@@ -0,0 +1,114 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * Compares the time taken to load real vectors from a Lucene stream one coordinate at a time
+ * with the bulk reads in {@link LuceneStreamUtils}. Not run as part of the test suite.
+ *
+ * <p>
+ * Usage: LuceneStreamBenchmark [numVectors [dimension [iterations]]]
+ */
+public class LuceneStreamBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Path tempDir = Files.createTempDirectory("lucenestreambenchmark");
+    FSDirectory directory = FSDirectory.open(tempDir);
+    IndexOutput outputStream = directory.createOutput("vectors.bin", IOContext.DEFAULT);
+    Random random = new Random(0);
+    float[] coordinates = new float[dimension];
+    for (int i = 0; i < numVectors; ++i) {
+      for (int j = 0; j < dimension; ++j) {
+        coordinates[j] = random.nextFloat();
+      }
+      LuceneStreamUtils.writeFloats(outputStream, coordinates, dimension);
+    }
+    outputStream.close();
+
+    // First iteration of each warms up the JIT and the file cache.
+    for (int iteration = 0; iteration <= iterations; ++iteration) {
+      long perCoordinateNanos = time(directory, numVectors, dimension, false);
+      long bulkNanos = time(directory, numVectors, dimension, true);
+      if (iteration > 0) {
+        System.out.println(String.format(
+            "%d x %d vectors: per-coordinate %.1f MB/s, bulk %.1f MB/s",
+            numVectors, dimension,
+            mbPerSecond(numVectors, dimension, perCoordinateNanos),
+            mbPerSecond(numVectors, dimension, bulkNanos)));
+      }
+    }
+
+    directory.deleteFile("vectors.bin");
+    directory.close();
+    new File(tempDir.toString()).delete();
+  }
+
+  private static long time(FSDirectory directory, int numVectors, int dimension, boolean bulk)
+      throws IOException {
+    IndexInput inputStream = directory.openInput("vectors.bin", IOContext.READ);
+    float[] coordinates = new float[dimension];
+    long start = System.nanoTime();
+    for (int i = 0; i < numVectors; ++i) {
+      if (bulk) {
+        LuceneStreamUtils.readFloats(inputStream, coordinates, dimension);
+      } else {
+        for (int j = 0; j < dimension; ++j) {
+          coordinates[j] = Float.intBitsToFloat(inputStream.readInt());
+        }
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    inputStream.close();
+    return elapsed;
+  }
+
+  private static double mbPerSecond(int numVectors, int dimension, long nanos) {
+    return (4.0 * numVectors * dimension / (1 << 20)) / (nanos / 1e9);
+  }
+}
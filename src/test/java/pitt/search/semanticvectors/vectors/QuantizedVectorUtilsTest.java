@@ -0,0 +1,112 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+import org.junit.*;
+
+import junit.framework.TestCase;
+
+public class QuantizedVectorUtilsTest extends TestCase {
+
+  @Test
+  public void testHalfPrecisionConversion() {
+    float[] exactValues = {0, 1, -2, 0.5f, 65504, -65504, 0x1p-14f, 0x1p-24f, 1.5f, 1 + 0x1p-10f};
+    for (float value : exactValues) {
+      assertEquals(value, QuantizedVectorUtils.halfBitsToFloat(QuantizedVectorUtils.floatToHalfBits(value)), 0);
+    }
+    assertEquals(Float.POSITIVE_INFINITY,
+        QuantizedVectorUtils.halfBitsToFloat(QuantizedVectorUtils.floatToHalfBits(1e6f)), 0);
+    assertEquals(0, QuantizedVectorUtils.halfBitsToFloat(QuantizedVectorUtils.floatToHalfBits(1e-10f)), 0);
+    assertTrue(Float.isNaN(QuantizedVectorUtils.halfBitsToFloat(QuantizedVectorUtils.floatToHalfBits(Float.NaN))));
+
+    // Every half-precision value converts back to itself.
+    for (int bits = 0; bits < 1 << 16; ++bits) {
+      float value = QuantizedVectorUtils.halfBitsToFloat(bits);
+      if (!Float.isNaN(value)) {
+        assertEquals(bits, QuantizedVectorUtils.floatToHalfBits(value));
+      }
+    }
+
+    // Other values round to within half a unit in the last place.
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; ++i) {
+      float value = (float) random.nextGaussian() * 100;
+      float rounded = QuantizedVectorUtils.halfBitsToFloat(QuantizedVectorUtils.floatToHalfBits(value));
+      assertEquals(value, rounded, Math.abs(value) * 0x1p-11f + 0x1p-25f);
+    }
+  }
+
+  @Test
+  public void testEncodeAndDecodeCoordinates() {
+    float[] coordinates = {0.5f, -1, 0.25f, 0, 0.001f};
+    float[] int8Coordinates = QuantizedVectorUtils.decodeCoordinates(
+        QuantizedVectorUtils.encode(coordinates, VectorQuantization.INT8), VectorQuantization.INT8);
+    float[] float16Coordinates = QuantizedVectorUtils.decodeCoordinates(
+        QuantizedVectorUtils.encode(coordinates, VectorQuantization.FLOAT16), VectorQuantization.FLOAT16);
+    assertEquals(coordinates.length, int8Coordinates.length);
+    for (int i = 0; i < coordinates.length; ++i) {
+      assertEquals(coordinates[i], int8Coordinates[i], 0.5 / 127);
+      assertEquals(coordinates[i], float16Coordinates[i], 1e-3 * Math.abs(coordinates[i]));
+    }
+    assertEquals(-1, int8Coordinates[1], 0);
+
+    float[] zeroCoordinates = QuantizedVectorUtils.decodeCoordinates(
+        QuantizedVectorUtils.encode(new float[3], VectorQuantization.INT8), VectorQuantization.INT8);
+    assertEquals(0, zeroCoordinates[0], 0);
+    assertEquals(3 + 4, QuantizedVectorUtils.getLuceneByteSize(VectorType.REAL, 3, VectorQuantization.INT8));
+    assertEquals(12, QuantizedVectorUtils.getLuceneByteSize(VectorType.COMPLEX, 3, VectorQuantization.FLOAT16));
+  }
+
+  @Test
+  public void testMeasureOverlapMatchesDecodedVector() {
+    Random random = new Random(0);
+    for (VectorQuantization quantization : new VectorQuantization[] {
+        VectorQuantization.INT8, VectorQuantization.FLOAT16}) {
+      for (int i = 0; i < 10; ++i) {
+        RealVector queryVector = (RealVector) VectorFactory.generateRandomVector(VectorType.REAL, 100, 10, random);
+        RealVector vector = (RealVector) VectorFactory.generateRandomVector(VectorType.REAL, 100, 10, random);
+        vector.superpose(queryVector, 0.5, null);
+        byte[] record = QuantizedVectorUtils.encode(vector.getCoordinates(), quantization);
+        Vector decodedVector = QuantizedVectorUtils.decode(record, VectorType.REAL, 100, quantization);
+        assertEquals(queryVector.measureOverlap(decodedVector),
+            QuantizedVectorUtils.measureOverlap(queryVector, record, quantization), 1e-6);
+        assertEquals(queryVector.measureOverlap(decodedVector), QuantizedVectorUtils.measureOverlap(
+            queryVector.getCoordinates(), queryVector.getNormSquared(), record, quantization), 1e-6);
+        assertEquals(queryVector.measureOverlap(vector), queryVector.measureOverlap(decodedVector), 0.01);
+      }
+    }
+  }
+}
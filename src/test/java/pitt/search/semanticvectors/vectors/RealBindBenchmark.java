@@ -0,0 +1,98 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+/**
+ * Measures the time taken by {@link RealVector#bindWithConvolution} and
+ * {@link RealVector#bindWithPermutation} and their releases, binding copies of sparse elemental
+ * vectors with a few predicate vectors as in PSI. Not run as part of the test suite.
+ *
+ * <p>
+ * Usage: RealBindBenchmark [numVectors [dimension [iterations]]]
+ */
+public class RealBindBenchmark {
+
+  private static final int NUM_PREDICATES = 20;
+  private static final int SEED_LENGTH = 10;
+
+  public static void main(String[] args) {
+    int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Random random = new Random(0);
+    RealVector[] vectors = new RealVector[numVectors];
+    for (int i = 0; i < numVectors; ++i) {
+      vectors[i] = (RealVector) VectorFactory.generateRandomVector(
+          VectorType.REAL, dimension, SEED_LENGTH, random);
+    }
+    RealVector[] predicates = new RealVector[NUM_PREDICATES];
+    for (int i = 0; i < NUM_PREDICATES; ++i) {
+      predicates[i] = (RealVector) VectorFactory.generateRandomVector(
+          VectorType.REAL, dimension, SEED_LENGTH, random);
+    }
+
+    // First iteration warms up the JIT.
+    for (int iteration = 0; iteration <= iterations; ++iteration) {
+      double total = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < numVectors; ++i) {
+        RealVector bound = vectors[i].copy();
+        bound.bindWithConvolution(predicates[i % NUM_PREDICATES]);
+        bound.releaseWithConvolution(predicates[i % NUM_PREDICATES]);
+        total += bound.getCoordinates()[i % dimension];
+      }
+      long convolutionNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < numVectors; ++i) {
+        RealVector bound = vectors[i].copy();
+        bound.bindWithPermutation(predicates[i % NUM_PREDICATES]);
+        bound.releaseWithPermutation(predicates[i % NUM_PREDICATES]);
+        total += bound.getCoordinates()[i % dimension];
+      }
+      long permutationNanos = System.nanoTime() - start;
+
+      if (iteration > 0) {
+        System.out.println(String.format(
+            "%d x %d vectors: bind and release with convolution %.1f ns/vector, "
+            + "with permutation %.1f ns/vector (checksum %.3f)",
+            numVectors, dimension, (double) convolutionNanos / numVectors,
+            (double) permutationNanos / numVectors, total));
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+/**
+ * Measures the time taken by {@link RealVector#measureOverlap} when comparing a query vector with
+ * every vector in a store, as in brute-force search, and by {@link RealVector#normalize}.
+ * Not run as part of the test suite.
+ *
+ * <p>
+ * Usage: RealOverlapBenchmark [numVectors [dimension [iterations]]]
+ */
+public class RealOverlapBenchmark {
+
+  public static void main(String[] args) {
+    int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Random random = new Random(0);
+    RealVector[] vectors = new RealVector[numVectors];
+    for (int i = 0; i < numVectors; ++i) {
+      vectors[i] = randomDenseVector(dimension, random);
+    }
+    RealVector queryVector = randomDenseVector(dimension, random);
+
+    // First iteration warms up the JIT.
+    for (int iteration = 0; iteration <= iterations; ++iteration) {
+      RealVector[] copies = new RealVector[numVectors];
+      for (int i = 0; i < numVectors; ++i) {
+        copies[i] = vectors[i].copy();
+      }
+      long start = System.nanoTime();
+      for (RealVector copy : copies) {
+        copy.normalize();
+      }
+      long normalizeNanos = System.nanoTime() - start;
+
+      double total = 0;
+      start = System.nanoTime();
+      for (RealVector vector : vectors) {
+        total += queryVector.measureOverlap(vector);
+      }
+      long searchNanos = System.nanoTime() - start;
+
+      if (iteration > 0) {
+        System.out.println(String.format(
+            "%d x %d vectors: measureOverlap %.1f ns/vector, normalize %.1f ns/vector (checksum %.3f)",
+            numVectors, dimension, (double) searchNanos / numVectors,
+            (double) normalizeNanos / numVectors, total));
+      }
+    }
+  }
+
+  private static RealVector randomDenseVector(int dimension, Random random) {
+    float[] coordinates = new float[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      coordinates[i] = random.nextFloat() - 0.5f;
+    }
+    return new RealVector(coordinates);
+  }
+}
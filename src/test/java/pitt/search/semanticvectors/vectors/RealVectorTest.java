@@ -38,9 +38,14 @@ package pitt.search.semanticvectors.vectors;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
 
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
 import org.junit.Test;
 import pitt.search.semanticvectors.utils.StatUtils;
 
@@ -107,6 +112,35 @@ public class RealVectorTest {
     assertTrue(sparse2.toString().contains("Dense"));
   }
 
+  @Test
+  public void testOverlapAfterChangingNormalizedVector() {
+    RealVector vector1 = new RealVector(new float[] {3, 4, 0});
+    RealVector vector2 = new RealVector(new float[] {0, 4, 3});
+    assertEquals(25, vector1.getNormSquared(), TOL);
+    assertEquals(16.0 / 25, vector1.measureOverlap(vector2), TOL);
+    vector1.normalize();
+    assertEquals(1, vector1.getNormSquared(), TOL);
+    assertEquals(16.0 / 25, vector1.measureOverlap(vector2), TOL);
+    // The cached norms must be updated when either vector changes.
+    vector2.superpose(new RealVector(new float[] {0, -4, 0}), 1, null);
+    assertEquals(9, vector2.getNormSquared(), TOL);
+    assertEquals(0, vector1.measureOverlap(vector2), TOL);
+    vector1.superpose(vector2, 1, null);
+    assertEquals(3 / Math.sqrt(1 + 9), vector1.measureOverlap(vector2), TOL);
+  }
+
+  @Test
+  public void testPermutedSparseAddition() {
+    Vector vector1 = VectorFactory.createZeroVector(VectorType.REAL, 3);
+    // Sparse representation of vector whose dense coordinates would be 1 0 -1.
+    RealVector sparse = new RealVector(3, new short[] {1, -3});
+    vector1.superpose(sparse, 2, new int[] {1, 2, 0});
+    assertTrue(vector1.toString().contains("-2.0 2.0 0.0"));
+    vector1.superpose(sparse, 1, null);
+    assertTrue(vector1.toString().contains("-1.0 2.0 -1.0"));
+    assertTrue(sparse.toString().contains("Sparse"));
+  }
+
   @Test
   public void testDenseAddition() {
     RealVector dense1 = new RealVector(new float[] {1, 0, -1});
@@ -141,6 +175,35 @@ public class RealVectorTest {
     assertTrue(vector1.toString().contains("2.0 0.0 0.0 0.0"));
   }
   
+  @Test
+  public void testBindWithPermutationMatchesShiftPermutations() {
+    Random random = new Random(0);
+    RealVector dense = (RealVector) VectorFactory.generateRandomVector(VectorType.REAL, 50, 10, random);
+    dense.superpose(VectorFactory.generateRandomVector(VectorType.REAL, 50, 10, random), 0.5, null);
+    RealVector sparse = (RealVector) VectorFactory.generateRandomVector(VectorType.REAL, 50, 10, random);
+    int[] forward = PermutationUtils.getShiftPermutation(VectorType.REAL, 50, 1);
+    int[] back = PermutationUtils.getShiftPermutation(VectorType.REAL, 50, -1);
+    for (RealVector other : new RealVector[] {dense, sparse}) {
+      RealVector vector = (RealVector) VectorFactory.generateRandomVector(VectorType.REAL, 50, 10, random);
+      vector.superpose(dense, 0.25, back);
+      RealVector expected = new RealVector(new float[50]);
+      expected.superpose(other, 1, forward);
+      expected.superpose(vector, 1, back);
+      RealVector original = vector.copy();
+      vector.bindWithPermutation(other);
+      assertTrue(Arrays.equals(expected.getCoordinates(), vector.getCoordinates()));
+
+      RealVector released = vector.copy();
+      released.superpose(other, -1, forward);
+      expected = new RealVector(new float[50]);
+      expected.superpose(released, 1, forward);
+      vector.releaseWithPermutation(other);
+      assertTrue(Arrays.equals(expected.getCoordinates(), vector.getCoordinates()));
+      assertEquals(1, original.measureOverlap(vector), TOL);
+    }
+    assertTrue(sparse.toString().contains("Sparse"));
+  }
+
   @Test
   public void testBindAndRelease() {
     Random random = new Random();
@@ -251,4 +314,34 @@ public class RealVectorTest {
           dimension, StatUtils.getMean(scores), StatUtils.getVariance(scores)));
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testWriteAndReadLuceneStream() throws IOException {
+    // Dimension is large enough for coordinates to be copied in more than one chunk.
+    int dimension = 20000;
+    float[] coordinates = new float[dimension];
+    Random random = new Random(0);
+    for (int i = 0; i < dimension; ++i) {
+      coordinates[i] = random.nextFloat() - 0.5f;
+    }
+    RealVector vector = new RealVector(coordinates);
+
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("realvectors.bin", IOContext.DEFAULT);
+    vector.writeToLuceneStream(indexOutput);
+    indexOutput.close();
+    assertEquals(4 * dimension, directory.fileLength("realvectors.bin"));
+
+    // Bytes should be the same as those written one coordinate at a time.
+    IndexInput indexInput = directory.openInput("realvectors.bin", IOContext.DEFAULT);
+    for (int i = 0; i < dimension; ++i) {
+      assertEquals(coordinates[i], Float.intBitsToFloat(indexInput.readInt()), 0);
+    }
+    indexInput.seek(0);
+    Vector vector2 = VectorFactory.createZeroVector(VectorType.REAL, dimension);
+    vector2.readFromLuceneStream(indexInput);
+    assertArrayEquals(coordinates, ((RealVector) vector2).getCoordinates(), 0);
+    indexInput.close();
+    directory.close();
+  }
+}
@@ -2,6 +2,7 @@ package pitt.search.semanticvectors.vectors;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.Test;
@@ -41,6 +42,78 @@ public class RealVectorUtilsTest {
     assertEquals(1, conv12.measureOverlap(conv21), TOL);
   }
   
+  /** Returns the circular convolution of the two arrays, computed directly from its definition. */
+  private static float[] directConvolution(float[] first, float[] second) {
+    int dimension = first.length;
+    float[] result = new float[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      double sum = 0;
+      for (int j = 0; j < dimension; ++j) {
+        sum += first[j] * second[(i - j + dimension) % dimension];
+      }
+      result[i] = (float) sum;
+    }
+    return result;
+  }
+
+  private static void assertCoordinatesEqual(float[] expected, float[] actual, double tolerance) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i], actual[i], tolerance);
+    }
+  }
+
+  @Test
+  public void testFftConvolutionMatchesDirectConvolution() {
+    Random random = new Random(0);
+    // Even and odd dimensions, which are packed differently by the real FFT.
+    for (int dimension : new int[] {1, 2, 3, 8, 9, 200, 201}) {
+      float[] first = new float[dimension];
+      float[] second = new float[dimension];
+      for (int i = 0; i < dimension; ++i) {
+        first[i] = (float) random.nextGaussian();
+        second[i] = (float) random.nextGaussian();
+      }
+      RealVector vector1 = new RealVector(first.clone());
+      RealVector vector2 = new RealVector(second.clone());
+      // FFT rounding errors grow with the norms of the inputs.
+      double tolerance = TOL * Math.sqrt(vector1.getNormSquared() * vector2.getNormSquared());
+      assertCoordinatesEqual(directConvolution(first, second),
+          RealVectorUtils.fftConvolution(vector1, vector2).getCoordinates(), tolerance);
+      float[] involution = RealVectorUtils.getInvolution(new RealVector(first.clone())).getCoordinates();
+      assertCoordinatesEqual(directConvolution(involution, second),
+          RealVectorUtils.fftApproxInvConvolution(vector1, vector2).getCoordinates(), tolerance);
+      // Inputs are unchanged.
+      assertTrue(Arrays.equals(first, vector1.getCoordinates()));
+      assertTrue(Arrays.equals(second, vector2.getCoordinates()));
+
+      // Changing a vector must not leave its cached spectrum in use.
+      vector2.superpose(vector1, 1, null);
+      for (int i = 0; i < dimension; ++i) {
+        second[i] += first[i];
+      }
+      assertCoordinatesEqual(directConvolution(first, second),
+          RealVectorUtils.fftConvolution(vector1, vector2).getCoordinates(), 2 * tolerance);
+    }
+  }
+
+  @Test
+  public void testDotProductAndScaleAndAdd() {
+    // Seven coordinates, so that the last three are handled after the unrolled loop.
+    float[] first = new float[] {0, 9, 1, 2, 3, 4, 5, 6, 7};
+    float[] second = new float[] {1, 1, 1, 1, 1, 1, 2};
+    assertEquals(1 + 2 + 3 + 4 + 5 + 6 + 14, RealVectorUtils.dotProduct(first, 2, second, 0, 7), TOL);
+    assertEquals(1 + 4 + 9 + 16 + 25 + 36 + 49, RealVectorUtils.sumOfSquares(first, 2, 7), TOL);
+    assertEquals(0, RealVectorUtils.dotProduct(first, 0, second, 0, 0), TOL);
+
+    float[] target = new float[] {1, 1, 1, 1, 1, 1, 1};
+    RealVectorUtils.scaleAndAdd(target, second, -0.5, 7);
+    float[] expected = new float[] {0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0};
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i], target[i], TOL);
+    }
+  }
+
   @Test
   public void testInvolution() {
     RealVector vector = new RealVector(new float[] {0, 1, 2, 3});
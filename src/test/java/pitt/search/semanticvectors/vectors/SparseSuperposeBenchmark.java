@@ -0,0 +1,112 @@
+/**
+   Copyright 2015, the SemanticVectors AUTHORS.
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following disclaimer
+   in the documentation and/or other materials provided with the
+   distribution.
+
+ * Neither the name of Google Inc. nor the names of its
+   contributors may be used to endorse or promote products derived from
+   this software without specific prior written permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+   OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+   SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+   LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+   DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+   THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+   THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of superposing elemental vectors onto a semantic vector for one sliding
+ * window, as in positional training with BASIC (no permutation) and PERMUTATION (a shift
+ * permutation for each position in the window) methods, for a range of dimensions.
+ * Not run as part of the test suite.
+ *
+ * <p>
+ * Real and complex elemental vectors are sparse, so the cost per window should not grow with the
+ * dimension. Binary elemental vectors are dense, with half their bits set, so their cost is
+ * expected to grow with the dimension.
+ *
+ * <p>
+ * Usage: SparseSuperposeBenchmark [seedLength [windowRadius [windows]]]
+ */
+public class SparseSuperposeBenchmark {
+
+  private static final int[] DIMENSIONS = new int[] {512, 2048, 8192, 32768};
+  private static final int NUM_ELEMENTAL_VECTORS = 1000;
+
+  public static void main(String[] args) {
+    int seedLength = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int windowRadius = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    int windows = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+    for (VectorType vectorType : new VectorType[] {VectorType.REAL, VectorType.COMPLEX, VectorType.BINARY}) {
+      for (int dimension : DIMENSIONS) {
+        Random random = new Random(0);
+        int typeSeedLength = vectorType == VectorType.BINARY ? dimension / 2 : seedLength;
+        Vector[] elementalVectors = new Vector[NUM_ELEMENTAL_VECTORS];
+        for (int i = 0; i < elementalVectors.length; ++i) {
+          elementalVectors[i] = VectorFactory.generateRandomVector(
+              vectorType, dimension, typeSeedLength, random);
+        }
+        int[][] permutationCache = new int[2 * windowRadius + 1][];
+        for (int i = 0; i < permutationCache.length; ++i) {
+          permutationCache[i] = PermutationUtils.getShiftPermutation(vectorType, dimension, i - windowRadius);
+        }
+        int typeWindows = vectorType == VectorType.BINARY ? windows / 20 : windows;
+
+        // First run of each warms up the JIT.
+        time(vectorType, dimension, elementalVectors, null, windowRadius, typeWindows);
+        long basicNanos = time(vectorType, dimension, elementalVectors, null, windowRadius, typeWindows);
+        time(vectorType, dimension, elementalVectors, permutationCache, windowRadius, typeWindows);
+        long permutationNanos = time(
+            vectorType, dimension, elementalVectors, permutationCache, windowRadius, typeWindows);
+        System.out.println(String.format(
+            "%s dimension %d: BASIC %.1f ns/window, PERMUTATION %.1f ns/window",
+            vectorType, dimension,
+            (double) basicNanos / typeWindows, (double) permutationNanos / typeWindows));
+      }
+    }
+  }
+
+  /**
+   * Returns the time taken to superpose the elemental vectors for the given number of windows
+   * onto a single semantic vector, cycling through the elemental vectors.
+   *
+   * @param permutationCache shift permutations indexed by position in the window, or null for BASIC
+   */
+  private static long time(VectorType vectorType, int dimension, Vector[] elementalVectors,
+      int[][] permutationCache, int windowRadius, int windows) {
+    Vector semanticVector = VectorFactory.createZeroVector(vectorType, dimension);
+    int next = 0;
+    long start = System.nanoTime();
+    for (int window = 0; window < windows; ++window) {
+      for (int offset = -windowRadius; offset <= windowRadius; ++offset) {
+        if (offset == 0) continue;
+        int[] permutation = permutationCache == null ? null : permutationCache[offset + windowRadius];
+        semanticVector.superpose(elementalVectors[next], 1, permutation);
+        next = (next + 1) % elementalVectors.length;
+      }
+    }
+    return System.nanoTime() - start;
+  }
+}